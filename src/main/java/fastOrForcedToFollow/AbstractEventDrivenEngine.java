@@ -0,0 +1,377 @@
+package fastOrForcedToFollow;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The trip bookkeeping shared by the {@link EventDrivenEngine} and the {@link DistributedEngine}: the chains of trips with
+ * their routes and departure times, the recorded departure, arrival and link times, the scheduled departures, and the lists of
+ * offering and waiting links, together with the choice of the next step in which something happens.
+ *
+ * @author mpaulsen
+ */
+/* package */ abstract class AbstractEventDrivenEngine {
+
+	/* package */ static final int INITIAL_CAPACITY = 1024;
+
+	/* package */ static final int NONE = -1;
+
+	protected final double timeStepSize;
+
+	/**
+	 * The links having cyclists at their end, in the order in which these arrived. (A link can appear at most once.)
+	 */
+	protected final LinkList offeringLinks;
+
+	/**
+	 * The links having waiting cyclists, in the order in which these started to wait.
+	 */
+	protected final LinkList waitingLinks;
+
+	// Trips:
+
+	protected int numberOfTrips = 0;
+	protected int[][] routes = new int[INITIAL_CAPACITY][];
+	protected double[] plannedDepartureTimes = new double[INITIAL_CAPACITY];
+	protected int[] previousTrips = new int[INITIAL_CAPACITY];
+	protected double[] activityDurations = new double[INITIAL_CAPACITY];
+	protected int[] tieRanks = new int[INITIAL_CAPACITY];
+	protected int[] nextTrips = new int[INITIAL_CAPACITY];
+
+	protected double[] departureTimes = new double[INITIAL_CAPACITY];
+	protected double[] arrivalTimes = new double[INITIAL_CAPACITY];
+	protected double[][] linkEnterTimes = new double[INITIAL_CAPACITY][];
+	protected double[][] linkLeaveTimes = new double[INITIAL_CAPACITY][];
+
+	/**
+	 * The trips not yet departed, by departure time.
+	 */
+	protected final TripHeap departures = new TripHeap();
+
+	AbstractEventDrivenEngine( final int numberOfLinks, final double timeStepSize ){
+		this.timeStepSize = timeStepSize;
+		this.offeringLinks = new LinkList( numberOfLinks );
+		this.waitingLinks = new LinkList( numberOfLinks );
+	}
+
+	/**
+	 * Adds a trip to the chains of trips, see <code>addTrip</code> of the engines, leaving the engine-specific trip state to
+	 * the caller.
+	 *
+	 * @return The index of the trip.
+	 */
+	final int addTripToChains( final int[] route, final double plannedDepartureTime, final int previousTrip,
+			final double activityDuration ){
+		if( route.length == 0 ){
+			throw new IllegalArgumentException( "A route has to contain at least the link of departure." );
+		}
+		if( previousTrip == NONE && Double.isNaN( plannedDepartureTime ) ){
+			throw new IllegalArgumentException( "A trip not depending on a previous trip needs a planned departure time." );
+		}
+		if( previousTrip != NONE && nextTrips[previousTrip] != NONE ){
+			throw new IllegalArgumentException( "Trip " + previousTrip + " already has a next trip." );
+		}
+		ensureTripCapacity( numberOfTrips + 1 );
+		final int trip = numberOfTrips++;
+		routes[trip] = route;
+		plannedDepartureTimes[trip] = plannedDepartureTime;
+		previousTrips[trip] = previousTrip;
+		activityDurations[trip] = activityDuration;
+		tieRanks[trip] = trip;
+		nextTrips[trip] = NONE;
+		if( previousTrip != NONE ){
+			nextTrips[previousTrip] = trip;
+		}
+		departureTimes[trip] = Double.NaN;
+		arrivalTimes[trip] = Double.NaN;
+		linkEnterTimes[trip] = new double[route.length];
+		linkLeaveTimes[trip] = new double[route.length];
+		Arrays.fill( linkEnterTimes[trip], Double.NaN );
+		Arrays.fill( linkLeaveTimes[trip], Double.NaN );
+		return trip;
+	}
+
+	/**
+	 * Sets the rank of a trip among cyclists with equal earliest exits, lower ranks exiting first. By default, the rank of a
+	 * trip is its index. For equal results as the QSim with deterministic tie-breaking, rank the trips by their vehicle ids.
+	 */
+	public void setTieRank( final int trip, final int rank ){
+		tieRanks[trip] = rank;
+	}
+
+	private void ensureTripCapacity( final int capacity ){
+		if( capacity > routes.length ){
+			final int newCapacity = Math.max( capacity, 2 * routes.length );
+			routes = Arrays.copyOf( routes, newCapacity );
+			plannedDepartureTimes = Arrays.copyOf( plannedDepartureTimes, newCapacity );
+			previousTrips = Arrays.copyOf( previousTrips, newCapacity );
+			activityDurations = Arrays.copyOf( activityDurations, newCapacity );
+			tieRanks = Arrays.copyOf( tieRanks, newCapacity );
+			nextTrips = Arrays.copyOf( nextTrips, newCapacity );
+			departureTimes = Arrays.copyOf( departureTimes, newCapacity );
+			arrivalTimes = Arrays.copyOf( arrivalTimes, newCapacity );
+			linkEnterTimes = Arrays.copyOf( linkEnterTimes, newCapacity );
+			linkLeaveTimes = Arrays.copyOf( linkLeaveTimes, newCapacity );
+			growTripArrays( newCapacity );
+		}
+	}
+
+	/**
+	 * Grows the engine-specific arrays indexed by trip to <code>newCapacity</code>.
+	 */
+	abstract void growTripArrays( int newCapacity );
+
+	public int getNumberOfTrips(){
+		return numberOfTrips;
+	}
+
+	/**
+	 * Schedules the departures of the first trip of each chain, at its planned departure time.
+	 */
+	final void scheduleFirstDepartures(){
+		for(int trip = 0; trip < numberOfTrips; trip++){
+			if( previousTrips[trip] == NONE ){
+				departures.add( trip, plannedDepartureTimes[trip], tieRanks[trip] );
+			}
+		}
+	}
+
+	/**
+	 * @return The first trip of each chain of trips.
+	 */
+	final int[] getFirstTripsOfChains(){
+		final int[] firstTrips = new int[numberOfTrips];
+		int numberOfChains = 0;
+		for(int trip = 0; trip < numberOfTrips; trip++){
+			if( previousTrips[trip] == NONE ){
+				firstTrips[numberOfChains++] = trip;
+			}
+		}
+		return Arrays.copyOf( firstTrips, numberOfChains );
+	}
+
+	/**
+	 * @param nextExitTime The earliest scheduled exit of a sublink.
+	 * @return The first step after <code>now</code> in which something happens, or positive infinity if nothing happens anymore.
+	 */
+	final double nextStep( final double now, final double nextExitTime ){
+		if( !offeringLinks.isEmpty() || !waitingLinks.isEmpty() ){
+			return now + timeStepSize;
+		}
+		final double next = Math.min( nextExitTime, departures.peekKey() );
+		if( next == Double.POSITIVE_INFINITY ){
+			return next;
+		}
+		return Math.max( Math.ceil( next / timeStepSize ) * timeStepSize, now + timeStepSize );
+	}
+
+	/**
+	 * Records the arrival of the trip, and schedules the departure of the next trip of its chain, after its activity.
+	 */
+	void arrive( final int trip, final double now ){
+		arrivalTimes[trip] = now;
+		final int next = nextTrips[trip];
+		if( next != NONE ){
+			final double departureTime = Double.isNaN( plannedDepartureTimes[next] ) ?
+					now + activityDurations[next] : Math.max( now, plannedDepartureTimes[next] );
+			departures.add( next, departureTime, tieRanks[next] );
+		}
+	}
+
+	/**
+	 * @return The time [s] of the step in which the trip departed, or {@link Double#NaN} if it has not departed.
+	 */
+	public double getDepartureTime( final int trip ){
+		return departureTimes[trip];
+	}
+
+	/**
+	 * @return The time [s] of the step in which the trip arrived, or {@link Double#NaN} if it has not arrived.
+	 */
+	public double getArrivalTime( final int trip ){
+		return arrivalTimes[trip];
+	}
+
+	/**
+	 * @return The travel time [s] of the trip, or {@link Double#NaN} if it has not arrived.
+	 */
+	public double getTravelTime( final int trip ){
+		return arrivalTimes[trip] - departureTimes[trip];
+	}
+
+	/**
+	 * @return The time [s] at which the trip entered the <code>routeIndex</code>'th link of its route, or {@link Double#NaN} if
+	 * it has not entered it. The link of departure is entered when entering the traffic at its end.
+	 */
+	public double getLinkEnterTime( final int trip, final int routeIndex ){
+		return linkEnterTimes[trip][routeIndex];
+	}
+
+	/**
+	 * @return The time [s] at which the trip left the <code>routeIndex</code>'th link of its route, or {@link Double#NaN} if
+	 * it has not (or, for the link of arrival, never) left it.
+	 */
+	public double getLinkLeaveTime( final int trip, final int routeIndex ){
+		return linkLeaveTimes[trip][routeIndex];
+	}
+
+	public int[] getRoute( final int trip ){
+		return routes[trip];
+	}
+
+	public int getTieRank( final int trip ){
+		return tieRanks[trip];
+	}
+
+	/**
+	 * Ring buffer of link indices.
+	 */
+	/* package */ static final class LinkList {
+		private final int[] links;
+		private int first = 0;
+		private int size = 0;
+
+		LinkList( final int capacity ){
+			this.links = new int[Math.max( capacity, 1 )];
+		}
+
+		void add( final int link ){
+			links[(first + size++) % links.length] = link;
+		}
+
+		int poll(){
+			final int link = links[first];
+			first = (first + 1) % links.length;
+			size--;
+			return link;
+		}
+
+		int size(){
+			return size;
+		}
+
+		boolean isEmpty(){
+			return size == 0;
+		}
+
+		void write( final DataOutput out ) throws IOException{
+			out.writeInt( size );
+			for(int i = 0; i < size; i++){
+				out.writeInt( links[(first + i) % links.length] );
+			}
+		}
+
+		void read( final DataInput in ) throws IOException{
+			final int newSize = in.readInt();
+			if( newSize < 0 || newSize > links.length ){
+				throw new IOException( "Invalid number of links " + newSize + " in checkpoint." );
+			}
+			first = 0;
+			size = 0;
+			for(int i = 0; i < newSize; i++){
+				add( in.readInt() );
+			}
+		}
+	}
+
+	/**
+	 * Binary heap of trips by a primitive key, ties broken by rank.
+	 */
+	/* package */ static final class TripHeap {
+		private double[] keys = new double[INITIAL_CAPACITY];
+		private int[] ranks = new int[INITIAL_CAPACITY];
+		private int[] trips = new int[INITIAL_CAPACITY];
+		private int size = 0;
+
+		void add( final int trip, final double key, final int rank ){
+			if( size == trips.length ){
+				keys = Arrays.copyOf( keys, 2 * size );
+				ranks = Arrays.copyOf( ranks, 2 * size );
+				trips = Arrays.copyOf( trips, 2 * size );
+			}
+			int k = size++;
+			while( k > 0 ){
+				final int parent = (k - 1) >>> 1;
+				if( !precedes( key, rank, parent ) ){
+					break;
+				}
+				keys[k] = keys[parent];
+				ranks[k] = ranks[parent];
+				trips[k] = trips[parent];
+				k = parent;
+			}
+			keys[k] = key;
+			ranks[k] = rank;
+			trips[k] = trip;
+		}
+
+		private boolean precedes( final double key, final int rank, final int j ){
+			return key < keys[j] || (key == keys[j] && rank < ranks[j]);
+		}
+
+		double peekKey(){
+			return size == 0 ? Double.POSITIVE_INFINITY : keys[0];
+		}
+
+		int poll(){
+			final int first = trips[0];
+			final int last = --size;
+			final double key = keys[last];
+			final int rank = ranks[last];
+			final int trip = trips[last];
+			int k = 0;
+			final int half = size >>> 1;
+			while( k < half ){
+				int child = 2 * k + 1;
+				final int right = child + 1;
+				if( right < size && precedes( keys[right], ranks[right], child ) ){
+					child = right;
+				}
+				if( !(keys[child] < key || (keys[child] == key && ranks[child] < rank)) ){
+					break;
+				}
+				keys[k] = keys[child];
+				ranks[k] = ranks[child];
+				trips[k] = trips[child];
+				k = child;
+			}
+			keys[k] = key;
+			ranks[k] = rank;
+			trips[k] = trip;
+			return first;
+		}
+
+		void write( final DataOutput out ) throws IOException{
+			out.writeInt( size );
+			for(int i = 0; i < size; i++){
+				out.writeDouble( keys[i] );
+				out.writeInt( ranks[i] );
+				out.writeInt( trips[i] );
+			}
+		}
+
+		/**
+		 * Reads the heap in the order written, which is a valid heap order.
+		 */
+		void read( final DataInput in ) throws IOException{
+			final int newSize = in.readInt();
+			if( newSize < 0 ){
+				throw new IOException( "Invalid number of trips " + newSize + " in checkpoint." );
+			}
+			final int capacity = Math.max( newSize, INITIAL_CAPACITY );
+			if( trips.length < capacity ){
+				keys = new double[capacity];
+				ranks = new int[capacity];
+				trips = new int[capacity];
+			}
+			for(int i = 0; i < newSize; i++){
+				keys[i] = in.readDouble();
+				ranks[i] = in.readInt();
+				trips[i] = in.readInt();
+			}
+			size = newSize;
+		}
+	}
+}
@@ -1,21 +1,26 @@
 package fastOrForcedToFollow;
 
+import org.matsim.run.FFFConfigGroup.SqrtPrecision;
+
 
 /**
+ * The parameters and the trip state of a cyclist. Vehicles of the mobsim may be cyclists themselves, taking the parameters of
+ * the person riding them, see {@link #setParameters(Cyclist)}.
+ *
  * @author mpaulsen
  *
  */
-public final class Cyclist {
+public class Cyclist {
 
 	/**
 	 * The desired (/maximum) speed [m/s] of the cyclist.
 	 */
-	private final double desiredSpeed;
+	private double desiredSpeed;
 
 	/**
 	 * The link transmission model handling the length, safety distance, lane choice, and speed of the cyclist.
 	 */
-	private final LinkTransmissionModel ltm;
+	private LinkTransmissionModel ltm;
 
 	/**
 	 * The current speed [m/s] of the cyclist.
@@ -32,6 +37,11 @@ public final class Cyclist {
 	 */
 	private int currentSublinkIndex;
 
+	/**
+	 * The global index of the pseudolane at which the cyclist currently is, see {@link Sublink#getPseudoLane(int)}.
+	 */
+	private int currentPseudoLane;
+
 
 	/**
 	 * A static factory method for constructing a cyclist with a square root based link transmission model.
@@ -42,15 +52,39 @@ public final class Cyclist {
 	 * @return A cyclist having desired speed, headway preferences, and a length based on the above.
 	 */
 	public static Cyclist createIndividualisedCyclistWithSqrtLTM(final double desiredSpeed, final double theta_0, final double theta_1, final double lambda_c){
-		LinkTransmissionModel ltm = new SqrtLTM(theta_0, theta_1, lambda_c);
+		return createIndividualisedCyclistWithSqrtLTM(desiredSpeed, theta_0, theta_1, lambda_c, SqrtPrecision.exact);
+	}
+
+	/**
+	 * As {@link #createIndividualisedCyclistWithSqrtLTM(double, double, double, double)}, but with a given precision of the square roots
+	 * of the link transmission model.
+	 */
+	public static Cyclist createIndividualisedCyclistWithSqrtLTM(final double desiredSpeed, final double theta_0, final double theta_1, final double lambda_c,
+			final SqrtPrecision precision){
+		LinkTransmissionModel ltm = new SqrtLTM(theta_0, theta_1, lambda_c, precision);
 		return new Cyclist(desiredSpeed, ltm);
 	}
 
-	private Cyclist(double desiredSpeed, LinkTransmissionModel ltm) {
+	/* package */ Cyclist(double desiredSpeed, LinkTransmissionModel ltm) {
 		this.desiredSpeed = desiredSpeed;
 		this.ltm = ltm;
 	}
 
+	/**
+	 * Creates a cyclist without parameters, which have to be set by {@link #setParameters(Cyclist)} before it rides.
+	 */
+	protected Cyclist() {
+	}
+
+	/**
+	 * Takes the desired speed and the (shared) link transmission model of <code>cyclist</code>, e.g. when another person starts
+	 * riding a vehicle being a cyclist itself. The trip state is not changed, see {@link #reset()}.
+	 */
+	protected final void setParameters(final Cyclist cyclist) {
+		this.desiredSpeed = cyclist.desiredSpeed;
+		this.ltm = cyclist.ltm;
+	}
+
 
 	/**
 	 * See corresponding method in {@link fastOrForcedToFollow.LinkTransmissionModel#getBicycleLength() LinkTransmissionModel}
@@ -68,6 +102,10 @@ public final class Cyclist {
 		return this.currentSublinkIndex;
 	}
 
+	public int getCurrentPseudoLane(){
+		return this.currentPseudoLane;
+	}
+
 	/**
 	 * See corresponding method in {@link fastOrForcedToFollow.LinkTransmissionModel#getSafetyBufferDistance(double) LinkTransmissionModel}
 	 */
@@ -84,27 +122,53 @@ public final class Cyclist {
 	}
 
 	/**
-	 * See corresponding method in {@link fastOrForcedToFollow.LinkTransmissionModel#getLaneVMax(PseudoLane, double) LinkTransmissionModel}
+	 * See corresponding method in {@link fastOrForcedToFollow.LinkTransmissionModel#getLaneVMax(SublinkStore, int, double) LinkTransmissionModel}
 	 */
-	public double getVMax(final PseudoLane pseudoLane) {
-		return this.ltm.getLaneVMax(pseudoLane, this.tEarliestExit);
+	public double getVMax(final SublinkStore store, final int pseudoLane) {
+		return this.ltm.getLaneVMax(store, pseudoLane, this.tEarliestExit);
 	}
 
 	/**
 	 * See corresponding method in {@link fastOrForcedToFollow.LinkTransmissionModel#selectPseudoLane(Sublink, double, double) LinkTransmissionModel}
 	 */
-	public PseudoLane selectPseudoLane(final Sublink receivingLink) {
+	public int selectPseudoLane(final Sublink receivingLink) {
 		return this.ltm.selectPseudoLane(receivingLink, this.desiredSpeed, this.tEarliestExit);
 	}
 
+	/**
+	 * See corresponding method in {@link fastOrForcedToFollow.LinkTransmissionModel#selectPseudoLaneBatched(Sublink, double, double) LinkTransmissionModel}
+	 */
+	public int selectPseudoLaneBatched(final Sublink receivingLink) {
+		return this.ltm.selectPseudoLaneBatched(receivingLink, this.desiredSpeed, this.tEarliestExit);
+	}
+
+	/**
+	 * Resets the trip state (speed, earliest exit, sublink and pseudolane) to that of a newly created cyclist, so that the cyclist
+	 * can be reused for another trip.
+	 */
+	public void reset(){
+		this.speed = 0.;
+		this.tEarliestExit = 0.;
+		this.currentSublinkIndex = 0;
+		this.currentPseudoLane = 0;
+	}
+
 	public void resetCurrentLinkIndex(){
 		this.currentSublinkIndex = 0;
 	}
 
+	public void setCurrentLinkIndex(final int sublinkIndex){
+		this.currentSublinkIndex = sublinkIndex;
+	}
+
 	public void incrementCurrentLinkIndex(){
 		this.currentSublinkIndex++;
 	}
 
+	public void setCurrentPseudoLane(final int pseudoLane){
+		this.currentPseudoLane = pseudoLane;
+	}
+
 	/**s
 	 * @param newCurrentSpeed The provisional speed that the cyclist will get if it doesn't exceed his/her desired speed.
 	 */
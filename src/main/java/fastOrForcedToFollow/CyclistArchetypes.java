@@ -0,0 +1,104 @@
+package fastOrForcedToFollow;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.FFFConfigGroup.SqrtPrecision;
+
+/**
+ * Registry of cyclist archetypes, i.e. cyclists whose parameters have been quantised onto a grid. Cyclists of the same
+ * archetype share one immutable link transmission model, including its precomputed constants, so that only the mutable
+ * state (speed, earliest exit and sublink index) is stored per cyclist.
+ *
+ * A resolution of 0 disables the quantisation of the corresponding parameters, in which case only cyclists with identical
+ * parameters share their link transmission model.
+ *
+ * @author mpaulsen
+ */
+public final class CyclistArchetypes {
+
+	/**
+	 * The grid resolution [m/s] of the desired speed.
+	 */
+	private final double speedResolution;
+
+	/**
+	 * The grid resolution of the headway parameters theta_0 [m], theta_1 [m/sqrt(m/s)] and the bicycle length lambda_c [m].
+	 */
+	private final double headwayResolution;
+
+	private final SqrtPrecision precision;
+
+	private final ConcurrentHashMap<Archetype, LinkTransmissionModel> ltms = new ConcurrentHashMap<>();
+
+	public CyclistArchetypes(final FFFConfigGroup fffConfig){
+		this(fffConfig.getArchetypeSpeedResolution(), fffConfig.getArchetypeHeadwayResolution(), fffConfig.getSqrtPrecision());
+	}
+
+	public CyclistArchetypes(final double speedResolution, final double headwayResolution, final SqrtPrecision precision){
+		this.speedResolution = speedResolution;
+		this.headwayResolution = headwayResolution;
+		this.precision = precision;
+	}
+
+	/**
+	 * Creates a cyclist with a square root based link transmission model, shared with all other cyclists of the same archetype.
+	 * See also {@link Cyclist#createIndividualisedCyclistWithSqrtLTM(double, double, double, double, SqrtPrecision)}.
+	 */
+	public Cyclist createCyclist(final double desiredSpeed, final double theta_0, final double theta_1, final double lambda_c){
+		final Archetype archetype = new Archetype(quantise(theta_0, headwayResolution), quantise(theta_1, headwayResolution),
+				quantise(lambda_c, headwayResolution));
+		LinkTransmissionModel ltm = ltms.get(archetype);
+		if(ltm == null){
+			ltm = new SqrtLTM(archetype.theta_0, archetype.theta_1, archetype.lambda_c, precision);
+			LinkTransmissionModel existing = ltms.putIfAbsent(archetype, ltm);
+			if(existing != null){
+				ltm = existing;
+			}
+		}
+		return new Cyclist(quantise(desiredSpeed, speedResolution), ltm);
+	}
+
+	/**
+	 * @return The number of distinct link transmission models created so far.
+	 */
+	public int getNumberOfArchetypes(){
+		return ltms.size();
+	}
+
+	private static double quantise(final double value, final double resolution){
+		if(resolution <= 0){
+			return value;
+		}
+		return Math.round(value / resolution) * resolution;
+	}
+
+	private static final class Archetype {
+		private final double theta_0;
+		private final double theta_1;
+		private final double lambda_c;
+
+		private Archetype(final double theta_0, final double theta_1, final double lambda_c){
+			this.theta_0 = theta_0;
+			this.theta_1 = theta_1;
+			this.lambda_c = lambda_c;
+		}
+
+		@Override
+		public boolean equals(final Object o){
+			if(!(o instanceof Archetype)){
+				return false;
+			}
+			Archetype other = (Archetype) o;
+			return Double.compare(theta_0, other.theta_0) == 0 && Double.compare(theta_1, other.theta_1) == 0 &&
+					Double.compare(lambda_c, other.lambda_c) == 0;
+		}
+
+		@Override
+		public int hashCode(){
+			int hash = Double.hashCode(theta_0);
+			hash = 31 * hash + Double.hashCode(theta_1);
+			return 31 * hash + Double.hashCode(lambda_c);
+		}
+	}
+}
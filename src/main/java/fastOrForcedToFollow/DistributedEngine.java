@@ -0,0 +1,398 @@
+package fastOrForcedToFollow;
+
+import org.apache.log4j.Logger;
+import org.matsim.run.FFFConfigGroup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Runs trips as the {@link EventDrivenEngine}, but with the links split into regions, each region being held by a process of
+ * its own (see {@link DistributedRegion}) connected to this coordinating process by a socket, e.g. over the loopback interface
+ * of a single machine. The results are the same as those of a single engine with the same links and trips.
+ *
+ * The coordinator keeps the clock, the trip chains and departures, and the orders in which the links offer cyclists to their
+ * next links and in which they have waiting cyclists, as these orders span all regions. In each step
+ * <ol>
+ * <li> the links offering cyclists are moved one by one in the order of the single engine, each by the process holding it.
+ *      A cyclist continuing onto a link of another region is handed over to the process holding that link, through the
+ *      coordinator;
+ * <li> the sublinks of all regions are moved in parallel, the regions reporting the arrivals and the links whose ends have
+ *      been reached by cyclists;
+ * <li> the coordinator lets the trips depart, and the waiting cyclists of all regions enter their first links in parallel.
+ * </ol>
+ * Only the sublinks, and thus the memory and most of the work of the FFF equations, are distributed. Moving the nodes is
+ * sequential, with a round trip through the coordinator for every cyclist crossing a region border, and every region keeps
+ * the routes and cyclists of all trips. The tie ranks of the trips have to be unique, as by default. The regions are sent the
+ * settings of the {@link FFFConfigGroup} used by the engine, i.e. lMax, the correction factor, the lane selection kernel, the
+ * square root precision and the archetype resolutions; the cyclists are created there through {@link CyclistArchetypes}.
+ *
+ * The engine is not used by the mobsims of {@link FFFConfigGroup}; the trips are added and run directly, as for the
+ * {@link EventDrivenEngine}.
+ *
+ * @author mpaulsen
+ */
+public final class DistributedEngine extends AbstractEventDrivenEngine {
+	private static final Logger log = Logger.getLogger( DistributedEngine.class ) ;
+
+	// Messages between the coordinator and the regions:
+
+	/* package */ static final byte MOVE_NODE = 1;
+	/* package */ static final byte NODE_MOVED = 2;
+	/* package */ static final byte ENTER = 3;
+	/* package */ static final byte MOVE_SUBLINKS = 4;
+	/* package */ static final byte MOVE_WAITING = 5;
+	/* package */ static final byte FINISH = 6;
+
+	/**
+	 * Flags of a waiting link after the waiting cyclists have entered it.
+	 */
+	/* package */ static final byte BECAME_OFFERING = 1;
+	/* package */ static final byte STILL_WAITING = 2;
+
+	// Network:
+
+	private final double[] lengths;
+	private final int[] numbersOfPseudoLanes;
+	private final int[] regions;
+	private final int numberOfRegions;
+	private final FFFConfigGroup fffConfig;
+	private final double stuckTime;
+
+	// Trips:
+
+	private double[][] cyclistParameters = new double[INITIAL_CAPACITY][];
+
+	// State of the run:
+
+	private final boolean[] waiting;
+	private final double[] nextExitTimes;
+	private final DataInputStream[] ins;
+	private final DataOutputStream[] outs;
+
+	/**
+	 * @param regions The region of each link, from 0 to <code>numberOfRegions</code> - 1.
+	 *
+	 * @see EventDrivenEngine#EventDrivenEngine(double[], int[], FFFConfigGroup, double, double)
+	 */
+	public DistributedEngine( final double[] lengths, final int[] numbersOfPseudoLanes, final int[] regions, final int numberOfRegions,
+			final FFFConfigGroup fffConfig, final double timeStepSize, final double stuckTime ){
+		super( lengths.length, timeStepSize );
+		for(int region : regions){
+			if( region < 0 || region >= numberOfRegions ){
+				throw new IllegalArgumentException( "Region " + region + " is not one of the " + numberOfRegions + " regions." );
+			}
+		}
+		this.lengths = lengths.clone();
+		this.numbersOfPseudoLanes = numbersOfPseudoLanes.clone();
+		this.regions = regions.clone();
+		this.numberOfRegions = numberOfRegions;
+		this.fffConfig = fffConfig;
+		this.stuckTime = stuckTime;
+
+		this.waiting = new boolean[lengths.length];
+		this.nextExitTimes = new double[numberOfRegions];
+		this.ins = new DataInputStream[numberOfRegions];
+		this.outs = new DataOutputStream[numberOfRegions];
+	}
+
+	/**
+	 * Adds a trip not depending on another trip.
+	 *
+	 * @return The index of the trip.
+	 */
+	public int addTrip( final double desiredSpeed, final double theta_0, final double theta_1, final double lambda_c,
+			final int[] route, final double departureTime ){
+		return addTrip( desiredSpeed, theta_0, theta_1, lambda_c, route, departureTime, NONE, 0. );
+	}
+
+	/**
+	 * Adds a trip of a cyclist with a square root based link transmission model, see
+	 * {@link CyclistArchetypes#createCyclist(double, double, double, double)}, which is created by the regions with the archetype
+	 * resolutions and the square root precision of the configuration.
+	 *
+	 * @return The index of the trip.
+	 *
+	 * @see EventDrivenEngine#addTrip(Cyclist, int[], double, int, double)
+	 */
+	public int addTrip( final double desiredSpeed, final double theta_0, final double theta_1, final double lambda_c,
+			final int[] route, final double plannedDepartureTime, final int previousTrip, final double activityDuration ){
+		final int trip = addTripToChains( route, plannedDepartureTime, previousTrip, activityDuration );
+		cyclistParameters[trip] = new double[] { desiredSpeed, theta_0, theta_1, lambda_c };
+		return trip;
+	}
+
+	@Override void growTripArrays( final int newCapacity ){
+		cyclistParameters = Arrays.copyOf( cyclistParameters, newCapacity );
+	}
+
+	/**
+	 * Accepts one connection per region on <code>server</code>, the regions being numbered in the order in which they connect,
+	 * and runs all trips until they have arrived or <code>endTime</code> has been reached.
+	 */
+	public void run( final double endTime, final ServerSocket server ) throws IOException{
+		final Socket[] sockets = new Socket[numberOfRegions];
+		try {
+			for(int region = 0; region < numberOfRegions; region++){
+				sockets[region] = server.accept();
+				sockets[region].setTcpNoDelay( true );
+				ins[region] = new DataInputStream( new BufferedInputStream( sockets[region].getInputStream() ) );
+				outs[region] = new DataOutputStream( new BufferedOutputStream( sockets[region].getOutputStream() ) );
+				writeSetup( region );
+			}
+			log.info( "Connected " + numberOfRegions + " regions." );
+			simulate( endTime );
+			collectLinkTimes();
+		} finally {
+			for(Socket socket : sockets){
+				if( socket != null ){
+					socket.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends the network and the trips to a region.
+	 */
+	private void writeSetup( final int region ) throws IOException{
+		final DataOutputStream out = outs[region];
+		out.writeInt( region );
+		out.writeDouble( timeStepSize );
+		out.writeDouble( stuckTime );
+		out.writeDouble( fffConfig.getLMax() );
+		out.writeDouble( fffConfig.getCorrectionFactor() );
+		out.writeInt( fffConfig.getLaneSelectionKernel().ordinal() );
+		out.writeInt( fffConfig.getSqrtPrecision().ordinal() );
+		out.writeDouble( fffConfig.getArchetypeSpeedResolution() );
+		out.writeDouble( fffConfig.getArchetypeHeadwayResolution() );
+		out.writeInt( lengths.length );
+		for(int link = 0; link < lengths.length; link++){
+			out.writeDouble( lengths[link] );
+			out.writeInt( numbersOfPseudoLanes[link] );
+			out.writeInt( regions[link] );
+		}
+		out.writeInt( numberOfTrips );
+		for(int trip = 0; trip < numberOfTrips; trip++){
+			for(double parameter : cyclistParameters[trip]){
+				out.writeDouble( parameter );
+			}
+			out.writeInt( tieRanks[trip] );
+			out.writeInt( routes[trip].length );
+			for(int link : routes[trip]){
+				out.writeInt( link );
+			}
+		}
+		out.flush();
+	}
+
+	private void simulate( final double endTime ) throws IOException{
+		scheduleFirstDepartures();
+		Arrays.fill( nextExitTimes, Double.POSITIVE_INFINITY );
+		double now = Double.NEGATIVE_INFINITY;
+		while( true ){
+			now = nextStep( now, getNextExitTime() );
+			if( now > endTime || now == Double.POSITIVE_INFINITY ){
+				break;
+			}
+			moveNodes( now );
+			moveSublinks( now );
+			moveDeparturesAndWaiting( now );
+		}
+	}
+
+	/**
+	 * @return The earliest scheduled exit of a sublink over all regions.
+	 */
+	private double getNextExitTime(){
+		double next = Double.POSITIVE_INFINITY;
+		for(double nextExitTime : nextExitTimes){
+			next = Math.min( next, nextExitTime );
+		}
+		return next;
+	}
+
+	/**
+	 * Lets the regions move the offering links one by one, passing cyclists crossing region borders on to the regions holding
+	 * their next links.
+	 */
+	private void moveNodes( final double now ) throws IOException{
+		final int numberOfLinks = offeringLinks.size();
+		for(int i = 0; i < numberOfLinks; i++){
+			final int link = offeringLinks.poll();
+			final DataOutputStream out = outs[regions[link]];
+			final DataInputStream in = ins[regions[link]];
+			out.writeByte( MOVE_NODE );
+			out.writeInt( link );
+			out.writeDouble( now );
+			out.flush();
+			byte reply;
+			while( (reply = in.readByte()) == ENTER ){
+				final int trip = in.readInt();
+				final int routeIndex = in.readInt();
+				final boolean stuck = in.readBoolean();
+				final double tEarliestExit = in.readDouble();
+				final int nextRegion = regions[routes[trip][routeIndex]];
+				outs[nextRegion].writeByte( ENTER );
+				outs[nextRegion].writeInt( trip );
+				outs[nextRegion].writeInt( routeIndex );
+				outs[nextRegion].writeBoolean( stuck );
+				outs[nextRegion].writeDouble( tEarliestExit );
+				outs[nextRegion].writeDouble( now );
+				outs[nextRegion].flush();
+				out.writeBoolean( ins[nextRegion].readBoolean() );
+				out.flush();
+			}
+			if( reply != NODE_MOVED ){
+				throw new IOException( "Unexpected reply " + reply + " from region " + regions[link] + "." );
+			}
+			if( in.readBoolean() ){
+				offeringLinks.add( link );
+			}
+		}
+	}
+
+	/**
+	 * Lets all regions move their sublinks, and adds the links reached by cyclists to the offering links in the order of
+	 * the earliest exits (and tie ranks) of these cyclists, as the single engine does.
+	 */
+	private void moveSublinks( final double now ) throws IOException{
+		for(DataOutputStream out : outs){
+			out.writeByte( MOVE_SUBLINKS );
+			out.writeDouble( now );
+			out.flush();
+		}
+		final int[][] links = new int[numberOfRegions][];
+		final double[][] keys = new double[numberOfRegions][];
+		final int[][] ranks = new int[numberOfRegions][];
+		for(int region = 0; region < numberOfRegions; region++){
+			final DataInputStream in = ins[region];
+			final int numberOfArrivals = in.readInt();
+			for(int i = 0; i < numberOfArrivals; i++){
+				arrive( in.readInt(), now );
+			}
+			final int numberOfLinks = in.readInt();
+			links[region] = new int[numberOfLinks];
+			keys[region] = new double[numberOfLinks];
+			ranks[region] = new int[numberOfLinks];
+			for(int i = 0; i < numberOfLinks; i++){
+				links[region][i] = in.readInt();
+				keys[region][i] = in.readDouble();
+				ranks[region][i] = in.readInt();
+			}
+		}
+		// merging the links of the regions, each already in order:
+		final int[] heads = new int[numberOfRegions];
+		while( true ){
+			int first = NONE;
+			for(int region = 0; region < numberOfRegions; region++){
+				if( heads[region] < links[region].length && (first == NONE ||
+						keys[region][heads[region]] < keys[first][heads[first]] ||
+						(keys[region][heads[region]] == keys[first][heads[first]] && ranks[region][heads[region]] < ranks[first][heads[first]])) ){
+					first = region;
+				}
+			}
+			if( first == NONE ){
+				break;
+			}
+			offeringLinks.add( links[first][heads[first]++] );
+		}
+	}
+
+	/**
+	 * Lets the trips depart, sending them to the regions holding their first links in the order of the single engine, and then
+	 * lets all regions move their waiting cyclists onto their links.
+	 */
+	private void moveDeparturesAndWaiting( final double now ) throws IOException{
+		final int[][] departingTrips = new int[numberOfRegions][16];
+		final int[] numbersOfDepartingTrips = new int[numberOfRegions];
+		while( departures.peekKey() <= now ){
+			final int trip = departures.poll();
+			departureTimes[trip] = now;
+			if( routes[trip].length == 1 ){
+				// arriving on the link of departure, without entering the traffic:
+				arrive( trip, now );
+				continue;
+			}
+			final int link = routes[trip][0];
+			final int region = regions[link];
+			if( numbersOfDepartingTrips[region] == departingTrips[region].length ){
+				departingTrips[region] = Arrays.copyOf( departingTrips[region], 2 * departingTrips[region].length );
+			}
+			departingTrips[region][numbersOfDepartingTrips[region]++] = trip;
+			if( !waiting[link] ){
+				waiting[link] = true;
+				waitingLinks.add( link );
+			}
+		}
+		for(int region = 0; region < numberOfRegions; region++){
+			final DataOutputStream out = outs[region];
+			out.writeByte( MOVE_WAITING );
+			out.writeDouble( now );
+			out.writeInt( numbersOfDepartingTrips[region] );
+			for(int i = 0; i < numbersOfDepartingTrips[region]; i++){
+				out.writeInt( departingTrips[region][i] );
+			}
+			out.flush();
+		}
+		final int[][] links = new int[numberOfRegions][];
+		final byte[][] flags = new byte[numberOfRegions][];
+		for(int region = 0; region < numberOfRegions; region++){
+			final DataInputStream in = ins[region];
+			final int numberOfLinks = in.readInt();
+			links[region] = new int[numberOfLinks];
+			flags[region] = new byte[numberOfLinks];
+			for(int i = 0; i < numberOfLinks; i++){
+				links[region][i] = in.readInt();
+				flags[region][i] = in.readByte();
+			}
+			nextExitTimes[region] = in.readDouble();
+		}
+		// the regions have moved their waiting links in the order of the waiting links of all regions:
+		final int[] heads = new int[numberOfRegions];
+		final int numberOfLinks = waitingLinks.size();
+		for(int i = 0; i < numberOfLinks; i++){
+			final int link = waitingLinks.poll();
+			final int region = regions[link];
+			if( heads[region] == links[region].length || links[region][heads[region]] != link ){
+				throw new IOException( "Region " + region + " has not moved waiting link " + link + " in order." );
+			}
+			final byte linkFlags = flags[region][heads[region]++];
+			if( (linkFlags & BECAME_OFFERING) != 0 ){
+				offeringLinks.add( link );
+			}
+			if( (linkFlags & STILL_WAITING) != 0 ){
+				waitingLinks.add( link );
+			} else {
+				waiting[link] = false;
+			}
+		}
+	}
+
+	/**
+	 * Finishes the regions, collecting the link enter and leave times of the links held by each.
+	 */
+	private void collectLinkTimes() throws IOException{
+		for(DataOutputStream out : outs){
+			out.writeByte( FINISH );
+			out.flush();
+		}
+		for(int region = 0; region < numberOfRegions; region++){
+			final DataInputStream in = ins[region];
+			for(int trip = 0; trip < numberOfTrips; trip++){
+				for(int routeIndex = 0; routeIndex < routes[trip].length; routeIndex++){
+					if( regions[routes[trip][routeIndex]] == region ){
+						linkEnterTimes[trip][routeIndex] = in.readDouble();
+						linkLeaveTimes[trip][routeIndex] = in.readDouble();
+					}
+				}
+			}
+		}
+	}
+}
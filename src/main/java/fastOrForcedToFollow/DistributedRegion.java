@@ -0,0 +1,267 @@
+package fastOrForcedToFollow;
+
+import fastOrForcedToFollow.AbstractEventDrivenEngine.LinkList;
+import fastOrForcedToFollow.EventDrivenEngine.RemoteLinks;
+import fastOrForcedToFollow.EventDrivenEngine.TripListener;
+
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.FFFConfigGroup.LaneSelectionKernel;
+import org.matsim.run.FFFConfigGroup.SqrtPrecision;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * A process holding the links of one region of a {@link DistributedEngine}, in an {@link EventDrivenEngine} with the sublinks
+ * of these links only. It connects to the coordinating process, receives the network and the trips from it, and then moves its
+ * links as told by the coordinator until the run is finished.
+ *
+ * Is started once per region, by <code>java fastOrForcedToFollow.DistributedRegion host port</code>.
+ *
+ * @author mpaulsen
+ */
+public final class DistributedRegion {
+
+	private static final int NONE = -1;
+
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final int region;
+	private final int[] regions;
+	private final EventDrivenEngine engine;
+
+	/**
+	 * The trips arrived while moving the sublinks.
+	 */
+	private int[] arrivals = new int[16];
+	private int numberOfArrivals = 0;
+
+	public static void main( final String[] args ) throws IOException{
+		try( Socket socket = new Socket( args[0], Integer.parseInt( args[1] ) ) ){
+			socket.setTcpNoDelay( true );
+			final DistributedRegion region = new DistributedRegion(
+					new DataInputStream( new BufferedInputStream( socket.getInputStream() ) ),
+					new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) ) );
+			region.serve();
+		}
+	}
+
+	/**
+	 * Reads the network and the trips sent by the coordinator, see <code>DistributedEngine.writeSetup</code>.
+	 */
+	private DistributedRegion( final DataInputStream in, final DataOutputStream out ) throws IOException{
+		this.in = in;
+		this.out = out;
+		this.region = in.readInt();
+		final double timeStepSize = in.readDouble();
+		final double stuckTime = in.readDouble();
+		final FFFConfigGroup fffConfig = new FFFConfigGroup();
+		fffConfig.setLMax( in.readDouble() );
+		fffConfig.setCorrectionFactor( in.readDouble() );
+		fffConfig.setLaneSelectionKernel( LaneSelectionKernel.values()[in.readInt()] );
+		fffConfig.setSqrtPrecision( SqrtPrecision.values()[in.readInt()] );
+		fffConfig.setArchetypeSpeedResolution( in.readDouble() );
+		fffConfig.setArchetypeHeadwayResolution( in.readDouble() );
+		final CyclistArchetypes archetypes = new CyclistArchetypes( fffConfig );
+
+		final int numberOfLinks = in.readInt();
+		final double[] lengths = new double[numberOfLinks];
+		final int[] numbersOfPseudoLanes = new int[numberOfLinks];
+		this.regions = new int[numberOfLinks];
+		final boolean[] localLinks = new boolean[numberOfLinks];
+		for(int link = 0; link < numberOfLinks; link++){
+			lengths[link] = in.readDouble();
+			numbersOfPseudoLanes[link] = in.readInt();
+			regions[link] = in.readInt();
+			localLinks[link] = regions[link] == region;
+		}
+		this.engine = new EventDrivenEngine( lengths, numbersOfPseudoLanes, fffConfig, timeStepSize, stuckTime, localLinks );
+		engine.setRemoteLinks( new CoordinatedLinks() );
+		engine.setTripListener( new ArrivalListener() );
+
+		final int numberOfTrips = in.readInt();
+		for(int trip = 0; trip < numberOfTrips; trip++){
+			final Cyclist cyclist = archetypes.createCyclist( in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble() );
+			final int tieRank = in.readInt();
+			final int[] route = new int[in.readInt()];
+			for(int routeIndex = 0; routeIndex < route.length; routeIndex++){
+				route[routeIndex] = in.readInt();
+			}
+			// the departures are made by the coordinator, see depart:
+			engine.addTrip( cyclist, route, 0. );
+			engine.setTieRank( trip, tieRank );
+		}
+	}
+
+	/**
+	 * Carries out the commands of the coordinator until the run is finished.
+	 */
+	private void serve() throws IOException{
+		while( true ){
+			final byte command = in.readByte();
+			switch( command ){
+			case DistributedEngine.MOVE_NODE:
+				moveNode();
+				break;
+			case DistributedEngine.ENTER:
+				enter();
+				break;
+			case DistributedEngine.MOVE_SUBLINKS:
+				moveSublinks();
+				break;
+			case DistributedEngine.MOVE_WAITING:
+				moveWaiting();
+				break;
+			case DistributedEngine.FINISH:
+				writeLinkTimes();
+				return;
+			default:
+				throw new IOException( "Unknown command " + command + " in region " + region + "." );
+			}
+			out.flush();
+		}
+	}
+
+	private void moveNode() throws IOException{
+		final int link = in.readInt();
+		final double now = in.readDouble();
+		final boolean offering = engine.moveNode( link, now );
+		out.writeByte( DistributedEngine.NODE_MOVED );
+		out.writeBoolean( offering );
+	}
+
+	/**
+	 * Lets a cyclist from a link of another region enter a link of this region.
+	 */
+	private void enter() throws IOException{
+		final int trip = in.readInt();
+		final int routeIndex = in.readInt();
+		final boolean stuck = in.readBoolean();
+		final double tEarliestExit = in.readDouble();
+		final double now = in.readDouble();
+		out.writeBoolean( engine.enterFromRemote( trip, routeIndex, stuck, tEarliestExit, now ) );
+	}
+
+	/**
+	 * Moves the sublinks, and reports the arrived trips and the links that have started offering cyclists, the latter with the
+	 * earliest exit and tie rank of the cyclist having reached the end of the link.
+	 */
+	private void moveSublinks() throws IOException{
+		final double now = in.readDouble();
+		numberOfArrivals = 0;
+		engine.moveSublinks( now );
+		out.writeInt( numberOfArrivals );
+		for(int i = 0; i < numberOfArrivals; i++){
+			out.writeInt( arrivals[i] );
+		}
+		final LinkList offeringLinks = engine.getOfferingLinks();
+		out.writeInt( offeringLinks.size() );
+		while( !offeringLinks.isEmpty() ){
+			final int link = offeringLinks.poll();
+			final int trip = engine.getFirstAtEnd( link );
+			out.writeInt( link );
+			out.writeDouble( engine.getCyclist( trip ).getTEarliestExit() );
+			out.writeInt( engine.getTieRank( trip ) );
+		}
+	}
+
+	/**
+	 * Lets the trips sent by the coordinator depart, moves the waiting links, and reports for each of these whether it has
+	 * started offering cyclists and whether cyclists are still waiting.
+	 */
+	private void moveWaiting() throws IOException{
+		final double now = in.readDouble();
+		final int numberOfDepartures = in.readInt();
+		for(int i = 0; i < numberOfDepartures; i++){
+			engine.depart( in.readInt(), now );
+		}
+		final LinkList waitingLinks = engine.getWaitingLinks();
+		final int numberOfLinks = waitingLinks.size();
+		out.writeInt( numberOfLinks );
+		for(int i = 0; i < numberOfLinks; i++){
+			final int link = waitingLinks.poll();
+			final boolean wasOffering = engine.getFirstAtEnd( link ) != NONE;
+			byte flags = 0;
+			if( engine.moveWaitingLink( link, now ) ){
+				waitingLinks.add( link );
+				flags |= DistributedEngine.STILL_WAITING;
+			}
+			if( !wasOffering && engine.getFirstAtEnd( link ) != NONE ){
+				flags |= DistributedEngine.BECAME_OFFERING;
+			}
+			out.writeInt( link );
+			out.writeByte( flags );
+		}
+		// the offering links are kept by the coordinator:
+		final LinkList offeringLinks = engine.getOfferingLinks();
+		while( !offeringLinks.isEmpty() ){
+			offeringLinks.poll();
+		}
+		out.writeDouble( engine.getNextExitTime() );
+	}
+
+	/**
+	 * Writes the link enter and leave times of the links of this region, see <code>DistributedEngine.collectLinkTimes</code>.
+	 */
+	private void writeLinkTimes() throws IOException{
+		for(int trip = 0; trip < engine.getNumberOfTrips(); trip++){
+			final int[] route = engine.getRoute( trip );
+			for(int routeIndex = 0; routeIndex < route.length; routeIndex++){
+				if( regions[route[routeIndex]] == region ){
+					out.writeDouble( engine.getLinkEnterTime( trip, routeIndex ) );
+					out.writeDouble( engine.getLinkLeaveTime( trip, routeIndex ) );
+				}
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Hands cyclists over to the links of other regions through the coordinator, which passes them on, see
+	 * <code>DistributedEngine.moveNodes</code>.
+	 */
+	private final class CoordinatedLinks implements RemoteLinks {
+		@Override public boolean enter( final int trip, final int routeIndex, final boolean stuck, final double now ){
+			try {
+				out.writeByte( DistributedEngine.ENTER );
+				out.writeInt( trip );
+				out.writeInt( routeIndex );
+				out.writeBoolean( stuck );
+				out.writeDouble( engine.getCyclist( trip ).getTEarliestExit() );
+				out.flush();
+				return in.readBoolean();
+			} catch ( IOException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+	}
+
+	private final class ArrivalListener implements TripListener {
+		@Override public void departed( final int trip, final double time ){
+		}
+
+		@Override public void enteredTraffic( final int trip, final double time ){
+		}
+
+		@Override public void leftLink( final int trip, final int routeIndex, final double time ){
+		}
+
+		@Override public void enteredLink( final int trip, final int routeIndex, final double time ){
+		}
+
+		@Override public void arrived( final int trip, final double time ){
+			if( numberOfArrivals == arrivals.length ){
+				arrivals = Arrays.copyOf( arrivals, 2 * arrivals.length );
+			}
+			arrivals[numberOfArrivals++] = trip;
+		}
+
+		@Override public void stepDone( final double time ){
+		}
+	}
+}
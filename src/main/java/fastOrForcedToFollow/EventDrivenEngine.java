@@ -0,0 +1,881 @@
+package fastOrForcedToFollow;
+
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.FFFConfigGroup.LaneSelectionKernel;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Standalone, event-driven implementation of the bicycle mobsim, running the same FFF equations as the
+ * <code>QCycleLaneWithSublinks</code> of the QSim, but without QSim, agents, or vehicles.
+ *
+ * The network consists of links given by their lengths and numbers of pseudolanes, split into sublinks as in the QSim. Trips
+ * are given by a cyclist, a route of link indices, and a departure time, possibly depending on the arrival of a previous
+ * trip. All state is held in primitive arrays indexed by link and trip, and in the {@link SublinkStore}.
+ *
+ * The engine reproduces the time steps of the QSim, but only visits the steps in which something happens. In each step
+ * <ol>
+ * <li> cyclists at the end of a link move to their next link as long as it is not full (or they are stuck), as by the nodes
+ *      of the QSim;
+ * <li> cyclists exit their sublinks once their earliest exit has been reached, ordered by earliest exit and tie rank;
+ * <li> departing cyclists enter their first link as long as it is not full, as by the waiting lists of the QSim links.
+ * </ol>
+ * Steps are assumed to be multiples of the time step size. Unlike the nodes of the QSim, which process their in-links in a
+ * random order, the engine moves cyclists over nodes in the order in which they have reached the end of their links. Results
+ * may thus deviate from the QSim when cyclists from several in-links compete for the same out-link within a time step.
+ *
+ * Alternatively, {@link #runFreeFlow(double, int)} runs the trips as the QSim with links without congestion
+ * (<code>QCycleLaneWithoutCongestion</code>), where every cyclist rides each link at its desired speed. Then the times of each
+ * chain of trips follow directly from its routes and desired speed, and are computed in parallel over the chains, without
+ * any sublinks being used. An engine only run this way is created by {@link #createFreeFlowEngine}, which allocates no
+ * sublinks at all.
+ *
+ * A run may be interrupted at any time and continued by calling {@link #run(double)} again. The state of an interrupted run
+ * can be written to a checkpoint, see {@link #writeCheckpoint(DataOutput)}, and be restored into an engine having the same
+ * links and trips, see {@link #readCheckpoint(DataInput)}, to continue the run from there, e.g. in a later process.
+ *
+ * The links may also be split between several processes, see {@link DistributedEngine}, each running an engine holding only
+ * the sublinks of its own links. Such engines are driven step by step by the coordinating process.
+ *
+ * @author mpaulsen
+ */
+public final class EventDrivenEngine extends AbstractEventDrivenEngine {
+
+	/**
+	 * Receives the events of the trips, in the order in which they happen.
+	 */
+	public interface TripListener {
+
+		/**
+		 * The trip departs, i.e. the cyclist is waiting to enter the first link of the route.
+		 */
+		void departed( int trip, double time );
+
+		/**
+		 * The cyclist enters the traffic at the end of the first link of the route.
+		 */
+		void enteredTraffic( int trip, double time );
+
+		void leftLink( int trip, int routeIndex, double time );
+
+		void enteredLink( int trip, int routeIndex, double time );
+
+		/**
+		 * The trip arrives, after which the next trip depending on it may depart.
+		 */
+		void arrived( int trip, double time );
+
+		/**
+		 * Everything happening at <code>time</code> has been reported.
+		 */
+		void stepDone( double time );
+	}
+
+	/**
+	 * The links held by other processes in a distributed run, see {@link DistributedEngine}.
+	 */
+	/* package */ interface RemoteLinks {
+
+		/**
+		 * Lets the cyclist of <code>trip</code>, being at the end of its current link, enter the <code>routeIndex</code>'th link
+		 * of its route, unless that link is full and the cyclist is not stuck.
+		 *
+		 * @return Whether the cyclist has entered the link.
+		 */
+		boolean enter( int trip, int routeIndex, boolean stuck, double now );
+	}
+
+	private static final int CHECKPOINT_MAGIC = 0x46464643;
+	private static final int CHECKPOINT_VERSION = 2;
+
+	private final double stuckTime;
+	private final double[] lengths;
+	private final double correctionFactor;
+	private final boolean batchedLaneSelection;
+
+	private final SublinkStore store = new SublinkStore();
+
+	// Links:
+
+	private final Sublink[][] sublinks;
+
+	/**
+	 * The first and last trip at the end of each link, linked through {@link #nextAtEnd}.
+	 */
+	private final int[] firstAtEnd;
+	private final int[] lastAtEnd;
+
+	/**
+	 * The first and last trip waiting to enter each link, linked through {@link #nextWaiting}.
+	 */
+	private final int[] firstWaiting;
+	private final int[] lastWaiting;
+
+	// Trips:
+
+	private Cyclist[] cyclists = new Cyclist[INITIAL_CAPACITY];
+	private int[] routeIndices = new int[INITIAL_CAPACITY];
+	private int[] nextAtEnd = new int[INITIAL_CAPACITY];
+	private int[] nextWaiting = new int[INITIAL_CAPACITY];
+
+	/**
+	 * The cyclists on sublinks, by earliest exit.
+	 */
+	private final TripHeap exits = new TripHeap();
+
+	private TripListener listener = null;
+
+	/**
+	 * Whether the trips not depending on previous trips have been scheduled for departure, i.e. the run has started.
+	 */
+	private boolean started = false;
+
+	/**
+	 * The last step [s] that has been run.
+	 */
+	private double currentTime = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * The links without sublinks in this engine, or <code>null</code> if the engine holds all links.
+	 */
+	private RemoteLinks remoteLinks = null;
+
+	/**
+	 * Whether the engine has no sublinks, and can thus only be run by {@link #runFreeFlow(double, int)}.
+	 */
+	private final boolean freeFlowOnly;
+
+	/**
+	 * @param lengths The length [m] of each link.
+	 * @param numbersOfPseudoLanes The number of pseudolanes of each link.
+	 * @param fffConfig Providing the maximum sublink length, the correction factor, and the lane selection kernel.
+	 * @param timeStepSize The time step size [s] of the corresponding QSim.
+	 * @param stuckTime The time [s] after which a cyclist at the end of a link enters its next link, even if that is full.
+	 */
+	public EventDrivenEngine( final double[] lengths, final int[] numbersOfPseudoLanes, final FFFConfigGroup fffConfig,
+			final double timeStepSize, final double stuckTime ){
+		this( lengths, numbersOfPseudoLanes, fffConfig, timeStepSize, stuckTime, null, false );
+	}
+
+	/**
+	 * @return An engine for {@link #runFreeFlow(double, int)} only, allocating no sublinks. It cannot be run with congestion by
+	 * {@link #run(double)}, nor write or read checkpoints.
+	 *
+	 * @see #EventDrivenEngine(double[], int[], FFFConfigGroup, double, double)
+	 */
+	public static EventDrivenEngine createFreeFlowEngine( final double[] lengths, final FFFConfigGroup fffConfig,
+			final double timeStepSize ){
+		return new EventDrivenEngine( lengths, new int[lengths.length], fffConfig, timeStepSize, Double.POSITIVE_INFINITY, null, true );
+	}
+
+	/**
+	 * As {@link #EventDrivenEngine(double[], int[], FFFConfigGroup, double, double)}, but with the sublinks of only some links,
+	 * the others being held by other processes, see {@link #setRemoteLinks(RemoteLinks)}.
+	 *
+	 * @param localLinks Whether each link is held by this engine, or <code>null</code> for all links.
+	 */
+	/* package */ EventDrivenEngine( final double[] lengths, final int[] numbersOfPseudoLanes, final FFFConfigGroup fffConfig,
+			final double timeStepSize, final double stuckTime, final boolean[] localLinks ){
+		this( lengths, numbersOfPseudoLanes, fffConfig, timeStepSize, stuckTime, localLinks, false );
+	}
+
+	private EventDrivenEngine( final double[] lengths, final int[] numbersOfPseudoLanes, final FFFConfigGroup fffConfig,
+			final double timeStepSize, final double stuckTime, final boolean[] localLinks, final boolean freeFlowOnly ){
+		super( lengths.length, timeStepSize );
+		this.stuckTime = stuckTime;
+		this.lengths = lengths.clone();
+		this.correctionFactor = fffConfig.getCorrectionFactor();
+		this.batchedLaneSelection = fffConfig.getLaneSelectionKernel() == LaneSelectionKernel.batched;
+		this.freeFlowOnly = freeFlowOnly;
+
+		final int numberOfLinks = lengths.length;
+		this.sublinks = new Sublink[numberOfLinks][];
+		for(int link = 0; link < numberOfLinks; link++){
+			if( !freeFlowOnly && (localLinks == null || localLinks[link]) ){
+				sublinks[link] = Sublink.createLinkArrayFromNumberOfPseudoLanes( store, numbersOfPseudoLanes[link], lengths[link],
+						fffConfig.getLMax() );
+			}
+		}
+		this.firstAtEnd = new int[numberOfLinks];
+		this.lastAtEnd = new int[numberOfLinks];
+		this.firstWaiting = new int[numberOfLinks];
+		this.lastWaiting = new int[numberOfLinks];
+		Arrays.fill( firstAtEnd, NONE );
+		Arrays.fill( lastAtEnd, NONE );
+		Arrays.fill( firstWaiting, NONE );
+		Arrays.fill( lastWaiting, NONE );
+	}
+
+	public int getNumberOfLinks(){
+		return sublinks.length;
+	}
+
+	/**
+	 * The sublinks of <code>link</code>, e.g. for inspecting their state in the {@link SublinkStore}, or <code>null</code> if the
+	 * link is held by another process or the engine is {@link #createFreeFlowEngine for free flow only}.
+	 */
+	public Sublink[] getSublinks( final int link ){
+		return sublinks[link];
+	}
+
+	public SublinkStore getStore(){
+		return store;
+	}
+
+	public void setTripListener( final TripListener listener ){
+		this.listener = listener;
+	}
+
+	/**
+	 * Adds a trip departing at a given time.
+	 *
+	 * @param route The indices of the links of the route, starting with the link of departure and ending with the link of arrival.
+	 *
+	 * @return The index of the trip.
+	 */
+	public int addTrip( final Cyclist cyclist, final int[] route, final double departureTime ){
+		return addTrip( cyclist, route, departureTime, NONE, 0. );
+	}
+
+	/**
+	 * Adds a trip departing after the arrival of a previous trip, as an activity between the two trips would end.
+	 *
+	 * @param plannedDepartureTime The planned departure time [s], or {@link Double#NaN} if the trip departs
+	 * <code>activityDuration</code> after the arrival of <code>previousTrip</code>. Otherwise the trip departs at this
+	 * time, or immediately at the arrival of <code>previousTrip</code> if that is later.
+	 * @param previousTrip The index of the previous trip, or -1 if the trip does not depend on another trip.
+	 * @param activityDuration The duration [s] of the activity after <code>previousTrip</code>, if the departure time is not planned.
+	 *
+	 * @return The index of the trip.
+	 */
+	public int addTrip( final Cyclist cyclist, final int[] route, final double plannedDepartureTime, final int previousTrip,
+			final double activityDuration ){
+		final int trip = addTripToChains( route, plannedDepartureTime, previousTrip, activityDuration );
+		cyclists[trip] = cyclist;
+		return trip;
+	}
+
+	@Override void growTripArrays( final int newCapacity ){
+		cyclists = Arrays.copyOf( cyclists, newCapacity );
+		routeIndices = Arrays.copyOf( routeIndices, newCapacity );
+		nextAtEnd = Arrays.copyOf( nextAtEnd, newCapacity );
+		nextWaiting = Arrays.copyOf( nextWaiting, newCapacity );
+	}
+
+	/**
+	 * Runs all trips until they have arrived or <code>endTime</code> has been reached. If the engine has been run before, the
+	 * run is continued after the last step run, so that running until t<sub>1</sub> and then until t<sub>2</sub> gives the
+	 * same results as running until t<sub>2</sub>.
+	 */
+	public void run( final double endTime ){
+		checkSublinks();
+		if( !started ){
+			scheduleFirstDepartures();
+			started = true;
+		}
+		while( true ){
+			final double now = nextStep( currentTime, exits.peekKey() );
+			if( now > endTime || now == Double.POSITIVE_INFINITY ){
+				break;
+			}
+			currentTime = now;
+			moveNodes( now );
+			moveSublinks( now );
+			moveDepartures( now );
+			moveWaiting( now );
+			if( listener != null ){
+				listener.stepDone( now );
+			}
+		}
+	}
+
+	private void checkSublinks(){
+		if( freeFlowOnly ){
+			throw new IllegalStateException( "The engine has no sublinks, and can only be run in free flow." );
+		}
+	}
+
+	/**
+	 * Moves the cyclists at the end of their links to their next links, as done by the nodes of the QSim.
+	 */
+	private void moveNodes( final double now ){
+		final int numberOfLinks = offeringLinks.size();
+		for(int i = 0; i < numberOfLinks; i++){
+			final int link = offeringLinks.poll();
+			if( moveNode( link, now ) ){
+				offeringLinks.add( link );
+			}
+		}
+	}
+
+	/**
+	 * Moves the cyclists at the end of <code>link</code> to their next links, until the next link of the first cyclist is full.
+	 *
+	 * @return Whether cyclists remain at the end of the link.
+	 */
+	/* package */ boolean moveNode( final int link, final double now ){
+		final Sublink lastSublink = sublinks[link][sublinks[link].length - 1];
+		final boolean stuck = now - lastSublink.getLastTimeMoved() > stuckTime;
+		int trip;
+		while( (trip = firstAtEnd[link]) != NONE ){
+			final int routeIndex = routeIndices[trip] + 1;
+			final Sublink[] nextLink = sublinks[routes[trip][routeIndex]];
+			if( nextLink == null ){
+				if( !remoteLinks.enter( trip, routeIndex, stuck, now ) ){
+					break;
+				}
+			} else if( nextLink[0].isLinkFull() && !stuck ){
+				break;
+			}
+			firstAtEnd[link] = nextAtEnd[trip];
+			if( firstAtEnd[link] == NONE ){
+				lastAtEnd[link] = NONE;
+			}
+			linkLeaveTimes[trip][routeIndex - 1] = now;
+			if( listener != null ){
+				listener.leftLink( trip, routeIndex - 1, now );
+			}
+			if( nextLink != null ){
+				linkEnterTimes[trip][routeIndex] = now;
+				if( listener != null ){
+					listener.enteredLink( trip, routeIndex, now );
+				}
+				enterLink( trip, routeIndex );
+			}
+		}
+		return firstAtEnd[link] != NONE;
+	}
+
+	/**
+	 * Lets the cyclist of <code>trip</code>, coming from a link held by another process, enter the <code>routeIndex</code>'th
+	 * link of its route as {@link #moveNode(int, double)}, unless that link is full and the cyclist is not stuck.
+	 *
+	 * @param tEarliestExit The earliest exit [s] of the cyclist from the link it is coming from.
+	 *
+	 * @return Whether the cyclist has entered the link.
+	 */
+	/* package */ boolean enterFromRemote( final int trip, final int routeIndex, final boolean stuck, final double tEarliestExit,
+			final double now ){
+		if( sublinks[routes[trip][routeIndex]][0].isLinkFull() && !stuck ){
+			return false;
+		}
+		cyclists[trip].setTEarliestExit( tEarliestExit );
+		linkEnterTimes[trip][routeIndex] = now;
+		if( listener != null ){
+			listener.enteredLink( trip, routeIndex, now );
+		}
+		enterLink( trip, routeIndex );
+		return true;
+	}
+
+	/**
+	 * As <code>QCycleLaneWithSublinks.addFromUpstream</code>.
+	 */
+	private void enterLink( final int trip, final int routeIndex ){
+		routeIndices[trip] = routeIndex;
+		final Cyclist cyclist = cyclists[trip];
+		final Sublink fffLink = sublinks[routes[trip][routeIndex]][0];
+		enterSublink( trip, cyclist, fffLink );
+		cyclist.resetCurrentLinkIndex();
+		exits.add( trip, cyclist.getTEarliestExit(), tieRanks[trip] );
+	}
+
+	/**
+	 * The FFF equations of a cyclist entering a sublink.
+	 */
+	private void enterSublink( final int trip, final Cyclist cyclist, final Sublink fffLink ){
+		// Selecting the appropriate pseudoLane:
+		final int pseudoLane = batchedLaneSelection ? cyclist.selectPseudoLaneBatched( fffLink ) : cyclist.selectPseudoLane( fffLink );
+
+		// Assigning a provisional, maximum speed for this link:
+		double vTilde = cyclist.getVMax(store, pseudoLane);
+		vTilde = Math.min(cyclist.getDesiredSpeed(), vTilde);
+		cyclist.setSpeed(vTilde);
+		cyclist.setCurrentPseudoLane(pseudoLane);
+
+		// The time at which the tip of the cyclist enters the beginning of the link:
+		final double tStart = Double.max(store.getTReady(pseudoLane), cyclist.getTEarliestExit()) ;
+
+		// Calculating earliest possible exit of the link:
+		final double tEarliestExit = tStart + store.getLength(pseudoLane) / vTilde;
+		cyclist.setTEarliestExit( tEarliestExit );
+
+		// Increasing the occupied space on link:
+		fffLink.increaseOccupiedSpace(cyclist, vTilde );
+
+		// Updating tReady and tExit of the link:
+		final double tOneBicycleLength = cyclist.getBicycleLength() / vTilde;
+		final double surplus = store.getLength(pseudoLane) / vTilde * (correctionFactor-1);
+		store.setTReady(pseudoLane, tStart + tOneBicycleLength + surplus);
+		fffLink.setTEnd(pseudoLane, cyclist.getTEarliestExit() + tOneBicycleLength + surplus);
+	}
+
+	/**
+	 * Moves the cyclists whose earliest exits have been reached to their next sublinks, to the end of their links, or lets
+	 * them arrive, as <code>QCycleLaneWithSublinks.doSimStep</code>.
+	 */
+	/* package */ void moveSublinks( final double now ){
+		while( exits.peekKey() <= now ){
+			final int trip = exits.poll();
+			final Cyclist cyclist = cyclists[trip];
+			final int link = routes[trip][routeIndices[trip]];
+			final Sublink[] fffLinkArray = sublinks[link];
+			final Sublink fffLink = fffLinkArray[cyclist.getCurrentLinkIndex()];
+			fffLink.reduceOccupiedSpace(cyclist, cyclist.getSpeed() );
+
+			if( cyclist.getCurrentLinkIndex() < fffLinkArray.length - 1 ){
+				enterSublink( trip, cyclist, fffLinkArray[cyclist.getCurrentLinkIndex() + 1] );
+				cyclist.incrementCurrentLinkIndex();
+				exits.add( trip, cyclist.getTEarliestExit(), tieRanks[trip] );
+			} else if( routeIndices[trip] == routes[trip].length - 1 ){
+				arrive( trip, now );
+			} else {
+				fffLink.setLastTimeMoved( cyclist.getTEarliestExit() );
+				addAtEnd( trip, link );
+			}
+		}
+	}
+
+	private void addAtEnd( final int trip, final int link ){
+		nextAtEnd[trip] = NONE;
+		if( lastAtEnd[link] == NONE ){
+			firstAtEnd[link] = trip;
+			offeringLinks.add( link );
+		} else {
+			nextAtEnd[lastAtEnd[link]] = trip;
+		}
+		lastAtEnd[link] = trip;
+	}
+
+	@Override void arrive( final int trip, final double now ){
+		super.arrive( trip, now );
+		if( listener != null ){
+			listener.arrived( trip, now );
+		}
+	}
+
+	/**
+	 * Lets the trips depart whose departure time has been reached; their cyclists start to wait for entering their first link.
+	 */
+	private void moveDepartures( final double now ){
+		while( departures.peekKey() <= now ){
+			depart( departures.poll(), now );
+		}
+	}
+
+	/**
+	 * Lets the trip depart, its cyclist starting to wait for entering the first link of the route.
+	 */
+	/* package */ void depart( final int trip, final double now ){
+		departureTimes[trip] = now;
+		if( listener != null ){
+			listener.departed( trip, now );
+		}
+		if( routes[trip].length == 1 ){
+			// arriving on the link of departure, without entering the traffic:
+			arrive( trip, now );
+			return;
+		}
+		final int link = routes[trip][0];
+		nextWaiting[trip] = NONE;
+		if( lastWaiting[link] == NONE ){
+			firstWaiting[link] = trip;
+			waitingLinks.add( link );
+		} else {
+			nextWaiting[lastWaiting[link]] = trip;
+		}
+		lastWaiting[link] = trip;
+	}
+
+	/**
+	 * Lets the waiting cyclists enter their first links as long as these are not full, as
+	 * <code>QCycleLaneWithSublinks.addFromWait</code>. They are put at the end of their first link.
+	 */
+	private void moveWaiting( final double now ){
+		final int numberOfLinks = waitingLinks.size();
+		for(int i = 0; i < numberOfLinks; i++){
+			final int link = waitingLinks.poll();
+			if( moveWaitingLink( link, now ) ){
+				waitingLinks.add( link );
+			}
+		}
+	}
+
+	/**
+	 * Lets the cyclists waiting at <code>link</code> enter it as long as it is not full.
+	 *
+	 * @return Whether cyclists remain waiting.
+	 */
+	/* package */ boolean moveWaitingLink( final int link, final double now ){
+		final Sublink[] fffLinkArray = sublinks[link];
+		int trip;
+		while( (trip = firstWaiting[link]) != NONE && !fffLinkArray[0].isLinkFull() ){
+			firstWaiting[link] = nextWaiting[trip];
+			if( firstWaiting[link] == NONE ){
+				lastWaiting[link] = NONE;
+			}
+			linkEnterTimes[trip][0] = now;
+			if( listener != null ){
+				listener.enteredTraffic( trip, now );
+			}
+			routeIndices[trip] = 0;
+			final Cyclist cyclist = cyclists[trip];
+			cyclist.setCurrentLinkIndex( fffLinkArray.length - 1 );
+			fffLinkArray[fffLinkArray.length - 1].setLastTimeMoved( now );
+			cyclist.setTEarliestExit( now );
+			addAtEnd( trip, link );
+		}
+		return firstWaiting[link] != NONE;
+	}
+
+	/**
+	 * Runs all trips until they have arrived or <code>endTime</code> has been reached, as the QSim with links without congestion:
+	 * every cyclist leaves a link once its earliest exit, accumulating the length of the link divided by its desired speed, has
+	 * been reached, and is moved over the node in the next step. The chains of trips are computed in parallel, after which the
+	 * events are reported in the order of the steps. Within a step, the events are ordered as by {@link #run(double)}: nodes,
+	 * arrivals, departures, and entering the traffic.
+	 *
+	 * @param numberOfThreads The number of threads computing the chains of trips.
+	 */
+	public void runFreeFlow( final double endTime, final int numberOfThreads ){
+		final int[] firstTrips = getFirstTripsOfChains();
+		final int chains = firstTrips.length;
+		final AtomicInteger nextChain = new AtomicInteger();
+		final Thread[] threads = new Thread[Math.max( numberOfThreads, 1 )];
+		for(int i = 0; i < threads.length; i++){
+			threads[i] = new Thread( () -> {
+				int chain;
+				while( (chain = nextChain.getAndIncrement()) < chains ){
+					computeFreeFlowChain( firstTrips[chain], endTime );
+				}
+			}, "FreeFlow" + i );
+			threads[i].start();
+		}
+		for(Thread thread : threads){
+			try {
+				thread.join();
+			} catch ( InterruptedException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+		if( listener != null ){
+			reportRecordedEvents( firstTrips );
+		}
+	}
+
+	/**
+	 * @return The first step not before <code>time</code>.
+	 */
+	private double ceilStep( final double time ){
+		return Math.ceil( time / timeStepSize ) * timeStepSize;
+	}
+
+	/**
+	 * Computes the departure, link and arrival times of the chain of trips starting with <code>trip</code>.
+	 */
+	private void computeFreeFlowChain( int trip, final double endTime ){
+		double departureTime = ceilStep( plannedDepartureTimes[trip] );
+		while( departureTime <= endTime ){
+			departureTimes[trip] = departureTime;
+			final int[] route = routes[trip];
+			double step = departureTime;
+			if( route.length > 1 ){
+				// entering the traffic at the end of the first link, as QCycleLaneWithoutCongestion.addFromWait:
+				linkEnterTimes[trip][0] = departureTime;
+				final double desiredSpeed = cyclists[trip].getDesiredSpeed();
+				double tEarliestExit = departureTime;
+				for(int routeIndex = 1; routeIndex < route.length; routeIndex++){
+					step += timeStepSize;
+					if( step > endTime ){
+						return;
+					}
+					linkLeaveTimes[trip][routeIndex - 1] = step;
+					linkEnterTimes[trip][routeIndex] = step;
+					// as QCycleLaneWithoutCongestion.addFromUpstream, and leaving the link in the first step after its earliest exit:
+					tEarliestExit = tEarliestExit + lengths[route[routeIndex]] / desiredSpeed;
+					step = Math.max( step, ceilStep( tEarliestExit ) );
+				}
+				if( step > endTime ){
+					return;
+				}
+			}
+			arrivalTimes[trip] = step;
+			final int next = nextTrips[trip];
+			if( next == NONE ){
+				return;
+			}
+			departureTime = ceilStep( Double.isNaN( plannedDepartureTimes[next] ) ?
+					step + activityDurations[next] : Math.max( step, plannedDepartureTimes[next] ) );
+			trip = next;
+		}
+	}
+
+	/**
+	 * Reports the events of the recorded departure, link and arrival times to the listener, by sweeping over the steps. Each
+	 * chain of trips is kept in the bucket of the step and phase of its next event, so reporting takes time linear in the number
+	 * of events.
+	 */
+	private void reportRecordedEvents( final int[] firstTrips ){
+		// the phases of the events within a step:
+		final int nodePhase = 0;
+		final int arrivalPhase = 1;
+		final int departurePhase = 2;
+		final int trafficPhase = 3;
+		double lastTime = 0.;
+		for(int trip = 0; trip < numberOfTrips; trip++){
+			if( !Double.isNaN( departureTimes[trip] ) ){
+				lastTime = Math.max( lastTime, Double.isNaN( arrivalTimes[trip] ) ?
+						getLastRecordedTime( trip ) : arrivalTimes[trip] );
+			}
+		}
+		final int numberOfBuckets = 4 * ((int) Math.round( lastTime / timeStepSize ) + 1);
+		final int[] firstInBucket = new int[numberOfBuckets];
+		final int[] lastInBucket = new int[numberOfBuckets];
+		Arrays.fill( firstInBucket, NONE );
+		// the next event of each chain: the trip, and the event within the trip, 0 being the departure, 1 entering the traffic,
+		// 1 + i entering the i'th link of the route, and the length of the route plus 1 the arrival.
+		final int[] events = new int[numberOfTrips];
+		final int[] nextInBucket = new int[numberOfTrips];
+		for(int trip : firstTrips){
+			if( !Double.isNaN( departureTimes[trip] ) ){
+				events[trip] = 0;
+				addToBucket( trip, bucketOf( departureTimes[trip], departurePhase ), firstInBucket, lastInBucket, nextInBucket );
+			}
+		}
+		boolean stepHasEvents = false;
+		for(int bucket = 0; bucket < numberOfBuckets; bucket++){
+			int trip;
+			while( (trip = firstInBucket[bucket]) != NONE ){
+				firstInBucket[bucket] = nextInBucket[trip];
+				stepHasEvents = true;
+				final double now = (bucket / 4) * timeStepSize;
+				final int[] route = routes[trip];
+				final int event = events[trip];
+				int nextTrip = trip;
+				int nextEvent = event + 1;
+				double nextTime;
+				int nextPhase;
+				if( event == 0 ){
+					listener.departed( trip, now );
+					if( route.length == 1 ){
+						// arriving on the link of departure, without entering the traffic:
+						listener.arrived( trip, now );
+						nextTrip = nextTrips[trip];
+						nextEvent = 0;
+					}
+				} else if( event == 1 ){
+					listener.enteredTraffic( trip, now );
+				} else if( event <= route.length ){
+					listener.leftLink( trip, event - 2, now );
+					listener.enteredLink( trip, event - 1, now );
+				} else {
+					listener.arrived( trip, now );
+					nextTrip = nextTrips[trip];
+					nextEvent = 0;
+				}
+				if( nextTrip == NONE ){
+					continue;
+				}
+				if( nextEvent == 0 ){
+					nextTime = departureTimes[nextTrip];
+					nextPhase = departurePhase;
+				} else if( nextEvent == 1 ){
+					nextTime = linkEnterTimes[nextTrip][0];
+					nextPhase = trafficPhase;
+				} else if( nextEvent <= route.length ){
+					nextTime = linkEnterTimes[nextTrip][nextEvent - 1];
+					nextPhase = nodePhase;
+				} else {
+					nextTime = arrivalTimes[nextTrip];
+					nextPhase = arrivalPhase;
+				}
+				if( !Double.isNaN( nextTime ) ){
+					events[nextTrip] = nextEvent;
+					addToBucket( nextTrip, bucketOf( nextTime, nextPhase ), firstInBucket, lastInBucket, nextInBucket );
+				}
+			}
+			if( bucket % 4 == 3 && stepHasEvents ){
+				listener.stepDone( (bucket / 4) * timeStepSize );
+				stepHasEvents = false;
+			}
+		}
+	}
+
+	/**
+	 * @return The time at which the trip has entered the last link it has entered, including the link of departure, or its
+	 * departure time if none.
+	 */
+	private double getLastRecordedTime( final int trip ){
+		for(int routeIndex = routes[trip].length - 1; routeIndex >= 0; routeIndex--){
+			if( !Double.isNaN( linkEnterTimes[trip][routeIndex] ) ){
+				return linkEnterTimes[trip][routeIndex];
+			}
+		}
+		return departureTimes[trip];
+	}
+
+	private int bucketOf( final double time, final int phase ){
+		return 4 * (int) Math.round( time / timeStepSize ) + phase;
+	}
+
+	private static void addToBucket( final int trip, final int bucket, final int[] firstInBucket, final int[] lastInBucket,
+			final int[] nextInBucket ){
+		nextInBucket[trip] = NONE;
+		if( firstInBucket[bucket] == NONE ){
+			firstInBucket[bucket] = trip;
+		} else {
+			nextInBucket[lastInBucket[bucket]] = trip;
+		}
+		lastInBucket[bucket] = trip;
+	}
+
+	public Cyclist getCyclist( final int trip ){
+		return cyclists[trip];
+	}
+
+	/**
+	 * @return The last step [s] that has been run, or negative infinity if none.
+	 */
+	public double getCurrentTime(){
+		return currentTime;
+	}
+
+
+	// Distributed runs, see DistributedEngine.
+
+	/* package */ void setRemoteLinks( final RemoteLinks remoteLinks ){
+		this.remoteLinks = remoteLinks;
+	}
+
+	/**
+	 * @return The first cyclist at the end of <code>link</code>, or -1 if none.
+	 */
+	/* package */ int getFirstAtEnd( final int link ){
+		return firstAtEnd[link];
+	}
+
+	/* package */ LinkList getOfferingLinks(){
+		return offeringLinks;
+	}
+
+	/* package */ LinkList getWaitingLinks(){
+		return waitingLinks;
+	}
+
+	/**
+	 * @return The earliest exit [s] of the next cyclist to exit a sublink, or positive infinity if none.
+	 */
+	/* package */ double getNextExitTime(){
+		return exits.peekKey();
+	}
+
+
+	// Checkpoints.
+
+	/**
+	 * Writes the state of the run, i.e. the sublinks, the queues of the links, the progress of each trip along its route and
+	 * chain, the trip state of the cyclists, and the scheduled exits and departures. The links, trips and cyclist parameters
+	 * are not written, but have to be given to the engine restoring the checkpoint.
+	 */
+	public void writeCheckpoint( final DataOutput out ) throws IOException{
+		checkSublinks();
+		out.writeInt( CHECKPOINT_MAGIC );
+		out.writeInt( CHECKPOINT_VERSION );
+		out.writeBoolean( started );
+		out.writeDouble( currentTime );
+		out.writeInt( sublinks.length );
+		out.writeInt( numberOfTrips );
+		store.writeState( out );
+		for(int link = 0; link < sublinks.length; link++){
+			out.writeInt( firstAtEnd[link] );
+			out.writeInt( lastAtEnd[link] );
+			out.writeInt( firstWaiting[link] );
+			out.writeInt( lastWaiting[link] );
+		}
+		offeringLinks.write( out );
+		waitingLinks.write( out );
+		for(int trip = 0; trip < numberOfTrips; trip++){
+			out.writeInt( routeIndices[trip] );
+			out.writeInt( nextAtEnd[trip] );
+			out.writeInt( nextWaiting[trip] );
+			out.writeDouble( departureTimes[trip] );
+			out.writeDouble( arrivalTimes[trip] );
+			for(int routeIndex = 0; routeIndex < routes[trip].length; routeIndex++){
+				out.writeDouble( linkEnterTimes[trip][routeIndex] );
+				out.writeDouble( linkLeaveTimes[trip][routeIndex] );
+			}
+			final Cyclist cyclist = cyclists[trip];
+			out.writeDouble( cyclist.getSpeed() );
+			out.writeDouble( cyclist.getTEarliestExit() );
+			out.writeInt( cyclist.getCurrentLinkIndex() );
+			out.writeInt( cyclist.getCurrentPseudoLane() );
+		}
+		exits.write( out );
+		departures.write( out );
+	}
+
+	/**
+	 * Restores the state written by {@link #writeCheckpoint(DataOutput)}, after which {@link #run(double)} continues the run
+	 * from the step of the checkpoint. The engine has to have the same links as the engine having written the checkpoint, and
+	 * the same trips with the same cyclist parameters and tie ranks, added in the same order; only the numbers of links,
+	 * pseudolanes, sublinks and trips are verified.
+	 *
+	 * @throws IOException If the checkpoint cannot be read, or is not of an engine with the same links and trips.
+	 */
+	public void readCheckpoint( final DataInput in ) throws IOException{
+		checkSublinks();
+		if( in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION ){
+			throw new IOException( "Not a checkpoint of this version of the event-driven engine." );
+		}
+		final boolean checkpointStarted = in.readBoolean();
+		final double checkpointTime = in.readDouble();
+		if( in.readInt() != sublinks.length || in.readInt() != numberOfTrips ){
+			throw new IOException( "The checkpoint is not of an engine with the same links and trips." );
+		}
+		store.readState( in );
+		for(int link = 0; link < sublinks.length; link++){
+			firstAtEnd[link] = in.readInt();
+			lastAtEnd[link] = in.readInt();
+			firstWaiting[link] = in.readInt();
+			lastWaiting[link] = in.readInt();
+		}
+		offeringLinks.read( in );
+		waitingLinks.read( in );
+		for(int trip = 0; trip < numberOfTrips; trip++){
+			routeIndices[trip] = in.readInt();
+			nextAtEnd[trip] = in.readInt();
+			nextWaiting[trip] = in.readInt();
+			departureTimes[trip] = in.readDouble();
+			arrivalTimes[trip] = in.readDouble();
+			for(int routeIndex = 0; routeIndex < routes[trip].length; routeIndex++){
+				linkEnterTimes[trip][routeIndex] = in.readDouble();
+				linkLeaveTimes[trip][routeIndex] = in.readDouble();
+			}
+			final Cyclist cyclist = cyclists[trip];
+			// exact, as the speed of a cyclist never exceeds the desired speed:
+			cyclist.setSpeed( in.readDouble() );
+			cyclist.setTEarliestExit( in.readDouble() );
+			cyclist.setCurrentLinkIndex( in.readInt() );
+			cyclist.setCurrentPseudoLane( in.readInt() );
+		}
+		exits.read( in );
+		departures.read( in );
+		started = checkpointStarted;
+		currentTime = checkpointTime;
+	}
+
+	/**
+	 * Reports the events up to the current time of the engine to the listener, in the order of the steps, and within a step as
+	 * by {@link #runFreeFlow(double, int)}. After restoring a checkpoint, the events before it are thus thrown again, such that
+	 * the events of the resumed run are complete.
+	 */
+	public void reportPastEvents(){
+		if( listener != null ){
+			reportRecordedEvents( getFirstTripsOfChains() );
+		}
+	}
+}
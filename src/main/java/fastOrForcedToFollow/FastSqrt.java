@@ -0,0 +1,63 @@
+package fastOrForcedToFollow;
+
+/**
+ * Square root evaluations with bounded error, used by {@link SqrtLTM} when a precision other than exact is configured.
+ *
+ * @author mpaulsen
+ */
+final class FastSqrt {
+
+	/**
+	 * Number of intervals of the table covering the normalised range [1,4].
+	 */
+	private static final int TABLE_INTERVALS = 4096;
+
+	private static final double INVERSE_STEP = TABLE_INTERVALS / 3.;
+
+	/**
+	 * Square roots of the <code>TABLE_INTERVALS + 1</code> equidistant points in [1,4].
+	 */
+	private static final double[] TABLE = createTable();
+
+	private FastSqrt(){
+		// static methods only
+	}
+
+	private static double[] createTable(){
+		double[] table = new double[TABLE_INTERVALS + 2]; // one extra entry to allow interpolation from the final point.
+		for(int i = 0; i < table.length; i++){
+			table[i] = Math.sqrt(1. + i / INVERSE_STEP);
+		}
+		return table;
+	}
+
+	/**
+	 * Square root based on linear interpolation in a lookup table. The argument is normalised to [1,4) by an even power of two,
+	 * so the relative error is bounded by h^2/32 &lt; 2e-8 over the entire range, where h = 3/4096 is the table step.
+	 * Zero, subnormal, negative, infinite and NaN arguments are handled by {@link Math#sqrt(double)}.
+	 */
+	static double tabulated(final double x){
+		if(!(x >= Double.MIN_NORMAL) || x == Double.POSITIVE_INFINITY){
+			return Math.sqrt(x);
+		}
+		final int halfExponent = Math.getExponent(x) >> 1;
+		final double normalised = Math.scalb(x, -2 * halfExponent); // in [1,4)
+		final double position = (normalised - 1.) * INVERSE_STEP;
+		final int i = (int) position;
+		final double fraction = position - i;
+		return Math.scalb(TABLE[i] + fraction * (TABLE[i+1] - TABLE[i]), halfExponent);
+	}
+
+	/**
+	 * Square root based on an exponent-halving initial guess followed by a single Newton step. The result is never below the
+	 * exact square root, and the relative error is bounded by 0.2%.
+	 * Zero, subnormal, negative, infinite and NaN arguments are handled by {@link Math#sqrt(double)}.
+	 */
+	static double approximate(final double x){
+		if(!(x >= Double.MIN_NORMAL) || x == Double.POSITIVE_INFINITY){
+			return Math.sqrt(x);
+		}
+		final double guess = Double.longBitsToDouble((Double.doubleToRawLongBits(x) >> 1) + 0x1FF8000000000000L);
+		return 0.5 * (guess + x / guess);
+	}
+}
@@ -13,12 +13,13 @@ abstract class LinkTransmissionModel {
 	/**
 	 * Method for determining the maximum allowed speed at a pseudolane at a given time.
 	 * 
-	 * @param pseudoLane The PseudoLane for which the maximum speed is determined.
+	 * @param store The store holding the state of the pseudolane.
+	 * @param pseudoLane The global index of the pseudolane for which the maximum speed is determined.
 	 * @param time The time at which the speed determination is based.
 	 * 
 	 * @return The maximum allowed speed [m/s] the <code>Pseudolane</code> when entering at <code>time</code>.
 	 */
-	abstract double getLaneVMax(final PseudoLane pseudoLane, final double time);
+	abstract double getLaneVMax(final SublinkStore store, final int pseudoLane, final double time);
 	
 	/**
 	 * Method for determining the safety buffer distance given a speed.
@@ -36,10 +37,24 @@ abstract class LinkTransmissionModel {
 	 * @param desiredSpeed The desired speed [m/s] of the Cyclist.
 	 * @param time The time at which the lane selection takes place.
 	 * 
-	 * @return The selected pseudolane, i.e. the right-most pseudolane to accomodate the desired speed,
+	 * @return The global index of the selected pseudolane, i.e. the right-most pseudolane to accomodate the desired speed,
 	 *         alternatively the pseudolane with the highest speed.
 	 */
-	abstract PseudoLane selectPseudoLane(final Sublink receivingLink, final double desiredSpeed, final double time);
+	abstract int selectPseudoLane(final Sublink receivingLink, final double desiredSpeed, final double time);
+
+	/**
+	 * Method for determining the most appropriate pseudolane of a link, evaluating all pseudolanes of the link in one pass.
+	 * Must give the same result as {@link #selectPseudoLane(Sublink, double, double)}, which it defaults to.
+	 * 
+	 * @param receivingLink The Link that the Cyclist is entering.
+	 * @param desiredSpeed The desired speed [m/s] of the Cyclist.
+	 * @param time The time at which the lane selection takes place.
+	 * 
+	 * @return The global index of the selected pseudolane.
+	 */
+	int selectPseudoLaneBatched(final Sublink receivingLink, final double desiredSpeed, final double time){
+		return selectPseudoLane(receivingLink, desiredSpeed, time);
+	}
 	
 	
 	
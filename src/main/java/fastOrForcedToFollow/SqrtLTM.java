@@ -1,5 +1,7 @@
 package fastOrForcedToFollow;
 
+import org.matsim.run.FFFConfigGroup.SqrtPrecision;
+
 /**
  * 
  * @author madsp
@@ -12,49 +14,166 @@ public final class SqrtLTM extends LinkTransmissionModel {
 	final double theta_0;
 	final double theta_1;
 	final double lambda_c;
+
+	/**
+	 * Precomputed theta_1^2.
+	 */
+	private final double theta_1Squared;
+
+	/**
+	 * Precomputed theta_1^2/4, i.e. the numerator of the case 4 threshold.
+	 */
+	private final double quarterTheta_1Squared;
+
+	/**
+	 * The precision used for evaluating the square roots and squares of the model.
+	 */
+	private final SqrtPrecision precision;
 	
 	/* package */ SqrtLTM(final double theta_0, final double theta_1, final double lambda_c){
+		this(theta_0, theta_1, lambda_c, SqrtPrecision.exact);
+	}
+
+	/* package */ SqrtLTM(final double theta_0, final double theta_1, final double lambda_c, final SqrtPrecision precision){
 		this.theta_0 = theta_0;
 		this.theta_1 = theta_1;
 		this.lambda_c = lambda_c;
+		this.theta_1Squared = theta_1 * theta_1;
+		this.quarterTheta_1Squared = theta_1 * theta_1 / 4.;
+		this.precision = precision;
+	}
+
+	/**
+	 * @return The square root of <code>x</code>, evaluated with the precision of the model.
+	 */
+	private double sqrt(final double x){
+		if(precision == SqrtPrecision.exact){
+			return Math.sqrt(x);
+		} else if(precision == SqrtPrecision.tabulated){
+			return FastSqrt.tabulated(x);
+		} else {
+			return FastSqrt.approximate(x);
+		}
+	}
+
+	/**
+	 * @return The square of <code>x</code>. The exact precision keeps the original <code>Math.pow</code> evaluation.
+	 */
+	private double square(final double x){
+		if(precision == SqrtPrecision.exact){
+			return Math.pow(x, 2);
+		}
+		return x * x;
 	}
 	
 	/* package */ double getBicycleLength(){
 		return this.lambda_c;
 	}
 	
-	/* package */ double getLaneVMax(final PseudoLane pseudoLane, final double time){
-		double constants = this.lambda_c + pseudoLane.getLength() - this.theta_0;
-		if(time >= pseudoLane.getTEnd() - this.theta_1*this.theta_1/4./constants){ 		
-			return 4*Math.pow((constants/this.theta_1),2); //Case 4 from paper
+	/* package */ double getLaneVMax(final SublinkStore store, final int pseudoLane, final double time){
+		final double length = store.getLength(pseudoLane);
+		final double tEnd = store.getTEnd(pseudoLane);
+		double constants = this.lambda_c + length - this.theta_0;
+		if(time >= tEnd - this.quarterTheta_1Squared/constants){ 		
+			return 4*square(constants/this.theta_1); //Case 4 from paper
 		}
-		double speed = pseudoLane.getLength() / (pseudoLane.getTEnd() - pseudoLane.getTReady());
-		if ( time <= pseudoLane.getTReady() + getSafetyBufferTime(speed) ){ 
+		final double tReady = store.getTReady(pseudoLane);
+		double speed = length / (tEnd - tReady);
+		if ( time <= tReady + getSafetyBufferTime(speed) ){ 
 			return speed; // Case 1 from paper
 		}
-		double timeDif = pseudoLane.getTEnd() - time;
+		double timeDif = tEnd - time;
 		if(timeDif == 0){ 
-			return Math.pow(constants/this.theta_1, 2); // Case 3 from paper
+			return square(constants/this.theta_1); // Case 3 from paper
 		}	
-		return (this.theta_1 * this.theta_1  + 2 * timeDif * constants - 
-				this.theta_1 * Math.sqrt( this.theta_1 * this.theta_1  + 4 * timeDif * constants))     /   
+		return (this.theta_1Squared  + 2 * timeDif * constants - 
+				this.theta_1 * sqrt( this.theta_1Squared  + 4 * timeDif * constants))     /   
 				(2 * timeDif * timeDif); // Case 2 from paper;
 	}
 
 	
 	/* package */ double getSafetyBufferDistance(final double speed) {
-		return this.theta_0  + this.theta_1 * Math.sqrt(speed);// 
+		return this.theta_0  + this.theta_1 * sqrt(speed);// 
 	}
 
 	
-	/* package */ PseudoLane selectPseudoLane(final Sublink receivingLink, final double desiredSpeed, final double time){
+	/* package */ int selectPseudoLane(final Sublink receivingLink, final double desiredSpeed, final double time){
+		final SublinkStore store = receivingLink.getStore();
+		final int firstLane = receivingLink.getPseudoLane(0);
+		if(isEnteringFreeLink(receivingLink, store.getLength(firstLane), time)){
+			return firstLane;
+		}
+		final int endLane = firstLane + receivingLink.getNumberOfPseudoLanes();
 		double maxSpeed = 0;
-		int maxLane = 0;
-		for(int i = 0; i < receivingLink.getNumberOfPseudoLanes(); i++){
-			double laneMaxSpeed = getLaneVMax(receivingLink.getPseudoLane(i), time);
+		int maxLane = firstLane;
+		for(int i = firstLane; i < endLane; i++){
+			double laneMaxSpeed = getLaneVMax(store, i, time);
 			
 			if(laneMaxSpeed >= desiredSpeed ){
-				return receivingLink.getPseudoLane(i);
+				return i;
+			}
+			if(laneMaxSpeed > maxSpeed){
+				maxLane = i;
+				maxSpeed = laneMaxSpeed;
+			}
+		}
+		// If no sufficient link was found, choose the fastest.
+		return maxLane;
+	}
+
+	/**
+	 * Fast path of the lane selection. When entering at or after the latest tEnd of all pseudolanes of the link, every pseudolane
+	 * is in case 4 and has the same maximum speed, so both when the desired speed can be accommodated and when it cannot,
+	 * the rightmost pseudolane is selected. This requires the case 4 threshold to be non-negative, i.e. positive constants.
+	 */
+	private boolean isEnteringFreeLink(final Sublink receivingLink, final double length, final double time){
+		return time >= receivingLink.getLatestTEnd() && this.lambda_c + length - this.theta_0 > 0;
+	}
+
+	/**
+	 * Batched version of {@link #selectPseudoLane(Sublink, double, double)}. All pseudolanes of a sublink have the same length,
+	 * so the length dependent terms of {@link #getLaneVMax(SublinkStore, int, double)} are evaluated once per sublink, and
+	 * the pseudolanes are traversed in a single loop over the contiguous store. The arithmetic of each case is identical to
+	 * <code>getLaneVMax</code>, giving bit-identical lane choices.
+	 */
+	@Override
+	/* package */ int selectPseudoLaneBatched(final Sublink receivingLink, final double desiredSpeed, final double time){
+		final SublinkStore store = receivingLink.getStore();
+		final int firstLane = receivingLink.getPseudoLane(0);
+		final int endLane = firstLane + receivingLink.getNumberOfPseudoLanes();
+
+		final double length = store.getLength(firstLane);
+		if(isEnteringFreeLink(receivingLink, length, time)){
+			return firstLane;
+		}
+		final double constants = this.lambda_c + length - this.theta_0;
+		final double caseFourThreshold = this.quarterTheta_1Squared/constants;
+		final double caseFourSpeed = 4*square(constants/this.theta_1);
+
+		double maxSpeed = 0;
+		int maxLane = firstLane;
+		for(int i = firstLane; i < endLane; i++){
+			final double tEnd = store.getTEnd(i);
+			double laneMaxSpeed;
+			if(time >= tEnd - caseFourThreshold){
+				laneMaxSpeed = caseFourSpeed; // Case 4 from paper
+			} else {
+				final double tReady = store.getTReady(i);
+				final double speed = length / (tEnd - tReady);
+				final double timeDif = tEnd - time;
+				if ( time <= tReady + getSafetyBufferTime(speed) ){
+					laneMaxSpeed = speed; // Case 1 from paper
+				} else if(timeDif == 0){
+					laneMaxSpeed = square(constants/this.theta_1); // Case 3 from paper
+				} else {
+					laneMaxSpeed = (this.theta_1Squared  + 2 * timeDif * constants - 
+							this.theta_1 * sqrt( this.theta_1Squared  + 4 * timeDif * constants))     /   
+							(2 * timeDif * timeDif); // Case 2 from paper;
+				}
+			}
+
+			if(laneMaxSpeed >= desiredSpeed ){
+				return i;
 			}
 			if(laneMaxSpeed > maxSpeed){
 				maxLane = i;
@@ -62,7 +181,7 @@ public final class SqrtLTM extends LinkTransmissionModel {
 			}
 		}
 		// If no sufficient link was found, choose the fastest.
-		return receivingLink.getPseudoLane(maxLane);
+		return maxLane;
 	}
 	
 }
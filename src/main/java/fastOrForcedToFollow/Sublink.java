@@ -4,141 +4,162 @@ package fastOrForcedToFollow;
 import org.matsim.core.mobsim.qsim.qnetsimengine.QVehicle;
 import org.matsim.run.FFFConfigGroup;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
 
 /**
- * 
+ * A handle to a sublink whose state (occupied space and pseudolanes) is held in a network-wide {@link SublinkStore}.
+ *
  * @author mpaulsen
  */
 public class Sublink{
 
-	
-	/**
-	 * The id of the link.
-	 */
-	private final String id;
 
-	
 	/**
-	 * The total pseudolane distance (buffer distance) occupied of the cyclists currently on the link.
+	 * The store containing the state of the sublink and its pseudolanes.
 	 */
-	private double occupiedSpace = 0;
+	private final SublinkStore store;
 
-	
 	/**
-	 * The array containing all pseudolanes of the link.
+	 * The global index of the sublink in the store.
 	 */
-	private final PseudoLane[] psi;
-
+	private final int index;
 
 	/**
-	 * The total pseudolane distance, i.e. the product between the length and number of pseudolanes.
+	 * The global index of the rightmost pseudolane of the sublink.
 	 */
-	private final double totalLaneLength; 
+	private final int firstPseudoLane;
 
 	/**
-	 * The last time a vehicle was moved through the downstream end of the link.
+	 * The number of pseudolanes of the sublink.
 	 */
-	private double lastTimeMoved;
-	
-	
+	private final int Psi;
+
+
 	/**
-	 * A LinkedList containing the vehicles which will be leaving the link. 
+	 * A ring buffer containing the vehicles which will be leaving the link. Only created once needed,
+	 * as only the last sublink of a link has leaving vehicles.
 	 */
-	private final LinkedList<QVehicle> leavingVehicles;
-	
-	
+	private ArrayDeque<QVehicle> leavingVehicles = null;
+
+
 	public void addVehicleToLeavingVehicles(final QVehicle veh){
+		if(leavingVehicles == null){
+			leavingVehicles = new ArrayDeque<QVehicle>();
+		}
 		this.leavingVehicles.addLast(veh);
 	}
 	public QVehicle getFirstLeavingVehicle(){
-		return leavingVehicles.isEmpty() ? null : leavingVehicles.peekFirst();
+		return hasNoLeavingVehicles() ? null : leavingVehicles.peekFirst();
 	}
 	public QVehicle pollFirstLeavingVehicle(){
-		return leavingVehicles.isEmpty() ? null : leavingVehicles.pollFirst();
+		return hasNoLeavingVehicles() ? null : leavingVehicles.pollFirst();
 	}
 	public boolean hasNoLeavingVehicles(){
-		return leavingVehicles.isEmpty();
+		return leavingVehicles == null || leavingVehicles.isEmpty();
+	}
+	/**
+	 * @return The vehicles which will be leaving the link, first to leave first. Not to be modified.
+	 */
+	public Collection<QVehicle> getLeavingVehicles(){
+		return leavingVehicles == null ? Collections.<QVehicle>emptyList() : leavingVehicles;
 	}
-	
+
 
 	/**
-	 * Static factory method creating a link based on the width of the link. See also the {@link #Link(String, int, double) constructor}.
+	 * Static factory method creating a link based on the width of the link. See also the {@link #Sublink(SublinkStore, int, double) constructor}.
 	 */
-	public static Sublink createLinkFromWidth(final String id, final double width, final double length, final FFFConfigGroup fffConfig){
-		return new Sublink(id, 1 + (int) Math.floor((width-fffConfig.getUnusedWidth())/fffConfig.getEfficientLaneWidth()), length );
+	public static Sublink createLinkFromWidth(final SublinkStore store, final double width, final double length, final FFFConfigGroup fffConfig){
+		return new Sublink(store, 1 + (int) Math.floor((width-fffConfig.getUnusedWidth())/fffConfig.getEfficientLaneWidth()), length );
 	}
-	
+
 	/**
-	 * Static factory method creating a link based directly on the number of pseudolanes of the link. See also the {@link #Link(String, int, double) constructor}.
+	 * Static factory method creating a link based directly on the number of pseudolanes of the link. See also the {@link #Sublink(SublinkStore, int, double) constructor}.
 	 */
-	public static Sublink createLinkFromNumberOfPseudoLanes(final String id, final int Psi, final double length){
-		return new Sublink(id, Psi, length);
+	public static Sublink createLinkFromNumberOfPseudoLanes(final SublinkStore store, final int Psi, final double length){
+		return new Sublink(store, Psi, length);
 	}
-	
+
 	/**
-	 * @param id The id of the link.
+	 * @param store The store in which the state of the sublink is allocated.
 	 * @param Psi The number of pseudolanes that the link has.
 	 * @param length The length [m] of the link.
 	 */
-	private Sublink(final String id, final int Psi, final double length){
-		this.id = id;
-		this.psi = createPseudoLanes(Psi, length);
-	
-		this.leavingVehicles = new LinkedList<QVehicle>();
-
-		double totalLaneLength = 0.;
-		for(PseudoLane pseudoLane : psi){
-			totalLaneLength += pseudoLane.getLength();
-		}
-		this.totalLaneLength = totalLaneLength;
-		
+	private Sublink(final SublinkStore store, final int Psi, final double length){
+		this(store, store.addSublink(Psi, length));
 	}
 
 	/**
-	 * @return The array of PseudoLanes to be created
+	 * @param store The store in which the state of the sublink has been allocated.
+	 * @param index The global index of the sublink in the store.
 	 */
-	private PseudoLane[] createPseudoLanes(final int Psi, final double length){
-		PseudoLane[] psi = new PseudoLane[Psi];
-		for(int i = 0; i < Psi; i++){
-			psi[i] = new PseudoLane(length);
-		}
-		return psi;
+	private Sublink(final SublinkStore store, final int index){
+		this.store = store;
+		this.index = index;
+		this.firstPseudoLane = store.getFirstPseudoLane(index);
+		this.Psi = store.getNumberOfPseudoLanes(index);
+	}
+
+
+	public SublinkStore getStore(){
+		return store;
 	}
 
-	
-	public String getId(){
-		return id;
+	public int getIndex(){
+		return index;
 	}
 
 
 	public int getNumberOfPseudoLanes(){
-		return psi.length;
+		return Psi;
 	}
 
 
 	/**
-	 * Gets a specific <code>pseudolane</code> from the <code>link</code>.
-	 * 
+	 * Gets the global index of a specific <code>pseudolane</code> from the <code>link</code>.
+	 *
 	 * @param i the index where 0 is the rightmost <code>pseudolane</code>, and <code>Psi</code> - 1 is the leftmost.
-	 * 
-	 * @return The i'th <code>pseudolane</code> from the right (0 being the rightmost).
+	 *
+	 * @return The global index of the i'th <code>pseudolane</code> from the right (0 being the rightmost).
+	 */
+	public int getPseudoLane(final int i){
+		return firstPseudoLane + i;
+	}
+
+
+	/**
+	 * Sets the tEnd of one of the pseudolanes of the link, maintaining the {@link #getLatestTEnd() latest tEnd} of the link.
+	 *
+	 * @param pseudoLane The global index of the pseudolane, see {@link #getPseudoLane(int)}.
+	 * @param newTEnd The new tEnd [s] of the pseudolane.
+	 */
+	public void setTEnd(final int pseudoLane, final double newTEnd){
+		store.setTEnd(pseudoLane, newTEnd);
+		if(newTEnd > store.getLatestTEnd(index)){
+			store.setLatestTEnd(index, newTEnd);
+		}
+	}
+
+	/**
+	 * @return An upper bound [s] of the tEnd of all pseudolanes of the link. Entering the link at or after this time, all
+	 * pseudolanes are free.
 	 */
-	public PseudoLane getPseudoLane(final int i){
-		return psi[i];
+	public double getLatestTEnd(){
+		return store.getLatestTEnd(index);
 	}
 
-	
+
 	/**
 	 * @return <code>true</code> iff the link is full, i.e. the occupied space is at least as large as the total lane length.
 	 */
 	public boolean isLinkFull(){
-		return occupiedSpace >= totalLaneLength;
+		return store.getOccupiedSpace(index) >= store.getTotalLaneLength(index);
 	}
 
 	/**
 	 * Reduces the occupied space of link by the safety distance corresponding to <code>speed</code> of <code>cyclist</code>.
-	 * 
+	 *
 	 * @param cyclist The cyclist which is removed from the link.
 	 * @param speed The speed the cyclist was assigned to the link.
 	 */
@@ -148,7 +169,7 @@ public class Sublink{
 
 	/**
 	 * Increases the occupied space of link by the safety distance corresponding to <code>speed</code> of <code>cyclist</code>.
-	 * 
+	 *
 	 * @param cyclist The cyclist which enters the link.
 	 * @param speed The speed the cyclist is assigned to the link.
 	 */
@@ -162,29 +183,58 @@ public class Sublink{
 	 * @param length The length [m] by which the occupied space will be supplemented.
 	 */
 	public void supplementOccupiedSpace(final double length){
-		occupiedSpace += length;
+		store.supplementOccupiedSpace(index, length);
 	}
 
-	
-	
+
+
 	public double getLastTimeMoved(){
-		return this.lastTimeMoved;
+		return store.getLastTimeMoved(index);
 	}
-	
+
 	public void setLastTimeMoved(final double lastTimeMoved){
-		this.lastTimeMoved = lastTimeMoved;
+		store.setLastTimeMoved(index, lastTimeMoved);
 	}
 
-	
+
 	/**
-	 * Static factory method creating a link based directly on the number of pseudolanes of the link. See also the {@link #Link(String, int, double) constructor}.
+	 * Static factory method creating an array of sublinks based directly on the number of pseudolanes of the link.
+	 * See also the {@link #Sublink(SublinkStore, int, double) constructor}.
 	 */
-	public static Sublink[] createLinkArrayFromNumberOfPseudoLanes(final String id, final int Psi, final double length, 
+	public static Sublink[] createLinkArrayFromNumberOfPseudoLanes(final SublinkStore store, final int Psi, final double length,
 			final double L_MAX){
-		int N = (int) Math.ceil(length / L_MAX);
+		return createLinkArrayFromStore(store, allocateLinkArray(store, Psi, length, L_MAX), getNumberOfSublinks(length, L_MAX));
+	}
+
+	/**
+	 * @return The number of sublinks into which a link of <code>length</code> is divided.
+	 */
+	public static int getNumberOfSublinks(final double length, final double L_MAX){
+		return (int) Math.ceil(length / L_MAX);
+	}
+
+	/**
+	 * Allocates the sublinks of a link in <code>store</code> without creating handles to them, which can be created later
+	 * on by {@link #createLinkArrayFromStore(SublinkStore, int, int)}.
+	 *
+	 * @return The global index of the first sublink of the link. The sublinks of the link have consecutive indices.
+	 */
+	public static int allocateLinkArray(final SublinkStore store, final int Psi, final double length, final double L_MAX){
+		int N = getNumberOfSublinks(length, L_MAX);
+		int firstSublink = store.addSublink(Psi, length/N);
+		for(int i = 1; i < N; i++){
+			store.addSublink(Psi, length/N);
+		}
+		return firstSublink;
+	}
+
+	/**
+	 * Creates handles to <code>N</code> consecutive sublinks already allocated in <code>store</code>, whose state is kept as is.
+	 */
+	public static Sublink[] createLinkArrayFromStore(final SublinkStore store, final int firstSublink, final int N){
 		Sublink[] linkArray = new Sublink[N];
 		for(int i = 0; i < linkArray.length; i++){
-			linkArray[i] = new Sublink(id + "_part_" + (i+1) , Psi, length/N);
+			linkArray[i] = new Sublink(store, firstSublink + i);
 		}
 		return linkArray;
 	}
@@ -0,0 +1,245 @@
+package fastOrForcedToFollow;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Network-wide struct-of-arrays store holding the state of all sublinks and their pseudolanes.
+ *
+ * Pseudolanes are addressed by a global pseudolane index, and sublinks by a global sublink index. The pseudolanes
+ * of a sublink occupy a contiguous range of pseudolane indices, starting at {@link #getFirstPseudoLane(int)} with the
+ * rightmost pseudolane.
+ *
+ * @author mpaulsen
+ */
+public final class SublinkStore {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * The length [m] of each pseudolane.
+	 */
+	private double[] laneLength;
+
+	/**
+	 * The time [s] at which the previous cyclist will have exited the pseudolane with his/her entire bicycle.
+	 */
+	private double[] tEnd;
+
+	/**
+	 * The time [s] at which the previous cyclist will have entered the pseudolane with his/her entire bicycle.
+	 */
+	private double[] tReady;
+
+	/**
+	 * The total pseudolane distance (buffer distance) occupied of the cyclists currently on each sublink.
+	 */
+	private double[] occupiedSpace;
+
+	/**
+	 * The total pseudolane distance of each sublink, i.e. the product between the length and number of pseudolanes.
+	 */
+	private double[] totalLaneLength;
+
+	/**
+	 * The last time a vehicle was moved through the downstream end of each sublink.
+	 */
+	private double[] lastTimeMoved;
+
+	/**
+	 * An upper bound of the tEnd of all pseudolanes of each sublink.
+	 */
+	private double[] latestTEnd;
+
+	/**
+	 * The global index of the rightmost pseudolane of each sublink.
+	 */
+	private int[] firstPseudoLane;
+
+	/**
+	 * The number of pseudolanes of each sublink.
+	 */
+	private int[] numberOfPseudoLanes;
+
+	private int pseudoLaneCount = 0;
+	private int sublinkCount = 0;
+
+	public SublinkStore(){
+		this.laneLength = new double[INITIAL_CAPACITY];
+		this.tEnd = new double[INITIAL_CAPACITY];
+		this.tReady = new double[INITIAL_CAPACITY];
+		this.occupiedSpace = new double[INITIAL_CAPACITY];
+		this.totalLaneLength = new double[INITIAL_CAPACITY];
+		this.lastTimeMoved = new double[INITIAL_CAPACITY];
+		this.latestTEnd = new double[INITIAL_CAPACITY];
+		this.firstPseudoLane = new int[INITIAL_CAPACITY];
+		this.numberOfPseudoLanes = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Allocates a sublink and its pseudolanes in the store.
+	 *
+	 * @param Psi The number of pseudolanes of the sublink.
+	 * @param length The length [m] of the sublink.
+	 *
+	 * @return The global index of the new sublink.
+	 */
+	/* package */ int addSublink(final int Psi, final double length){
+		ensurePseudoLaneCapacity(pseudoLaneCount + Psi);
+		ensureSublinkCapacity(sublinkCount + 1);
+
+		int sublink = sublinkCount++;
+		firstPseudoLane[sublink] = pseudoLaneCount;
+		numberOfPseudoLanes[sublink] = Psi;
+		for(int i = 0; i < Psi; i++){
+			laneLength[pseudoLaneCount++] = length;
+		}
+		totalLaneLength[sublink] = Psi * length;
+		return sublink;
+	}
+
+	private void ensurePseudoLaneCapacity(final int capacity){
+		if(capacity > laneLength.length){
+			int newCapacity = Math.max(capacity, 2 * laneLength.length);
+			laneLength = Arrays.copyOf(laneLength, newCapacity);
+			tEnd = Arrays.copyOf(tEnd, newCapacity);
+			tReady = Arrays.copyOf(tReady, newCapacity);
+		}
+	}
+
+	private void ensureSublinkCapacity(final int capacity){
+		if(capacity > occupiedSpace.length){
+			int newCapacity = Math.max(capacity, 2 * occupiedSpace.length);
+			occupiedSpace = Arrays.copyOf(occupiedSpace, newCapacity);
+			totalLaneLength = Arrays.copyOf(totalLaneLength, newCapacity);
+			lastTimeMoved = Arrays.copyOf(lastTimeMoved, newCapacity);
+			latestTEnd = Arrays.copyOf(latestTEnd, newCapacity);
+			firstPseudoLane = Arrays.copyOf(firstPseudoLane, newCapacity);
+			numberOfPseudoLanes = Arrays.copyOf(numberOfPseudoLanes, newCapacity);
+		}
+	}
+
+	public int getNumberOfSublinks(){
+		return sublinkCount;
+	}
+
+	public int getTotalNumberOfPseudoLanes(){
+		return pseudoLaneCount;
+	}
+
+
+	// Pseudolane state, indexed by global pseudolane index.
+
+	public double getLength(final int pseudoLane){
+		return laneLength[pseudoLane];
+	}
+
+	public double getTEnd(final int pseudoLane){
+		return tEnd[pseudoLane];
+	}
+
+	public double getTReady(final int pseudoLane){
+		return tReady[pseudoLane];
+	}
+
+	public void setTReady(final int pseudoLane, final double newTReady){
+		tReady[pseudoLane] = newTReady;
+	}
+
+	public void setTEnd(final int pseudoLane, final double newTEnd){
+		tEnd[pseudoLane] = newTEnd;
+	}
+
+
+	// Sublink state, indexed by global sublink index.
+
+	public int getFirstPseudoLane(final int sublink){
+		return firstPseudoLane[sublink];
+	}
+
+	public int getNumberOfPseudoLanes(final int sublink){
+		return numberOfPseudoLanes[sublink];
+	}
+
+	public double getOccupiedSpace(final int sublink){
+		return occupiedSpace[sublink];
+	}
+
+	public double getTotalLaneLength(final int sublink){
+		return totalLaneLength[sublink];
+	}
+
+	public void supplementOccupiedSpace(final int sublink, final double length){
+		occupiedSpace[sublink] += length;
+	}
+
+	public double getLastTimeMoved(final int sublink){
+		return lastTimeMoved[sublink];
+	}
+
+	public void setLastTimeMoved(final int sublink, final double time){
+		lastTimeMoved[sublink] = time;
+	}
+
+	public double getLatestTEnd(final int sublink){
+		return latestTEnd[sublink];
+	}
+
+	public void setLatestTEnd(final int sublink, final double time){
+		latestTEnd[sublink] = time;
+	}
+
+
+	/**
+	 * Resets the state of all pseudolanes and sublinks to that of newly allocated ones, keeping the layout of the sublinks,
+	 * so that the store can be reused for another mobsim of the same network.
+	 */
+	public void resetState(){
+		Arrays.fill(tEnd, 0, pseudoLaneCount, 0.);
+		Arrays.fill(tReady, 0, pseudoLaneCount, 0.);
+		Arrays.fill(occupiedSpace, 0, sublinkCount, 0.);
+		Arrays.fill(lastTimeMoved, 0, sublinkCount, 0.);
+		Arrays.fill(latestTEnd, 0, sublinkCount, 0.);
+	}
+
+
+	// Checkpoints.
+
+	/**
+	 * Writes the state of the pseudolanes and sublinks, i.e. everything that changes while cyclists ride, but not the layout
+	 * of the sublinks.
+	 */
+	public void writeState(final DataOutput out) throws IOException{
+		out.writeInt(pseudoLaneCount);
+		out.writeInt(sublinkCount);
+		for(int pseudoLane = 0; pseudoLane < pseudoLaneCount; pseudoLane++){
+			out.writeDouble(tEnd[pseudoLane]);
+			out.writeDouble(tReady[pseudoLane]);
+		}
+		for(int sublink = 0; sublink < sublinkCount; sublink++){
+			out.writeDouble(occupiedSpace[sublink]);
+			out.writeDouble(lastTimeMoved[sublink]);
+			out.writeDouble(latestTEnd[sublink]);
+		}
+	}
+
+	/**
+	 * Reads the state written by {@link #writeState(DataOutput)} from a store with the same layout of sublinks.
+	 */
+	public void readState(final DataInput in) throws IOException{
+		if(in.readInt() != pseudoLaneCount || in.readInt() != sublinkCount){
+			throw new IOException("The state is not of a store with the same sublinks.");
+		}
+		for(int pseudoLane = 0; pseudoLane < pseudoLaneCount; pseudoLane++){
+			tEnd[pseudoLane] = in.readDouble();
+			tReady[pseudoLane] = in.readDouble();
+		}
+		for(int sublink = 0; sublink < sublinkCount; sublink++){
+			occupiedSpace[sublink] = in.readDouble();
+			lastTimeMoved[sublink] = in.readDouble();
+			latestTEnd[sublink] = in.readDouble();
+		}
+	}
+}
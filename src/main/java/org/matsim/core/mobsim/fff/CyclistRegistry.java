@@ -0,0 +1,174 @@
+package org.matsim.core.mobsim.fff;
+
+import fastOrForcedToFollow.Cyclist;
+import fastOrForcedToFollow.CyclistArchetypes;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.RunMatsim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cyclists of the persons of a scenario, kept as a scenario element so that they survive the iterations. The parameters
+ * of the cyclists are read once from the person attributes (see {@link RunMatsim#DESIRED_SPEED} etc.) and stored in
+ * primitive arrays indexed by the index of the person in the registry.
+ *
+ * Every person has one ready-made cyclist, see {@link #getCyclist(int)}, whose parameters are taken by the cycles of the QSim
+ * (being cyclists themselves) for all legs of the person in all iterations; only the trip state is reset between legs.
+ * Mobsims needing cyclists of their own (such as the event-driven engine, which may run alongside the QSim) create them,
+ * see {@link #createCyclist(int)}.
+ *
+ * @author mpaulsen
+ */
+public final class CyclistRegistry {
+	private static final Logger log = Logger.getLogger( CyclistRegistry.class ) ;
+
+	public static final String ELEMENT_NAME = "cyclistRegistry";
+
+	private final CyclistArchetypes archetypes;
+
+	private final Map<Id<Person>, Integer> indices = new HashMap<>();
+
+	private final double[] desiredSpeeds;
+	private final double[] theta_0s;
+	private final double[] theta_1s;
+	private final double[] lambda_cs;
+	private final Cyclist[] cyclists;
+
+	/**
+	 * Builds the registry of the persons of the scenario, reading their attributes on the global number of threads.
+	 */
+	private CyclistRegistry( final Scenario scenario ){
+		final FFFConfigGroup fffConfig = ConfigUtils.addOrGetModule( scenario.getConfig(), FFFConfigGroup.class );
+		this.archetypes = new CyclistArchetypes( fffConfig );
+
+		final List<Person> persons = new ArrayList<>( scenario.getPopulation().getPersons().values() );
+		final int numberOfPersons = persons.size();
+		for(int i = 0; i < numberOfPersons; i++){
+			indices.put( persons.get( i ).getId(), i );
+		}
+		this.desiredSpeeds = new double[numberOfPersons];
+		this.theta_0s = new double[numberOfPersons];
+		this.theta_1s = new double[numberOfPersons];
+		this.lambda_cs = new double[numberOfPersons];
+		this.cyclists = new Cyclist[numberOfPersons];
+
+		// every thread handles a contiguous block of persons; the link transmission models are shared thread-safely by the archetypes:
+		final Thread[] threads = new Thread[Math.max( 1, Math.min( scenario.getConfig().global().getNumberOfThreads(), numberOfPersons ) )];
+		for(int t = 0; t < threads.length; t++){
+			final int from = (int) ((long) numberOfPersons * t / threads.length);
+			final int to = (int) ((long) numberOfPersons * (t + 1) / threads.length);
+			threads[t] = new Thread( () -> {
+				for(int i = from; i < to; i++){
+					readAttributes( i, persons.get( i ) );
+				}
+			}, "CyclistRegistry" + t );
+			threads[t].start();
+		}
+		for(Thread thread : threads){
+			try {
+				thread.join();
+			} catch ( InterruptedException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+		log.info( "Registered " + numberOfPersons + " cyclists of " + archetypes.getNumberOfArchetypes() + " archetypes." );
+	}
+
+	private void readAttributes( final int index, final Person person ){
+		final Object v_0 = person.getAttributes().getAttribute( RunMatsim.DESIRED_SPEED );
+		if( v_0 == null ){
+			// not a cyclist:
+			return;
+		}
+		desiredSpeeds[index] = (double) v_0;
+		theta_0s[index] = (double) person.getAttributes().getAttribute( RunMatsim.HEADWAY_DISTANCE_INTERCEPT );
+		theta_1s[index] = (double) person.getAttributes().getAttribute( RunMatsim.HEADWAY_DISTANCE_SLOPE );
+		lambda_cs[index] = (double) person.getAttributes().getAttribute( RunMatsim.BICYCLE_LENGTH );
+		cyclists[index] = createCyclist( index );
+	}
+
+	/**
+	 * Builds the registry of the persons of the scenario, and adds it to the scenario. Is to be called once the cyclist
+	 * attributes of the persons and the archetypes in the {@link FFFConfigGroup} have been set.
+	 */
+	public static CyclistRegistry addToScenario( final Scenario scenario ){
+		final CyclistRegistry registry = new CyclistRegistry( scenario );
+		scenario.addScenarioElement( ELEMENT_NAME, registry );
+		return registry;
+	}
+
+	/**
+	 * @return The registry of the scenario, which is built and added to the scenario if that has not been done when loading it.
+	 */
+	public static CyclistRegistry get( final Scenario scenario ){
+		synchronized( scenario ){
+			final CyclistRegistry registry = (CyclistRegistry) scenario.getScenarioElement( ELEMENT_NAME );
+			return registry != null ? registry : addToScenario( scenario );
+		}
+	}
+
+	/**
+	 * @return The index of the person in the registry, or -1 if the person is not registered.
+	 */
+	public int getIndex( final Id<Person> personId ){
+		final Integer index = indices.get( personId );
+		return index == null ? -1 : index;
+	}
+
+	public int getNumberOfCyclists(){
+		return cyclists.length;
+	}
+
+	/**
+	 * @return The cyclist of the person with the given index, used for all of the legs of the person, or <code>null</code>
+	 * if the person has no cyclist attributes.
+	 */
+	public Cyclist getCyclist( final int index ){
+		return cyclists[index];
+	}
+
+	/**
+	 * @return The cyclist of the person, as {@link #getCyclist(int)}. For persons not registered, a new cyclist is created from
+	 * their attributes.
+	 */
+	public Cyclist getCyclist( final Person person ){
+		final int index = getIndex( person.getId() );
+		return index != -1 ? cyclists[index] : createCyclist( person );
+	}
+
+	/**
+	 * @return A new cyclist with the parameters of the person with the given index, not shared with any other mobsim.
+	 */
+	public Cyclist createCyclist( final int index ){
+		return archetypes.createCyclist( desiredSpeeds[index], theta_0s[index], theta_1s[index], lambda_cs[index] );
+	}
+
+	/**
+	 * @return A new cyclist of the person, as {@link #createCyclist(int)}. For persons not registered, the cyclist is created
+	 * from their attributes.
+	 */
+	public Cyclist createCyclist( final Person person ){
+		final int index = getIndex( person.getId() );
+		if( index != -1 ){
+			return createCyclist( index );
+		}
+		final double v_0 = (double) person.getAttributes().getAttribute( RunMatsim.DESIRED_SPEED );
+		final double theta_0 = (double) person.getAttributes().getAttribute( RunMatsim.HEADWAY_DISTANCE_INTERCEPT );
+		final double theta_1 = (double) person.getAttributes().getAttribute( RunMatsim.HEADWAY_DISTANCE_SLOPE );
+		final double lambda_c = (double) person.getAttributes().getAttribute( RunMatsim.BICYCLE_LENGTH );
+		return archetypes.createCyclist( v_0, theta_0, theta_1, lambda_c );
+	}
+
+	public double getDesiredSpeed( final int index ){
+		return desiredSpeeds[index];
+	}
+}
@@ -0,0 +1,195 @@
+package org.matsim.core.mobsim.fff;
+
+import fastOrForcedToFollow.Cyclist;
+import fastOrForcedToFollow.EventDrivenEngine;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.QSimConfigGroup;
+import org.matsim.core.controler.PrepareForSimImpl;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.utils.misc.Time;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.FFFConfigGroup.BicycleMobsim;
+import org.matsim.run.RunMatsim;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The legs of the selected plans of a scenario as trips of an {@link EventDrivenEngine}, together with the persons, legs,
+ * and activities they stem from.
+ *
+ * Only plans whose legs are all simulated on the network (i.e. have a main mode of the QSim) and have network routes are
+ * supported. Activities end as with the default activity duration interpretation of MATSim: at their end time if given,
+ * and otherwise after their maximum duration.
+ *
+ * @author mpaulsen
+ */
+final class EventDrivenBicycleTrips {
+
+	private final EventDrivenEngine engine;
+	private final List<Id<Link>> linkIds = new ArrayList<>();
+	private final List<Person> persons = new ArrayList<>();
+	private final List<Leg> legs = new ArrayList<>();
+	private final List<Id<Vehicle>> vehicleIds = new ArrayList<>();
+
+	private final List<Activity> activitiesBefore = new ArrayList<>();
+	private final List<Activity> activitiesAfter = new ArrayList<>();
+
+	/**
+	 * The number of each trip among the legs of its person, starting at 0.
+	 */
+	private final List<Integer> legNumbers = new ArrayList<>();
+
+	EventDrivenBicycleTrips( final Scenario scenario ){
+		final FFFConfigGroup fffConfig = ConfigUtils.addOrGetModule( scenario.getConfig(), FFFConfigGroup.class );
+		final QSimConfigGroup qsimConfig = scenario.getConfig().qsim();
+
+		final Map<Id<Link>, Integer> linkIndices = new HashMap<>();
+		final double[] lengths = new double[scenario.getNetwork().getLinks().size()];
+		final int[] numbersOfPseudoLanes = new int[lengths.length];
+		for( Link link : scenario.getNetwork().getLinks().values() ){
+			final int index = linkIds.size();
+			linkIndices.put( link.getId(), index );
+			linkIds.add( link.getId() );
+			lengths[index] = link.getLength();
+			numbersOfPseudoLanes[index] = RunMatsim.getNumberOfBicycleLanes( link );
+		}
+		if( fffConfig.getBicycleMobsim() == BicycleMobsim.freeFlow ){
+			// (the free-flow run needs no sublinks.)
+			this.engine = EventDrivenEngine.createFreeFlowEngine( lengths, fffConfig, qsimConfig.getTimeStepSize() );
+		} else {
+			this.engine = new EventDrivenEngine( lengths, numbersOfPseudoLanes, fffConfig, qsimConfig.getTimeStepSize(), qsimConfig.getStuckTime() );
+		}
+
+		final CyclistRegistry registry = CyclistRegistry.get( scenario );
+		for( Person person : scenario.getPopulation().getPersons().values() ){
+			Activity activityBefore = null;
+			Leg leg = null;
+			int previousTrip = -1;
+			int legNumber = 0;
+			for( PlanElement pe : person.getSelectedPlan().getPlanElements() ){
+				if( pe instanceof Leg ){
+					leg = (Leg) pe;
+					if( !qsimConfig.getMainModes().contains( leg.getMode() ) || !(leg.getRoute() instanceof NetworkRoute) ){
+						throw new RuntimeException( "Only legs of the main modes with network routes are supported, but person " +
+								person.getId() + " has a " + leg.getMode() + " leg." );
+					}
+					continue;
+				}
+				final Activity activity = (Activity) pe;
+				if( leg != null && activityBefore != null ){
+					final int trip = addTrip( person, leg, activityBefore, activity, previousTrip, linkIndices, registry, qsimConfig );
+					if( trip == -1 ){
+						break;
+					}
+					legNumbers.add( legNumber++ );
+					previousTrip = trip;
+				}
+				activityBefore = activity;
+				leg = null;
+			}
+		}
+
+		if( fffConfig.getDeterministicTieBreaking() ){
+			// as the lanes of the QSim, break ties by vehicle ids:
+			final Integer[] trips = new Integer[vehicleIds.size()];
+			for( int trip = 0; trip < trips.length; trip++ ){
+				trips[trip] = trip;
+			}
+			Arrays.sort( trips, Comparator.comparing( vehicleIds::get ) );
+			for( int rank = 0; rank < trips.length; rank++ ){
+				engine.setTieRank( trips[rank], rank );
+			}
+		}
+	}
+
+	/**
+	 * @return The index of the trip, or -1 if the trip never departs as the activity before it does not end.
+	 */
+	private int addTrip( final Person person, final Leg leg, final Activity activityBefore, final Activity activityAfter,
+			final int previousTrip, final Map<Id<Link>, Integer> linkIndices, final CyclistRegistry registry, final QSimConfigGroup qsimConfig ){
+		final NetworkRoute route = (NetworkRoute) leg.getRoute();
+		final int[] linkRoute;
+		if( route.getStartLinkId().equals( route.getEndLinkId() ) && route.getLinkIds().isEmpty() ){
+			linkRoute = new int[] { linkIndices.get( route.getStartLinkId() ) };
+		} else {
+			linkRoute = new int[route.getLinkIds().size() + 2];
+			linkRoute[0] = linkIndices.get( route.getStartLinkId() );
+			for( int i = 0; i < route.getLinkIds().size(); i++ ){
+				linkRoute[i + 1] = linkIndices.get( route.getLinkIds().get( i ) );
+			}
+			linkRoute[linkRoute.length - 1] = linkIndices.get( route.getEndLinkId() );
+		}
+
+		// a cyclist of its own for every leg, as the engine may run alongside the QSim using the registered cyclists:
+		final Cyclist cyclist = registry.createCyclist( person );
+
+		final double endTime = activityBefore.getEndTime();
+		final double duration = activityBefore.getMaximumDuration();
+		final int trip;
+		if( endTime != Time.UNDEFINED_TIME ){
+			trip = engine.addTrip( cyclist, linkRoute, endTime, previousTrip, 0. );
+		} else if( duration != Time.UNDEFINED_TIME ){
+			trip = previousTrip == -1 ? engine.addTrip( cyclist, linkRoute, duration ) :
+				engine.addTrip( cyclist, linkRoute, Double.NaN, previousTrip, duration );
+		} else {
+			return -1;
+		}
+
+		Id<Vehicle> vehicleId = route.getVehicleId();
+		if( vehicleId == null ){
+			vehicleId = PrepareForSimImpl.obtainAutomaticVehicleId( person.getId(), leg.getMode(), qsimConfig );
+		}
+		persons.add( person );
+		legs.add( leg );
+		vehicleIds.add( vehicleId );
+		activitiesBefore.add( activityBefore );
+		activitiesAfter.add( activityAfter );
+		return trip;
+	}
+
+	EventDrivenEngine getEngine(){
+		return engine;
+	}
+
+	Id<Link> getLinkId( final int link ){
+		return linkIds.get( link );
+	}
+
+	Person getPerson( final int trip ){
+		return persons.get( trip );
+	}
+
+	Leg getLeg( final int trip ){
+		return legs.get( trip );
+	}
+
+	Id<Vehicle> getVehicleId( final int trip ){
+		return vehicleIds.get( trip );
+	}
+
+	Activity getActivityBefore( final int trip ){
+		return activitiesBefore.get( trip );
+	}
+
+	Activity getActivityAfter( final int trip ){
+		return activitiesAfter.get( trip );
+	}
+
+	int getLegNumber( final int trip ){
+		return legNumbers.get( trip );
+	}
+}
@@ -0,0 +1,198 @@
+package org.matsim.core.mobsim.fff;
+
+import fastOrForcedToFollow.EventDrivenEngine;
+import fastOrForcedToFollow.EventDrivenEngine.TripListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
+import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
+import org.matsim.api.core.v01.events.PersonStuckEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.mobsim.framework.Mobsim;
+import org.matsim.core.utils.misc.Time;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.FFFConfigGroup.BicycleMobsim;
+
+/**
+ * Drop-in replacement of the QSim for bicycle scenarios, running the selected plans through an {@link EventDrivenEngine}
+ * and throwing the same events as the QSim would. Is used instead of the QSim if so configured in the
+ * {@link org.matsim.run.FFFConfigGroup}, either with the FFF equations, or with links without congestion, see
+ * {@link EventDrivenEngine#runFreeFlow(double, int)}.
+ *
+ * With the FFF equations, the state of the engine can be written to a checkpoint file at a given time, and a later mobsim
+ * with the same plans can resume from it, see {@link FFFConfigGroup#getCheckpointFile()}. The resumed mobsim first throws the
+ * events before the checkpoint again, from the recorded times of the trips, so the events handlers of a controler see
+ * complete legs.
+ *
+ * @author mpaulsen
+ */
+public final class EventDrivenFFFMobsim implements Mobsim {
+	private static final Logger log = Logger.getLogger( EventDrivenFFFMobsim.class ) ;
+
+	private final Scenario scenario;
+	private final EventsManager events;
+	private final FFFConfigGroup fffConfig;
+
+	@Inject EventDrivenFFFMobsim( final Scenario scenario, final EventsManager events ){
+		this.scenario = scenario;
+		this.events = events;
+		this.fffConfig = ConfigUtils.addOrGetModule( scenario.getConfig(), FFFConfigGroup.class );
+	}
+
+	@Override public void run(){
+		events.initProcessing();
+
+		final EventDrivenBicycleTrips trips = new EventDrivenBicycleTrips( scenario );
+		final EventDrivenEngine engine = trips.getEngine();
+		engine.setTripListener( new EventsThrowingListener( trips ) );
+
+		final double qsimEndTime = scenario.getConfig().qsim().getEndTime();
+		final double endTime = qsimEndTime == Time.UNDEFINED_TIME ? Double.POSITIVE_INFINITY : qsimEndTime;
+		final long start = System.currentTimeMillis();
+		if( fffConfig.getBicycleMobsim() == BicycleMobsim.freeFlow ){
+			engine.runFreeFlow( endTime, scenario.getConfig().qsim().getNumberOfThreads() );
+		} else {
+			runWithCheckpoint( engine, endTime );
+		}
+		log.info( "Simulated " + engine.getNumberOfTrips() + " trips in " + (System.currentTimeMillis() - start) + " ms." );
+
+		throwStuckEvents( trips, endTime );
+		events.finishProcessing();
+	}
+
+	/**
+	 * Runs the engine, restoring its state from the checkpoint before, and writing it to the checkpoint during the run, if so
+	 * configured.
+	 */
+	private void runWithCheckpoint( final EventDrivenEngine engine, final double endTime ){
+		final String checkpointFile = fffConfig.getCheckpointFile();
+		if( checkpointFile != null && fffConfig.getResumeFromCheckpoint() ){
+			try( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( checkpointFile ) ) ) ){
+				engine.readCheckpoint( in );
+			} catch ( IOException e ) {
+				throw new RuntimeException( "Could not restore checkpoint " + checkpointFile, e );
+			}
+			engine.reportPastEvents();
+			log.info( "Resuming from checkpoint " + checkpointFile + " at " + Time.writeTime( engine.getCurrentTime() ) + "." );
+		}
+		final double checkpointTime = fffConfig.getCheckpointTime();
+		if( checkpointFile != null && engine.getCurrentTime() < checkpointTime && checkpointTime < endTime ){
+			engine.run( checkpointTime );
+			try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( checkpointFile ) ) ) ){
+				engine.writeCheckpoint( out );
+			} catch ( IOException e ) {
+				throw new RuntimeException( "Could not write checkpoint " + checkpointFile, e );
+			}
+			log.info( "Wrote checkpoint " + checkpointFile + " at " + Time.writeTime( checkpointTime ) + "." );
+		}
+		engine.run( endTime );
+	}
+
+	/**
+	 * As the QSim at its end time, lets the persons which have not arrived from their last trip get stuck.
+	 */
+	private void throwStuckEvents( final EventDrivenBicycleTrips trips, final double endTime ){
+		final EventDrivenEngine engine = trips.getEngine();
+		Person previousPerson = null;
+		for( int trip = 0; trip < engine.getNumberOfTrips(); trip++ ){
+			final Person person = trips.getPerson( trip );
+			if( person == previousPerson || !Double.isNaN( engine.getArrivalTime( trip ) ) ){
+				continue;
+			}
+			previousPerson = person;
+			if( Double.isNaN( engine.getDepartureTime( trip ) ) ){
+				// at an activity, see ActivityEngine:
+				events.processEvent( new PersonStuckEvent( endTime, person.getId(), null, null ) );
+			} else {
+				final int[] route = engine.getRoute( trip );
+				int routeIndex = route.length - 1;
+				while( routeIndex > 0 && Double.isNaN( engine.getLinkEnterTime( trip, routeIndex ) ) ){
+					routeIndex--;
+				}
+				events.processEvent( new PersonStuckEvent( endTime, person.getId(), trips.getLinkId( route[routeIndex] ),
+						trips.getLeg( trip ).getMode() ) );
+			}
+		}
+	}
+
+	/**
+	 * Throws the events of the trips, in the order in which the QSim throws them.
+	 */
+	private final class EventsThrowingListener implements TripListener {
+		private final EventDrivenBicycleTrips trips;
+		private final EventDrivenEngine engine;
+
+		EventsThrowingListener( final EventDrivenBicycleTrips trips ){
+			this.trips = trips;
+			this.engine = trips.getEngine();
+		}
+
+		private Id<Link> getLinkId( final int trip, final int routeIndex ){
+			return trips.getLinkId( engine.getRoute( trip )[routeIndex] );
+		}
+
+		@Override public void departed( final int trip, final double time ){
+			final Id<Person> personId = trips.getPerson( trip ).getId();
+			final Activity activity = trips.getActivityBefore( trip );
+			events.processEvent( new ActivityEndEvent( time, personId, activity.getLinkId(), activity.getFacilityId(), activity.getType() ) );
+			events.processEvent( new PersonDepartureEvent( time, personId, getLinkId( trip, 0 ), trips.getLeg( trip ).getMode() ) );
+			if( engine.getRoute( trip ).length > 1 ){
+				events.processEvent( new PersonEntersVehicleEvent( time, personId, trips.getVehicleId( trip ) ) );
+			}
+		}
+
+		@Override public void enteredTraffic( final int trip, final double time ){
+			events.processEvent( new VehicleEntersTrafficEvent( time, trips.getPerson( trip ).getId(), getLinkId( trip, 0 ),
+					trips.getVehicleId( trip ), trips.getLeg( trip ).getMode(), 1.0 ) );
+		}
+
+		@Override public void leftLink( final int trip, final int routeIndex, final double time ){
+			events.processEvent( new LinkLeaveEvent( time, trips.getVehicleId( trip ), getLinkId( trip, routeIndex ) ) );
+		}
+
+		@Override public void enteredLink( final int trip, final int routeIndex, final double time ){
+			events.processEvent( new LinkEnterEvent( time, trips.getVehicleId( trip ), getLinkId( trip, routeIndex ) ) );
+		}
+
+		@Override public void arrived( final int trip, final double time ){
+			final Id<Person> personId = trips.getPerson( trip ).getId();
+			final Id<Link> linkId = getLinkId( trip, engine.getRoute( trip ).length - 1 );
+			final String mode = trips.getLeg( trip ).getMode();
+			if( engine.getRoute( trip ).length > 1 ){
+				events.processEvent( new VehicleLeavesTrafficEvent( time, personId, linkId, trips.getVehicleId( trip ), mode, 1.0 ) );
+				events.processEvent( new PersonLeavesVehicleEvent( time, personId, trips.getVehicleId( trip ) ) );
+			}
+			events.processEvent( new PersonArrivalEvent( time, personId, linkId, mode ) );
+			final Activity activity = trips.getActivityAfter( trip );
+			events.processEvent( new ActivityStartEvent( time, personId, activity.getLinkId(), activity.getFacilityId(), activity.getType() ) );
+		}
+
+		@Override public void stepDone( final double time ){
+			events.afterSimStep( time );
+		}
+	}
+}
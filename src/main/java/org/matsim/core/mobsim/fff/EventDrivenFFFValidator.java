@@ -0,0 +1,102 @@
+package org.matsim.core.mobsim.fff;
+
+import fastOrForcedToFollow.EventDrivenEngine;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.listener.AfterMobsimListener;
+import org.matsim.core.utils.misc.Time;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validates the {@link EventDrivenEngine} against the QSim: records the travel times of the legs simulated by the QSim, and
+ * after the mobsim, runs the same plans through the engine and logs how much the travel times differ.
+ *
+ * @author mpaulsen
+ */
+public final class EventDrivenFFFValidator implements PersonDepartureEventHandler, PersonArrivalEventHandler, AfterMobsimListener {
+	private static final Logger log = Logger.getLogger( EventDrivenFFFValidator.class ) ;
+
+	private final Scenario scenario;
+
+	/**
+	 * The departure and arrival times of the legs of each person, in the order of the legs.
+	 */
+	private final Map<Id<Person>, List<double[]>> qsimLegs = new HashMap<>();
+
+	@Inject EventDrivenFFFValidator( final Scenario scenario ){
+		this.scenario = scenario;
+	}
+
+	@Override public void reset( final int iteration ){
+		qsimLegs.clear();
+	}
+
+	@Override public void handleEvent( final PersonDepartureEvent event ){
+		List<double[]> legs = qsimLegs.get( event.getPersonId() );
+		if( legs == null ){
+			legs = new ArrayList<>();
+			qsimLegs.put( event.getPersonId(), legs );
+		}
+		legs.add( new double[] { event.getTime(), Double.NaN } );
+	}
+
+	@Override public void handleEvent( final PersonArrivalEvent event ){
+		final List<double[]> legs = qsimLegs.get( event.getPersonId() );
+		legs.get( legs.size() - 1 )[1] = event.getTime();
+	}
+
+	@Override public void notifyAfterMobsim( final AfterMobsimEvent event ){
+		final EventDrivenBicycleTrips trips = new EventDrivenBicycleTrips( scenario );
+		final EventDrivenEngine engine = trips.getEngine();
+		final double qsimEndTime = scenario.getConfig().qsim().getEndTime();
+		final long start = System.currentTimeMillis();
+		engine.run( qsimEndTime == Time.UNDEFINED_TIME ? Double.POSITIVE_INFINITY : qsimEndTime );
+		final long duration = System.currentTimeMillis() - start;
+
+		int compared = 0;
+		int identical = 0;
+		int unmatched = 0;
+		double sumOfDifferences = 0.;
+		double maxDifference = 0.;
+		double qsimTravelTime = 0.;
+		double engineTravelTime = 0.;
+		for( int trip = 0; trip < engine.getNumberOfTrips(); trip++ ){
+			final List<double[]> legs = qsimLegs.get( trips.getPerson( trip ).getId() );
+			final int legNumber = trips.getLegNumber( trip );
+			if( legs == null || legNumber >= legs.size() || Double.isNaN( legs.get( legNumber )[1] ) ||
+					Double.isNaN( engine.getArrivalTime( trip ) ) ){
+				unmatched++;
+				continue;
+			}
+			final double qsim = legs.get( legNumber )[1] - legs.get( legNumber )[0];
+			final double difference = Math.abs( engine.getTravelTime( trip ) - qsim );
+			compared++;
+			if( difference == 0. ){
+				identical++;
+			}
+			sumOfDifferences += difference;
+			maxDifference = Math.max( maxDifference, difference );
+			qsimTravelTime += qsim;
+			engineTravelTime += engine.getTravelTime( trip );
+		}
+		log.info( "Event-driven engine simulated " + engine.getNumberOfTrips() + " trips in " + duration + " ms. Of " + compared +
+				" trips arrived in both, " + identical + " have identical travel times; mean absolute difference " +
+				(compared == 0 ? 0. : sumOfDifferences / compared) + " s, maximum " + maxDifference + " s. Total travel time " +
+				qsimTravelTime + " s in the QSim, and " + engineTravelTime + " s in the engine. " + unmatched +
+				" trips did not arrive in at least one of them." );
+	}
+}
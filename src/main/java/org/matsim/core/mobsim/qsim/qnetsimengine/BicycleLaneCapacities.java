@@ -0,0 +1,89 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import fastOrForcedToFollow.Cyclist;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.mobsim.fff.CyclistRegistry;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.RunMatsim;
+
+/**
+ * Storage and flow capacities of bicycle links, derived from the headway model for the average cyclist of the
+ * {@link CyclistRegistry} of the scenario.
+ *
+ * A cyclist riding at speed v occupies its safety distance theta_0 + theta_1 * sqrt(v) of a pseudolane. The storage capacity
+ * of a link is thus its total pseudolane length divided by the mean safety distance at the desired speeds, and the flow
+ * capacity of each pseudolane is the mean desired speed divided by the mean safety distance.
+ *
+ * Without any cyclists in the registry, the capacities are only nominal: they are then those of the average cyclist of the
+ * distributions configured in the {@link FFFConfigGroup}, from which {@link RunMatsim} draws the cyclists.
+ *
+ * @author mpaulsen
+ */
+final class BicycleLaneCapacities {
+
+	/**
+	 * Number of quantiles over which the configured desired speeds are averaged for the nominal capacities.
+	 */
+	private static final int QUANTILES = 1000;
+
+	private final double meanDesiredSpeed;
+	private final double meanSafetyBufferDistance;
+	private final double timeStepSize;
+
+	BicycleLaneCapacities( final FFFConfigGroup fffConfig, final CyclistRegistry registry, final double timeStepSize ){
+		this.timeStepSize = timeStepSize;
+		double sumOfSpeeds = 0.;
+		double sumOfSafetyBufferDistances = 0.;
+		int numberOfCyclists = 0;
+		for( int i = 0; i < registry.getNumberOfCyclists(); i++ ){
+			final Cyclist cyclist = registry.getCyclist( i );
+			if( cyclist != null ){
+				sumOfSpeeds += cyclist.getDesiredSpeed();
+				sumOfSafetyBufferDistances += cyclist.getSafetyBufferDistance( cyclist.getDesiredSpeed() );
+				numberOfCyclists++;
+			}
+		}
+		if( numberOfCyclists > 0 ){
+			this.meanDesiredSpeed = sumOfSpeeds / numberOfCyclists;
+			this.meanSafetyBufferDistance = sumOfSafetyBufferDistances / numberOfCyclists;
+			return;
+		}
+
+		// nominal: the headway preference z_c is uniform, so theta_0 and theta_1 are on average those at z_c = 0.5:
+		final double theta_0 = fffConfig.getTheta_0() + 0.5 * fffConfig.getZeta_0();
+		final double theta_1 = fffConfig.getTheta_1() + 0.5 * fffConfig.getZeta_1();
+		double sumOfSqrtSpeeds = 0.;
+		for( int i = 0; i < QUANTILES; i++ ){
+			final double v_0 = Math.max( RunMatsim.uniformToJohnson( (i + 0.5) / QUANTILES, fffConfig ),
+					fffConfig.getMinimumAllowedDesiredSpeed() );
+			sumOfSpeeds += v_0;
+			sumOfSqrtSpeeds += Math.sqrt( v_0 );
+		}
+		this.meanDesiredSpeed = sumOfSpeeds / QUANTILES;
+		this.meanSafetyBufferDistance = theta_0 + theta_1 * sumOfSqrtSpeeds / QUANTILES;
+	}
+
+	double getMeanDesiredSpeed(){
+		return meanDesiredSpeed;
+	}
+
+	double getMeanSafetyBufferDistance(){
+		return meanSafetyBufferDistance;
+	}
+
+	/**
+	 * @return The number of average cyclists fitting onto the pseudolanes of <code>link</code>.
+	 */
+	double getStorageCapacity( final Link link ){
+		return RunMatsim.getNumberOfBicycleLanes( link ) * link.getLength() / meanSafetyBufferDistance;
+	}
+
+	/**
+	 * @return The number of average cyclists that can pass <code>link</code> per time step, all pseudolanes riding at the mean
+	 * desired speed with the mean safety distance.
+	 */
+	double getFlowCapacityPerTimeStep( final Link link ){
+		return RunMatsim.getNumberOfBicycleLanes( link ) * meanDesiredSpeed / meanSafetyBufferDistance * timeStepSize;
+	}
+}
@@ -0,0 +1,70 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.mobsim.fff.CyclistRegistry;
+import org.matsim.run.FFFConfigGroup;
+
+import fastOrForcedToFollow.SublinkStore;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The bicycle network of the mobsims, kept between the iterations if so configured, see
+ * {@link FFFConfigGroup#getReuseBicycleNetwork()}. The sublinks of all bicycle lanes remain allocated in one
+ * {@link SublinkStore}, whose state is reset in bulk before each mobsim, and the lane capacities are derived only once.
+ *
+ * The links and lanes of the QSim themselves are bound to the netsim engine of their mobsim, and are still created for every
+ * mobsim; they merely refer to the sublinks already allocated for their link.
+ *
+ * @author mpaulsen
+ */
+public final class BicycleNetworkCache {
+
+	private final SublinkStore store = new SublinkStore();
+
+	/**
+	 * The index of the first sublink of each link in the store.
+	 */
+	private final Map<Id<Link>, Integer> firstSublinks = new HashMap<>();
+
+	private BicycleLaneCapacities laneCapacities = null;
+
+	/**
+	 * Resets the state of the sublinks before a new mobsim.
+	 *
+	 * @return The store of the sublinks.
+	 */
+	/* package */ SublinkStore reset(){
+		store.resetState();
+		return store;
+	}
+
+	/**
+	 * @return The index of the first sublink allocated for <code>linkId</code> in a previous mobsim, or -1 if none.
+	 */
+	/* package */ int getFirstSublink( final Id<Link> linkId ){
+		final Integer firstSublink = firstSublinks.get( linkId );
+		return firstSublink == null ? -1 : firstSublink;
+	}
+
+	/* package */ void setFirstSublink( final Id<Link> linkId, final int firstSublink ){
+		firstSublinks.put( linkId, firstSublink );
+	}
+
+	/* package */ BicycleLaneCapacities getLaneCapacities( final FFFConfigGroup fffConfig, final CyclistRegistry registry,
+			final double timeStepSize ){
+		if( laneCapacities == null ){
+			laneCapacities = new BicycleLaneCapacities( fffConfig, registry, timeStepSize );
+		}
+		return laneCapacities;
+	}
+
+	/**
+	 * @return The number of links whose sublinks are kept.
+	 */
+	public int getNumberOfLinks(){
+		return firstSublinks.size();
+	}
+}
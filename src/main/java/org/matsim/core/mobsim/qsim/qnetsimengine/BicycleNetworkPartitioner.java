@@ -0,0 +1,452 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Multilevel min-cut partitioner of the network, used to assign the nodes (and thereby their out-links) of the QSim to its
+ * threads such that few links cross between threads.
+ *
+ * The QNetsimEngine assigns the nodes to its threads round-robin in the order of the network, and each link to the thread
+ * of its from-node. A vehicle crossing a node is thus handed over between threads exactly when the in-link and the node belong
+ * to different threads, i.e. when the in-link is cut by the partition. {@link #orderNodesByPartition(Network, int)} reorders
+ * the nodes of the network such that node <code>i</code> of the new order belongs to partition <code>i % k</code>.
+ *
+ * Handovers across partition boundaries need no further synchronisation: links are moved and nodes are moved in separate,
+ * barrier-separated phases of each time step, so a leaving buffer is never written and read concurrently. Partitioning
+ * therefore only reduces the cache traffic at the boundaries, and keeps the corridors of a thread contiguous.
+ *
+ * The partitioner coarsens the graph by heavy-edge matching, partitions the coarsest graph by greedy graph growing, and
+ * refines the partition by moving boundary nodes while projecting it back. Partitions are balanced by node count, as the
+ * round-robin assignment requires equally many nodes per thread.
+ *
+ * @author mpaulsen
+ */
+public final class BicycleNetworkPartitioner {
+	private static final Logger log = Logger.getLogger( BicycleNetworkPartitioner.class ) ;
+
+	/**
+	 * Allowed relative imbalance of the partitions.
+	 */
+	private static final double IMBALANCE = 0.03;
+
+	private static final int REFINEMENT_PASSES = 8;
+
+	private static final long SEED = 4711L;
+
+	private BicycleNetworkPartitioner(){
+		// static methods only
+	}
+
+	/**
+	 * Reorders the nodes (and links) of <code>network</code> such that the round-robin assignment of nodes to
+	 * <code>numberOfThreads</code> threads follows a min-cut partition of the network. Must be called before the mobsim is
+	 * created, and leaves the nodes and links themselves untouched.
+	 */
+	public static void orderNodesByPartition( final Network network, final int numberOfThreads ){
+		if(numberOfThreads <= 1){
+			return;
+		}
+		final List<Node> nodes = new ArrayList<>( network.getNodes().values() );
+		final List<Link> links = new ArrayList<>( network.getLinks().values() );
+		final Map<Node, Integer> index = new HashMap<>();
+		for(int i = 0; i < nodes.size(); i++){
+			index.put( nodes.get(i), i );
+		}
+		final int[] from = new int[links.size()];
+		final int[] to = new int[links.size()];
+		for(int l = 0; l < links.size(); l++){
+			from[l] = index.get( links.get(l).getFromNode() );
+			to[l] = index.get( links.get(l).getToNode() );
+		}
+
+		final int[] part = partition( nodes.size(), from, to, numberOfThreads );
+		final int[] order = roundRobinOrder( part, numberOfThreads );
+
+		final int[] threadBefore = new int[nodes.size()];
+		final int[] threadAfter = new int[nodes.size()];
+		for(int i = 0; i < order.length; i++){
+			threadBefore[i] = i % numberOfThreads;
+			threadAfter[order[i]] = i % numberOfThreads;
+		}
+		log.info( "Links crossing threads: " + countCut( from, to, threadBefore ) + " before and " + countCut( from, to, threadAfter )
+				+ " after partitioning " + nodes.size() + " nodes and " + links.size() + " links for " + numberOfThreads + " threads." );
+
+		// re-insert the nodes in the new order (removing a node also removes its links):
+		for(Node node : nodes){
+			network.removeNode( node.getId() );
+		}
+		for(int i : order){
+			network.addNode( nodes.get(i) );
+		}
+		for(Link link : links){
+			network.addLink( link );
+		}
+	}
+
+	private static int countCut( final int[] from, final int[] to, final int[] part ){
+		int cut = 0;
+		for(int l = 0; l < from.length; l++){
+			if(part[from[l]] != part[to[l]]){
+				cut++;
+			}
+		}
+		return cut;
+	}
+
+	/**
+	 * @return An order of the nodes in which node <code>i</code> belongs to partition <code>i % k</code> wherever possible.
+	 * Once a partition has run out of nodes, its slots are filled with surplus nodes of the largest remaining partition.
+	 */
+	/* package */ static int[] roundRobinOrder( final int[] part, final int k ){
+		final int[][] members = new int[k][];
+		final int[] count = new int[k];
+		for(int p : part){
+			count[p]++;
+		}
+		for(int p = 0; p < k; p++){
+			members[p] = new int[count[p]];
+		}
+		final int[] next = new int[k];
+		for(int u = 0; u < part.length; u++){
+			members[part[u]][next[part[u]]++] = u;
+		}
+		Arrays.fill( next, 0 );
+		final int[] order = new int[part.length];
+		for(int i = 0; i < order.length; i++){
+			int p = i % k;
+			if(next[p] == count[p]){
+				for(int q = 0; q < k; q++){
+					if(count[q] - next[q] > count[p] - next[p]){
+						p = q;
+					}
+				}
+			}
+			order[i] = members[p][next[p]++];
+		}
+		return order;
+	}
+
+	/**
+	 * Partitions the directed graph with <code>n</code> nodes and the arcs <code>from[l]</code> to <code>to[l]</code> into
+	 * <code>k</code> parts of (nearly) equal node count, such that few arcs connect different parts.
+	 *
+	 * @return The part of each node.
+	 */
+	/* package */ static int[] partition( final int n, final int[] from, final int[] to, final int k ){
+		final Random random = new Random( SEED );
+		final List<Graph> levels = new ArrayList<>();
+		final List<int[]> maps = new ArrayList<>();
+		Graph graph = Graph.fromArcs( n, from, to );
+		levels.add( graph );
+		final int coarsestSize = Math.max( 30 * k, 200 );
+		while(graph.n > coarsestSize){
+			final int[] map = new int[graph.n];
+			final Graph coarse = graph.coarsen( random, map );
+			if(coarse.n > 0.95 * graph.n){
+				break;
+			}
+			maps.add( map );
+			levels.add( coarse );
+			graph = coarse;
+		}
+
+		int[] part = graph.growPartitions( k );
+		graph.refine( part, k );
+		for(int level = levels.size() - 2; level >= 0; level--){
+			final int[] map = maps.get( level );
+			final int[] finePart = new int[map.length];
+			for(int u = 0; u < map.length; u++){
+				finePart[u] = part[map[u]];
+			}
+			part = finePart;
+			levels.get( level ).refine( part, k );
+		}
+		return part;
+	}
+
+	/**
+	 * Undirected graph with node and edge weights in compressed adjacency form.
+	 */
+	private static final class Graph {
+		private final int n;
+		private final int[] start;
+		private final int[] adjacent;
+		private final int[] edgeWeight;
+		private final int[] nodeWeight;
+		private final long totalNodeWeight;
+
+		private Graph( final int n, final int[] start, final int[] adjacent, final int[] edgeWeight, final int[] nodeWeight ){
+			this.n = n;
+			this.start = start;
+			this.adjacent = adjacent;
+			this.edgeWeight = edgeWeight;
+			this.nodeWeight = nodeWeight;
+			long total = 0;
+			for(int w : nodeWeight){
+				total += w;
+			}
+			this.totalNodeWeight = total;
+		}
+
+		/**
+		 * Creates the undirected graph of unit node weights, in which the weight of an edge is the number of arcs between its nodes.
+		 */
+		private static Graph fromArcs( final int n, final int[] from, final int[] to ){
+			final long[] keys = new long[2 * from.length];
+			int m = 0;
+			for(int l = 0; l < from.length; l++){
+				if(from[l] != to[l]){
+					keys[m++] = ((long) from[l] << 32) | to[l];
+					keys[m++] = ((long) to[l] << 32) | from[l];
+				}
+			}
+			Arrays.sort( keys, 0, m );
+			final int[] start = new int[n + 1];
+			final int[] adjacent = new int[m];
+			final int[] edgeWeight = new int[m];
+			int edges = 0;
+			for(int i = 0; i < m; i++){
+				final int u = (int) (keys[i] >>> 32);
+				final int v = (int) keys[i];
+				if(i > 0 && keys[i] == keys[i-1]){
+					edgeWeight[edges-1]++;
+				} else {
+					start[u + 1]++;
+					adjacent[edges] = v;
+					edgeWeight[edges] = 1;
+					edges++;
+				}
+			}
+			for(int u = 0; u < n; u++){
+				start[u + 1] += start[u];
+			}
+			final int[] nodeWeight = new int[n];
+			Arrays.fill( nodeWeight, 1 );
+			return new Graph( n, start, Arrays.copyOf( adjacent, edges ), Arrays.copyOf( edgeWeight, edges ), nodeWeight );
+		}
+
+		/**
+		 * Contracts a heavy-edge matching of the graph.
+		 *
+		 * @param map Filled with the coarse node of each node.
+		 */
+		private Graph coarsen( final Random random, final int[] map ){
+			final int[] match = new int[n];
+			Arrays.fill( match, -1 );
+			for(int u : randomPermutation( n, random )){
+				if(match[u] != -1){
+					continue;
+				}
+				int best = u;
+				int bestWeight = 0;
+				for(int e = start[u]; e < start[u + 1]; e++){
+					final int v = adjacent[e];
+					if(match[v] == -1 && edgeWeight[e] > bestWeight){
+						best = v;
+						bestWeight = edgeWeight[e];
+					}
+				}
+				match[u] = best;
+				match[best] = u;
+			}
+
+			Arrays.fill( map, -1 );
+			int coarseN = 0;
+			for(int u = 0; u < n; u++){
+				if(map[u] == -1){
+					map[u] = coarseN;
+					map[match[u]] = coarseN;
+					coarseN++;
+				}
+			}
+
+			final int[] coarseStart = new int[coarseN + 1];
+			final int[] coarseAdjacent = new int[adjacent.length];
+			final int[] coarseEdgeWeight = new int[adjacent.length];
+			final int[] coarseNodeWeight = new int[coarseN];
+			final int[] position = new int[coarseN];
+			Arrays.fill( position, -1 );
+			int edges = 0;
+			int c = 0;
+			for(int u = 0; u < n; u++){
+				if(map[u] != c){
+					continue; // the second node of a pair, handled together with the first.
+				}
+				final int firstEdge = edges;
+				final int v = match[u];
+				coarseNodeWeight[c] = nodeWeight[u] + (v == u ? 0 : nodeWeight[v]);
+				for(int w = u; ; w = v){
+					for(int e = start[w]; e < start[w + 1]; e++){
+						final int target = map[adjacent[e]];
+						if(target == c){
+							continue;
+						}
+						if(position[target] < firstEdge){
+							position[target] = edges;
+							coarseAdjacent[edges] = target;
+							coarseEdgeWeight[edges] = edgeWeight[e];
+							edges++;
+						} else {
+							coarseEdgeWeight[position[target]] += edgeWeight[e];
+						}
+					}
+					if(w == v){
+						break;
+					}
+				}
+				coarseStart[++c] = edges;
+			}
+			return new Graph( coarseN, coarseStart, Arrays.copyOf( coarseAdjacent, edges ), Arrays.copyOf( coarseEdgeWeight, edges ),
+					coarseNodeWeight );
+		}
+
+		/**
+		 * Greedy graph growing: grows the parts one at a time from an unassigned node, adding the frontier node most strongly
+		 * connected to the part until it reaches its share of the node weight. The last part takes the remaining nodes.
+		 */
+		private int[] growPartitions( final int k ){
+			final int[] part = new int[n];
+			Arrays.fill( part, -1 );
+			final int[] connection = new int[n];
+			final boolean[] onFrontier = new boolean[n];
+			final int[] frontier = new int[n];
+			int nextSeed = 0;
+			long assignedWeight = 0;
+			for(int p = 0; p < k - 1; p++){
+				final long target = Math.round( (double) (totalNodeWeight - assignedWeight) / (k - p) );
+				long weight = 0;
+				int frontierSize = 0;
+				while(weight < target){
+					int chosen = -1;
+					int chosenAt = -1;
+					for(int i = 0; i < frontierSize; i++){
+						if(chosen == -1 || connection[frontier[i]] > connection[chosen]){
+							chosen = frontier[i];
+							chosenAt = i;
+						}
+					}
+					if(chosen == -1){
+						// new seed, e.g. for a further component:
+						while(nextSeed < n && part[nextSeed] != -1){
+							nextSeed++;
+						}
+						if(nextSeed == n){
+							break;
+						}
+						chosen = nextSeed;
+					} else {
+						frontier[chosenAt] = frontier[--frontierSize];
+						onFrontier[chosen] = false;
+					}
+					part[chosen] = p;
+					weight += nodeWeight[chosen];
+					for(int e = start[chosen]; e < start[chosen + 1]; e++){
+						final int v = adjacent[e];
+						if(part[v] == -1){
+							connection[v] += edgeWeight[e];
+							if(!onFrontier[v]){
+								onFrontier[v] = true;
+								frontier[frontierSize++] = v;
+							}
+						}
+					}
+				}
+				for(int i = 0; i < frontierSize; i++){
+					onFrontier[frontier[i]] = false;
+					connection[frontier[i]] = 0;
+				}
+				assignedWeight += weight;
+			}
+			for(int u = 0; u < n; u++){
+				if(part[u] == -1){
+					part[u] = k - 1;
+				}
+			}
+			return part;
+		}
+
+		/**
+		 * Improves the partition by moving boundary nodes to the neighbouring part they are most strongly connected to, as long
+		 * as this reduces the cut without exceeding the allowed imbalance, or relieves an overweight part.
+		 */
+		private void refine( final int[] part, final int k ){
+			int maxNodeWeight = 0;
+			for(int w : nodeWeight){
+				maxNodeWeight = Math.max( maxNodeWeight, w );
+			}
+			final double share = (double) totalNodeWeight / k;
+			final long maxWeight = Math.max( (long) Math.ceil( (1 + IMBALANCE) * share ), (long) Math.ceil( share ) + maxNodeWeight );
+			final long[] partWeight = new long[k];
+			for(int u = 0; u < n; u++){
+				partWeight[part[u]] += nodeWeight[u];
+			}
+			final int[] connection = new int[k];
+			final int[] touched = new int[k];
+			for(int pass = 0; pass < REFINEMENT_PASSES; pass++){
+				int moves = 0;
+				for(int u = 0; u < n; u++){
+					final int own = part[u];
+					int touchedSize = 0;
+					for(int e = start[u]; e < start[u + 1]; e++){
+						final int p = part[adjacent[e]];
+						if(connection[p] == 0){
+							touched[touchedSize++] = p;
+						}
+						connection[p] += edgeWeight[e];
+					}
+					int best = -1;
+					int bestGain = Integer.MIN_VALUE;
+					for(int i = 0; i < touchedSize; i++){
+						final int p = touched[i];
+						if(p == own || partWeight[p] + nodeWeight[u] > maxWeight){
+							continue;
+						}
+						final int gain = connection[p] - connection[own];
+						if(gain > bestGain || (gain == bestGain && partWeight[p] < partWeight[best])){
+							best = p;
+							bestGain = gain;
+						}
+					}
+					final boolean overweight = partWeight[own] > maxWeight;
+					if(best != -1 && (bestGain > 0 || overweight ||
+							(bestGain == 0 && partWeight[own] > partWeight[best] + nodeWeight[u]))){
+						part[u] = best;
+						partWeight[own] -= nodeWeight[u];
+						partWeight[best] += nodeWeight[u];
+						moves++;
+					}
+					for(int i = 0; i < touchedSize; i++){
+						connection[touched[i]] = 0;
+					}
+				}
+				if(moves == 0){
+					break;
+				}
+			}
+		}
+
+		private static int[] randomPermutation( final int n, final Random random ){
+			final int[] permutation = new int[n];
+			for(int i = 0; i < n; i++){
+				permutation[i] = i;
+			}
+			for(int i = n - 1; i > 0; i--){
+				final int j = random.nextInt(i + 1);
+				final int tmp = permutation[i];
+				permutation[i] = permutation[j];
+				permutation[j] = tmp;
+			}
+			return permutation;
+		}
+	}
+}
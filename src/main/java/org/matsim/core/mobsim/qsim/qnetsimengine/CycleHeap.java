@@ -0,0 +1,144 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link CycleQueue} keeping all cyclists of a lane in a single binary heap.
+ *
+ * The earliest exits are stored as primitive keys next to the cyclists, so ordering never dereferences a cyclist, and
+ * nothing is allocated once the arrays have grown to the largest number of cyclists on the lane. Sifting is done exactly as
+ * in {@link java.util.PriorityQueue}, so cyclists with equal exits are polled in the same order.
+ *
+ * If deterministic, cyclists with equal exits are instead polled in the order of their vehicle ids. The order in which
+ * cyclists are polled is then independent of the order in which they have been added, e.g. by the threads handing cyclists
+ * back from a {@link CycleTimingWheel}.
+ *
+ * @author mpaulsen
+ */
+final class CycleHeap implements CycleQueue {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private double[] keys = new double[INITIAL_CAPACITY];
+	private QCycle[] qCycs = new QCycle[INITIAL_CAPACITY];
+	private int size = 0;
+
+	private final boolean deterministic;
+
+	CycleHeap(){
+		this(false);
+	}
+
+	CycleHeap( final boolean deterministic ){
+		this.deterministic = deterministic;
+	}
+
+	/**
+	 * The order of cyclists with equal exits in deterministic queues.
+	 */
+	/* package */ static int compareTies( final QCycle qCyc, final QCycle other ){
+		return qCyc.getId().compareTo(other.getId());
+	}
+
+	/**
+	 * @return Whether the cyclist with exit <code>key</code> is polled before the cyclist with exit <code>otherKey</code>.
+	 */
+	private boolean precedes( final double key, final QCycle qCyc, final double otherKey, final QCycle other ){
+		return key < otherKey || (deterministic && key == otherKey && compareTies(qCyc, other) < 0);
+	}
+
+	@Override public void add( final QCycle qCyc ){
+		if(size == qCycs.length){
+			keys = Arrays.copyOf(keys, 2 * size);
+			qCycs = Arrays.copyOf(qCycs, 2 * size);
+		}
+		siftUp(size++, qCyc.getEarliestLinkExitTime(), qCyc);
+	}
+
+	@Override public QCycle peek(){
+		return size == 0 ? null : qCycs[0];
+	}
+
+	@Override public QCycle poll(){
+		if(size == 0){
+			return null;
+		}
+		final QCycle first = qCycs[0];
+		final int last = --size;
+		final double key = keys[last];
+		final QCycle qCyc = qCycs[last];
+		qCycs[last] = null;
+		if(last != 0){
+			siftDown(0, key, qCyc);
+		}
+		return first;
+	}
+
+	private void siftUp( int k, final double key, final QCycle qCyc ){
+		while(k > 0){
+			final int parent = (k - 1) >>> 1;
+			if(!precedes(key, qCyc, keys[parent], qCycs[parent])){
+				break;
+			}
+			keys[k] = keys[parent];
+			qCycs[k] = qCycs[parent];
+			k = parent;
+		}
+		keys[k] = key;
+		qCycs[k] = qCyc;
+	}
+
+	private void siftDown( int k, final double key, final QCycle qCyc ){
+		final int half = size >>> 1;
+		while(k < half){
+			int child = 2 * k + 1;
+			final int right = child + 1;
+			if(right < size && precedes(keys[right], qCycs[right], keys[child], qCycs[child])){
+				child = right;
+			}
+			if(!precedes(keys[child], qCycs[child], key, qCyc)){
+				break;
+			}
+			keys[k] = keys[child];
+			qCycs[k] = qCycs[child];
+			k = child;
+		}
+		keys[k] = key;
+		qCycs[k] = qCyc;
+	}
+
+	@Override public boolean isEmpty(){
+		return size == 0;
+	}
+
+	@Override public int size(){
+		return size;
+	}
+
+	@Override public void clear(){
+		Arrays.fill(qCycs, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * Iterates the cyclists in heap order, i.e. not sorted.
+	 */
+	@Override public Iterator<QCycle> iterator(){
+		return new Iterator<QCycle>(){
+			private int i = 0;
+
+			@Override public boolean hasNext(){
+				return i < size;
+			}
+
+			@Override public QCycle next(){
+				if(i >= size){
+					throw new NoSuchElementException();
+				}
+				return qCycs[i++];
+			}
+		};
+	}
+}
@@ -0,0 +1,22 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+/**
+ * A bicycle lane whose cyclists can be held in a {@link CycleTimingWheel} until their next sublink exit is due.
+ *
+ * @author mpaulsen
+ */
+interface CycleLane {
+
+	/**
+	 * Hands a cyclist back to the lane once the exit of its current sublink is due. Called from the main thread, before the
+	 * links are moved, so the lane has to activate its link itself.
+	 */
+	void addDueCyclist( QCycle qCyc );
+
+	/**
+	 * Wakes the lane up at a time which it has requested through {@link CycleTimingWheel#scheduleWakeUp(CycleLane, double)}.
+	 * Called from the main thread, before the links are moved, so the lane has to activate its link itself.
+	 */
+	void wakeUp( double time );
+
+}
@@ -0,0 +1,54 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import org.matsim.core.mobsim.qsim.interfaces.MobsimVehicle;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Live, read-only view of all vehicles on a bicycle lane, i.e. the cyclists on its sublinks followed by its leaving vehicles.
+ * Nothing is copied; iterating the view while the lane is moved gives undefined results.
+ *
+ * @author mpaulsen
+ */
+abstract class CycleLaneVehicles extends AbstractCollection<MobsimVehicle> {
+
+	private final QCycleList cyclists;
+
+	CycleLaneVehicles( final QCycleList cyclists ){
+		this.cyclists = cyclists;
+	}
+
+	/**
+	 * @return The vehicles which have reached the end of the lane, but have not yet been moved over the node.
+	 */
+	abstract Collection<? extends MobsimVehicle> getLeavingVehicles();
+
+	@Override public int size(){
+		return cyclists.size() + getLeavingVehicles().size();
+	}
+
+	@Override public Iterator<MobsimVehicle> iterator(){
+		return new Iterator<MobsimVehicle>(){
+			private Iterator<? extends MobsimVehicle> current = cyclists.iterator();
+			private boolean leaving = false;
+
+			@Override public boolean hasNext(){
+				if(!current.hasNext() && !leaving){
+					current = getLeavingVehicles().iterator();
+					leaving = true;
+				}
+				return current.hasNext();
+			}
+
+			@Override public MobsimVehicle next(){
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				return current.next();
+			}
+		};
+	}
+}
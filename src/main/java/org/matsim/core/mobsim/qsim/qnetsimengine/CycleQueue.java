@@ -0,0 +1,30 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+/**
+ * The queue of cyclists of a bicycle lane, ordered by the earliest exit of their current sublink.
+ *
+ * The earliest exit of a cyclist must not change while the cyclist is in the queue.
+ *
+ * @author mpaulsen
+ */
+interface CycleQueue extends Iterable<QCycle> {
+
+	void add( QCycle qCyc );
+
+	/**
+	 * @return The cyclist with the earliest exit, or <code>null</code> if the queue is empty.
+	 */
+	QCycle peek();
+
+	/**
+	 * Removes and returns the cyclist with the earliest exit, or <code>null</code> if the queue is empty.
+	 */
+	QCycle poll();
+
+	boolean isEmpty();
+
+	int size();
+
+	void clear();
+
+}
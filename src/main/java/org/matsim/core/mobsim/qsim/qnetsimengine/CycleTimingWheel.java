@@ -0,0 +1,217 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import org.matsim.core.mobsim.framework.events.MobsimBeforeSimStepEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeSimStepListener;
+
+import java.util.Arrays;
+
+/**
+ * Network-wide hierarchical timing wheel holding the sublink exits of all cyclists which are not yet due, or the times at
+ * which sleeping lanes have asked to be woken up.
+ *
+ * Time is divided into ticks of a fraction of a time step. An exit at time t belongs to tick ceil(t / tickWidth), and is
+ * handed back to its lane before the first time step at or after the end of that tick. The wheel consists of
+ * <ul>
+ * <li> a fine wheel with one bucket per tick, covering the current interval of {@link #FINE_SLOTS} ticks,
+ * <li> a coarse wheel with one bucket per interval of {@link #FINE_SLOTS} ticks, covering the following {@link #COARSE_SLOTS} intervals,
+ * <li> an overflow bucket holding everything further ahead.
+ * </ul>
+ * Scheduling is O(1), and every exit within the horizon of the coarse wheel is moved at most twice before being due, after
+ * which it is handed to its lane, which is then activated. Links without due cyclists are thus never visited by the netsim engine.
+ *
+ * Exits may be scheduled concurrently from the threads of the netsim engine, whereas the wheel is advanced by the main
+ * thread before each time step, see {@link #notifyMobsimBeforeSimStep(MobsimBeforeSimStepEvent)}.
+ *
+ * @author mpaulsen
+ */
+public final class CycleTimingWheel implements MobsimBeforeSimStepListener {
+
+	private static final int FINE_BITS = 10;
+	private static final int FINE_SLOTS = 1 << FINE_BITS;
+	private static final int FINE_MASK = FINE_SLOTS - 1;
+
+	private static final int COARSE_BITS = 8;
+	private static final int COARSE_SLOTS = 1 << COARSE_BITS;
+	private static final int COARSE_MASK = COARSE_SLOTS - 1;
+
+	private final Bucket[] fine = new Bucket[FINE_SLOTS];
+	private final Bucket[] coarse = new Bucket[COARSE_SLOTS];
+	private Bucket overflow = new Bucket();
+
+	/**
+	 * Empty bucket swapped with the overflow bucket while the latter is cascaded.
+	 */
+	private Bucket spareOverflow = new Bucket();
+
+	/**
+	 * The width [s] of a tick.
+	 */
+	private double tickWidth = 1.;
+
+	/**
+	 * All ticks up to and including this one have been handed back to their lanes.
+	 */
+	private long lastTick;
+
+	/**
+	 * Whether the wheel has been advanced since it was last reset. Until then, everything is held in the overflow bucket.
+	 */
+	private boolean started = false;
+
+	public CycleTimingWheel(){
+		for(int i = 0; i < FINE_SLOTS; i++){
+			fine[i] = new Bucket();
+		}
+		for(int i = 0; i < COARSE_SLOTS; i++){
+			coarse[i] = new Bucket();
+		}
+	}
+
+	/**
+	 * Empties the wheel before a new mobsim.
+	 *
+	 * @param timeStepSize The time step size [s] of the mobsim.
+	 * @param ticksPerTimeStep The number of ticks (buckets of the fine wheel) per time step.
+	 */
+	/* package */ void reset( final double timeStepSize, final int ticksPerTimeStep ){
+		for(Bucket bucket : fine){
+			bucket.clear();
+		}
+		for(Bucket bucket : coarse){
+			bucket.clear();
+		}
+		overflow.clear();
+		spareOverflow.clear();
+		this.tickWidth = timeStepSize / ticksPerTimeStep;
+		this.started = false;
+	}
+
+	/**
+	 * Schedules the sublink exit of <code>qCyc</code> at <code>time</code>. Exits which are already due are handed back in the
+	 * next time step.
+	 */
+	/* package */ void schedule( final CycleLane lane, final QCycle qCyc, final double time ){
+		place( lane, qCyc, time, tickOf(time) );
+	}
+
+	/**
+	 * Schedules a wake-up of <code>lane</code> at <code>time</code>, see {@link CycleLane#wakeUp(double)}. Wake-ups which
+	 * are already due are handed back in the next time step.
+	 */
+	/* package */ void scheduleWakeUp( final CycleLane lane, final double time ){
+		place( lane, null, time, tickOf(time) );
+	}
+
+	private void place( final CycleLane lane, final QCycle qCyc, final double time, final long tick ){
+		if(!started){
+			overflow.add( lane, qCyc, time );
+			return;
+		}
+		final long nextTick = Math.max( tick, lastTick + 1 );
+		final long interval = nextTick >>> FINE_BITS;
+		final long currentInterval = (lastTick + 1) >>> FINE_BITS;
+		if(interval == currentInterval){
+			fine[(int) (nextTick & FINE_MASK)].add( lane, qCyc, time );
+		} else if(interval - currentInterval <= COARSE_MASK){
+			coarse[(int) (interval & COARSE_MASK)].add( lane, qCyc, time );
+		} else {
+			overflow.add( lane, qCyc, time );
+		}
+	}
+
+	private long tickOf( final double time ){
+		return (long) Math.ceil( time / tickWidth );
+	}
+
+	@Override
+	public void notifyMobsimBeforeSimStep( final MobsimBeforeSimStepEvent e ){
+		advanceTo( tickOf( e.getSimulationTime() ) );
+	}
+
+	/**
+	 * Hands all exits belonging to ticks up to and including <code>tick</code> back to their lanes.
+	 */
+	/* package */ void advanceTo( final long tick ){
+		if(!started){
+			lastTick = tick - 1;
+			started = true;
+			cascadeOverflow();
+		}
+		while(lastTick < tick){
+			final long next = lastTick + 1;
+			if((next & FINE_MASK) == 0){
+				// Entering a new interval of the fine wheel.
+				final long interval = next >>> FINE_BITS;
+				if((interval & COARSE_MASK) == 0){
+					cascadeOverflow();
+				}
+				cascade( coarse[(int) (interval & COARSE_MASK)] );
+			}
+			fine[(int) (next & FINE_MASK)].drain();
+			lastTick = next;
+		}
+	}
+
+	/**
+	 * Places the exits of the overflow bucket anew, now that the wheel has moved closer to them. Exits still beyond the coarse
+	 * wheel return to the (swapped) overflow bucket.
+	 */
+	private void cascadeOverflow(){
+		final Bucket bucket = overflow;
+		overflow = spareOverflow;
+		spareOverflow = bucket;
+		cascade( bucket );
+	}
+
+	/**
+	 * Empties <code>bucket</code> and places its exits anew, now that the wheel has moved closer to them. The exits must not
+	 * be placed in <code>bucket</code> itself.
+	 */
+	private void cascade( final Bucket bucket ){
+		for(int i = 0; i < bucket.size; i++){
+			place( bucket.lanes[i], bucket.qCycs[i], bucket.times[i], tickOf( bucket.times[i] ) );
+		}
+		bucket.clear();
+	}
+
+	/**
+	 * An unordered, growable bucket of scheduled exits and wake-ups, the latter having no cyclist.
+	 */
+	private static final class Bucket {
+		private static final int INITIAL_CAPACITY = 4;
+
+		private CycleLane[] lanes = new CycleLane[INITIAL_CAPACITY];
+		private QCycle[] qCycs = new QCycle[INITIAL_CAPACITY];
+		private double[] times = new double[INITIAL_CAPACITY];
+		private int size = 0;
+
+		private synchronized void add( final CycleLane lane, final QCycle qCyc, final double time ){
+			if(size == lanes.length){
+				lanes = Arrays.copyOf( lanes, 2 * size );
+				qCycs = Arrays.copyOf( qCycs, 2 * size );
+				times = Arrays.copyOf( times, 2 * size );
+			}
+			lanes[size] = lane;
+			qCycs[size] = qCyc;
+			times[size] = time;
+			size++;
+		}
+
+		private void drain(){
+			for(int i = 0; i < size; i++){
+				if(qCycs[i] == null){
+					lanes[i].wakeUp( times[i] );
+				} else {
+					lanes[i].addDueCyclist( qCycs[i] );
+				}
+			}
+			clear();
+		}
+
+		private void clear(){
+			Arrays.fill( lanes, 0, size, null );
+			Arrays.fill( qCycs, 0, size, null );
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import org.matsim.core.mobsim.framework.events.MobsimBeforeSimStepEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeSimStepListener;
+
+import java.util.ArrayDeque;
+
+/**
+ * Returns bicycle lanes with lazy sublinks to their dormant state once they have been empty for the configured idle time,
+ * see {@link org.matsim.run.FFFConfigGroup#getDormantLaneIdleTime()}.
+ *
+ * Lanes report when they become empty, possibly concurrently from the threads of the netsim engine. As they do so at the
+ * current time, the reports arrive in order of time, and are kept in a FIFO queue. The lanes are compacted by the main
+ * thread before each time step, see {@link #notifyMobsimBeforeSimStep(MobsimBeforeSimStepEvent)}, so never while they are
+ * being moved.
+ *
+ * @author mpaulsen
+ */
+public final class DormantLaneCompactor implements MobsimBeforeSimStepListener {
+
+	private final ArrayDeque<EmptiedLane> emptiedLanes = new ArrayDeque<>();
+
+	/**
+	 * The time [s] for which a lane has to be empty before it is compacted.
+	 */
+	private double idleTime = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Empties the compactor before a new mobsim.
+	 *
+	 * @param idleTime The time [s] for which a lane has to be empty before it is compacted.
+	 */
+	/* package */ void reset( final double idleTime ){
+		this.idleTime = idleTime;
+		emptiedLanes.clear();
+	}
+
+	/**
+	 * @return <code>true</code> iff lanes are ever compacted, i.e. the idle time is finite.
+	 */
+	/* package */ boolean isCompacting(){
+		return idleTime < Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Notes that <code>lane</code> has become empty at <code>time</code>, which has to be the current time.
+	 */
+	/* package */ synchronized void laneEmptied( final QCycleLaneWithSublinks lane, final double time ){
+		emptiedLanes.addLast( new EmptiedLane( lane, time ) );
+	}
+
+	/**
+	 * Compacts the lanes which have been empty for at least the idle time. Lanes which have received cyclists since they
+	 * reported being empty are skipped; they report again once they are empty again.
+	 */
+	@Override public void notifyMobsimBeforeSimStep( final MobsimBeforeSimStepEvent event ){
+		final double now = event.getSimulationTime();
+		EmptiedLane first;
+		while( (first = emptiedLanes.peekFirst()) != null && first.time + idleTime <= now ){
+			emptiedLanes.pollFirst();
+			first.lane.compact( first.time );
+		}
+	}
+
+	private static final class EmptiedLane {
+		private final QCycleLaneWithSublinks lane;
+		private final double time;
+
+		EmptiedLane( final QCycleLaneWithSublinks lane, final double time ){
+			this.lane = lane;
+			this.time = time;
+		}
+	}
+}
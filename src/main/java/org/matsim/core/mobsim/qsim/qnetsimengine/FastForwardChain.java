@@ -0,0 +1,191 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import fastOrForcedToFollow.Cyclist;
+import fastOrForcedToFollow.Sublink;
+import fastOrForcedToFollow.SublinkStore;
+
+/**
+ * The chain of sublinks through which a cyclist of a {@link QCycleLaneWithSublinks} is fast-forwarded, see
+ * {@link org.matsim.run.FFFConfigGroup#getFastForwardSublinks()} and {@link HybridLaneMode}: the cyclist is only queued for
+ * its exit of the last sublink of the lane, instead of for its exit of each sublink.
+ *
+ * The chain is recorded, indexed by sublink, from the sublink the cyclist has entered when it was fast-forwarded up to the last
+ * sublink of the lane. Its reservations of the pseudolanes of the remaining sublinks are only recorded, and made once nobody
+ * else can enter these sublinks before the cyclist would have, see {@link #confirm(QCycle, Sublink[])}. If someone does, the
+ * chain is truncated, see {@link #truncate(Sublink[])}. The sublinks are thus entered in the same order, with the same state,
+ * as when the cyclist is queued for each of them, giving identical results.
+ *
+ * @author mpaulsen
+ */
+final class FastForwardChain {
+
+	private final SublinkStore store;
+	private final boolean deterministicTieBreaking;
+
+	/**
+	 * The fast-forwarded cyclist, or <code>null</code> if none. The reservations of the sublinks from <code>first</code> are
+	 * not yet made.
+	 */
+	private QCycle qCyc = null;
+	private int first;
+	private int[] pseudoLane = null;
+	private double[] tReady = null;
+	private double[] tEnd = null;
+	private double[] exit = null;
+	private double[] speed = null;
+
+	FastForwardChain( final SublinkStore store, final boolean deterministicTieBreaking ){
+		this.store = store;
+		this.deterministicTieBreaking = deterministicTieBreaking;
+	}
+
+	/**
+	 * @return The fast-forwarded cyclist, or <code>null</code> if none.
+	 */
+	QCycle getCyclist(){
+		return qCyc;
+	}
+
+	/**
+	 * @return The index of the first sublink whose reservation is not yet made.
+	 */
+	int getFirst(){
+		return first;
+	}
+
+	double getExit( final int j ){
+		return exit[j];
+	}
+
+	double getSpeed( final int j ){
+		return speed[j];
+	}
+
+	/**
+	 * Records the chain of <code>qCyc</code> from its current sublink through the remaining sublinks of <code>lane</code>,
+	 * leaving its occupied space on its current sublink.
+	 */
+	void record( final QCycle qCyc, final QCycleLaneWithSublinks lane, final Sublink[] links ){
+		final Cyclist cyclist = qCyc.getCyclist();
+		if( exit == null ){
+			pseudoLane = new int[links.length];
+			tReady = new double[links.length];
+			tEnd = new double[links.length];
+			exit = new double[links.length];
+			speed = new double[links.length];
+		}
+		final int current = cyclist.getCurrentLinkIndex();
+		recordLink( cyclist, current );
+		final int last = links.length - 1;
+		for( int j = current + 1; j <= last; j++ ){
+			lane.enterSublink( cyclist, links[j], j );
+		}
+		cyclist.setCurrentLinkIndex( last );
+		this.qCyc = qCyc;
+		this.first = current + 1;
+	}
+
+	/**
+	 * Records that the cyclist enters sublink <code>j</code> with its current pseudolane, exit and speed, reserving the
+	 * pseudolane as given.
+	 */
+	void recordReservation( final Cyclist cyclist, final int j, final double tReady, final double tEnd ){
+		recordLink( cyclist, j );
+		this.tReady[j] = tReady;
+		this.tEnd[j] = tEnd;
+	}
+
+	private void recordLink( final Cyclist cyclist, final int j ){
+		pseudoLane[j] = cyclist.getCurrentPseudoLane();
+		exit[j] = cyclist.getTEarliestExit();
+		speed[j] = cyclist.getSpeed();
+	}
+
+	/**
+	 * Moves the occupied space of the cyclist from the sublink it has been fast-forwarded from to the last sublink.
+	 */
+	void moveOccupiedSpaceToLast( final Sublink[] links ){
+		final Cyclist cyclist = qCyc.getCyclist();
+		links[first-1].reduceOccupiedSpace( cyclist, speed[first-1] );
+		links[links.length-1].increaseOccupiedSpace( cyclist, cyclist.getSpeed() );
+	}
+
+	/**
+	 * Makes the recorded reservations which the cyclist would have made before <code>polled</code> is polled, i.e. all of them
+	 * if it is the fast-forwarded cyclist itself.
+	 */
+	void confirm( final QCycle polled, final Sublink[] links ){
+		final double key = polled.getEarliestLinkExitTime();
+		while( first < links.length && (polled == qCyc || exit[first-1] < key ||
+				(deterministicTieBreaking && exit[first-1] == key && CycleHeap.compareTies( qCyc, polled ) < 0)) ){
+			makeReservation( links, first++ );
+		}
+		if( first == links.length ){
+			qCyc = null;
+		}
+	}
+
+	/**
+	 * Makes the recorded reservations up to <code>time</code>.
+	 *
+	 * @return <code>true</code> iff all reservations have been made; otherwise, the chain is still to be truncated.
+	 */
+	boolean resolve( final double time, final Sublink[] links ){
+		while( first < links.length && exit[first-1] <= time ){
+			makeReservation( links, first++ );
+		}
+		if( first == links.length ){
+			qCyc = null;
+			return true;
+		}
+		return false;
+	}
+
+	private void makeReservation( final Sublink[] links, final int j ){
+		store.setTReady( pseudoLane[j], tReady[j] );
+		links[j].setTEnd( pseudoLane[j], tEnd[j] );
+	}
+
+	/**
+	 * Returns the cyclist to the last sublink it has entered in its chain, discarding the reservations not yet made.
+	 */
+	void truncate( final Sublink[] links ){
+		final Cyclist cyclist = qCyc.getCyclist();
+		final int j = first - 1;
+		links[links.length-1].reduceOccupiedSpace( cyclist, cyclist.getSpeed() );
+		stop( j );
+		links[j].increaseOccupiedSpace( cyclist, speed[j] );
+	}
+
+	/**
+	 * Puts the cyclist back onto sublink <code>j</code> of its chain, with the pseudolane, exit and speed recorded there, and
+	 * ends the chain without making any further reservations.
+	 *
+	 * @return The cyclist.
+	 */
+	QCycle stop( final int j ){
+		final QCycle stopped = qCyc;
+		final Cyclist cyclist = stopped.getCyclist();
+		cyclist.setSpeed( speed[j] );
+		cyclist.setCurrentPseudoLane( pseudoLane[j] );
+		cyclist.setTEarliestExit( exit[j] );
+		cyclist.setCurrentLinkIndex( j );
+		qCyc = null;
+		return stopped;
+	}
+
+	void clear(){
+		qCyc = null;
+	}
+
+	/**
+	 * Releases the recorded chain, when the lane is returned to its dormant state.
+	 */
+	void release(){
+		pseudoLane = null;
+		tReady = null;
+		tEnd = null;
+		exit = null;
+		speed = null;
+	}
+}
@@ -0,0 +1,132 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import fastOrForcedToFollow.Cyclist;
+import fastOrForcedToFollow.Sublink;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.mobsim.framework.MobsimTimer;
+
+/**
+ * The mode of a hybrid {@link QCycleLaneWithSublinks}, see {@link org.matsim.run.FFFConfigGroup#getHybridLanes()}: a cyclist
+ * entering the empty lane is moved through it in free-flow mode, and the lane switches to congested mode once a second
+ * cyclist enters it, and back once it has drained. The time spent in each mode is counted, see {@link HybridLaneStatistics}.
+ *
+ * In free-flow mode, the lane holds a single cyclist, which is fast-forwarded from the first sublink through the
+ * {@link FastForwardChain} of the lane, like on links without congestion only being queued for its exit of the lane. Its exit
+ * is the one of the full model. Its occupied space is kept on the first sublink, which is the only one determining whether the
+ * lane accepts further cyclists, until the lane leaves free-flow mode.
+ *
+ * @author mpaulsen
+ */
+final class HybridLaneMode {
+
+	private final Id<Link> linkId;
+	private final MobsimTimer timer;
+	private final FastForwardChain chain;
+
+	private boolean freeFlow = false;
+
+	/**
+	 * The time [s] spent in free-flow and in congested mode, and the start of the current mode, or NaN if the lane is empty.
+	 */
+	private double freeFlowTime = 0.;
+	private double congestedTime = 0.;
+	private double modeSince = Double.NaN;
+
+	HybridLaneMode( final Id<Link> linkId, final MobsimTimer timer, final FastForwardChain chain ){
+		this.linkId = linkId;
+		this.timer = timer;
+		this.chain = chain;
+	}
+
+	/**
+	 * @return <code>true</code> iff the lane is in free-flow mode.
+	 */
+	boolean isFreeFlow(){
+		return freeFlow;
+	}
+
+	/**
+	 * Starts counting the time of the congested mode, as <code>qCyc</code> has entered the empty lane at <code>now</code>, and
+	 * switches to free-flow mode unless the cyclist can interact with the lane on its own, i.e. the lane has a single sublink
+	 * or the cyclist fills the first sublink.
+	 */
+	void enteredEmptyLane( final QCycle qCyc, final QCycleLaneWithSublinks lane, final Sublink[] links, final double now ){
+		modeSince = now;
+		if( links.length > 1 && !links[0].isLinkFull() ){
+			chain.record( qCyc, lane, links );
+			freeFlow = true;
+		}
+	}
+
+	/**
+	 * Switches from free-flow to congested mode, putting the cyclist where the full model would have it.
+	 *
+	 * @param processedTime The time up to which the full model would have processed the sublink exits.
+	 * @return The cyclist if it is still on the first sublink, where it is to be queued for its exit again, and
+	 * <code>null</code> if its chain continues as if started from the first sublink.
+	 */
+	QCycle endFreeFlow( final Sublink[] links, final double processedTime, final double now ){
+		endMode( now );
+		modeSince = now;
+		freeFlow = false;
+		if( chain.getExit( 0 ) <= processedTime ){
+			// has left the first sublink:
+			chain.moveOccupiedSpaceToLast( links );
+			return null;
+		}
+		return chain.stop( 0 );
+	}
+
+	/**
+	 * Moves the occupied space of <code>cyclist</code>, leaving the lane in free-flow mode, from the first sublink, which it has
+	 * left long ago, to the last one, which it is leaving now.
+	 */
+	void leaving( final Cyclist cyclist, final Sublink[] links ){
+		links[0].reduceOccupiedSpace( cyclist, chain.getSpeed( 0 ) );
+		links[links.length-1].increaseOccupiedSpace( cyclist, cyclist.getSpeed() );
+	}
+
+	/**
+	 * Stops counting the time of the current mode, as the lane has drained at <code>now</code>.
+	 */
+	void drained( final double now ){
+		if( !Double.isNaN( modeSince ) ){
+			endMode( now );
+			modeSince = Double.NaN;
+			freeFlow = false;
+		}
+	}
+
+	private void endMode( final double time ){
+		if( freeFlow ){
+			freeFlowTime += time - modeSince;
+		} else {
+			congestedTime += time - modeSince;
+		}
+	}
+
+	void clear(){
+		freeFlow = false;
+		modeSince = Double.NaN;
+	}
+
+	Id<Link> getLinkId(){
+		return linkId;
+	}
+
+	/**
+	 * @return The time [s] during which cyclists have been on the lane in free-flow mode.
+	 */
+	double getFreeFlowTime(){
+		return freeFlowTime + (freeFlow ? timer.getTimeOfDay() - modeSince : 0.);
+	}
+
+	/**
+	 * @return The time [s] during which cyclists have been on the lane in congested mode.
+	 */
+	double getCongestedTime(){
+		return congestedTime + (!freeFlow && !Double.isNaN( modeSince ) ? timer.getTimeOfDay() - modeSince : 0.);
+	}
+}
@@ -0,0 +1,80 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.mobsim.framework.events.MobsimBeforeCleanupEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeCleanupListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts how long each hybrid bicycle lane has been in free-flow and in congested mode during the mobsim, see
+ * {@link org.matsim.run.FFFConfigGroup#getHybridLanes()}. The times are collected from the lanes before the mobsim is cleaned
+ * up, and are available until the next mobsim.
+ *
+ * @author mpaulsen
+ */
+public final class HybridLaneStatistics implements MobsimBeforeCleanupListener {
+	private static final Logger log = Logger.getLogger( HybridLaneStatistics.class ) ;
+
+	private final List<HybridLaneMode> lanes = new ArrayList<>();
+
+	/**
+	 * The time [s] spent in free-flow and in congested mode by the links of the last mobsim.
+	 */
+	private final Map<Id<Link>, double[]> modeTimes = new HashMap<>();
+
+	/**
+	 * Empties the statistics before a new mobsim.
+	 */
+	/* package */ void reset(){
+		lanes.clear();
+		modeTimes.clear();
+	}
+
+	/* package */ synchronized void addLane( final HybridLaneMode lane ){
+		lanes.add( lane );
+	}
+
+	/**
+	 * @return The time [s] during which cyclists were on <code>linkId</code> in free-flow mode in the last mobsim.
+	 */
+	public double getFreeFlowTime( final Id<Link> linkId ){
+		final double[] times = modeTimes.get( linkId );
+		return times == null ? 0. : times[0];
+	}
+
+	/**
+	 * @return The time [s] during which cyclists were on <code>linkId</code> in congested mode in the last mobsim.
+	 */
+	public double getCongestedTime( final Id<Link> linkId ){
+		final double[] times = modeTimes.get( linkId );
+		return times == null ? 0. : times[1];
+	}
+
+	@Override public void notifyMobsimBeforeCleanup( final MobsimBeforeCleanupEvent event ){
+		if( lanes.isEmpty() ){
+			// no hybrid lanes:
+			return;
+		}
+		double freeFlowTime = 0.;
+		double congestedTime = 0.;
+		int neverCongested = 0;
+		for( HybridLaneMode lane : lanes ){
+			final double[] times = new double[] { lane.getFreeFlowTime(), lane.getCongestedTime() };
+			modeTimes.put( lane.getLinkId(), times );
+			freeFlowTime += times[0];
+			congestedTime += times[1];
+			if( times[1] == 0. ){
+				neverCongested++;
+			}
+		}
+		log.info( "Hybrid bicycle links were occupied for " + freeFlowTime + " s in free-flow mode and " + congestedTime +
+				" s in congested mode (" + (freeFlowTime + congestedTime == 0. ? 0. : 100. * freeFlowTime / (freeFlowTime + congestedTime)) +
+				"% free flow). " + neverCongested + " of " + lanes.size() + " links were never in congested mode." );
+	}
+}
@@ -21,23 +21,28 @@ package org.matsim.core.mobsim.qsim.qnetsimengine;
 
 
 import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Node;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.mobsim.fff.CyclistRegistry;
 import org.matsim.core.config.groups.QSimConfigGroup;
-import org.matsim.core.gbl.Gbl;
 import org.matsim.core.mobsim.framework.MobsimTimer;
 import org.matsim.core.mobsim.qsim.interfaces.AgentCounter;
 import org.matsim.core.mobsim.qsim.pt.TransitStopAgentTracker;
 import org.matsim.core.mobsim.qsim.qnetsimengine.QNetsimEngine.NetsimInternalInterface;
 import org.matsim.core.mobsim.qsim.qnetsimengine.vehicleq.VehicleQ;
+import org.matsim.lanes.Lane;
 import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.FFFConfigGroup.LaneScheduling;
+import org.matsim.run.RunMatsim;
 import org.matsim.vis.snapshotwriters.SnapshotLinkWidthCalculator;
 
 import fastOrForcedToFollow.Sublink;
+import fastOrForcedToFollow.SublinkStore;
 
 import javax.inject.Inject;
 //import java.util.PriorityQueue;
@@ -76,13 +81,41 @@ public final class MadsQNetworkFactory extends QNetworkFactory {
 	// (vis needs network and may need population attributes and config; in consequence, makes sense to have scenario here. kai, apr'16)
 	private NetsimEngineContext context;
 	private NetsimInternalInterface netsimEngine ;
+	private SublinkStore sublinkStore;
 
 	private FFFConfigGroup fffConfig;
-	@Inject MadsQNetworkFactory( EventsManager events, Scenario scenario ) {
+	private final CycleTimingWheel timingWheel;
+	// (the wheel is only handed to the lanes if configured, and is reset for every mobsim.)
+	private CycleTimingWheel laneTimingWheel;
+	private QCycleRegistry cycleRegistry;
+	private BicycleLaneCapacities laneCapacities;
+	private final DormantLaneCompactor dormantLaneCompactor;
+	private final HybridLaneStatistics hybridLaneStatistics;
+	private final BicycleNetworkCache networkCache;
+	private final TurnAcceptanceLogic turnAcceptanceLogic = new MultimodalTurnAcceptanceLogic();
+	private BicycleLaneDecorator bicycleLaneDecorator = null;
+
+	/**
+	 * Wraps each bicycle lane created, e.g. to observe the lanes in tests.
+	 */
+	/* package */ interface BicycleLaneDecorator {
+		QLaneI decorate( QCycleLaneWithSublinks bicycleLane );
+	}
+
+	@Inject MadsQNetworkFactory( EventsManager events, Scenario scenario, CycleTimingWheel timingWheel, DormantLaneCompactor dormantLaneCompactor,
+			HybridLaneStatistics hybridLaneStatistics, BicycleNetworkCache networkCache ) {
 		this.events = events;
+		this.networkCache = networkCache;
 		this.scenario = scenario;
+		this.timingWheel = timingWheel;
+		this.dormantLaneCompactor = dormantLaneCompactor;
+		this.hybridLaneStatistics = hybridLaneStatistics;
 		this.fffConfig = ConfigUtils.addOrGetModule(scenario.getConfig(), FFFConfigGroup.class);
 	}
+	@com.google.inject.Inject(optional = true)
+	/* package */ void setBicycleLaneDecorator( BicycleLaneDecorator bicycleLaneDecorator ) {
+		this.bicycleLaneDecorator = bicycleLaneDecorator;
+	}
 	@Override
 	void initializeFactory( AgentCounter agentCounter, MobsimTimer mobsimTimer, NetsimInternalInterface netsimEngine1 ) {	
 		this.netsimEngine = netsimEngine1;
@@ -96,18 +129,64 @@ public final class MadsQNetworkFactory extends QNetworkFactory {
 
 		context = new NetsimEngineContext( events, effectiveCellSize, agentCounter, agentSnapshotInfoBuilder, scenario.getConfig().qsim(), 
 				mobsimTimer, linkWidthCalculator );
+
+		// one store for the state of all sublinks and pseudolanes of the network, kept between the mobsims if so configured:
+		if ( fffConfig.getReuseBicycleNetwork() ) {
+			sublinkStore = networkCache.reset();
+			laneCapacities = networkCache.getLaneCapacities( fffConfig, CyclistRegistry.get( scenario ),
+					scenario.getConfig().qsim().getTimeStepSize() );
+		} else {
+			sublinkStore = new SublinkStore();
+			laneCapacities = new BicycleLaneCapacities( fffConfig, CyclistRegistry.get( scenario ),
+					scenario.getConfig().qsim().getTimeStepSize() );
+		}
+
+		initializeTimingWheel();
+
+		// registry of the cycles of this mobsim, allowing to look them up on the bicycle lanes:
+		cycleRegistry = new QCycleRegistry();
+
+		dormantLaneCompactor.reset( fffConfig.getDormantLaneIdleTime() );
+		hybridLaneStatistics.reset();
+	}
+
+	/**
+	 * @return The registry of the cycles of the current mobsim.
+	 */
+	public QCycleRegistry getCycleRegistry() {
+		return cycleRegistry;
+	}
+
+	private void initializeTimingWheel(){
+		if ( fffConfig.getLaneScheduling() != LaneScheduling.perLink ) {
+			timingWheel.reset( scenario.getConfig().qsim().getTimeStepSize(), fffConfig.getTimingWheelBucketsPerTimeStep() );
+			laneTimingWheel = timingWheel;
+		} else {
+			laneTimingWheel = null;
+		}
 	}
 	@Override
 	QLinkI createNetsimLink(final Link link, final QNodeI toQueueNode) {
 		if ( link.getAllowedModes().contains( TransportMode.bike ) ) {
 			
-			Gbl.assertIf( link.getAllowedModes().size()==1 ); // not possible with multi-modal links! kai, oct'18
+			// (links shared with other modes get a lane for each, see MultimodalLane; the bicycle state is only allocated for links allowing bicycles.)
 			QLinkImpl.Builder linkBuilder = new QLinkImpl.Builder( context, netsimEngine );
 			linkBuilder.setLaneFactory( new QLinkImpl.LaneFactory(){
 				@Override public QLaneI createLane(AbstractQLink qLinkImpl ) {
-					Sublink[] sublinkArray = Sublink.createLinkArrayFromNumberOfPseudoLanes( link.getId().toString() + "_" + TransportMode.bike, 
-							(int) link.getNumberOfLanes(), link.getLength(), fffConfig.getLMax() );
-						return new QCycleLaneWithSublinks(sublinkArray, qLinkImpl, context, fffConfig.getCorrectionFactor() );
+					// (the sublinks are allocated in the store up front, but only materialised once used if so configured.)
+					int numberOfSublinks = Sublink.getNumberOfSublinks( link.getLength(), fffConfig.getLMax() );
+					int firstSublink = fffConfig.getReuseBicycleNetwork() ? networkCache.getFirstSublink( link.getId() ) : -1;
+					if ( firstSublink == -1 ) {
+						firstSublink = allocateSublinks( link, numberOfSublinks );
+					}
+					QCycleLaneWithSublinks cycleLane = new QCycleLaneWithSublinks(Id.create( link.getId(), Lane.class ), sublinkStore, firstSublink, numberOfSublinks, qLinkImpl,
+								context, fffConfig, laneTimingWheel, cycleRegistry, dormantLaneCompactor, hybridLaneStatistics, laneCapacities.getStorageCapacity( link ), laneCapacities.getFlowCapacityPerTimeStep( link ) );
+					QLaneI bicycleLane = bicycleLaneDecorator == null ? cycleLane : bicycleLaneDecorator.decorate( cycleLane );
+					if ( link.getAllowedModes().size()==1 ) {
+						return bicycleLane;
+					}
+					return new MultimodalLane( new QueueWithBuffer.Builder( context ).createLane( qLinkImpl ), bicycleLane, qLinkImpl, context,
+								netsimEngine, turnAcceptanceLogic );
 				}
 			} );
 			return linkBuilder.build( link, toQueueNode );
@@ -120,9 +199,30 @@ public final class MadsQNetworkFactory extends QNetworkFactory {
 	}
 
 
+	/**
+	 * Allocates the sublinks of the bicycle lane of <code>link</code> in the store, and keeps them for later mobsims if so configured.
+	 *
+	 * @return The index of the first sublink of the link.
+	 */
+	private int allocateSublinks( final Link link, final int numberOfSublinks ) {
+		final int numberOfPseudoLanes = RunMatsim.getNumberOfBicycleLanes( link );
+		int firstSublink = Sublink.allocateLinkArray( sublinkStore, numberOfPseudoLanes, link.getLength(), fffConfig.getLMax() );
+		if( QCycleLaneWithSublinks.hasAdaptiveSublinks( fffConfig, numberOfSublinks ) ){
+			// the coarse sublink spanning the entire link:
+			Sublink.allocateLinkArray( sublinkStore, numberOfPseudoLanes, link.getLength(), Double.MAX_VALUE );
+		}
+		if ( fffConfig.getReuseBicycleNetwork() ) {
+			networkCache.setFirstSublink( link.getId(), firstSublink );
+		}
+		return firstSublink;
+	}
+
+
 	@Override
 	QNodeI createNetsimNode(final Node node) {
 		QNodeImpl.Builder builder = new QNodeImpl.Builder( netsimEngine, context ) ;
+		// (vehicles entering links shared by bicycles and other modes are accepted by the lane of their mode.)
+		builder.setTurnAcceptanceLogic( turnAcceptanceLogic ) ;
 		return builder.build( node ) ;
 	}
 
@@ -21,6 +21,7 @@ package org.matsim.core.mobsim.qsim.qnetsimengine;
 
 
 import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
@@ -28,13 +29,14 @@ import org.matsim.api.core.v01.network.Node;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.config.groups.QSimConfigGroup;
-import org.matsim.core.gbl.Gbl;
 import org.matsim.core.mobsim.framework.MobsimTimer;
 import org.matsim.core.mobsim.qsim.interfaces.AgentCounter;
 import org.matsim.core.mobsim.qsim.pt.TransitStopAgentTracker;
 import org.matsim.core.mobsim.qsim.qnetsimengine.QNetsimEngine.NetsimInternalInterface;
 import org.matsim.core.mobsim.qsim.qnetsimengine.vehicleq.VehicleQ;
+import org.matsim.lanes.Lane;
 import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.FFFConfigGroup.LaneScheduling;
 import org.matsim.vis.snapshotwriters.SnapshotLinkWidthCalculator;
 
 
@@ -77,9 +79,15 @@ public final class MadsQNetworkFactoryWithoutCongestion extends QNetworkFactory
 	private NetsimInternalInterface netsimEngine ;
 
 	private FFFConfigGroup fffConfig;
-	@Inject MadsQNetworkFactoryWithoutCongestion( EventsManager events, Scenario scenario ) {
+	private final CycleTimingWheel timingWheel;
+	// (the wheel is only handed to the lanes if configured, and is reset for every mobsim.)
+	private CycleTimingWheel laneTimingWheel;
+	private QCycleRegistry cycleRegistry;
+	private final TurnAcceptanceLogic turnAcceptanceLogic = new MultimodalTurnAcceptanceLogic();
+	@Inject MadsQNetworkFactoryWithoutCongestion( EventsManager events, Scenario scenario, CycleTimingWheel timingWheel ) {
 		this.events = events;
 		this.scenario = scenario;
+		this.timingWheel = timingWheel;
 		this.fffConfig = ConfigUtils.addOrGetModule(scenario.getConfig(), FFFConfigGroup.class);
 	}
 	@Override
@@ -95,16 +103,43 @@ public final class MadsQNetworkFactoryWithoutCongestion extends QNetworkFactory
 
 		context = new NetsimEngineContext( events, effectiveCellSize, agentCounter, agentSnapshotInfoBuilder, scenario.getConfig().qsim(), 
 				mobsimTimer, linkWidthCalculator );
+
+		initializeTimingWheel();
+
+		// registry of the cycles of this mobsim, allowing to look them up on the bicycle lanes:
+		cycleRegistry = new QCycleRegistry();
+	}
+
+	/**
+	 * @return The registry of the cycles of the current mobsim.
+	 */
+	public QCycleRegistry getCycleRegistry() {
+		return cycleRegistry;
+	}
+
+	private void initializeTimingWheel(){
+		if ( fffConfig.getLaneScheduling() != LaneScheduling.perLink ) {
+			timingWheel.reset( scenario.getConfig().qsim().getTimeStepSize(), fffConfig.getTimingWheelBucketsPerTimeStep() );
+			laneTimingWheel = timingWheel;
+		} else {
+			laneTimingWheel = null;
+		}
 	}
 	@Override
 	QLinkI createNetsimLink(final Link link, final QNodeI toQueueNode) {
 		if ( link.getAllowedModes().contains( TransportMode.bike ) ) {
 			
-			Gbl.assertIf( link.getAllowedModes().size()==1 ); // not possible with multi-modal links! kai, oct'18
+			// (links shared with other modes get a lane for each, see MultimodalLane.)
 			QLinkImpl.Builder linkBuilder = new QLinkImpl.Builder( context, netsimEngine );
 			linkBuilder.setLaneFactory( new QLinkImpl.LaneFactory(){
 				@Override public QLaneI createLane(AbstractQLink qLinkImpl ) {
-						return new QCycleLaneWithoutCongestion(link.getId().toString(), qLinkImpl, context);
+						QLaneI bicycleLane = new QCycleLaneWithoutCongestion(Id.create( link.getId(), Lane.class ), qLinkImpl, context, laneTimingWheel, cycleRegistry,
+								fffConfig.getDeterministicTieBreaking());
+						if ( link.getAllowedModes().size()==1 ) {
+							return bicycleLane;
+						}
+						return new MultimodalLane( new QueueWithBuffer.Builder( context ).createLane( qLinkImpl ), bicycleLane, qLinkImpl, context,
+								netsimEngine, turnAcceptanceLogic );
 				}
 			} );
 			return linkBuilder.build( link, toQueueNode );
@@ -120,6 +155,8 @@ public final class MadsQNetworkFactoryWithoutCongestion extends QNetworkFactory
 	@Override
 	QNodeI createNetsimNode(final Node node) {
 		QNodeImpl.Builder builder = new QNodeImpl.Builder( netsimEngine, context ) ;
+		// (vehicles entering links shared by bicycles and other modes are accepted by the lane of their mode.)
+		builder.setTurnAcceptanceLogic( turnAcceptanceLogic ) ;
 		return builder.build( node ) ;
 	}
 
@@ -1,15 +1,26 @@
 package org.matsim.core.mobsim.qsim.qnetsimengine;
 
+import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.mobsim.fff.CyclistRegistry;
 import org.matsim.vehicles.Vehicle;
 
+import javax.inject.Inject;
+
 public final class MadsQVehicleFactory implements QVehicleFactory {
+
+	private final CyclistRegistry registry;
+
+	@Inject MadsQVehicleFactory( Scenario scenario ) {
+		this.registry = CyclistRegistry.get( scenario );
+	}
 	
     @Override public QVehicle createQVehicle( Vehicle vehicle ){
     
     	QVehicle qvehicle ;
         if ( vehicle.getId().toString().contains( TransportMode.bike ) ) {
-            qvehicle = new QCycle( vehicle) ;
+            // the cycle is vehicle and cyclist in one:
+            qvehicle = new QCycle( vehicle, registry ) ;
         } else {
             qvehicle = new QVehicleImpl( vehicle ) ;
         }
@@ -0,0 +1,247 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.mobsim.qsim.interfaces.MobsimVehicle;
+import org.matsim.core.mobsim.qsim.qnetsimengine.QNetsimEngine.NetsimInternalInterface;
+import org.matsim.core.mobsim.qsim.qnetsimengine.TurnAcceptanceLogic.AcceptTurn;
+import org.matsim.lanes.Lane;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * The lane of a link shared by bicycles and other modes, so that the network needs no bicycle twin of the link: the cycles
+ * ride the bicycle lane of the link, and all other vehicles its regular lane (a {@link QueueWithBuffer}). The vehicles are
+ * told apart by being a {@link QCycle}.
+ *
+ * Whether a vehicle is accepted from upstream is decided by the lane of its mode, which the nodes ask through
+ * {@link MultimodalTurnAcceptanceLogic}, so that a full regular lane does not hold back the cycles and vice versa. Of the two
+ * lanes, the one whose first vehicle has the earlier earliest link exit is offering its vehicle to the node, the bicycle lane
+ * on ties. As the node stops moving a link once its first vehicle cannot enter the next link, a lane whose first vehicle
+ * would have to wait for its next link (and is not stuck yet) only offers it once the other lane has nothing more to offer
+ * that can move, so that a blocked lane does not hold back the other one at the node either. (Vehicles departing on the
+ * link still wait in the one waiting list of the link, in the order of their departures.)
+ *
+ * @author mpaulsen
+ */
+final class MultimodalLane implements QLaneI {
+
+	private final QLaneI regularLane;
+	private final QLaneI bicycleLane;
+
+	// For telling whether the first vehicle of a lane can move over the node, as the node would:
+	private final Link link;
+	private final NetsimEngineContext context;
+	private final NetsimInternalInterface netsimEngine;
+	private final TurnAcceptanceLogic turnAcceptanceLogic;
+
+	/**
+	 * The vehicles of both lanes, as a view.
+	 */
+	private final Collection<MobsimVehicle> allVehicles = new AbstractCollection<MobsimVehicle>(){
+		@Override public Iterator<MobsimVehicle> iterator(){
+			return new Iterator<MobsimVehicle>(){
+				private Iterator<MobsimVehicle> iterator = regularLane.getAllVehicles().iterator();
+				private boolean atBicycleLane = false;
+
+				@Override public boolean hasNext(){
+					if( !iterator.hasNext() && !atBicycleLane ){
+						iterator = bicycleLane.getAllVehicles().iterator();
+						atBicycleLane = true;
+					}
+					return iterator.hasNext();
+				}
+
+				@Override public MobsimVehicle next(){
+					hasNext();
+					return iterator.next();
+				}
+			};
+		}
+
+		@Override public int size(){
+			return regularLane.getAllVehicles().size() + bicycleLane.getAllVehicles().size();
+		}
+	};
+
+	/**
+	 * @param turnAcceptanceLogic The turn acceptance logic of the nodes of the network.
+	 */
+	MultimodalLane( final QLaneI regularLane, final QLaneI bicycleLane, final AbstractQLink qLink, final NetsimEngineContext context,
+			final NetsimInternalInterface netsimEngine, final TurnAcceptanceLogic turnAcceptanceLogic ){
+		this.regularLane = regularLane;
+		this.bicycleLane = bicycleLane;
+		this.link = qLink.getLink();
+		this.context = context;
+		this.netsimEngine = netsimEngine;
+		this.turnAcceptanceLogic = turnAcceptanceLogic;
+	}
+
+	private QLaneI getLane( final QVehicle veh ){
+		return veh instanceof QCycle ? bicycleLane : regularLane;
+	}
+
+	/**
+	 * @return The lane offering its first vehicle to the node, or <code>null</code> if none.
+	 */
+	private QLaneI getOfferingLane(){
+		if( bicycleLane.isNotOfferingVehicle() ){
+			return regularLane.isNotOfferingVehicle() ? null : regularLane;
+		}
+		if( regularLane.isNotOfferingVehicle() ){
+			return bicycleLane;
+		}
+		final QLaneI first;
+		final QLaneI second;
+		if( bicycleLane.getFirstVehicle().getEarliestLinkExitTime() <= regularLane.getFirstVehicle().getEarliestLinkExitTime() ){
+			first = bicycleLane;
+			second = regularLane;
+		} else {
+			first = regularLane;
+			second = bicycleLane;
+		}
+		return isWaiting( first ) && !isWaiting( second ) ? second : first;
+	}
+
+	/**
+	 * @return Whether the first vehicle of <code>lane</code> would be kept at the node, i.e. its next link does not accept it
+	 * and it is not stuck yet, see <code>QNodeImpl.moveVehicleOverNode</code>.
+	 */
+	private boolean isWaiting( final QLaneI lane ){
+		final QVehicle veh = lane.getFirstVehicle();
+		final Id<Link> nextLinkId = veh.getDriver().chooseNextLinkId();
+		if( nextLinkId == null ){
+			return false;
+		}
+		final QNetwork qNetwork = netsimEngine.getNetsimNetwork();
+		final AcceptTurn turn = turnAcceptanceLogic.isAcceptingTurn( link, this, nextLinkId, veh, qNetwork );
+		if( turn == AcceptTurn.ABORT || (turn == AcceptTurn.GO && qNetwork.getNetsimLinks().get( nextLinkId ).isAcceptingFromUpstream()) ){
+			return false;
+		}
+		final double now = context.getSimTimer().getTimeOfDay();
+		return now - lane.getLastMovementTimeOfFirstVehicle() <= context.qsimConfig.getStuckTime();
+	}
+
+	@Override public Id<Lane> getId(){
+		return regularLane.getId();
+	}
+
+	/**
+	 * @return Whether any of the lanes accepts vehicles from upstream. Which vehicles are accepted is told by
+	 * {@link #isAcceptingFromUpstream(QVehicle)}.
+	 */
+	@Override public boolean isAcceptingFromUpstream(){
+		return regularLane.isAcceptingFromUpstream() || bicycleLane.isAcceptingFromUpstream();
+	}
+
+	/**
+	 * @return Whether the lane of the mode of <code>veh</code> accepts it from upstream.
+	 */
+	boolean isAcceptingFromUpstream( final QVehicle veh ){
+		return getLane( veh ).isAcceptingFromUpstream();
+	}
+
+	@Override public void addFromUpstream( final QVehicle veh ){
+		getLane( veh ).addFromUpstream( veh );
+	}
+
+	@Override public boolean doSimStep(){
+		final boolean regularActive = regularLane.doSimStep();
+		final boolean bicycleActive = bicycleLane.doSimStep();
+		return regularActive || bicycleActive;
+	}
+
+	@Override public boolean isNotOfferingVehicle(){
+		return regularLane.isNotOfferingVehicle() && bicycleLane.isNotOfferingVehicle();
+	}
+
+	@Override public QVehicle popFirstVehicle(){
+		final QLaneI lane = getOfferingLane();
+		return lane == null ? null : lane.popFirstVehicle();
+	}
+
+	@Override public QVehicle getFirstVehicle(){
+		final QLaneI lane = getOfferingLane();
+		return lane == null ? null : lane.getFirstVehicle();
+	}
+
+	@Override public boolean isAcceptingFromWait( final QVehicle veh ){
+		return getLane( veh ).isAcceptingFromWait( veh );
+	}
+
+	@Override public void addFromWait( final QVehicle veh ){
+		getLane( veh ).addFromWait( veh );
+	}
+
+	@Override public boolean isActive(){
+		return regularLane.isActive() || bicycleLane.isActive();
+	}
+
+	/**
+	 * @return The flow capacity of both lanes, a cyclist counting as one vehicle like {@link #getLoadIndicator()} does.
+	 */
+	@Override public double getSimulatedFlowCapacityPerTimeStep(){
+		return regularLane.getSimulatedFlowCapacityPerTimeStep() + bicycleLane.getSimulatedFlowCapacityPerTimeStep();
+	}
+
+	@Override public void recalcTimeVariantAttributes(){
+		regularLane.recalcTimeVariantAttributes();
+	}
+
+	@Override public QVehicle getVehicle( final Id<Vehicle> vehicleId ){
+		final QVehicle veh = regularLane.getVehicle( vehicleId );
+		return veh != null ? veh : bicycleLane.getVehicle( vehicleId );
+	}
+
+	/**
+	 * @return The storage capacity of both lanes, a cyclist counting as one vehicle like {@link #getLoadIndicator()} does.
+	 */
+	@Override public double getStorageCapacity(){
+		return regularLane.getStorageCapacity() + bicycleLane.getStorageCapacity();
+	}
+
+	@Override public VisData getVisData(){
+		return regularLane.getVisData();
+	}
+
+	@Override public void addTransitSlightlyUpstreamOfStop( final QVehicle veh ){
+		regularLane.addTransitSlightlyUpstreamOfStop( veh );
+	}
+
+	@Override public void changeUnscaledFlowCapacityPerSecond( final double val ){
+		regularLane.changeUnscaledFlowCapacityPerSecond( val );
+	}
+
+	@Override public void changeEffectiveNumberOfLanes( final double val ){
+		regularLane.changeEffectiveNumberOfLanes( val );
+	}
+
+	@Override public void clearVehicles(){
+		regularLane.clearVehicles();
+		bicycleLane.clearVehicles();
+	}
+
+	/**
+	 * @return The vehicles of both lanes, as a read-only view.
+	 */
+	@Override public Collection<MobsimVehicle> getAllVehicles(){
+		return allVehicles;
+	}
+
+	@Override public double getLastMovementTimeOfFirstVehicle(){
+		final QLaneI lane = getOfferingLane();
+		return lane == null ? regularLane.getLastMovementTimeOfFirstVehicle() : lane.getLastMovementTimeOfFirstVehicle();
+	}
+
+	@Override public double getLoadIndicator(){
+		return regularLane.getLoadIndicator() + bicycleLane.getLoadIndicator();
+	}
+
+	@Override public void initBeforeSimStep(){
+		regularLane.initBeforeSimStep();
+		bicycleLane.initBeforeSimStep();
+	}
+}
@@ -0,0 +1,28 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+
+/**
+ * The turn acceptance of the nodes of a network with links shared by bicycles and other modes: a vehicle may enter a
+ * {@link MultimodalLane} if the lane of its mode accepts it, otherwise as by the {@link DefaultTurnAcceptanceLogic}.
+ *
+ * @author mpaulsen
+ */
+final class MultimodalTurnAcceptanceLogic implements TurnAcceptanceLogic {
+
+	private final TurnAcceptanceLogic defaultLogic = new DefaultTurnAcceptanceLogic();
+
+	@Override public AcceptTurn isAcceptingTurn( final Link currentLink, final QLaneI currentLane, final Id<Link> nextLinkId,
+			final QVehicle veh, final QNetwork qNetwork ){
+		final AcceptTurn turn = defaultLogic.isAcceptingTurn( currentLink, currentLane, nextLinkId, veh, qNetwork );
+		if( turn == AcceptTurn.ABORT ){
+			return turn;
+		}
+		final QLaneI nextLane = qNetwork.getNetsimLinks().get( nextLinkId ).getAcceptingQLane();
+		if( nextLane instanceof MultimodalLane ){
+			return ((MultimodalLane) nextLane).isAcceptingFromUpstream( veh ) ? AcceptTurn.GO : AcceptTurn.WAIT;
+		}
+		return turn;
+	}
+}
@@ -0,0 +1,220 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link CycleQueue} keeping one FIFO queue per pseudolane of the sublinks of a lane, and a tournament tree over the heads
+ * of these queues to find the cyclist with the earliest exit.
+ *
+ * Since tReady and tEnd make followers queue behind their leader, cyclists usually exit a pseudolane in the order in which
+ * they entered it. Cyclists that would break the order of their pseudolane (e.g. due to a correction factor below 1 or
+ * cyclists handed back out of order by a {@link CycleTimingWheel}) are put into a small heap instead, which takes part in
+ * the tournament as an additional leaf. The order of exits is thus exact in all cases.
+ *
+ * If deterministic, cyclists with equal exits are ordered by their vehicle ids within the queues as well as in the tournament,
+ * see {@link CycleHeap#compareTies(QCycle, QCycle)}.
+ *
+ * Adding and polling take O(1) deque work plus O(log k) tournament work if the head of a queue changes, k being the number
+ * of pseudolanes of the lane.
+ *
+ * @author mpaulsen
+ */
+final class PseudoLaneFifoQueue implements CycleQueue {
+
+	/**
+	 * The global index of the first pseudolane of the lane. The pseudolanes of all sublinks of a lane are contiguous.
+	 */
+	private final int firstPseudoLane;
+
+	private final ArrayDeque<QCycle>[] fifos;
+
+	/**
+	 * The cyclists which would have broken the order of their pseudolane.
+	 */
+	private final CycleHeap outOfOrder;
+
+	/**
+	 * The index of the leaf of {@link #outOfOrder}. Leaves <code>0</code> to <code>outOfOrderLeaf - 1</code> are the pseudolanes.
+	 */
+	private final int outOfOrderLeaf;
+
+	/**
+	 * Number of leaves of the tournament tree, i.e. the smallest power of two not below the number of pseudolanes plus one.
+	 */
+	private final int leafCapacity;
+
+	/**
+	 * The earliest exit of the head of each leaf, or positive infinity if the leaf is empty.
+	 */
+	private final double[] keys;
+
+	/**
+	 * The tournament tree; node <code>i</code> has children <code>2i</code> and <code>2i+1</code>, and holds the leaf with
+	 * the smallest key of its subtree. Node 1 is the root, and node <code>leafCapacity + j</code> is leaf <code>j</code>.
+	 */
+	private final int[] winners;
+
+	private int size = 0;
+
+	private final boolean deterministic;
+
+	PseudoLaneFifoQueue( final int firstPseudoLane, final int numberOfPseudoLanes ){
+		this(firstPseudoLane, numberOfPseudoLanes, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	PseudoLaneFifoQueue( final int firstPseudoLane, final int numberOfPseudoLanes, final boolean deterministic ){
+		this.firstPseudoLane = firstPseudoLane;
+		this.deterministic = deterministic;
+		this.outOfOrder = new CycleHeap(deterministic);
+		this.fifos = new ArrayDeque[numberOfPseudoLanes];
+		for(int i = 0; i < numberOfPseudoLanes; i++){
+			fifos[i] = new ArrayDeque<QCycle>();
+		}
+		this.outOfOrderLeaf = numberOfPseudoLanes;
+		int capacity = 1;
+		while(capacity < numberOfPseudoLanes + 1){
+			capacity <<= 1;
+		}
+		this.leafCapacity = capacity;
+		this.keys = new double[capacity];
+		this.winners = new int[2 * capacity];
+		for(int leaf = 0; leaf < capacity; leaf++){
+			winners[capacity + leaf] = leaf;
+		}
+		resetTournament();
+	}
+
+	private void resetTournament(){
+		for(int leaf = 0; leaf < leafCapacity; leaf++){
+			keys[leaf] = Double.POSITIVE_INFINITY;
+		}
+		for(int node = leafCapacity - 1; node >= 1; node--){
+			winners[node] = winners[2 * node];
+		}
+	}
+
+	/**
+	 * Sets the key of <code>leaf</code> and replays the matches on its path to the root.
+	 */
+	private void updateLeaf( final int leaf, final double key ){
+		keys[leaf] = key;
+		for(int node = (leafCapacity + leaf) >> 1; node >= 1; node >>= 1){
+			final int left = winners[2 * node];
+			final int right = winners[2 * node + 1];
+			if(!deterministic || keys[left] != keys[right]){
+				winners[node] = keys[left] <= keys[right] ? left : right;
+			} else if(keys[left] == Double.POSITIVE_INFINITY){
+				winners[node] = left;
+			} else {
+				winners[node] = CycleHeap.compareTies(head(left), head(right)) <= 0 ? left : right;
+			}
+		}
+	}
+
+	private QCycle head( final int leaf ){
+		return leaf == outOfOrderLeaf ? outOfOrder.peek() : fifos[leaf].peekFirst();
+	}
+
+	private static double keyOf( final QCycle qCyc ){
+		return qCyc == null ? Double.POSITIVE_INFINITY : qCyc.getEarliestLinkExitTime();
+	}
+
+	@Override public void add( final QCycle qCyc ){
+		final int lane = qCyc.getCyclist().getCurrentPseudoLane() - firstPseudoLane;
+		final double key = qCyc.getEarliestLinkExitTime();
+		size++;
+		if(lane >= 0 && lane < fifos.length){
+			final ArrayDeque<QCycle> fifo = fifos[lane];
+			final QCycle last = fifo.peekLast();
+			if(last == null){
+				fifo.addLast(qCyc);
+				updateLeaf(lane, key);
+				return;
+			} else if(key > last.getEarliestLinkExitTime() || (key == last.getEarliestLinkExitTime() &&
+					(!deterministic || CycleHeap.compareTies(qCyc, last) > 0))){
+				fifo.addLast(qCyc);
+				return;
+			}
+		}
+		// Would break the order of its pseudolane:
+		outOfOrder.add(qCyc);
+		if(outOfOrder.peek() == qCyc){
+			updateLeaf(outOfOrderLeaf, key);
+		}
+	}
+
+	@Override public QCycle peek(){
+		if(size == 0){
+			return null;
+		}
+		return head(winners[1]);
+	}
+
+	@Override public QCycle poll(){
+		if(size == 0){
+			return null;
+		}
+		size--;
+		final int leaf = winners[1];
+		final QCycle qCyc;
+		if(leaf == outOfOrderLeaf){
+			qCyc = outOfOrder.poll();
+			updateLeaf(leaf, keyOf(outOfOrder.peek()));
+		} else {
+			qCyc = fifos[leaf].pollFirst();
+			updateLeaf(leaf, keyOf(fifos[leaf].peekFirst()));
+		}
+		return qCyc;
+	}
+
+	@Override public boolean isEmpty(){
+		return size == 0;
+	}
+
+	@Override public int size(){
+		return size;
+	}
+
+	@Override public void clear(){
+		for(ArrayDeque<QCycle> fifo : fifos){
+			fifo.clear();
+		}
+		outOfOrder.clear();
+		size = 0;
+		resetTournament();
+	}
+
+	/**
+	 * Iterates the cyclists pseudolane by pseudolane, and then the out-of-order cyclists.
+	 */
+	@Override public Iterator<QCycle> iterator(){
+		return new Iterator<QCycle>(){
+			private int leaf = 0;
+			private Iterator<QCycle> current = leafIterator(0);
+
+			private Iterator<QCycle> leafIterator( final int leaf ){
+				return leaf == outOfOrderLeaf ? outOfOrder.iterator() : fifos[leaf].iterator();
+			}
+
+			@Override public boolean hasNext(){
+				while(!current.hasNext()){
+					if(leaf == outOfOrderLeaf){
+						return false;
+					}
+					current = leafIterator(++leaf);
+				}
+				return true;
+			}
+
+			@Override public QCycle next(){
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				return current.next();
+			}
+		};
+	}
+}
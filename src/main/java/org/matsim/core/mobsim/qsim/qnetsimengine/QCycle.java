@@ -8,123 +8,186 @@ import org.matsim.core.mobsim.framework.DriverAgent;
 import org.matsim.core.mobsim.framework.HasPerson;
 import org.matsim.core.mobsim.framework.MobsimDriverAgent;
 import org.matsim.core.mobsim.framework.PassengerAgent;
-import org.matsim.run.RunMatsim;
+import org.matsim.core.mobsim.fff.CyclistRegistry;
 import org.matsim.vehicles.Vehicle;
 
 import java.util.Collection;
+import java.util.Collections;
 
 /**
  * The {@link QVehicle} is the thing that is passed from one link through the other, via {@link QNodeI}.  (The cycle plugin here replaces only
- *  the {@link QLinkI}.)  So we wrap the cycle dynamics (essentially generated by the {@link Cyclist}) a {@link QVehicle}, and make it available every
- *  time we have traversed a {@link QNodeI}, and just entered a new link.  We also use a {@link QVehicleImpl} as delegate for all methods which
- *  are not implemented by {@link Cyclist}.
+ *  the {@link QLinkI}.)  The cycle is a {@link Cyclist} itself, so that the cycle dynamics and the vehicle state are kept in one object,
+ *  without a {@link QVehicleImpl} delegate: the hot paths of the lanes (e.g. {@link #getEarliestLinkExitTime()} in the heap of the cyclists)
+ *  read the fields of the cycle directly.  The parameters of the cyclist are taken from the person driving the cycle, see
+ *  {@link #setDriver(DriverAgent)}.  Bicycles carry no passengers.
  */
-public class QCycle implements QVehicle
+public class QCycle extends Cyclist implements QVehicle
 {
 
-	private QVehicle qVehicle  ;
-	private Cyclist cyclist ;
+	private final Id<Vehicle> id ;
+	private final Vehicle vehicle ;
+	private final double sizeInEquivalents ;
+	private final double flowCapacityConsumptionInEquivalents ;
+
+	private MobsimDriverAgent driver = null ;
+	private Link currentLink = null ;
+	private double linkEnterTime = Double.NaN ;
+
+	private final CyclistRegistry registry ;
+
+	/**
+	 * The person whose parameters the cyclist has, or <code>null</code> if none.
+	 */
+	private Person person = null ;
+
+	/**
+	 * The bicycle lane the cycle is currently on (including its leaving vehicles), or <code>null</code> if none.
+	 */
+	private QLaneI currentLane = null ;
+
+	/**
+	 * The neighbours of the cycle in the {@link QCycleList} of the cyclists on the sublinks of its current lane.
+	 */
+	private QCycle previousOnLane = null ;
+	private QCycle nextOnLane = null ;
 	
 	
 	/**
-	 * Creates a QCycleAsVehicle based on the basicVehicle inputted. Cyclist is created later on, when the driver is set, i.e. in {@link #setDriver(DriverAgent)}
+	 * Creates a QCycle based on the basicVehicle inputted. The parameters of the cyclist are set later on, when the driver is set, i.e. in {@link #setDriver(DriverAgent)}
 	 * @param basicVehicle
+	 * @param registry The registry providing the parameters of the cyclists of the persons.
 	 */
-	public QCycle( Vehicle basicVehicle ) {
-		this.qVehicle = new QVehicleImpl( basicVehicle ) ;
+	public QCycle( Vehicle basicVehicle, CyclistRegistry registry ) {
+		this.id = basicVehicle.getId() ;
+		this.vehicle = basicVehicle ;
+		this.sizeInEquivalents = basicVehicle.getType().getPcuEquivalents() ;
+		this.flowCapacityConsumptionInEquivalents = basicVehicle.getType().getPcuEquivalents() / basicVehicle.getType().getFlowEfficiencyFactor() ;
+		this.registry = registry ;
 	}
 	
 	
 	/**
-	 * Sets the driver and internally creates the cyclist based on the person being the driver.
+	 * Sets the driver and internally takes the parameters of the cyclist of the person being the driver from the registry, resetting the trip state.
 	 */
 	@Override public void setDriver( final DriverAgent driver ) {
-		qVehicle.setDriver( driver );
+		this.driver = (MobsimDriverAgent) driver ;
 
 		if ( driver!=null ){   // is null when vehicle arrives, and driver LEAVES vehicle!
 			Person person = ((HasPerson) driver).getPerson();
-			final double v_0 = (double) person.getAttributes().getAttribute( RunMatsim.DESIRED_SPEED );
-			final double theta_0 = (double) person.getAttributes().getAttribute( RunMatsim.HEADWAY_DISTANCE_INTERCEPT );
-			final double theta_1 = (double) person.getAttributes().getAttribute( RunMatsim.HEADWAY_DISTANCE_SLOPE );
-			final double lambda_c = (double) person.getAttributes().getAttribute( RunMatsim.BICYCLE_LENGTH );
-			this.cyclist = Cyclist.createIndividualisedCyclistWithSqrtLTM(v_0, theta_0, theta_1, lambda_c);
+			if ( person != this.person ) {
+				// usually, the vehicle is driven by the same person on all legs, and the cyclist is only looked up once per mobsim:
+				this.setParameters( registry.getCyclist( person ) );
+				this.person = person;
+			}
+			this.reset();
 		}
 
 	}
 	
 	
+	/**
+	 * @return The cycle itself, which is the cyclist riding it.
+	 */
 	public Cyclist getCyclist() {
-		return this.cyclist;
+		return this;
+	}
+
+	QLaneI getCurrentLane() {
+		return this.currentLane;
+	}
+
+	void setCurrentLane( final QLaneI lane ) {
+		this.currentLane = lane;
+	}
+
+	QCycle getPreviousOnLane() {
+		return this.previousOnLane;
+	}
+
+	void setPreviousOnLane( final QCycle qCyc ) {
+		this.previousOnLane = qCyc;
+	}
+
+	QCycle getNextOnLane() {
+		return this.nextOnLane;
+	}
+
+	void setNextOnLane( final QCycle qCyc ) {
+		this.nextOnLane = qCyc;
 	}
 
 
 	@Override public double getLinkEnterTime() {
-        return qVehicle.getLinkEnterTime();
+		return this.linkEnterTime;
 	}
 	
 	@Override public void setLinkEnterTime( final double linkEnterTime ) {
-       qVehicle.setLinkEnterTime(linkEnterTime);
+		this.linkEnterTime = linkEnterTime;
 	}
 	
 	@Override public double getMaximumVelocity() {
 		//Uses cyclist's value;
-		return this.getCyclist().getDesiredSpeed();
+		return this.getDesiredSpeed();
 	}
 	
 	@Override public double getFlowCapacityConsumptionInEquivalents() {
-	     return qVehicle.getFlowCapacityConsumptionInEquivalents();
+		return this.flowCapacityConsumptionInEquivalents;
 	}
 	
 	@Override public double getEarliestLinkExitTime() {
 		//Uses cyclist's value
-		return this.getCyclist().getTEarliestExit();
+		return this.getTEarliestExit();
 	}
 	
 	@Override public void setEarliestLinkExitTime( final double earliestLinkEndTime ) {
 		//Uses cyclist's value
-		this.cyclist.setTEarliestExit(earliestLinkEndTime);
+		this.setTEarliestExit(earliestLinkEndTime);
 	}
 	
 	@Override public double getSizeInEquivalents() {
-		return qVehicle.getSizeInEquivalents();
+		return this.sizeInEquivalents;
 	}
 	
 	@Override public Vehicle getVehicle() {
-		return qVehicle.getVehicle();
+		return this.vehicle;
 	}
 	
 	@Override public MobsimDriverAgent getDriver() {
-		return qVehicle.getDriver();
+		return this.driver;
 	}
 	
 	@Override public Id<Vehicle> getId() {
-		return qVehicle.getId();
+		return this.id;
 	}
 	
 	@Override public Link getCurrentLink() {
-		return qVehicle.getCurrentLink();
+		return this.currentLink;
 	}
 	
 	@Override public boolean addPassenger( final PassengerAgent passenger ) {
-		return qVehicle.addPassenger( passenger );
+		return false;
 	}
 	
 	@Override public boolean removePassenger( final PassengerAgent passenger ) {
-		return qVehicle.removePassenger( passenger );
+		return false;
 	}
 	
 	@Override public Collection<? extends PassengerAgent> getPassengers() {
-		return qVehicle.getPassengers();
+		return Collections.emptyList();
 	}
 	
 	@Override public int getPassengerCapacity() {
-		return qVehicle.getPassengerCapacity();
+		return 0;
 	}
 	
 	@Override public void setCurrentLink( final Link link ) {
-		qVehicle.setCurrentLink( link );
+		this.currentLink = link;
 	}
 	
+	@Override public String toString() {
+		return "QCycle [id=" + this.id + ", driver=" + (this.driver == null ? null : this.driver.getId()) + ", currentLink=" +
+				(this.currentLink == null ? null : this.currentLink.getId()) + "]";
+	}
 
 	
 	
@@ -2,57 +2,392 @@ package org.matsim.core.mobsim.qsim.qnetsimengine;
 
 import fastOrForcedToFollow.Cyclist;
 import fastOrForcedToFollow.Sublink;
-import fastOrForcedToFollow.PseudoLane;
+import fastOrForcedToFollow.SublinkStore;
 
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
 import org.matsim.core.mobsim.qsim.interfaces.MobsimVehicle;
 import org.matsim.lanes.Lane;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.FFFConfigGroup.LaneQueue;
+import org.matsim.run.FFFConfigGroup.LaneScheduling;
+import org.matsim.run.FFFConfigGroup.LaneSelectionKernel;
 import org.matsim.vehicles.Vehicle;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.PriorityQueue;
+import java.util.Collections;
 
-class QCycleLaneWithSublinks implements QLaneI{
+class QCycleLaneWithSublinks implements QLaneI, CycleLane{
 	private static final Logger log = Logger.getLogger( QCycleLaneWithSublinks.class ) ;
 
-	private final fastOrForcedToFollow.Sublink[] fffLinkArray;
+	private final Id<Lane> id;
+	private final SublinkStore store;
 	private final AbstractQLink qLinkImpl;
 	private final NetsimEngineContext context;
-	private final PriorityQueue<QCycle> globalQ;
 	private final double correctionFactor;
+
+	/**
+	 * The global index in the store of the first of the consecutive sublinks of the lane, and their number.
+	 */
+	private final int firstSublink;
+	private final int numberOfSublinks;
+
+	/**
+	 * Handles to the sublinks of the lane, and the queue of its cyclists. Both are <code>null</code> while the lane is dormant,
+	 * see {@link #materialise()}, in which case the state of the sublinks is only kept in the store.
+	 */
+	private fastOrForcedToFollow.Sublink[] fffLinkArray = null;
+	private CycleQueue globalQ = null;
+
+	/**
+	 * With adaptive sublinks (see {@link FFFConfigGroup#getAdaptiveSublinks()}), the lane has an additional, coarse sublink
+	 * spanning the entire link, allocated after its (fine) sublinks. {@link #fffLinkArray} is then either the fine sublinks or
+	 * the coarse sublink, depending on the occupancy of the lane, see {@link #split()} and {@link #merge()}.
+	 */
+	private final boolean adaptive;
+	private boolean coarse;
+	private fastOrForcedToFollow.Sublink[] fineLinkArray = null;
+	private fastOrForcedToFollow.Sublink[] coarseLinkArray = null;
+
+	/**
+	 * The number of cyclists at which the lane is split into its fine sublinks, and below which it is merged again.
+	 */
+	private final int splitCount;
+	private final int mergeCount;
+
+	/**
+	 * Whether the leading cyclist of the lane is fast-forwarded through its sublinks, see {@link FastForwardChain}.
+	 */
+	private final boolean fastForward;
+
+	/**
+	 * The chain of the cyclist fast-forwarded through the sublinks of the lane, with fast-forwarding or in the free-flow mode of
+	 * a hybrid lane.
+	 */
+	private final FastForwardChain chain;
+
+	/**
+	 * The mode of a hybrid lane, or <code>null</code> if the lane is not hybrid.
+	 */
+	private final HybridLaneMode hybridMode;
+	private final LaneQueue laneQueue;
+	private final boolean deterministicTieBreaking;
+
+	/**
+	 * The compactor returning the lane to its dormant state once it has been empty long enough, or <code>null</code> if the
+	 * lane is never compacted.
+	 */
+	private final DormantLaneCompactor compactor;
+
+	/**
+	 * The time [s] at which the lane has last become empty, or NaN if it is not empty (or dormant).
+	 */
+	private double emptySince = Double.NaN;
+	private final boolean batchedLaneSelection;
+
+	/**
+	 * The timing wheel holding the sublink exits which are not yet due, or <code>null</code> if all cyclists are kept in the
+	 * priority queue of the lane. With a timing wheel, the priority queue only holds the cyclists whose exits are due.
+	 */
+	private final CycleTimingWheel timingWheel;
+
+	/**
+	 * All cyclists on the sublinks of the lane, including those held in the timing wheel.
+	 */
+	private final QCycleList cyclists = new QCycleList();
+
+	/**
+	 * View of all vehicles on the lane, see {@link #getAllVehicles()}.
+	 */
+	private final CycleLaneVehicles vehicles;
+
+	private final QCycleRegistry registry;
+
+	/**
+	 * The timing wheel waking up the lane once its first cyclist is due, or <code>null</code> if the lane stays active while
+	 * it holds cyclists. With wake-ups, the lane leaves the set of active links whenever none of its cyclists is due.
+	 */
+	private final CycleTimingWheel wakeUpScheduler;
+
+	/**
+	 * The earliest pending wake-up [s] of the lane, or positive infinity if none is pending.
+	 */
+	private double nextWakeUp = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Capacities of the lane in average cyclists, see {@link BicycleLaneCapacities}.
+	 */
+	private final double storageCapacity;
+	private final double flowCapacityPerTimeStep;
 	
-	public QCycleLaneWithSublinks( Sublink[] fffLinkArray, AbstractQLink qLinkImpl, NetsimEngineContext context, double correctionFactor ){
-		this.fffLinkArray = fffLinkArray; 
+	/**
+	 * @param wheel The network-wide timing wheel, used as configured by {@link FFFConfigGroup#getLaneScheduling()}. May be 
+	 * <code>null</code> when lanes are scheduled per link.
+	 * @param store The store in which the sublinks of the lane have been allocated, see {@link Sublink#allocateLinkArray}.
+	 * @param firstSublink The global index of the first sublink of the lane in <code>store</code>.
+	 * @param numberOfSublinks The number of (consecutive) sublinks of the lane, not counting the coarse sublink of a lane with
+	 * {@link #hasAdaptiveSublinks(FFFConfigGroup, int) adaptive sublinks}, which follows them.
+	 * @param compactor The compactor of dormant lanes, used if the sublinks are lazy and the lane may be compacted, see
+	 * {@link FFFConfigGroup#getLazySublinks()}. May be <code>null</code> otherwise.
+	 * @param hybridStatistics The statistics of the hybrid lanes, which the lane is added to if it is hybrid, see
+	 * {@link FFFConfigGroup#getHybridLanes()}. May be <code>null</code> otherwise.
+	 * @param storageCapacity The number of average cyclists fitting onto the lane.
+	 * @param flowCapacityPerTimeStep The number of average cyclists that can leave the lane per time step.
+	 */
+	public QCycleLaneWithSublinks( Id<Lane> id, SublinkStore store, int firstSublink, int numberOfSublinks, AbstractQLink qLinkImpl,
+			NetsimEngineContext context, FFFConfigGroup fffConfig, CycleTimingWheel wheel, QCycleRegistry registry,
+			DormantLaneCompactor compactor, HybridLaneStatistics hybridStatistics, double storageCapacity, double flowCapacityPerTimeStep ){
+		this.id = id;
+		this.store = store;
+		this.firstSublink = firstSublink;
+		this.numberOfSublinks = numberOfSublinks;
 		this.qLinkImpl = qLinkImpl;
 		this.context = context;
-		this.globalQ = new PriorityQueue<>( new Comparator<QCycle>(){
-			@Override
-			public int compare( QCycle qc1, QCycle qc2 ){
-				return Double.compare(qc1.getCyclist().getTEarliestExit(), qc2.getCyclist().getTEarliestExit());
-			}
-		} ) ;
-		
-		this.correctionFactor = correctionFactor;
+		this.laneQueue = fffConfig.getLaneQueue();
+		this.deterministicTieBreaking = fffConfig.getDeterministicTieBreaking();
+		this.compactor = fffConfig.getLazySublinks() && compactor != null && compactor.isCompacting() ? compactor : null;
 		
+		this.correctionFactor = fffConfig.getCorrectionFactor();
+		this.batchedLaneSelection = fffConfig.getLaneSelectionKernel() == LaneSelectionKernel.batched;
+		this.timingWheel = fffConfig.getLaneScheduling() == LaneScheduling.timingWheel ? wheel : null;
+		this.wakeUpScheduler = fffConfig.getLaneScheduling() == LaneScheduling.wakeUp ? wheel : null;
+		this.registry = registry;
+		this.storageCapacity = storageCapacity;
+		this.flowCapacityPerTimeStep = flowCapacityPerTimeStep;
+		this.adaptive = hasAdaptiveSublinks( fffConfig, numberOfSublinks );
+		this.coarse = adaptive;
+		this.splitCount = Math.max( 2, (int) Math.ceil( fffConfig.getAdaptiveSublinkOccupancy() * storageCapacity ) );
+		this.mergeCount = splitCount / 2;
+		this.fastForward = fffConfig.getFastForwardSublinks();
+		this.chain = new FastForwardChain( store, deterministicTieBreaking );
+		if( fffConfig.getHybridLanes() && hybridStatistics != null ){
+			this.hybridMode = new HybridLaneMode( qLinkImpl.getLink().getId(), context.getSimTimer(), chain );
+			hybridStatistics.addLane( hybridMode );
+		} else {
+			this.hybridMode = null;
+		}
+		this.vehicles = new CycleLaneVehicles( cyclists ){
+			@Override Collection<QVehicle> getLeavingVehicles(){
+				return fffLinkArray == null ? Collections.<QVehicle>emptyList() : fffLinkArray[fffLinkArray.length-1].getLeavingVehicles();
+			}
+		};
+		if( !fffConfig.getLazySublinks() ){
+			materialise();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> iff a lane with <code>numberOfSublinks</code> sublinks is simulated with adaptive sublinks, and
+	 * thus needs an additional, coarse sublink in the store.
+	 */
+	/* package */ static boolean hasAdaptiveSublinks( final FFFConfigGroup fffConfig, final int numberOfSublinks ){
+		return fffConfig.getAdaptiveSublinks() && numberOfSublinks > 1;
+	}
+
+	/**
+	 * Creates the handles to the sublinks of the lane and the queue of its cyclists, unless already done. The state of the
+	 * sublinks is kept in the store while the lane is dormant, so a lane behaves the same whether or not it has been dormant.
+	 */
+	private void materialise(){
+		emptySince = Double.NaN;
+		if( fffLinkArray != null ){
+			return;
+		}
+		fineLinkArray = Sublink.createLinkArrayFromStore( store, firstSublink, numberOfSublinks );
+		if( adaptive ){
+			coarseLinkArray = Sublink.createLinkArrayFromStore( store, firstSublink + numberOfSublinks, 1 );
+		}
+		fffLinkArray = coarse ? coarseLinkArray : fineLinkArray;
+		if( laneQueue == LaneQueue.pseudoLaneFifo ){
+			// the pseudolanes of all sublinks of the link (including the coarse one) are allocated contiguously in the store:
+			int lastSublink = firstSublink + numberOfSublinks - (adaptive ? 0 : 1);
+			int firstPseudoLane = store.getFirstPseudoLane(firstSublink);
+			int lastPseudoLane = store.getFirstPseudoLane(lastSublink) + store.getNumberOfPseudoLanes(lastSublink) - 1;
+			globalQ = new PseudoLaneFifoQueue( firstPseudoLane, lastPseudoLane - firstPseudoLane + 1, deterministicTieBreaking );
+		} else {
+			globalQ = new CycleHeap( deterministicTieBreaking );
+		}
+	}
+
+	/**
+	 * Reports the lane to the compactor (if any) if it has just become empty.
+	 */
+	private void checkIfEmptied(){
+		if( compactor != null && Double.isNaN( emptySince ) && cyclists.size() == 0 &&
+				fffLinkArray[fffLinkArray.length-1].hasNoLeavingVehicles() ){
+			emptySince = context.getSimTimer().getTimeOfDay();
+			compactor.laneEmptied( this, emptySince );
+		}
+	}
+
+	/**
+	 * Returns the lane to its dormant state, releasing the handles to its sublinks and its queue, if it has been empty since
+	 * <code>time</code>.
+	 */
+	/* package */ void compact( final double time ){
+		if( emptySince == time ){
+			emptySince = Double.NaN;
+			fffLinkArray = null;
+			fineLinkArray = null;
+			coarseLinkArray = null;
+			globalQ = null;
+			chain.release();
+		}
+	}
+
+	/**
+	 * Splits the coarse sublink of the lane into its fine sublinks. Every cyclist on the lane is moved to the fine sublink it has
+	 * reached at its speed, and the pseudolanes of the fine sublinks it has entered up to there are given its timing, as if it
+	 * had ridden through them at its speed, the cyclists that have entered the link later overriding the earlier ones. The fine
+	 * sublinks ahead of all cyclists on a pseudolane keep their state, such that nobody runs into a reservation not yet made.
+	 * Only if all cyclists that have entered a coarse pseudolane have left the lane, the last of them has passed all fine
+	 * sublinks, which are given its timing.
+	 */
+	private void split(){
+		final double now = context.getSimTimer().getTimeOfDay();
+		final Sublink coarseLink = coarseLinkArray[0];
+		final double length = store.getLength( coarseLink.getPseudoLane(0) );
+		final double fineLength = length / numberOfSublinks;
+		final boolean[] occupied = new boolean[coarseLink.getNumberOfPseudoLanes()];
+		coarseLink.supplementOccupiedSpace( -store.getOccupiedSpace( coarseLink.getIndex() ) );
+		for( QCycle qCyc : cyclists ){
+			final Cyclist cyclist = qCyc.getCyclist();
+			final double speed = cyclist.getSpeed();
+			final double tStart = cyclist.getTEarliestExit() - length / speed;
+			int j = numberOfSublinks - 1;
+			if( cyclist.getTEarliestExit() > now ){
+				// (a cyclist queued behind others on its pseudolane may not have entered the link yet:)
+				j = Math.max( 0, Math.min( j, (int) Math.floor( (now - tStart) * speed / fineLength ) ) );
+				cyclist.setTEarliestExit( tStart + (j+1) * fineLength / speed );
+			}
+			final int p = cyclist.getCurrentPseudoLane() - coarseLink.getPseudoLane(0);
+			occupied[p] = true;
+			setFineTiming( p, tStart + cyclist.getBicycleLength() / speed, speed, j );
+			moveCyclist( cyclist, coarseLink, fineLinkArray[j], j );
+		}
+		for( int p = 0; p < coarseLink.getNumberOfPseudoLanes(); p++ ){
+			final double tReady = store.getTReady( coarseLink.getPseudoLane(p) );
+			final double tEnd = store.getTEnd( coarseLink.getPseudoLane(p) );
+			if( !occupied[p] && tEnd > tReady ){
+				// tEnd - tReady is the time it takes to ride the link, and tReady includes the surplus of the correction factor:
+				final double speed = length / (tEnd - tReady);
+				setFineTiming( p, tReady - length / speed * (correctionFactor-1), speed, numberOfSublinks - 1 );
+			}
+		}
+		switchSublinks( coarseLink, fineLinkArray );
+	}
+
+	/**
+	 * Gives pseudolane <code>p</code> of the fine sublinks up to <code>lastSublink</code> the timing of a cyclist riding at
+	 * <code>speed</code>, whose tail has entered the link at <code>tEntered</code>.
+	 */
+	private void setFineTiming( final int p, final double tEntered, final double speed, final int lastSublink ){
+		final double fineLength = store.getLength( coarseLinkArray[0].getPseudoLane(0) ) / numberOfSublinks;
+		final double fineSurplus = fineLength / speed * (correctionFactor-1);
+		for( int j = 0; j <= lastSublink; j++ ){
+			final Sublink fineLink = fineLinkArray[j];
+			store.setTReady( fineLink.getPseudoLane(p), tEntered + j * fineLength / speed + fineSurplus );
+			fineLink.setTEnd( fineLink.getPseudoLane(p), tEntered + (j+1) * fineLength / speed + fineSurplus );
+		}
+	}
+
+	/**
+	 * Merges the fine sublinks of the lane into its coarse sublink. The inverse of {@link #split()}: The pseudolanes of the
+	 * coarse sublink are given the timing of the last cyclist that has entered the first fine sublink, and every cyclist on the
+	 * lane is given the exit of the link it would reach at its current speed.
+	 */
+	private void merge(){
+		final Sublink coarseLink = coarseLinkArray[0];
+		final double length = store.getLength( coarseLink.getPseudoLane(0) );
+		final double fineLength = length / numberOfSublinks;
+		for( int p = 0; p < coarseLink.getNumberOfPseudoLanes(); p++ ){
+			final double tReady = store.getTReady( fineLinkArray[0].getPseudoLane(p) );
+			final double tEnd = store.getTEnd( fineLinkArray[0].getPseudoLane(p) );
+			if( tEnd > tReady ){
+				final double speed = fineLength / (tEnd - tReady);
+				final double tEntered = tReady - fineLength / speed * (correctionFactor-1);
+				final double surplus = length / speed * (correctionFactor-1);
+				store.setTReady( coarseLink.getPseudoLane(p), tEntered + surplus );
+				coarseLink.setTEnd( coarseLink.getPseudoLane(p), tEntered + length / speed + surplus );
+			}
+		}
+		for( Sublink fineLink : fineLinkArray ){
+			fineLink.supplementOccupiedSpace( -store.getOccupiedSpace( fineLink.getIndex() ) );
+		}
+		for( QCycle qCyc : cyclists ){
+			final Cyclist cyclist = qCyc.getCyclist();
+			final int j = cyclist.getCurrentLinkIndex();
+			cyclist.setTEarliestExit( cyclist.getTEarliestExit() + (numberOfSublinks - 1 - j) * fineLength / cyclist.getSpeed() );
+			moveCyclist( cyclist, fineLinkArray[j], coarseLink, 0 );
+		}
+		switchSublinks( fineLinkArray[numberOfSublinks-1], coarseLinkArray );
+	}
+
+	/**
+	 * Moves <code>cyclist</code> from <code>from</code> to the same pseudolane of <code>to</code>, the sublink with index
+	 * <code>toIndex</code> of the new sublinks of the lane.
+	 */
+	private static void moveCyclist( final Cyclist cyclist, final Sublink from, final Sublink to, final int toIndex ){
+		cyclist.setCurrentPseudoLane( to.getPseudoLane( cyclist.getCurrentPseudoLane() - from.getPseudoLane(0) ) );
+		cyclist.setCurrentLinkIndex( toIndex );
+		to.increaseOccupiedSpace( cyclist, cyclist.getSpeed() );
+	}
+
+	/**
+	 * Makes <code>newLinkArray</code> the sublinks of the lane, handing over the leaving vehicles of its last sublink from
+	 * <code>oldLastLink</code>, and requeueing the cyclists by their new exits.
+	 */
+	private void switchSublinks( final Sublink oldLastLink, final Sublink[] newLinkArray ){
+		final Sublink newLastLink = newLinkArray[newLinkArray.length-1];
+		while( !oldLastLink.hasNoLeavingVehicles() ){
+			newLastLink.addVehicleToLeavingVehicles( oldLastLink.pollFirstLeavingVehicle() );
+		}
+		newLastLink.setLastTimeMoved( oldLastLink.getLastTimeMoved() );
+		fffLinkArray = newLinkArray;
+		coarse = newLinkArray == coarseLinkArray;
+		globalQ.clear();
+		for( QCycle qCyc : cyclists ){
+			globalQ.add( qCyc );
+		}
+		if( wakeUpScheduler != null && globalQ.peek() != null ){
+			requestWakeUp( globalQ.peek().getEarliestLinkExitTime() );
+		}
 	}
 
+	/**
+	 * @return <code>true</code> iff the lane is dormant, i.e. its sublinks and queue are not materialised.
+	 */
+	/* package */ boolean isDormant(){
+		return fffLinkArray == null;
+	}
 
-	@Override public Id<Lane> getId() { //Done!?
-		//TODO There must be a better way... But it is even necessary. 
 
-		return Id.create(fffLinkArray[0].getId().substring(0, fffLinkArray[0].getId().toString().length() - 6), Lane.class);
+	@Override public Id<Lane> getId() { //Done!
+		return id;
 	}
 
 	@Override public boolean isAcceptingFromUpstream() { //Done!
-		return !fffLinkArray[0].isLinkFull();
+		// as Sublink#isLinkFull, but also while dormant:
+		final int first = coarse ? firstSublink + numberOfSublinks : firstSublink;
+		return store.getOccupiedSpace(first) < store.getTotalLaneLength(first);
 	}
 
 	@Override public void addFromUpstream( final QVehicle veh ) {  
-		// activate link since there is now action on it:
-		qLinkImpl.getInternalInterface().activateLink();
+		materialise();
+		if( hybridMode != null && hybridMode.isFreeFlow() ){
+			// interaction becomes possible; the exits up to the previous time step have been processed:
+			endFreeFlow( context.getSimTimer().getTimeOfDay() - context.getSimTimer().getSimTimestepSize() );
+		}
+		final boolean enteringEmptyLane = cyclists.size() == 0;
+		if( coarse && cyclists.size() + 1 >= splitCount ){
+			split();
+		}
+
+		// activate link since there is now action on it (with a timing wheel or wake-ups, only once the cyclist is due):
+		if( timingWheel == null && wakeUpScheduler == null ){
+			qLinkImpl.getInternalInterface().activateLink();
+		}
 
 		veh.setCurrentLink( qLinkImpl.getLink() );
 
@@ -66,20 +401,21 @@ class QCycleLaneWithSublinks implements QLaneI{
 		Sublink fffLink = fffLinkArray[0];
 
 		// Selecting the appropriate pseudoLane:
-		PseudoLane pseudoLane = cyclist.selectPseudoLane( fffLink);
+		int pseudoLane = selectPseudoLane( cyclist, fffLink);
 
 		// Assigning a provisional, maximum speed for this link:
-		double vTilde = cyclist.getVMax(pseudoLane);
+		double vTilde = cyclist.getVMax(store, pseudoLane);
 		vTilde = Math.min(cyclist.getDesiredSpeed(), vTilde);
 		cyclist.setSpeed(vTilde);
+		cyclist.setCurrentPseudoLane(pseudoLane);
 
 		//					 printDelay(cyclist);
 
 		// The time at which the tip of the cyclist enters the beginning of the link:
-		double tStart = Double.max(pseudoLane.getTReady(), cyclist.getTEarliestExit()) ;
+		double tStart = Double.max(store.getTReady(pseudoLane), cyclist.getTEarliestExit()) ;
 
 		// Calculating earliest possible exit of the link:
-		final double tEarliestExit = tStart + pseudoLane.getLength() / vTilde;
+		final double tEarliestExit = tStart + store.getLength(pseudoLane) / vTilde;
 		cyclist.setTEarliestExit( tEarliestExit );
 
 		// Increasing the occupied space on link:
@@ -87,16 +423,77 @@ class QCycleLaneWithSublinks implements QLaneI{
 
 		// Updating tReady and tExit of the link:
 		double tOneBicycleLength = cyclist.getBicycleLength() / vTilde;
-		double surplus = pseudoLane.getLength() / vTilde * (correctionFactor-1);
-		pseudoLane.setTReady(tStart + tOneBicycleLength + surplus);
-		pseudoLane.setTEnd(cyclist.getTEarliestExit() + tOneBicycleLength + surplus);
+		double surplus = store.getLength(pseudoLane) / vTilde * (correctionFactor-1);
+		store.setTReady(pseudoLane, tStart + tOneBicycleLength + surplus);
+		fffLink.setTEnd(pseudoLane, cyclist.getTEarliestExit() + tOneBicycleLength + surplus);
 		
 
 		// Add qCycle to the downstream queue of the next link.
 		//	fffLinkArray[0].getOutQ().add(qCyc ); 
 		qCyc.getCyclist().resetCurrentLinkIndex();
+		qCyc.setCurrentLane(this);
+		cyclists.addLast(qCyc);
+		if( hybridMode != null && enteringEmptyLane ){
+			// a single cyclist cannot interact with anybody:
+			hybridMode.enteredEmptyLane( qCyc, this, fffLinkArray, context.getSimTimer().getTimeOfDay() );
+		}
+		enqueue(qCyc);
+		if( wakeUpScheduler != null ){
+			requestWakeUp( qCyc.getEarliestLinkExitTime() );
+		}
+
+	}
+
+
+	/**
+	 * Queues <code>qCyc</code> for the exit of its current sublink, deferring it to the timing wheel (if any) when not yet due.
+	 */
+	private void enqueue( final QCycle qCyc ){
+		if( timingWheel != null && qCyc.getEarliestLinkExitTime() > context.getSimTimer().getTimeOfDay() ){
+			timingWheel.schedule( this, qCyc, qCyc.getEarliestLinkExitTime() );
+		} else {
+			globalQ.add(qCyc);
+			if( timingWheel != null ){
+				qLinkImpl.getInternalInterface().activateLink();
+			}
+		}
+	}
+
+	@Override public void addDueCyclist( final QCycle qCyc ){
 		globalQ.add(qCyc);
+		qLinkImpl.getInternalInterface().activateLink();
+	}
+
+	/**
+	 * Makes sure that the link is active at <code>time</code>, activating it now if <code>time</code> has been reached, and
+	 * otherwise requesting a wake-up unless an earlier one is already pending.
+	 */
+	private void requestWakeUp( final double time ){
+		if( time <= context.getSimTimer().getTimeOfDay() ){
+			qLinkImpl.getInternalInterface().activateLink();
+		} else if( time < nextWakeUp ){
+			nextWakeUp = time;
+			wakeUpScheduler.scheduleWakeUp( this, time );
+		}
+	}
+
+	@Override public void wakeUp( final double time ){
+		if( time == nextWakeUp ){
+			nextWakeUp = Double.POSITIVE_INFINITY;
+		}
+		// (superseded, later wake-ups cannot be withdrawn from the wheel; they merely activate the link once more.)
+		qLinkImpl.getInternalInterface().activateLink();
+	}
+
 
+	/**
+	 * Selects the pseudolane of <code>receivingLink</code> for <code>cyclist</code> using the configured lane selection kernel.
+	 */
+	private int selectPseudoLane( final Cyclist cyclist, final Sublink receivingLink ){
+		if( batchedLaneSelection ){
+			return cyclist.selectPseudoLaneBatched( receivingLink );
+		}
+		return cyclist.selectPseudoLane( receivingLink );
 	}
 
 
@@ -115,6 +512,10 @@ class QCycleLaneWithSublinks implements QLaneI{
 	//    }
 
 	@Override public boolean doSimStep() {
+		if( fffLinkArray == null ){
+			// dormant, e.g. woken up by a superseded wake-up:
+			return true;
+		}
 		QCycle cqo;
 
 		while((cqo = globalQ.peek()) != null){
@@ -128,7 +529,13 @@ class QCycleLaneWithSublinks implements QLaneI{
 			Sublink fffLink = fffLinkArray[cqo.getCyclist().getCurrentLinkIndex()];
 
 			//	fffLink.getOutQ().remove();
-			globalQ.remove();
+			globalQ.poll();
+			if( hybridMode != null && hybridMode.isFreeFlow() ){
+				hybridMode.leaving( cqo.getCyclist(), fffLinkArray );
+			}
+			if( chain.getCyclist() != null ){
+				chain.confirm( cqo, fffLinkArray );
+			}
 			fffLink.reduceOccupiedSpace(cqo.getCyclist(), cqo.getCyclist().getSpeed() );
 			
 			//Anything but the last subLink
@@ -137,41 +544,30 @@ class QCycleLaneWithSublinks implements QLaneI{
 				Cyclist cyclist = cqo.getCyclist();
 				// internal fff logic:
 
-				// Selecting the appropriate pseudoLane:
 				//Make sure that this cannot happen for cet currentLinkIdex = maxIndex.
-				Sublink receivingFFFLink = fffLinkArray[cqo.getCyclist().getCurrentLinkIndex() + 1];
-				PseudoLane pseudoLane = cyclist.selectPseudoLane( receivingFFFLink );
-
-				// Assigning a provisional, maximum speed for this link:
-				double vTilde = cyclist.getVMax(pseudoLane);
-				vTilde = Math.min(cyclist.getDesiredSpeed(), vTilde);
-				cyclist.setSpeed(vTilde);
-
-				// The time at which the tip of the cyclist enters the beginning of the link:
-				double tStart = Double.max(pseudoLane.getTReady(), cyclist.getTEarliestExit()) ;
-
-				// Calculating earliest possible exit of the link:
-				tEarliestExit = tStart + pseudoLane.getLength() / vTilde;
-				cyclist.setTEarliestExit( tEarliestExit );
-
-				// Increasing the occupied space on link:
-				receivingFFFLink.increaseOccupiedSpace(cyclist, vTilde );
-
-				// Updating tReady and tExit of the link:
-				double tOneBicycleLength = cyclist.getBicycleLength() / vTilde;
-				double surplus = pseudoLane.getLength() / vTilde * (correctionFactor-1);
-				pseudoLane.setTReady(tStart + tOneBicycleLength + surplus);
-				pseudoLane.setTEnd(cyclist.getTEarliestExit() + tOneBicycleLength + surplus);
+				final int receivingIndex = cqo.getCyclist().getCurrentLinkIndex() + 1;
+				if( chain.getCyclist() != null && receivingIndex >= chain.getFirst() ){
+					// entering a sublink before the fast-forwarded cyclist would have:
+					truncateChain( cqo );
+				}
+				enterSublink( cyclist, fffLinkArray[receivingIndex], -1 );
 			
 				// Add qCycle to the downstream queue of the next link.
 				//	receivingFFFLink.getOutQ().add(cqo ); 
 				cqo.getCyclist().incrementCurrentLinkIndex();
-				globalQ.add(cqo);
+				if( fastForward && chain.getCyclist() == null && cyclists.getFirst() == cqo && receivingIndex < fffLinkArray.length - 1 ){
+					chain.record( cqo, this, fffLinkArray );
+					chain.moveOccupiedSpaceToLast( fffLinkArray );
+				}
+				enqueue(cqo);
 
 
 			} else { ///fffLink is last subLink
 
+				cyclists.unlink(cqo);
+
 				if(cqo.getDriver().isWantingToArriveOnCurrentLink()){
+					cqo.setCurrentLane(null);
 					qLinkImpl.letVehicleArrive(cqo );
 					continue;
 				}
@@ -188,20 +584,110 @@ class QCycleLaneWithSublinks implements QLaneI{
 				}
 			}
 		}
+		if( wakeUpScheduler != null && cqo != null ){
+			requestWakeUp( cqo.getEarliestLinkExitTime() );
+		}
+		if( hybridMode != null && cyclists.size() == 0 ){
+			hybridMode.drained( context.getSimTimer().getTimeOfDay() );
+		}
+		if( !coarse && adaptive && cyclists.size() < mergeCount ){
+			if( hybridMode != null && hybridMode.isFreeFlow() ){
+				endFreeFlow( context.getSimTimer().getTimeOfDay() );
+			}
+			if( chain.getCyclist() != null && !chain.resolve( context.getSimTimer().getTimeOfDay(), fffLinkArray ) ){
+				truncateChain( null );
+			}
+			merge();
+		}
+		checkIfEmptied();
 		return true;
 	}
 
+	/**
+	 * Lets <code>cyclist</code> enter <code>receivingFFFLink</code> at its earliest exit of the previous sublink, selecting its
+	 * pseudolane and speed, and reserving the pseudolane.
+	 *
+	 * @param chainIndex If negative, the reservation is made in the store. Otherwise, it is the index of the sublink in the chain
+	 * of the fast-forwarded cyclist, where the reservation is recorded instead, see {@link FastForwardChain}.
+	 */
+	/* package */ void enterSublink( final Cyclist cyclist, final Sublink receivingFFFLink, final int chainIndex ){
+		// Selecting the appropriate pseudoLane:
+		int pseudoLane = selectPseudoLane( cyclist, receivingFFFLink );
+
+		// Assigning a provisional, maximum speed for this link:
+		double vTilde = cyclist.getVMax(store, pseudoLane);
+		vTilde = Math.min(cyclist.getDesiredSpeed(), vTilde);
+		cyclist.setSpeed(vTilde);
+		cyclist.setCurrentPseudoLane(pseudoLane);
+
+		// The time at which the tip of the cyclist enters the beginning of the link:
+		double tStart = Double.max(store.getTReady(pseudoLane), cyclist.getTEarliestExit()) ;
+
+		// Calculating earliest possible exit of the link:
+		cyclist.setTEarliestExit( tStart + store.getLength(pseudoLane) / vTilde );
+
+		// Updating tReady and tExit of the link:
+		double tOneBicycleLength = cyclist.getBicycleLength() / vTilde;
+		double surplus = store.getLength(pseudoLane) / vTilde * (correctionFactor-1);
+		if( chainIndex < 0 ){
+			// Increasing the occupied space on link:
+			receivingFFFLink.increaseOccupiedSpace(cyclist, vTilde );
+			store.setTReady(pseudoLane, tStart + tOneBicycleLength + surplus);
+			receivingFFFLink.setTEnd(pseudoLane, cyclist.getTEarliestExit() + tOneBicycleLength + surplus);
+		} else {
+			chain.recordReservation( cyclist, chainIndex, tStart + tOneBicycleLength + surplus,
+					cyclist.getTEarliestExit() + tOneBicycleLength + surplus );
+		}
+	}
+
+	/**
+	 * Switches the hybrid lane from free-flow to congested mode, see {@link HybridLaneMode#endFreeFlow}, requeueing the cyclist
+	 * if it is still on the first sublink.
+	 */
+	private void endFreeFlow( final double processedTime ){
+		final QCycle qCyc = hybridMode.endFreeFlow( fffLinkArray, processedTime, context.getSimTimer().getTimeOfDay() );
+		if( qCyc != null ){
+			globalQ.clear();
+			globalQ.add( qCyc );
+			if( wakeUpScheduler != null ){
+				requestWakeUp( qCyc.getEarliestLinkExitTime() );
+			}
+		}
+	}
+
+	/**
+	 * Truncates the chain of the fast-forwarded cyclist, see {@link FastForwardChain#truncate}, and requeues the cyclists on the
+	 * lane except <code>polled</code>.
+	 */
+	private void truncateChain( final QCycle polled ){
+		chain.truncate( fffLinkArray );
+		globalQ.clear();
+		for( QCycle qCyc : cyclists ){
+			if( qCyc != polled ){
+				globalQ.add( qCyc );
+			}
+		}
+	}
+
 	@Override public boolean isNotOfferingVehicle() {
-		return fffLinkArray[fffLinkArray.length-1].hasNoLeavingVehicles();
+		return fffLinkArray == null || fffLinkArray[fffLinkArray.length-1].hasNoLeavingVehicles();
 
 	}
 
 	@Override public QVehicle popFirstVehicle() {
-		return fffLinkArray[fffLinkArray.length-1].pollFirstLeavingVehicle();
+		if( fffLinkArray == null ){
+			return null;
+		}
+		QVehicle veh = fffLinkArray[fffLinkArray.length-1].pollFirstLeavingVehicle();
+		if( veh != null ){
+			((QCycle) veh).setCurrentLane(null);
+			checkIfEmptied();
+		}
+		return veh;
 	}
 
 	@Override public QVehicle getFirstVehicle() {
-		return fffLinkArray[fffLinkArray.length-1].getFirstLeavingVehicle();
+		return fffLinkArray == null ? null : fffLinkArray[fffLinkArray.length-1].getFirstLeavingVehicle();
 	}
 
 	@Override public boolean isAcceptingFromWait( final QVehicle veh ) {
@@ -215,12 +701,16 @@ class QCycleLaneWithSublinks implements QLaneI{
 		// ensuring that the first provisional earliest link exit cannot be before now.
 		double now = context.getSimTimer().getTimeOfDay() ;
 		QCycle qCyc = (QCycle) veh;
+		registry.register(qCyc);
 		
 		if(qCyc.getDriver().isWantingToArriveOnCurrentLink()){
 			qLinkImpl.letVehicleArrive(qCyc);
 			return;
 		}
+		materialise();
 		Sublink lastSubLink = fffLinkArray[ fffLinkArray.length -1];
+		qCyc.setCurrentLane(this);
+		qCyc.getCyclist().setCurrentLinkIndex( fffLinkArray.length -1 );
 		
 		// Essentially just skipping this first link (in order to be consistent with scorin mechanism)
 		lastSubLink.addVehicleToLeavingVehicles(qCyc );
@@ -234,6 +724,14 @@ class QCycleLaneWithSublinks implements QLaneI{
 	}
 
 	@Override public boolean isActive() {
+		if( fffLinkArray == null ){
+			return false;
+		}
+		if( wakeUpScheduler != null ){
+			// sleeping until the first cyclist is due:
+			QCycle first = globalQ.peek();
+			return first != null && first.getEarliestLinkExitTime() <= context.getSimTimer().getTimeOfDay();
+		}
 		if(!globalQ.isEmpty()){
 			return true;
 		} else {
@@ -242,7 +740,7 @@ class QCycleLaneWithSublinks implements QLaneI{
 	}
 
 	@Override public double getSimulatedFlowCapacityPerTimeStep() {
-		throw new RuntimeException( "not implemented" );
+		return flowCapacityPerTimeStep;
 	}
 
 	@Override public void recalcTimeVariantAttributes() {
@@ -250,16 +748,11 @@ class QCycleLaneWithSublinks implements QLaneI{
 	}
 
 	@Override public QVehicle getVehicle( final Id<Vehicle> vehicleId ) {
-		for(QCycle cqo : globalQ){
-			if( cqo.getVehicle().getId().equals( vehicleId.toString() ) ){
-				return cqo;
-			}
-		}
-		return null ;
+		return registry.getQCycle( vehicleId, this );
 	}
 
 	@Override public double getStorageCapacity() {
-		throw new RuntimeException( "not implemented" );
+		return storageCapacity;
 	}
 
 	@Override public VisData getVisData() {
@@ -281,23 +774,45 @@ class QCycleLaneWithSublinks implements QLaneI{
 
 
 	@Override public void clearVehicles() {
-		globalQ.clear();
+		for(QCycle cqo : cyclists){
+			cqo.setCurrentLane(null);
+		}
+		cyclists.clear();
+		chain.clear();
+		if( hybridMode != null ){
+			hybridMode.clear();
+		}
+		if( globalQ != null ){
+			globalQ.clear();
+		}
 	}
 
+	/**
+	 * @return A live view of the vehicles on the lane, i.e. the cyclists on its sublinks followed by the leaving vehicles.
+	 */
 	@Override public Collection<MobsimVehicle> getAllVehicles() {
-		ArrayList<MobsimVehicle> qCycs = new ArrayList<MobsimVehicle>();
-		for(QCycle cqo : globalQ){
-			qCycs.add(cqo);
-		}
-		return qCycs;
+		return vehicles;
 	}
 
 	@Override public double getLastMovementTimeOfFirstVehicle() {
-		return fffLinkArray[fffLinkArray.length-1].getLastTimeMoved();
+		return store.getLastTimeMoved( coarse ? firstSublink + numberOfSublinks : firstSublink + numberOfSublinks - 1 );
 	}
 
+	/**
+	 * @return The load of the lane in average cyclists, comparable to {@link #getStorageCapacity()}: the occupied share of the
+	 * pseudolanes of its sublinks, as kept in the store, times the storage capacity, plus the cyclists waiting to leave the lane.
+	 * Slow cyclists filling the pseudolanes thus load the lane as much as the average cyclists fitting onto it.
+	 */
 	@Override public double getLoadIndicator() {
-		throw new RuntimeException( "not implemented" );
+		final int first = coarse ? firstSublink + numberOfSublinks : firstSublink;
+		final int last = coarse ? first : firstSublink + numberOfSublinks - 1;
+		double occupiedSpace = 0.;
+		double totalLaneLength = 0.;
+		for( int sublink = first; sublink <= last; sublink++ ){
+			occupiedSpace += store.getOccupiedSpace( sublink );
+			totalLaneLength += store.getTotalLaneLength( sublink );
+		}
+		return storageCapacity * occupiedSpace / totalLaneLength + vehicles.getLeavingVehicles().size();
 	}
 
 	@Override public void initBeforeSimStep() {
@@ -9,34 +9,57 @@ import org.matsim.core.mobsim.qsim.interfaces.MobsimVehicle;
 import org.matsim.lanes.Lane;
 import org.matsim.vehicles.Vehicle;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.PriorityQueue;
 
-class QCycleLaneWithoutCongestion implements QLaneI{
+class QCycleLaneWithoutCongestion implements QLaneI, CycleLane{
 	private static final Logger log = Logger.getLogger( QCycleLaneWithoutCongestion.class ) ;
 
 	private final Id<Lane> id;
 	private final AbstractQLink qLinkImpl;
-	private final PriorityQueue<QCycle> globalQ;
+	private final CycleQueue globalQ;
 	private final NetsimEngineContext context;
 	private double lastTimeMoved;
-	private LinkedList<QVehicle> leavingVehicles;
+	private final ArrayDeque<QVehicle> leavingVehicles;
 
-	public QCycleLaneWithoutCongestion(String id, AbstractQLink qLinkImpl, NetsimEngineContext context){
+	/**
+	 * The timing wheel holding the link exits which are not yet due, or <code>null</code> if all cyclists are kept in the
+	 * priority queue of the lane. Without congestion, each cyclist exits the lane at a known time, so holding the exits in
+	 * the wheel also lets the lane sleep until its next exit is due.
+	 */
+	private final CycleTimingWheel timingWheel;
+
+	/**
+	 * All cyclists on the lane that have not yet reached its end, including those held in the timing wheel.
+	 */
+	private final QCycleList cyclists = new QCycleList();
+
+	/**
+	 * View of all vehicles on the lane, see {@link #getAllVehicles()}.
+	 */
+	private final CycleLaneVehicles vehicles;
+
+	private final QCycleRegistry registry;
+
+	/**
+	 * @param deterministicTieBreaking Whether cyclists with equal exits leave the lane in the order of their vehicle ids, see
+	 * {@link org.matsim.run.FFFConfigGroup#getDeterministicTieBreaking()}.
+	 */
+	public QCycleLaneWithoutCongestion(Id<Lane> id, AbstractQLink qLinkImpl, NetsimEngineContext context, CycleTimingWheel timingWheel,
+			QCycleRegistry registry, boolean deterministicTieBreaking){
 		this.qLinkImpl = qLinkImpl;
-		this.id = Id.create(id.substring(0, id.toString().length() - 6), Lane.class);
-		this.globalQ = new PriorityQueue<>( new Comparator<QCycle>(){
-			@Override
-			public int compare( QCycle qc1, QCycle qc2 ){
-				return Double.compare(qc1.getCyclist().getTEarliestExit(), qc2.getCyclist().getTEarliestExit());
-			}
-		} ) ;
+		this.id = id;
+		this.globalQ = new CycleHeap( deterministicTieBreaking );
 		this.context = context;
 		this.lastTimeMoved = 0.;
-		leavingVehicles = new LinkedList<QVehicle>();
+		leavingVehicles = new ArrayDeque<QVehicle>();
+		this.timingWheel = timingWheel;
+		this.registry = registry;
+		this.vehicles = new CycleLaneVehicles( cyclists ){
+			@Override Collection<QVehicle> getLeavingVehicles(){
+				return leavingVehicles;
+			}
+		};
 	}
 
 
@@ -49,8 +72,10 @@ class QCycleLaneWithoutCongestion implements QLaneI{
 	}
 
 	@Override public void addFromUpstream( final QVehicle veh ) {  
-		// activate link since there is now action on it:
-		qLinkImpl.getInternalInterface().activateLink();
+		// activate link since there is now action on it (with a timing wheel, only once the cyclist is due):
+		if( timingWheel == null ){
+			qLinkImpl.getInternalInterface().activateLink();
+		}
 
 		veh.setCurrentLink( qLinkImpl.getLink() );
 
@@ -68,11 +93,31 @@ class QCycleLaneWithoutCongestion implements QLaneI{
 		// Calculating earliest possible exit of the link:
 		final double tEarliestExit = tStart + qLinkImpl.getLink().getLength() / vTilde;
 		cyclist.setTEarliestExit( tEarliestExit );
+		cyclist.resetCurrentLinkIndex();
+		qCyc.setCurrentLane(this);
+		cyclists.addLast(qCyc);
 
 		// Add qCycle to the downstream queue of the next link.
 		//	fffLinkArray[0].getOutQ().add(qCyc ); 
+		if( timingWheel != null && tEarliestExit > context.getSimTimer().getTimeOfDay() ){
+			timingWheel.schedule( this, qCyc, tEarliestExit );
+		} else {
+			if( timingWheel != null ){
+				qLinkImpl.getInternalInterface().activateLink();
+			}
+			globalQ.add(qCyc);
+		}
+
+	}
+
+	@Override public void addDueCyclist( final QCycle qCyc ){
 		globalQ.add(qCyc);
+		qLinkImpl.getInternalInterface().activateLink();
+	}
 
+	@Override public void wakeUp( final double time ){
+		// Not requested by this lane, as all its pending exits are held in the timing wheel.
+		qLinkImpl.getInternalInterface().activateLink();
 	}
 
 
@@ -100,10 +145,11 @@ class QCycleLaneWithoutCongestion implements QLaneI{
 				break;
 			}
 
-			globalQ.remove();
-
+			globalQ.poll();
+			cyclists.unlink(cqo);
 
 			if(cqo.getDriver().isWantingToArriveOnCurrentLink()){
+				cqo.setCurrentLane(null);
 				qLinkImpl.letVehicleArrive(cqo );
 				continue;
 			}
@@ -128,7 +174,11 @@ class QCycleLaneWithoutCongestion implements QLaneI{
 }
 
 @Override public QVehicle popFirstVehicle() {
-	return leavingVehicles.pollFirst();
+	QVehicle veh = leavingVehicles.pollFirst();
+	if( veh != null ){
+		((QCycle) veh).setCurrentLane(null);
+	}
+	return veh;
 }
 
 @Override public QVehicle getFirstVehicle() {
@@ -147,12 +197,15 @@ class QCycleLaneWithoutCongestion implements QLaneI{
 	double now = context.getSimTimer().getTimeOfDay() ;
 	QCycle qCyc = (QCycle) veh;
 	qCyc.getCyclist().setTEarliestExit( now );
+	registry.register(qCyc);
 	
 	
 	if(qCyc.getDriver().isWantingToArriveOnCurrentLink()){
 		qLinkImpl.letVehicleArrive(qCyc);
 		return;
 	}
+	qCyc.setCurrentLane(this);
+	qCyc.getCyclist().resetCurrentLinkIndex();
 	//Auxiliary buffer created to fit the piece into MATSim.
 	leavingVehicles.add(qCyc);
 	lastTimeMoved = now;
@@ -172,8 +225,11 @@ class QCycleLaneWithoutCongestion implements QLaneI{
 	}
 }
 
+/**
+ * @return Positive infinity, as the cyclists never interact.
+ */
 @Override public double getSimulatedFlowCapacityPerTimeStep() {
-	throw new RuntimeException( "not implemented" );
+	return Double.POSITIVE_INFINITY;
 }
 
 @Override public void recalcTimeVariantAttributes() {
@@ -181,16 +237,14 @@ class QCycleLaneWithoutCongestion implements QLaneI{
 }
 
 @Override public QVehicle getVehicle( final Id<Vehicle> vehicleId ) {
-	for(QCycle cqo : globalQ){
-		if( cqo.getVehicle().getId().equals( vehicleId.toString() ) ){
-			return cqo;
-		}
-	}
-	return null ;
+	return registry.getQCycle( vehicleId, this );
 }
 
+/**
+ * @return Positive infinity, as the cyclists never interact.
+ */
 @Override public double getStorageCapacity() {
-	throw new RuntimeException( "not implemented" );
+	return Double.POSITIVE_INFINITY;
 }
 
 @Override public VisData getVisData() {
@@ -212,23 +266,29 @@ class QCycleLaneWithoutCongestion implements QLaneI{
 
 
 @Override public void clearVehicles() {
+	for(QCycle cqo : cyclists){
+		cqo.setCurrentLane(null);
+	}
+	cyclists.clear();
 	globalQ.clear();
 }
 
+/**
+ * @return A live view of the vehicles on the lane, i.e. the cyclists that have not yet reached its end followed by the leaving vehicles.
+ */
 @Override public Collection<MobsimVehicle> getAllVehicles() {
-	ArrayList<MobsimVehicle> qCycs = new ArrayList<MobsimVehicle>();
-	for(QCycle cqo : globalQ){
-		qCycs.add(cqo);
-	}
-	return qCycs;
+	return vehicles;
 }
 
 @Override public double getLastMovementTimeOfFirstVehicle() {
 	return lastTimeMoved;
 }
 
+/**
+ * @return The number of cyclists on the lane.
+ */
 @Override public double getLoadIndicator() {
-	throw new RuntimeException( "not implemented" );
+	return vehicles.size();
 }
 
 @Override public void initBeforeSimStep() {
@@ -0,0 +1,96 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Intrusive doubly linked list of the cyclists on the sublinks of a bicycle lane, using the links stored in the {@link QCycle}s
+ * themselves. Adding and removing are O(1) and allocation-free, and the list is a live, read-only view for other code.
+ *
+ * A cycle can be in at most one such list at a time. The list is not thread-safe.
+ *
+ * @author mpaulsen
+ */
+final class QCycleList extends AbstractCollection<QCycle> {
+
+	private QCycle first = null;
+	private QCycle last = null;
+	private int size = 0;
+
+	/* package */ void addLast( final QCycle qCyc ){
+		qCyc.setPreviousOnLane(last);
+		qCyc.setNextOnLane(null);
+		if(last == null){
+			first = qCyc;
+		} else {
+			last.setNextOnLane(qCyc);
+		}
+		last = qCyc;
+		size++;
+	}
+
+	/**
+	 * Removes <code>qCyc</code>, which must be in this list.
+	 */
+	/* package */ void unlink( final QCycle qCyc ){
+		final QCycle previous = qCyc.getPreviousOnLane();
+		final QCycle next = qCyc.getNextOnLane();
+		if(previous == null){
+			first = next;
+		} else {
+			previous.setNextOnLane(next);
+		}
+		if(next == null){
+			last = previous;
+		} else {
+			next.setPreviousOnLane(previous);
+		}
+		qCyc.setPreviousOnLane(null);
+		qCyc.setNextOnLane(null);
+		size--;
+	}
+
+	/**
+	 * @return The cycle added the longest ago, or <code>null</code> if the list is empty.
+	 */
+	/* package */ QCycle getFirst(){
+		return first;
+	}
+
+	@Override public void clear(){
+		QCycle qCyc = first;
+		while(qCyc != null){
+			final QCycle next = qCyc.getNextOnLane();
+			qCyc.setPreviousOnLane(null);
+			qCyc.setNextOnLane(null);
+			qCyc = next;
+		}
+		first = null;
+		last = null;
+		size = 0;
+	}
+
+	@Override public int size(){
+		return size;
+	}
+
+	@Override public Iterator<QCycle> iterator(){
+		return new Iterator<QCycle>(){
+			private QCycle next = first;
+
+			@Override public boolean hasNext(){
+				return next != null;
+			}
+
+			@Override public QCycle next(){
+				if(next == null){
+					throw new NoSuchElementException();
+				}
+				final QCycle qCyc = next;
+				next = qCyc.getNextOnLane();
+				return qCyc;
+			}
+		};
+	}
+}
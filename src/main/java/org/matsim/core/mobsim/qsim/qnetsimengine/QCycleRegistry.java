@@ -0,0 +1,64 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.lanes.Lane;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Network-wide registry of the cycles of a mobsim, allowing to look up the bicycle lane and sublink of a cycle in O(1).
+ *
+ * Cycles are registered when they depart onto a bicycle lane, whereas their current lane and sublink are kept up to date by
+ * the lanes themselves, see {@link QCycle#getCurrentLane()} and {@link fastOrForcedToFollow.Cyclist#getCurrentLinkIndex()}.
+ *
+ * @author mpaulsen
+ */
+public final class QCycleRegistry {
+
+	private final ConcurrentHashMap<Id<Vehicle>, QCycle> qCycs = new ConcurrentHashMap<>();
+
+	/* package */ void register( final QCycle qCyc ){
+		qCycs.put( qCyc.getId(), qCyc );
+	}
+
+	/**
+	 * @return The cycle with the given id, or <code>null</code> if it has not yet departed onto a bicycle lane.
+	 */
+	public QCycle getQCycle( final Id<Vehicle> vehicleId ){
+		return qCycs.get( vehicleId );
+	}
+
+	/**
+	 * @return The cycle with the given id if it is currently on <code>lane</code>, and <code>null</code> otherwise.
+	 */
+	/* package */ QCycle getQCycle( final Id<Vehicle> vehicleId, final QLaneI lane ){
+		final QCycle qCyc = qCycs.get( vehicleId );
+		return qCyc != null && qCyc.getCurrentLane() == lane ? qCyc : null;
+	}
+
+	/**
+	 * @return The bicycle lane the cycle with the given id is currently on, or <code>null</code> if it is not on any.
+	 */
+	/* package */ QLaneI getLane( final Id<Vehicle> vehicleId ){
+		final QCycle qCyc = qCycs.get( vehicleId );
+		return qCyc == null ? null : qCyc.getCurrentLane();
+	}
+
+	/**
+	 * @return The id of the bicycle lane the cycle with the given id is currently on, or <code>null</code> if it is not on any.
+	 */
+	public Id<Lane> getLaneId( final Id<Vehicle> vehicleId ){
+		final QLaneI lane = getLane( vehicleId );
+		return lane == null ? null : lane.getId();
+	}
+
+	/**
+	 * @return The index of the sublink of its current lane on which the cycle with the given id is, or -1 if it is not on
+	 * any bicycle lane. Cycles waiting to leave the lane are at its last sublink.
+	 */
+	public int getSublinkIndex( final Id<Vehicle> vehicleId ){
+		final QCycle qCyc = qCycs.get( vehicleId );
+		return qCyc == null || qCyc.getCurrentLane() == null ? -1 : qCyc.getCyclist().getCurrentLinkIndex();
+	}
+}
@@ -0,0 +1,44 @@
+package org.matsim.core.trafficmonitoring;
+
+import javax.inject.Inject;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.mobsim.fff.CyclistRegistry;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.RunMatsim;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * The travel times of cyclists riding every link at their desired speed (see {@link RunMatsim#DESIRED_SPEED}), for routing
+ * bicycles on links shared with other modes (see {@link FFFConfigGroup#getMultimodalLinks()}), whose freespeeds and measured
+ * travel times are the ones of the cars. Requests without a person, or for a person who is not a cyclist, get the median
+ * desired speed of the {@link FFFConfigGroup}.
+ *
+ * @author mpaulsen
+ */
+public final class BicycleDesiredSpeedTravelTime implements TravelTime {
+
+	private final CyclistRegistry registry;
+	private final double medianDesiredSpeed;
+
+	@Inject BicycleDesiredSpeedTravelTime( final Scenario scenario ){
+		final FFFConfigGroup fffConfig = ConfigUtils.addOrGetModule( scenario.getConfig(), FFFConfigGroup.class );
+		this.registry = CyclistRegistry.get( scenario );
+		this.medianDesiredSpeed = Math.max( RunMatsim.uniformToJohnson( 0.5, fffConfig ), fffConfig.getMinimumAllowedDesiredSpeed() );
+	}
+
+	@Override public double getLinkTravelTime( final Link link, final double time, final Person person, final Vehicle vehicle ){
+		double desiredSpeed = medianDesiredSpeed;
+		if( person != null ){
+			final int index = registry.getIndex( person.getId() );
+			if( index != -1 && registry.getDesiredSpeed( index ) > 0. ){
+				desiredSpeed = registry.getDesiredSpeed( index );
+			}
+		}
+		return link.getLength() / desiredSpeed;
+	}
+}
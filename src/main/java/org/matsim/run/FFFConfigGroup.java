@@ -1,5 +1,6 @@
 package org.matsim.run;
 
+import org.matsim.core.config.Config;
 import org.matsim.core.config.ReflectiveConfigGroup;
 import org.matsim.core.config.ReflectiveConfigGroup.StringGetter;
 
@@ -31,6 +32,191 @@ public class FFFConfigGroup extends ReflectiveConfigGroup {
 	 * Maximum length [m] of link. Default is no upper bound.
 	 */
 	private double lMax = Double.MAX_VALUE;
+
+	/**
+	 * The kernel used for selecting the pseudolane of a cyclist entering a sublink.
+	 */
+	private LaneSelectionKernel laneSelectionKernel = LaneSelectionKernel.scalar;
+
+	/**
+	 * <ul>
+	 * <li> <code>scalar</code>: Evaluates the maximum speed of each pseudolane independently.
+	 * <li> <code>batched</code>: Evaluates all pseudolanes of a sublink in one pass, computing the terms only depending
+	 * on the (shared) pseudolane length once per sublink. Gives the same lane choices as <code>scalar</code>, and is
+	 * about 5 to 15 % faster on congested sublinks of 2 to 8 pseudolanes, see {@link RunLaneSelectionBenchmark}.
+	 * </ul>
+	 */
+	public enum LaneSelectionKernel { scalar, batched }
+
+	/**
+	 * The precision of the square roots evaluated in the square root headway model.
+	 */
+	private SqrtPrecision sqrtPrecision = SqrtPrecision.exact;
+
+	/**
+	 * <ul>
+	 * <li> <code>exact</code>: Uses <code>Math.sqrt</code> and <code>Math.pow</code>, reproducing the original model exactly.
+	 * <li> <code>tabulated</code>: Uses linear interpolation in a lookup table, with a relative error below 2e-8.
+	 * <li> <code>approximate</code>: Uses a bit-level initial guess and one Newton step, with a relative error below 0.2%.
+	 * </ul>
+	 */
+	public enum SqrtPrecision { exact, tabulated, approximate }
+
+	/**
+	 * Grid resolution [m/s] onto which desired speeds are quantised when creating cyclist archetypes. 0 means no quantisation.
+	 */
+	private double archetypeSpeedResolution = 0.;
+
+	/**
+	 * Grid resolution onto which theta_0, theta_1 and lambda_c are quantised when creating cyclist archetypes, which share
+	 * their link transmission model. 0 means no quantisation.
+	 */
+	private double archetypeHeadwayResolution = 0.;
+
+	/**
+	 * The way in which the cyclists of the bicycle links are scheduled.
+	 */
+	private LaneScheduling laneScheduling = LaneScheduling.perLink;
+
+	/**
+	 * <ul>
+	 * <li> <code>perLink</code>: Each bicycle link keeps a priority queue of its cyclists, and stays active while it holds cyclists.
+	 * <li> <code>timingWheel</code>: Sublink exits that are not yet due are held in a network-wide timing wheel, which hands
+	 * the cyclists back to their links, and activates these, once they are due.
+	 * <li> <code>wakeUp</code>: Each bicycle link keeps a priority queue of its cyclists, but leaves the set of active links
+	 * while none of them is due, and is woken up by the network-wide timing wheel once the first of them is due. Links
+	 * without congestion treat this as <code>timingWheel</code>.
+	 * </ul>
+	 */
+	public enum LaneScheduling { perLink, timingWheel, wakeUp }
+
+	/**
+	 * The queue ordering the cyclists of a bicycle link by their earliest sublink exit.
+	 */
+	private LaneQueue laneQueue = LaneQueue.heap;
+
+	/**
+	 * <ul>
+	 * <li> <code>heap</code>: A single priority queue per link.
+	 * <li> <code>pseudoLaneFifo</code>: A FIFO queue per pseudolane of each sublink, merged by a tournament tree. Cyclists breaking
+	 * the order of their pseudolane are kept in a separate priority queue, so the order of exits is the same as with <code>heap</code>.
+	 * </ul>
+	 */
+	public enum LaneQueue { heap, pseudoLaneFifo }
+
+	/**
+	 * The number of buckets per time step of the timing wheel.
+	 */
+	private int timingWheelBucketsPerTimeStep = 8;
+
+	/**
+	 * Whether to order the nodes of the network by a min-cut partition, such that the threads of the QSim are assigned
+	 * contiguous parts of the network and few links cross between threads. Only has an effect with more than one thread.
+	 */
+	private boolean partitionNetworkForThreads = false;
+
+	/**
+	 * Whether cyclists with equal earliest exits leave a (sub)link in the order of their vehicle ids rather than in the order in
+	 * which they have been queued. This makes the bicycle lanes independent of the number of threads of the QSim, at the cost
+	 * of comparing vehicle ids on ties. Cannot be combined with {@link #getPartitionNetworkForThreads()}, as the partition
+	 * depends on the number of threads.
+	 *
+	 * Only the events of each person are then independent of the number of threads. The events of different persons within
+	 * one time step are thrown by the threads as they get to them, and may thus be interleaved differently from run to run.
+	 */
+	private boolean deterministicTieBreaking = false;
+
+	/**
+	 * The mobsim simulating the bicycle scenario, see {@link BicycleMobsim}.
+	 */
+	private BicycleMobsim bicycleMobsim = BicycleMobsim.qsim;
+
+	/**
+	 * <ul>
+	 * <li> <code>qsim</code>: The QSim with bicycle lanes.
+	 * <li> <code>eventDriven</code>: The standalone <code>EventDrivenEngine</code>, running the same equations without the QSim.
+	 * <li> <code>validateEventDriven</code>: The QSim, additionally running the <code>EventDrivenEngine</code> after the mobsim and
+	 * logging how much its travel times differ.
+	 * <li> <code>freeFlow</code>: The <code>EventDrivenEngine</code> computing the times of the QSim with links without congestion
+	 * directly from the routes and desired speeds, see <code>EventDrivenEngine#runFreeFlow</code>.
+	 * </ul>
+	 */
+	public enum BicycleMobsim { qsim, eventDriven, validateEventDriven, freeFlow }
+
+	/**
+	 * Whether the sublinks and queues of a bicycle link are only created once the first cyclist enters it. Links that are never
+	 * used then only keep their parameters and their (reserved) slots in the sublink store.
+	 */
+	private boolean lazySublinks = false;
+
+	/**
+	 * The time [s] after which a bicycle link with lazy sublinks that has been empty is returned to its dormant state, releasing
+	 * its sublinks and queues. Positive infinity means never.
+	 */
+	private double dormantLaneIdleTime = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Whether bicycle links longer than {@link #getLMax()} are simulated as a single sublink while few cyclists are on them, and
+	 * only split into sublinks of at most <code>lMax</code> once their occupancy reaches {@link #getAdaptiveSublinkOccupancy()}.
+	 * Cannot be combined with {@link LaneScheduling#timingWheel}.
+	 */
+	private boolean adaptiveSublinks = false;
+
+	/**
+	 * The number of cyclists on a link with adaptive sublinks, as a share of its storage capacity, at which it is split into its
+	 * sublinks. It is merged into a single sublink again once fewer than half as many cyclists are on it.
+	 */
+	private double adaptiveSublinkOccupancy = 0.1;
+
+	/**
+	 * Whether the leading cyclist of a bicycle link is moved through all its sublinks at once, instead of being queued for its
+	 * exit of each sublink, until another cyclist would enter one of these sublinks before it. This gives the same results,
+	 * except that exits at exactly the same time may be ordered differently without {@link #getDeterministicTieBreaking()}.
+	 * Cannot be combined with {@link LaneScheduling#timingWheel}.
+	 */
+	private boolean fastForwardSublinks = false;
+
+	/**
+	 * Whether bicycle links switch between a free-flow and a congested mode: a cyclist entering an empty link is queued only for
+	 * its exit of the link, like on links without congestion, and the link switches to the full sublink logic once a second
+	 * cyclist enters it, and back once it has drained. The travel times are those of the full model. The time spent in each
+	 * mode is counted per link. Cannot be combined with {@link LaneScheduling#timingWheel}.
+	 */
+	private boolean hybridLanes = false;
+
+	/**
+	 * Whether the bicycles of {@link RunMatsim#createScenario} ride the links of the network, each getting a bicycle lane of
+	 * its own in the mobsim, instead of bicycle-only twins of all links. The number of pseudolanes of the bicycle lanes is then
+	 * held by a link attribute, see {@link RunMatsim#getNumberOfBicycleLanes}.
+	 */
+	private boolean multimodalLinks = false;
+
+	/**
+	 * The file of the checkpoint of the event-driven mobsim (see {@link BicycleMobsim#eventDriven}), or <code>null</code> for
+	 * no checkpoint. The checkpoint is written at {@link #checkpointTime}, and restored if {@link #resumeFromCheckpoint}.
+	 */
+	private String checkpointFile = null;
+
+	/**
+	 * The time [s] at which the event-driven mobsim writes its state to the {@link #checkpointFile}, or positive infinity for
+	 * never.
+	 */
+	private double checkpointTime = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Whether the event-driven mobsim restores its state from the {@link #checkpointFile} and continues from there, instead of
+	 * starting from the beginning. The events before the checkpoint are thrown again first, so that the events of the resumed
+	 * mobsim are complete. The checkpoint only holds for the plans it was written with, so a resumed mobsim is restricted to a
+	 * single iteration.
+	 */
+	private boolean resumeFromCheckpoint = false;
+
+	/**
+	 * Whether the sublinks of the bicycle lanes remain allocated between the iterations, only their state being reset before
+	 * each mobsim, instead of being allocated anew for every mobsim. Assumes that the network and the sublink settings do not
+	 * change between the iterations.
+	 */
+	private boolean reuseBicycleNetwork = false;
 	
 	/**
 	 * Constant term in the square root model for headway distance.
@@ -183,6 +369,174 @@ public class FFFConfigGroup extends ReflectiveConfigGroup {
 		this.lMax = lMax;
 	}
 
+	public LaneSelectionKernel getLaneSelectionKernel() {
+		return laneSelectionKernel;
+	}
+
+	public void setLaneSelectionKernel(final LaneSelectionKernel laneSelectionKernel) {
+		this.laneSelectionKernel = laneSelectionKernel;
+	}
+
+	public SqrtPrecision getSqrtPrecision() {
+		return sqrtPrecision;
+	}
+
+	public void setSqrtPrecision(final SqrtPrecision sqrtPrecision) {
+		this.sqrtPrecision = sqrtPrecision;
+	}
+
+	public double getArchetypeSpeedResolution() {
+		return archetypeSpeedResolution;
+	}
+
+	public void setArchetypeSpeedResolution(final double archetypeSpeedResolution) {
+		this.archetypeSpeedResolution = archetypeSpeedResolution;
+	}
+
+	public double getArchetypeHeadwayResolution() {
+		return archetypeHeadwayResolution;
+	}
+
+	public void setArchetypeHeadwayResolution(final double archetypeHeadwayResolution) {
+		this.archetypeHeadwayResolution = archetypeHeadwayResolution;
+	}
+
+	public LaneScheduling getLaneScheduling() {
+		return laneScheduling;
+	}
+
+	public void setLaneScheduling(final LaneScheduling laneScheduling) {
+		this.laneScheduling = laneScheduling;
+	}
+
+	public LaneQueue getLaneQueue() {
+		return laneQueue;
+	}
+
+	public void setLaneQueue(final LaneQueue laneQueue) {
+		this.laneQueue = laneQueue;
+	}
+
+	public int getTimingWheelBucketsPerTimeStep() {
+		return timingWheelBucketsPerTimeStep;
+	}
+
+	public void setTimingWheelBucketsPerTimeStep(final int timingWheelBucketsPerTimeStep) {
+		this.timingWheelBucketsPerTimeStep = timingWheelBucketsPerTimeStep;
+	}
+
+	public boolean getPartitionNetworkForThreads() {
+		return partitionNetworkForThreads;
+	}
+
+	public void setPartitionNetworkForThreads(final boolean partitionNetworkForThreads) {
+		this.partitionNetworkForThreads = partitionNetworkForThreads;
+	}
+
+	public boolean getDeterministicTieBreaking() {
+		return deterministicTieBreaking;
+	}
+
+	public void setDeterministicTieBreaking(final boolean deterministicTieBreaking) {
+		this.deterministicTieBreaking = deterministicTieBreaking;
+	}
+
+	public BicycleMobsim getBicycleMobsim() {
+		return bicycleMobsim;
+	}
+
+	public void setBicycleMobsim(final BicycleMobsim bicycleMobsim) {
+		this.bicycleMobsim = bicycleMobsim;
+	}
+
+	public boolean getLazySublinks() {
+		return lazySublinks;
+	}
+
+	public void setLazySublinks(final boolean lazySublinks) {
+		this.lazySublinks = lazySublinks;
+	}
+
+	public double getDormantLaneIdleTime() {
+		return dormantLaneIdleTime;
+	}
+
+	public void setDormantLaneIdleTime(final double dormantLaneIdleTime) {
+		this.dormantLaneIdleTime = dormantLaneIdleTime;
+	}
+
+	public boolean getAdaptiveSublinks() {
+		return adaptiveSublinks;
+	}
+
+	public void setAdaptiveSublinks(final boolean adaptiveSublinks) {
+		this.adaptiveSublinks = adaptiveSublinks;
+	}
+
+	public double getAdaptiveSublinkOccupancy() {
+		return adaptiveSublinkOccupancy;
+	}
+
+	public void setAdaptiveSublinkOccupancy(final double adaptiveSublinkOccupancy) {
+		this.adaptiveSublinkOccupancy = adaptiveSublinkOccupancy;
+	}
+
+	public boolean getFastForwardSublinks() {
+		return fastForwardSublinks;
+	}
+
+	public void setFastForwardSublinks(final boolean fastForwardSublinks) {
+		this.fastForwardSublinks = fastForwardSublinks;
+	}
+
+	public boolean getHybridLanes() {
+		return hybridLanes;
+	}
+
+	public void setHybridLanes(final boolean hybridLanes) {
+		this.hybridLanes = hybridLanes;
+	}
+
+	public boolean getMultimodalLinks() {
+		return multimodalLinks;
+	}
+
+	public void setMultimodalLinks(final boolean multimodalLinks) {
+		this.multimodalLinks = multimodalLinks;
+	}
+
+	public String getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	public void setCheckpointFile(final String checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	public double getCheckpointTime() {
+		return checkpointTime;
+	}
+
+	public void setCheckpointTime(final double checkpointTime) {
+		this.checkpointTime = checkpointTime;
+	}
+
+	public boolean getResumeFromCheckpoint() {
+		return resumeFromCheckpoint;
+	}
+
+	public void setResumeFromCheckpoint(final boolean resumeFromCheckpoint) {
+		this.resumeFromCheckpoint = resumeFromCheckpoint;
+	}
+
+	public boolean getReuseBicycleNetwork() {
+		return reuseBicycleNetwork;
+	}
+
+	public void setReuseBicycleNetwork(final boolean reuseBicycleNetwork) {
+		this.reuseBicycleNetwork = reuseBicycleNetwork;
+	}
+
 	//Remove comments once it has been fully developed (makes it available in .xml)	
 	//	@StringGetter( "standardBicycleLength" )
 	public double getLambda_c() {
@@ -197,4 +551,32 @@ public class FFFConfigGroup extends ReflectiveConfigGroup {
 	public FFFConfigGroup() {
 		super( GROUP_NAME );
 	}
+
+	/**
+	 * Rejects the options that cannot be combined: the bicycle lanes rely on being moved at every sublink exit for adaptive
+	 * sublinks, fast-forwarding and hybrid lanes, which a timing wheel does not do, and the partition of the network depends
+	 * on the number of threads, which deterministic tie-breaking is to be independent of.
+	 */
+	@Override
+	public void checkConsistency(final Config config) {
+		super.checkConsistency( config );
+		if ( laneScheduling == LaneScheduling.timingWheel ) {
+			if ( adaptiveSublinks ) {
+				throw new RuntimeException( "Adaptive sublinks cannot be combined with laneScheduling=" + laneScheduling + "." );
+			}
+			if ( fastForwardSublinks ) {
+				throw new RuntimeException( "Fast-forwarding sublinks cannot be combined with laneScheduling=" + laneScheduling + "." );
+			}
+			if ( hybridLanes ) {
+				throw new RuntimeException( "Hybrid lanes cannot be combined with laneScheduling=" + laneScheduling + "." );
+			}
+		}
+		if ( resumeFromCheckpoint && config.controler().getLastIteration() > config.controler().getFirstIteration() ) {
+			throw new RuntimeException( "Resuming from a checkpoint cannot be combined with more than one iteration, as the plans of "
+					+ "later iterations differ from the ones the checkpoint was written with." );
+		}
+		if ( partitionNetworkForThreads && deterministicTieBreaking ) {
+			throw new RuntimeException( "Partitioning the network for the threads cannot be combined with deterministic tie-breaking." );
+		}
+	}
 }
@@ -0,0 +1,120 @@
+package org.matsim.run;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.listener.AfterMobsimListener;
+import org.matsim.core.controler.listener.BeforeMobsimListener;
+
+/**
+ * Reports the speed and the accuracy of adaptive sublinks, see {@link FFFConfigGroup#getAdaptiveSublinks()}, on the Copenhagen
+ * scenario: runs the mobsim once with fine sublinks and once per adaptive sublink occupancy, and reports the time spent in the
+ * mobsim, and how the travel times of the persons deviate from the ones with fine sublinks.
+ *
+ * Runs the small scenario, or the one given by the first argument, from the {@link RunBicycleCopenhagen#inputBaseDir}.
+ *
+ * @author mpaulsen
+ */
+public class RunAdaptiveSublinksCopenhagen {
+
+	private static final double[] OCCUPANCIES = { 0.01, 0.05, 0.1, 0.2 };
+
+	public static void main(String[] args){
+		String size = "small";
+		if(args.length > 0){
+			size = args[0];
+		}
+		final TravelTimes fine = run(size, "fine", false, 0.);
+		System.out.println("Fine sublinks: mobsim " + fine.mobsimTime + " s, mean travel time " + fine.getMean() + " s.");
+		for(double occupancy : OCCUPANCIES){
+			final TravelTimes adaptive = run(size, "adaptive" + occupancy, true, occupancy);
+			int identical = 0;
+			double maxDeviation = 0.;
+			for(Map.Entry<Id<Person>, Double> entry : fine.travelTimes.entrySet()){
+				final double deviation = Math.abs(adaptive.travelTimes.getOrDefault(entry.getKey(), Double.NaN) - entry.getValue());
+				if(deviation == 0.){
+					identical++;
+				}
+				maxDeviation = Math.max(maxDeviation, deviation);
+			}
+			System.out.println("Adaptive sublinks at occupancy " + occupancy + ": mobsim " + adaptive.mobsimTime + " s, mean travel time "
+					+ adaptive.getMean() + " s (" + 100. * (adaptive.getMean() / fine.getMean() - 1.) + " %), " + identical + " of "
+					+ fine.travelTimes.size() + " persons identical, maximum deviation " + maxDeviation + " s.");
+		}
+	}
+
+	/**
+	 * Runs the mobsim once, with deterministic tie-breaking such that the runs can be compared person by person.
+	 */
+	private static TravelTimes run(String size, String name, boolean adaptiveSublinks, double occupancy){
+		Config config = RunBicycleCopenhagen.createConfig(size, 0, false);
+		config.controler().setOutputDirectory(RunBicycleCopenhagen.outputBaseDir + size + "AdaptiveSublinks/" + name);
+		FFFConfigGroup fffConfig = ConfigUtils.addOrGetModule(config, FFFConfigGroup.class);
+		fffConfig.setDeterministicTieBreaking(true);
+		fffConfig.setAdaptiveSublinks(adaptiveSublinks);
+		if(adaptiveSublinks){
+			fffConfig.setAdaptiveSublinkOccupancy(occupancy);
+		}
+
+		Controler controler = RunMatsim.createControler(RunMatsim.addCyclistAttributes(config));
+		final TravelTimes travelTimes = new TravelTimes();
+		controler.addOverridingModule( new AbstractModule(){
+			@Override public void install() {
+				this.addEventHandlerBinding().toInstance( travelTimes );
+				this.addControlerListenerBinding().toInstance( travelTimes );
+			}
+		} );
+		controler.run();
+		return travelTimes;
+	}
+
+	/**
+	 * The total travel time of each person, and the wall-clock time spent in the mobsim.
+	 */
+	private static final class TravelTimes implements PersonDepartureEventHandler, PersonArrivalEventHandler,
+			BeforeMobsimListener, AfterMobsimListener {
+		private final Map<Id<Person>, Double> travelTimes = new HashMap<>();
+		private long mobsimStart;
+		private double mobsimTime;
+
+		@Override public void handleEvent(PersonDepartureEvent event){
+			travelTimes.merge(event.getPersonId(), -event.getTime(), Double::sum);
+		}
+
+		@Override public void handleEvent(PersonArrivalEvent event){
+			travelTimes.merge(event.getPersonId(), event.getTime(), Double::sum);
+		}
+
+		@Override public void reset(int iteration){
+			travelTimes.clear();
+		}
+
+		@Override public void notifyBeforeMobsim(BeforeMobsimEvent event){
+			mobsimStart = System.nanoTime();
+		}
+
+		@Override public void notifyAfterMobsim(AfterMobsimEvent event){
+			mobsimTime = (System.nanoTime() - mobsimStart) / 1e9;
+		}
+
+		double getMean(){
+			double sum = 0.;
+			for(double travelTime : travelTimes.values()){
+				sum += travelTime;
+			}
+			return sum / travelTimes.size();
+		}
+	}
+}
@@ -52,21 +52,58 @@ public class RunBicycleCopenhagen {
 		}
 		System.out.println("Running " + size);
 
-		Config config = RunMatsim.createConfigFromExampleName("berlin");
-		config.controler().setOutputDirectory(outputBaseDir + size);
-		
-
-		
+		final String outputDirectory = outputBaseDir + size;
 		if(size.substring(0,4).equals("full")){
 			size = "full";
 		} else if(size.substring(0,5).equals("small")){
 				size = "small";
 		}
-		config.controler().setOverwriteFileSetting(OverwriteFileSetting.deleteDirectoryIfExists);
-		config.controler().setLastIteration(lastIteration);
+		Config config = createConfig(size, congestion ? lastIteration : 0, oneLane);
+		config.controler().setOutputDirectory(outputDirectory);
+
+		Scenario scenario = RunMatsim.addCyclistAttributes(config);
+
+
+		Controler controler;
+		if(congestion){
+			controler = RunMatsim.createControler(scenario);
+		} else {
+			controler = RunMatsim.createControlerWithoutCongestion(scenario);
+		}
+		controler.addOverridingModule( new AbstractModule(){
+			@Override public void install() {
+				this.bindScoringFunctionFactory().to( ScoringFunctionPenalisingCongestedTimeFactory.class ) ;
+			}
+		} );
+
+		try {			
+			controler.run();
+		} catch ( Exception ee ) {
+			ee.printStackTrace();
+		}
+		
+		
+		if(oneLane){
+			size += "OneLane";
+		}
 		if(!congestion){
-			config.controler().setLastIteration(0);
+			size += "NoCongestion";
 		}
+		ConstructSpeedFlowsFromCopenhagen.main(new String[]{size, "-1"}); //PostProcessing final iteration
+		if(lastIteration != 0){
+			ConstructSpeedFlowsFromCopenhagen.main(new String[]{size, "0"});	//PostProcessing first iteration
+		}
+
+	}
+
+	/**
+	 * @param size The population, "small" or "full", of the plans file in the {@link #inputBaseDir}.
+	 * @return The config of the Copenhagen scenario, without output directory.
+	 */
+	public static Config createConfig(String size, int lastIteration, boolean oneLane){
+		Config config = RunMatsim.createConfigFromExampleName("berlin");
+		config.controler().setOverwriteFileSetting(OverwriteFileSetting.deleteDirectoryIfExists);
+		config.controler().setLastIteration(lastIteration);
 		final List<String> networkModes = Arrays.asList( new String[]{TransportMode.bike} );
 		config.qsim().setMainModes( networkModes );
 		config.plansCalcRoute().setNetworkModes(networkModes);
@@ -148,38 +185,6 @@ public class RunBicycleCopenhagen {
 		FFFConfigGroup fffConfig = ConfigUtils.addOrGetModule(config, FFFConfigGroup.class);
 		fffConfig.setLMax(60.);
 
-		Scenario scenario = RunMatsim.addCyclistAttributes(config);
-
-
-		Controler controler;
-		if(congestion){
-			controler = RunMatsim.createControler(scenario);
-		} else {
-			controler = RunMatsim.createControlerWithoutCongestion(scenario);
-		}
-		controler.addOverridingModule( new AbstractModule(){
-			@Override public void install() {
-				this.bindScoringFunctionFactory().to( ScoringFunctionPenalisingCongestedTimeFactory.class ) ;
-			}
-		} );
-
-		try {			
-			controler.run();
-		} catch ( Exception ee ) {
-			ee.printStackTrace();
-		}
-		
-		
-		if(oneLane){
-			size += "OneLane";
-		}
-		if(!congestion){
-			size += "NoCongestion";
-		}
-		ConstructSpeedFlowsFromCopenhagen.main(new String[]{size, "-1"}); //PostProcessing final iteration
-		if(lastIteration != 0){
-			ConstructSpeedFlowsFromCopenhagen.main(new String[]{size, "0"});	//PostProcessing first iteration
-		}
-
+		return config;
 	}
 }
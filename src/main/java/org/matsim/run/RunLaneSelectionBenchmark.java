@@ -0,0 +1,108 @@
+package org.matsim.run;
+
+import java.util.Random;
+
+import fastOrForcedToFollow.Cyclist;
+import fastOrForcedToFollow.Sublink;
+import fastOrForcedToFollow.SublinkStore;
+
+/**
+ * Reports the speed of the scalar and the batched pseudolane selection, see {@link FFFConfigGroup#getLaneSelectionKernel()}, on
+ * sublinks of 2 to 8 pseudolanes: selects the pseudolanes of random cyclists entering random, congested sublinks with both
+ * kernels, alternating between them in several rounds, and reports the time per selection of the fastest round of each.
+ *
+ * The states are drawn from a fixed seed, such that the benchmark is reproducible; the number of selections per round can be
+ * given by the first argument.
+ *
+ * @author mpaulsen
+ */
+public class RunLaneSelectionBenchmark {
+
+	private static final int MIN_PSEUDOLANES = 2;
+	private static final int MAX_PSEUDOLANES = 8;
+	private static final int NUMBER_OF_STATES = 4096;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args){
+		int selections = 20000000;
+		if(args.length > 0){
+			selections = Integer.parseInt(args[0]);
+		}
+		for(int psi = MIN_PSEUDOLANES; psi <= MAX_PSEUDOLANES; psi++){
+			final Random random = new Random(4711 + psi);
+			final SublinkStore store = new SublinkStore();
+			final Sublink[] sublinks = new Sublink[NUMBER_OF_STATES];
+			final Cyclist[] cyclists = new Cyclist[NUMBER_OF_STATES];
+			for(int state = 0; state < NUMBER_OF_STATES; state++){
+				sublinks[state] = createCongestedSublink(store, psi, random);
+				cyclists[state] = Cyclist.createIndividualisedCyclistWithSqrtLTM(3. + 5. * random.nextDouble(),
+						-4. + 4. * random.nextDouble(), 0.5 + 1.5 * random.nextDouble(), 1.73);
+				cyclists[state].setTEarliestExit(0.);
+			}
+			long checksum = 0;
+			long scalarTime = Long.MAX_VALUE;
+			long batchedTime = Long.MAX_VALUE;
+			for(int round = 0; round < ROUNDS; round++){
+				// alternating which kernel goes first, such that neither profits from the warm-up of the other:
+				for(int kernel = 0; kernel < 2; kernel++){
+					final boolean batched = (round + kernel) % 2 == 1;
+					final long start = System.nanoTime();
+					final long sum = batched ? selectBatched(sublinks, cyclists, selections) : selectScalar(sublinks, cyclists, selections);
+					final long time = System.nanoTime() - start;
+					if(batched){
+						checksum -= sum;
+						batchedTime = Math.min(batchedTime, time);
+					} else {
+						checksum += sum;
+						scalarTime = Math.min(scalarTime, time);
+					}
+				}
+			}
+			if(checksum != 0){
+				throw new RuntimeException("The kernels have selected different pseudolanes on " + psi + " pseudolanes.");
+			}
+			System.out.println(psi + " pseudolanes: scalar " + (double) scalarTime / selections + " ns, batched "
+					+ (double) batchedTime / selections + " ns per selection, speed-up " + (double) scalarTime / batchedTime + ".");
+		}
+	}
+
+	/**
+	 * @return The sum of the pseudolanes selected by the scalar kernel.
+	 */
+	private static long selectScalar(final Sublink[] sublinks, final Cyclist[] cyclists, final int selections){
+		long sum = 0;
+		for(int i = 0; i < selections; i++){
+			final int state = i & (NUMBER_OF_STATES - 1);
+			sum += cyclists[state].selectPseudoLane(sublinks[state]);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return The sum of the pseudolanes selected by the batched kernel.
+	 */
+	private static long selectBatched(final Sublink[] sublinks, final Cyclist[] cyclists, final int selections){
+		long sum = 0;
+		for(int i = 0; i < selections; i++){
+			final int state = i & (NUMBER_OF_STATES - 1);
+			sum += cyclists[state].selectPseudoLaneBatched(sublinks[state]);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return A sublink whose pseudolanes have all been entered recently by cyclists at random speeds, such that no cyclist enters
+	 * it freely and most selections have to look at several pseudolanes.
+	 */
+	private static Sublink createCongestedSublink(final SublinkStore store, final int psi, final Random random){
+		final double length = 5. + 55. * random.nextDouble();
+		final Sublink sublink = Sublink.createLinkFromNumberOfPseudoLanes(store, psi, length);
+		for(int i = 0; i < psi; i++){
+			final int pseudoLane = sublink.getPseudoLane(i);
+			final double tEnd = 1. + 20. * random.nextDouble();
+			store.setTReady(pseudoLane, tEnd - length / (0.5 + 9.5 * random.nextDouble()));
+			sublink.setTEnd(pseudoLane, tEnd);
+		}
+		return sublink;
+	}
+}
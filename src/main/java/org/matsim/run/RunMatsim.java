@@ -47,9 +47,18 @@ import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
 import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ActivityParams;
 import org.matsim.core.config.groups.QSimConfigGroup;
 import org.matsim.core.config.groups.StrategyConfigGroup.StrategySettings;
+import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.mobsim.fff.CyclistRegistry;
+import org.matsim.core.mobsim.fff.EventDrivenFFFMobsim;
+import org.matsim.core.mobsim.fff.EventDrivenFFFValidator;
 import org.matsim.core.mobsim.qsim.AbstractQSimModule;
+import org.matsim.core.mobsim.qsim.qnetsimengine.BicycleNetworkPartitioner;
+import org.matsim.core.mobsim.qsim.qnetsimengine.BicycleNetworkCache;
+import org.matsim.core.mobsim.qsim.qnetsimengine.CycleTimingWheel;
+import org.matsim.core.mobsim.qsim.qnetsimengine.DormantLaneCompactor;
+import org.matsim.core.mobsim.qsim.qnetsimengine.HybridLaneStatistics;
 import org.matsim.core.mobsim.qsim.qnetsimengine.MadsQNetworkFactory;
 import org.matsim.core.mobsim.qsim.qnetsimengine.MadsQNetworkFactoryWithoutCongestion;
 import org.matsim.core.mobsim.qsim.qnetsimengine.MadsQVehicleFactory;
@@ -58,6 +67,7 @@ import org.matsim.core.mobsim.qsim.qnetsimengine.QVehicleFactory;
 import org.matsim.core.replanning.strategies.DefaultPlanStrategiesModule.DefaultSelector;
 import org.matsim.core.replanning.strategies.DefaultPlanStrategiesModule.DefaultStrategy;
 import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.trafficmonitoring.BicycleDesiredSpeedTravelTime;
 import org.matsim.core.utils.io.IOUtils;
 import org.matsim.examples.ExamplesUtils;
 import org.matsim.vehicles.VehicleType;
@@ -74,6 +84,11 @@ public class RunMatsim {
 	public static final String HEADWAY_DISTANCE_INTERCEPT = "theta_0";
 	public static final String HEADWAY_DISTANCE_SLOPE= "theta_1";
 	public static final String BICYCLE_LENGTH = "lambda_c";
+	/**
+	 * Link attribute holding the number of pseudolanes of the bicycle lane of a link shared with other modes, see
+	 * {@link #getNumberOfBicycleLanes(Link)}.
+	 */
+	public static final String NUMBER_OF_BICYCLE_LANES = "bicycleLanes";
 	public static final long RANDOM_SEED = 5355633;
 
 	public static void main(String[] args) {
@@ -165,12 +180,22 @@ public class RunMatsim {
 			person.getAttributes().putAttribute(HEADWAY_DISTANCE_SLOPE, theta_1);
 			person.getAttributes().putAttribute(BICYCLE_LENGTH, fffConfig.getLambda_c());
 		}
+		CyclistRegistry.addToScenario(scenario);
 
 		VehicleType type = new VehicleTypeImpl( Id.create( TransportMode.bike, VehicleType.class  ) ) ;
 		scenario.getVehicles().addVehicleType( type );
 		return scenario;
 	}
 
+	/**
+	 * @return The number of pseudolanes of the bicycle lane of <code>link</code>: the {@link #NUMBER_OF_BICYCLE_LANES} attribute
+	 * if given (for links shared with other modes), and otherwise the number of lanes of the link.
+	 */
+	public static int getNumberOfBicycleLanes(final Link link){
+		final Object bicycleLanes = link.getAttributes().getAttribute(NUMBER_OF_BICYCLE_LANES);
+		return bicycleLanes == null ? (int) link.getNumberOfLanes() : ((Number) bicycleLanes).intValue();
+	}
+
 	public static Scenario createScenario(Config config, int lanesPerLink, boolean useRandomActivityLocations){
 
 
@@ -190,6 +215,8 @@ public class RunMatsim {
 
 		final FFFConfigGroup fffConfig = ConfigUtils.addOrGetModule(config, FFFConfigGroup.class);
 		final Population population= scenario.getPopulation() ;
+		// the bicycles either ride the links of the network, or twins of them:
+		final String bicycleLinkSuffix = fffConfig.getMultimodalLinks() ? "" : "_" + TransportMode.bike;
 
 		int linkInt = 0;
 		for ( Person person : population.getPersons().values() ) {
@@ -229,9 +256,9 @@ public class RunMatsim {
 							//	act.setLinkId(null);
 						} else {
 							if(n < N  || N == 2){
-								act.setLinkId(Id.createLinkId(((linkInt % L) +1) + "_" + TransportMode.bike));
+								act.setLinkId(Id.createLinkId(((linkInt % L) +1) + bicycleLinkSuffix));
 							} else{
-								act.setLinkId(Id.createLinkId((firstLinkInt % L) +1 + "_" + TransportMode.bike));
+								act.setLinkId(Id.createLinkId((firstLinkInt % L) +1 + bicycleLinkSuffix));
 							}
 							linkInt+=linkStepSize;
 							n++;
@@ -247,6 +274,15 @@ public class RunMatsim {
 		final NetworkFactory nf = network.getFactory();
 		LinkedList<Link> bikeLinks = new LinkedList<Link>();
 		for(Link link : network.getLinks().values()){
+			if(fffConfig.getMultimodalLinks()){
+				// the link gets a bicycle lane of its own in the mobsim, see MadsQNetworkFactory, and the bicycles are routed by
+				// their desired speeds rather than by the freespeed of the link, see addBicycleTravelTime:
+				Set<String> set = new HashSet<>(link.getAllowedModes());
+				set.add(TransportMode.bike);
+				link.setAllowedModes(set);
+				link.getAttributes().putAttribute(NUMBER_OF_BICYCLE_LANES, lanesPerLink);
+				continue;
+			}
 			{
 				Set<String> set = new HashSet<>();
 				for(String allowedMode : link.getAllowedModes()){
@@ -290,6 +326,7 @@ public class RunMatsim {
 			scenario.getVehicles().addVehicleType( type );
 		}
 
+		CyclistRegistry.addToScenario(scenario);
 
 		return scenario;
 
@@ -297,6 +334,7 @@ public class RunMatsim {
 
 
 	public static Controler createControler(Scenario scenario){
+		partitionNetworkForThreads(scenario);
 		Controler controler = new Controler( scenario ) ;
 
 
@@ -308,12 +346,19 @@ public class RunMatsim {
 			}
 
 		});
+		addTimingWheel(controler);
+		addDormantLaneCompactor(controler);
+		addHybridLaneStatistics(controler);
+		addBicycleNetworkCache(controler);
+		addEventDrivenMobsim(controler);
+		addBicycleTravelTime(controler);
 
 		return controler;
 	}
 	
 	
 	public static Controler createControlerWithoutCongestion(Scenario scenario){
+		partitionNetworkForThreads(scenario);
 		Controler controler = new Controler( scenario ) ;
 
 
@@ -325,10 +370,126 @@ public class RunMatsim {
 			}
 
 		});
+		addTimingWheel(controler);
+		addEventDrivenMobsim(controler);
+		addBicycleTravelTime(controler);
 
 		return controler;
 	}
 
+	/**
+	 * Routes the bicycles by their desired speeds if they share the links with other modes, as configured in the
+	 * {@link FFFConfigGroup}, since the freespeeds and the measured travel times of these links are the ones of the cars.
+	 */
+	private static void addBicycleTravelTime(Controler controler){
+		final FFFConfigGroup fffConfig = ConfigUtils.addOrGetModule(controler.getConfig(), FFFConfigGroup.class);
+		if(!fffConfig.getMultimodalLinks()){
+			return;
+		}
+		controler.addOverridingModule(new AbstractModule() {
+			@Override
+			public void install() {
+				this.addTravelTimeBinding( TransportMode.bike ).to( BicycleDesiredSpeedTravelTime.class );
+			}
+		});
+	}
+
+	/**
+	 * Orders the nodes of the network such that the round-robin assignment of nodes to the threads of the QSim follows a
+	 * min-cut partition of the network, if so configured in the {@link FFFConfigGroup}.
+	 * 
+	 * Cannot be combined with deterministic tie-breaking: The random numbers of the nodes are seeded in the order of the network,
+	 * so a node order depending on the number of threads would make the results depend on it, too.
+	 */
+	private static void partitionNetworkForThreads(Scenario scenario){
+		final FFFConfigGroup fffConfig = ConfigUtils.addOrGetModule(scenario.getConfig(), FFFConfigGroup.class);
+		if(fffConfig.getPartitionNetworkForThreads()){
+			BicycleNetworkPartitioner.orderNodesByPartition(scenario.getNetwork(), scenario.getConfig().qsim().getNumberOfThreads());
+		}
+	}
+
+	/**
+	 * Replaces the QSim by the standalone event-driven engine, or validates the engine against the QSim, if so configured in
+	 * the {@link FFFConfigGroup}.
+	 */
+	private static void addEventDrivenMobsim(Controler controler){
+		final FFFConfigGroup fffConfig = ConfigUtils.addOrGetModule(controler.getConfig(), FFFConfigGroup.class);
+		controler.addOverridingModule(new AbstractModule() {
+			@Override
+			public void install() {
+				switch( fffConfig.getBicycleMobsim() ){
+				case eventDriven:
+				case freeFlow:
+					this.bindMobsim().to( EventDrivenFFFMobsim.class );
+					break;
+				case validateEventDriven:
+					this.bind( EventDrivenFFFValidator.class ).asEagerSingleton();
+					this.addEventHandlerBinding().to( EventDrivenFFFValidator.class );
+					this.addControlerListenerBinding().to( EventDrivenFFFValidator.class );
+					break;
+				case qsim:
+					break;
+				default:
+					throw new RuntimeException( "not implemented" );
+				}
+			}
+		});
+	}
+
+	/**
+	 * Binds the compactor returning empty bicycle lanes to their dormant state, which is run before every time step of the mobsim.
+	 * It is only used by the lanes if so configured in the {@link FFFConfigGroup}.
+	 */
+	private static void addDormantLaneCompactor(Controler controler){
+		controler.addOverridingModule(new AbstractModule() {
+			@Override
+			public void install() {
+				this.bind( DormantLaneCompactor.class ).asEagerSingleton();
+				this.addMobsimListenerBinding().to( DormantLaneCompactor.class );
+			}
+		});
+	}
+
+	/**
+	 * Binds the statistics of the time the hybrid bicycle lanes spend in free-flow and in congested mode, which are logged
+	 * before the mobsim is cleaned up. They are only collected if so configured in the {@link FFFConfigGroup}.
+	 */
+	private static void addHybridLaneStatistics(Controler controler){
+		controler.addOverridingModule(new AbstractModule() {
+			@Override
+			public void install() {
+				this.bind( HybridLaneStatistics.class ).asEagerSingleton();
+				this.addMobsimListenerBinding().to( HybridLaneStatistics.class );
+			}
+		});
+	}
+
+	/**
+	 * Binds the bicycle network kept between the iterations, which is only used if so configured in the {@link FFFConfigGroup}.
+	 */
+	private static void addBicycleNetworkCache(Controler controler){
+		controler.addOverridingModule(new AbstractModule() {
+			@Override
+			public void install() {
+				this.bind( BicycleNetworkCache.class ).asEagerSingleton();
+			}
+		});
+	}
+
+	/**
+	 * Binds the network-wide timing wheel of the bicycle lanes, which is advanced before every time step of the mobsim.
+	 * It is only used by the lanes if so configured in the {@link FFFConfigGroup}.
+	 */
+	private static void addTimingWheel(Controler controler){
+		controler.addOverridingModule(new AbstractModule() {
+			@Override
+			public void install() {
+				this.bind( CycleTimingWheel.class ).asEagerSingleton();
+				this.addMobsimListenerBinding().to( CycleTimingWheel.class );
+			}
+		});
+	}
+
 
 
 	/**
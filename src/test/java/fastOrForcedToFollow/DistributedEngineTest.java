@@ -0,0 +1,104 @@
+package fastOrForcedToFollow;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.run.BicycleGridFixture;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.FFFConfigGroup.SqrtPrecision;
+
+import java.io.File;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link DistributedEngine} against the {@link EventDrivenEngine}, with a coordinator and two
+ * {@link DistributedRegion}s connected over the loopback interface. The first region runs in a JVM of its own, started with the
+ * class path of the test, and the others in threads of the test JVM.
+ *
+ * The cyclists are quantised onto archetypes with tabulated square roots, such that the regions only reproduce the single
+ * engine if they receive these settings from the coordinator.
+ *
+ * @author mpaulsen
+ */
+public class DistributedEngineTest {
+
+	private static final int NUMBER_OF_REGIONS = 2;
+
+	@Test(timeout = 60000)
+	public void testDistributedEngineEqualsSingleEngine() throws Exception{
+		final FFFConfigGroup fffConfig = new FFFConfigGroup();
+		fffConfig.setLMax( 60. );
+		fffConfig.setSqrtPrecision( SqrtPrecision.tabulated );
+		fffConfig.setArchetypeSpeedResolution( 0.1 );
+		fffConfig.setArchetypeHeadwayResolution( 0.05 );
+		final BicycleGridFixture fixture = new BicycleGridFixture( fffConfig, 800, 4711 );
+
+		final EventDrivenEngine engine = fixture.createEngine();
+		engine.run( Double.POSITIVE_INFINITY );
+
+		// alternating regions, such that nearly every node is on a region border:
+		final int[] regions = new int[fixture.getNumberOfLinks()];
+		for(int link = 0; link < regions.length; link++){
+			regions[link] = link % NUMBER_OF_REGIONS;
+		}
+		final DistributedEngine distributedEngine = new DistributedEngine( fixture.getLengths(), fixture.getNumbersOfPseudoLanes(),
+				regions, NUMBER_OF_REGIONS, fffConfig, BicycleGridFixture.TIME_STEP_SIZE, BicycleGridFixture.STUCK_TIME );
+		for(int trip = 0; trip < fixture.getNumberOfTrips(); trip++){
+			final double[] p = fixture.getCyclistParameters( trip );
+			distributedEngine.addTrip( p[0], p[1], p[2], p[3], fixture.getRoute( trip ), fixture.getPlannedDepartureTime( trip ),
+					fixture.getPreviousTrip( trip ), fixture.getActivityDuration( trip ) );
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool( NUMBER_OF_REGIONS - 1 );
+		Process process = null;
+		try( ServerSocket server = new ServerSocket( 0, NUMBER_OF_REGIONS, InetAddress.getLoopbackAddress() ) ){
+			final String[] args = { server.getInetAddress().getHostAddress(), String.valueOf( server.getLocalPort() ) };
+			process = new ProcessBuilder( System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java",
+					"-cp", System.getProperty( "java.class.path" ), DistributedRegion.class.getName(), args[0], args[1] )
+					.inheritIO().start();
+			final List<Future<Void>> regionRuns = new ArrayList<>();
+			for(int region = 1; region < NUMBER_OF_REGIONS; region++){
+				regionRuns.add( executor.submit( () -> {
+					DistributedRegion.main( args );
+					return null;
+				} ) );
+			}
+			distributedEngine.run( Double.POSITIVE_INFINITY, server );
+			for(Future<Void> regionRun : regionRuns){
+				regionRun.get();
+			}
+			Assert.assertTrue( "The region process has not finished", process.waitFor( 10, TimeUnit.SECONDS ) );
+			Assert.assertEquals( "Exit value of the region process", 0, process.exitValue() );
+		} finally {
+			executor.shutdownNow();
+			if( process != null ){
+				process.destroyForcibly();
+			}
+		}
+
+		int borderCrossings = 0;
+		for(int trip = 0; trip < fixture.getNumberOfTrips(); trip++){
+			Assert.assertFalse( "Trip " + trip + " has not arrived", Double.isNaN( engine.getArrivalTime( trip ) ) );
+			Assert.assertEquals( "Departure of trip " + trip, engine.getDepartureTime( trip ), distributedEngine.getDepartureTime( trip ), 0. );
+			Assert.assertEquals( "Arrival of trip " + trip, engine.getArrivalTime( trip ), distributedEngine.getArrivalTime( trip ), 0. );
+			final int[] route = fixture.getRoute( trip );
+			for(int routeIndex = 0; routeIndex < route.length; routeIndex++){
+				Assert.assertEquals( "Entering link " + routeIndex + " of trip " + trip, engine.getLinkEnterTime( trip, routeIndex ),
+						distributedEngine.getLinkEnterTime( trip, routeIndex ), 0. );
+				Assert.assertEquals( "Leaving link " + routeIndex + " of trip " + trip, engine.getLinkLeaveTime( trip, routeIndex ),
+						distributedEngine.getLinkLeaveTime( trip, routeIndex ), 0. );
+				if( routeIndex > 0 && regions[route[routeIndex]] != regions[route[routeIndex-1]] ){
+					borderCrossings++;
+				}
+			}
+		}
+		Assert.assertTrue( "Too few cyclists have crossed region borders: " + borderCrossings,
+				borderCrossings > fixture.getNumberOfTrips() );
+	}
+}
@@ -0,0 +1,353 @@
+package fastOrForcedToFollow;
+
+import fastOrForcedToFollow.EventDrivenEngine.TripListener;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.run.BicycleGridFixture;
+import org.matsim.run.FFFConfigGroup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Tests the {@link EventDrivenEngine} against a stepped reference, which visits every time step and keeps its state in
+ * collections, but applies the same FFF equations in the same order of nodes, sublinks, departures and waiting cyclists.
+ * Also tests resuming a run from a checkpoint.
+ *
+ * @author mpaulsen
+ */
+public class EventDrivenEngineTest {
+
+	/**
+	 * The time [s] of the checkpoint, while the first trips of the fixture are still departing.
+	 */
+	private static final double CHECKPOINT_TIME = 1200.;
+
+	@Test
+	public void testEngineEqualsSteppedReference(){
+		final FFFConfigGroup fffConfig = new FFFConfigGroup();
+		fffConfig.setLMax( 60. );
+		final BicycleGridFixture fixture = new BicycleGridFixture( fffConfig, 800, 4711 );
+
+		final EventDrivenEngine engine = fixture.createEngine();
+		engine.run( Double.POSITIVE_INFINITY );
+		final SteppedReference reference = new SteppedReference( fixture );
+		reference.run();
+
+		int delayed = 0;
+		for(int trip = 0; trip < fixture.getNumberOfTrips(); trip++){
+			Assert.assertFalse( "Trip " + trip + " has not arrived", Double.isNaN( engine.getArrivalTime( trip ) ) );
+			Assert.assertEquals( "Departure of trip " + trip, reference.departureTimes[trip], engine.getDepartureTime( trip ), 0. );
+			Assert.assertEquals( "Arrival of trip " + trip, reference.arrivalTimes[trip], engine.getArrivalTime( trip ), 0. );
+			if( engine.getTravelTime( trip ) > getFreeFlowTravelTime( fixture, trip ) + fixture.getRoute( trip ).length ){
+				delayed++;
+			}
+		}
+		// the fixture has to be congested for the test to be meaningful:
+		Assert.assertTrue( "Too few trips have been delayed by others: " + delayed, delayed > fixture.getNumberOfTrips() / 10 );
+	}
+
+	/**
+	 * A run interrupted by a checkpoint and resumed from it gives the same times as an uninterrupted run, and, together with the
+	 * events reported again after restoring the checkpoint, the same events.
+	 */
+	@Test
+	public void testResumedRunEqualsUninterruptedRun() throws IOException{
+		final FFFConfigGroup fffConfig = new FFFConfigGroup();
+		fffConfig.setLMax( 60. );
+		final BicycleGridFixture fixture = new BicycleGridFixture( fffConfig, 800, 4711 );
+
+		final EventDrivenEngine uninterrupted = fixture.createEngine();
+		final EventRecorder uninterruptedEvents = new EventRecorder();
+		uninterrupted.setTripListener( uninterruptedEvents );
+		uninterrupted.run( Double.POSITIVE_INFINITY );
+
+		final EventDrivenEngine interrupted = fixture.createEngine();
+		interrupted.run( CHECKPOINT_TIME );
+		final ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+		interrupted.writeCheckpoint( new DataOutputStream( checkpoint ) );
+
+		final EventDrivenEngine resumed = fixture.createEngine();
+		final EventRecorder resumedEvents = new EventRecorder();
+		resumed.setTripListener( resumedEvents );
+		resumed.readCheckpoint( new DataInputStream( new ByteArrayInputStream( checkpoint.toByteArray() ) ) );
+		resumed.reportPastEvents();
+		resumed.run( Double.POSITIVE_INFINITY );
+
+		int open = 0;
+		for(int trip = 0; trip < fixture.getNumberOfTrips(); trip++){
+			Assert.assertEquals( "Departure of trip " + trip, uninterrupted.getDepartureTime( trip ), resumed.getDepartureTime( trip ), 0. );
+			Assert.assertEquals( "Arrival of trip " + trip, uninterrupted.getArrivalTime( trip ), resumed.getArrivalTime( trip ), 0. );
+			for(int routeIndex = 0; routeIndex < fixture.getRoute( trip ).length; routeIndex++){
+				Assert.assertEquals( "Link enter of trip " + trip, uninterrupted.getLinkEnterTime( trip, routeIndex ),
+						resumed.getLinkEnterTime( trip, routeIndex ), 0. );
+			}
+			if( uninterrupted.getDepartureTime( trip ) <= CHECKPOINT_TIME && uninterrupted.getArrivalTime( trip ) > CHECKPOINT_TIME ){
+				open++;
+			}
+		}
+		Assert.assertEquals( uninterruptedEvents.getSortedEvents(), resumedEvents.getSortedEvents() );
+		// the checkpoint has to interrupt trips for the test to be meaningful:
+		Assert.assertTrue( "Too few trips are interrupted by the checkpoint: " + open, open > 10 );
+	}
+
+	/**
+	 * An engine for free flow only allocates no sublinks, and gives the same free-flow times and events as an engine with
+	 * sublinks.
+	 */
+	@Test
+	public void testFreeFlowEngineEqualsEngineWithSublinks(){
+		final FFFConfigGroup fffConfig = new FFFConfigGroup();
+		fffConfig.setLMax( 60. );
+		final BicycleGridFixture fixture = new BicycleGridFixture( fffConfig, 800, 4711 );
+
+		final EventDrivenEngine withSublinks = fixture.createEngine();
+		final EventRecorder withSublinksEvents = new EventRecorder();
+		withSublinks.setTripListener( withSublinksEvents );
+		withSublinks.runFreeFlow( Double.POSITIVE_INFINITY, 2 );
+
+		final EventDrivenEngine freeFlow = EventDrivenEngine.createFreeFlowEngine( fixture.getLengths(), fffConfig,
+				BicycleGridFixture.TIME_STEP_SIZE );
+		for(int trip = 0; trip < fixture.getNumberOfTrips(); trip++){
+			freeFlow.addTrip( fixture.createCyclist( trip ), fixture.getRoute( trip ), fixture.getPlannedDepartureTime( trip ),
+					fixture.getPreviousTrip( trip ), fixture.getActivityDuration( trip ) );
+		}
+		final EventRecorder freeFlowEvents = new EventRecorder();
+		freeFlow.setTripListener( freeFlowEvents );
+		freeFlow.runFreeFlow( Double.POSITIVE_INFINITY, 2 );
+
+		Assert.assertEquals( 0, freeFlow.getStore().getNumberOfSublinks() );
+		for(int trip = 0; trip < fixture.getNumberOfTrips(); trip++){
+			Assert.assertEquals( "Arrival of trip " + trip, withSublinks.getArrivalTime( trip ), freeFlow.getArrivalTime( trip ), 0. );
+		}
+		Assert.assertEquals( withSublinksEvents.getSortedEvents(), freeFlowEvents.getSortedEvents() );
+	}
+
+	/**
+	 * Records the events of the trips, apart from the ends of the steps, which are reported for every step in which the engine
+	 * has done something, but only for the steps with events when reported again.
+	 */
+	private static final class EventRecorder implements TripListener {
+		private final List<String> events = new ArrayList<>();
+
+		private void record( final double time, final String event ){
+			events.add( String.format( "%09.1f %s", time, event ) );
+		}
+
+		@Override public void departed( final int trip, final double time ){
+			record( time, "departed " + trip );
+		}
+
+		@Override public void enteredTraffic( final int trip, final double time ){
+			record( time, "enteredTraffic " + trip );
+		}
+
+		@Override public void leftLink( final int trip, final int routeIndex, final double time ){
+			record( time, "leftLink " + trip + " " + routeIndex );
+		}
+
+		@Override public void enteredLink( final int trip, final int routeIndex, final double time ){
+			record( time, "enteredLink " + trip + " " + routeIndex );
+		}
+
+		@Override public void arrived( final int trip, final double time ){
+			record( time, "arrived " + trip );
+		}
+
+		@Override public void stepDone( final double time ){
+		}
+
+		/**
+		 * @return The events, in the order of their times, and within a time in an order independent of the run.
+		 */
+		List<String> getSortedEvents(){
+			final List<String> sorted = new ArrayList<>( events );
+			Collections.sort( sorted );
+			return sorted;
+		}
+	}
+
+	/**
+	 * @return The time [s] it takes to ride the route of the trip at the desired speed, from the end of its first link.
+	 */
+	private static double getFreeFlowTravelTime( final BicycleGridFixture fixture, final int trip ){
+		final int[] route = fixture.getRoute( trip );
+		double travelTime = 0.;
+		for(int i = 1; i < route.length; i++){
+			travelTime += fixture.getLengths()[route[i]] / fixture.getCyclistParameters( trip )[0];
+		}
+		return travelTime;
+	}
+
+	/**
+	 * Runs the trips of a fixture one time step after the other, as the QSim.
+	 */
+	private static final class SteppedReference {
+		private final SublinkStore store = new SublinkStore();
+		private final Sublink[][] sublinks;
+		private final double correctionFactor;
+
+		private final int numberOfTrips;
+		private final int[][] routes;
+		private final Cyclist[] cyclists;
+		private final int[] routeIndices;
+		private final double[] departureTimes;
+		private final double[] arrivalTimes;
+		private final BicycleGridFixture fixture;
+
+		private final List<ArrayDeque<Integer>> atEnd = new ArrayList<>();
+		private final List<ArrayDeque<Integer>> waiting = new ArrayList<>();
+		private final LinkedHashSet<Integer> offeringLinks = new LinkedHashSet<>();
+		private final LinkedHashSet<Integer> waitingLinks = new LinkedHashSet<>();
+		private final PriorityQueue<Integer> exits;
+		private final PriorityQueue<double[]> departures = new PriorityQueue<>(
+				Comparator.<double[]>comparingDouble( d -> d[0] ).thenComparingDouble( d -> d[1] ) );
+
+		SteppedReference( final BicycleGridFixture fixture ){
+			this.fixture = fixture;
+			this.correctionFactor = fixture.getFFFConfig().getCorrectionFactor();
+			this.sublinks = new Sublink[fixture.getNumberOfLinks()][];
+			for(int link = 0; link < sublinks.length; link++){
+				sublinks[link] = Sublink.createLinkArrayFromNumberOfPseudoLanes( store, fixture.getNumbersOfPseudoLanes()[link],
+						fixture.getLengths()[link], fixture.getFFFConfig().getLMax() );
+				atEnd.add( new ArrayDeque<>() );
+				waiting.add( new ArrayDeque<>() );
+			}
+			this.numberOfTrips = fixture.getNumberOfTrips();
+			this.routes = new int[numberOfTrips][];
+			this.cyclists = new Cyclist[numberOfTrips];
+			this.routeIndices = new int[numberOfTrips];
+			this.departureTimes = new double[numberOfTrips];
+			this.arrivalTimes = new double[numberOfTrips];
+			Arrays.fill( arrivalTimes, Double.NaN );
+			for(int trip = 0; trip < numberOfTrips; trip++){
+				routes[trip] = fixture.getRoute( trip );
+				cyclists[trip] = fixture.createCyclist( trip );
+				if( fixture.getPreviousTrip( trip ) == -1 ){
+					departures.add( new double[] { fixture.getPlannedDepartureTime( trip ), trip } );
+				}
+			}
+			this.exits = new PriorityQueue<>( Comparator.<Integer>comparingDouble( trip -> cyclists[trip].getTEarliestExit() )
+					.thenComparingInt( trip -> trip ) );
+		}
+
+		void run(){
+			int arrived = 0;
+			for(double now = 0.; arrived < numberOfTrips; now += BicycleGridFixture.TIME_STEP_SIZE){
+				moveNodes( now );
+				arrived += moveSublinks( now );
+				moveDeparturesAndWaiting( now );
+			}
+		}
+
+		private void moveNodes( final double now ){
+			final List<Integer> links = new ArrayList<>( offeringLinks );
+			offeringLinks.clear();
+			for(int link : links){
+				final Sublink lastSublink = sublinks[link][sublinks[link].length - 1];
+				final boolean stuck = now - lastSublink.getLastTimeMoved() > BicycleGridFixture.STUCK_TIME;
+				while( !atEnd.get( link ).isEmpty() ){
+					final int trip = atEnd.get( link ).peek();
+					final Sublink firstSublink = sublinks[routes[trip][routeIndices[trip] + 1]][0];
+					if( firstSublink.isLinkFull() && !stuck ){
+						break;
+					}
+					atEnd.get( link ).poll();
+					routeIndices[trip]++;
+					enter( cyclists[trip], firstSublink );
+					cyclists[trip].resetCurrentLinkIndex();
+					exits.add( trip );
+				}
+				if( !atEnd.get( link ).isEmpty() ){
+					offeringLinks.add( link );
+				}
+			}
+		}
+
+		/**
+		 * @return The number of trips arrived.
+		 */
+		private int moveSublinks( final double now ){
+			int arrived = 0;
+			while( !exits.isEmpty() && cyclists[exits.peek()].getTEarliestExit() <= now ){
+				final int trip = exits.poll();
+				final Cyclist cyclist = cyclists[trip];
+				final int link = routes[trip][routeIndices[trip]];
+				final Sublink sublink = sublinks[link][cyclist.getCurrentLinkIndex()];
+				sublink.reduceOccupiedSpace( cyclist, cyclist.getSpeed() );
+				if( cyclist.getCurrentLinkIndex() < sublinks[link].length - 1 ){
+					enter( cyclist, sublinks[link][cyclist.getCurrentLinkIndex() + 1] );
+					cyclist.incrementCurrentLinkIndex();
+					exits.add( trip );
+				} else if( routeIndices[trip] == routes[trip].length - 1 ){
+					arrivalTimes[trip] = now;
+					arrived++;
+					final int next = trip + 1;
+					if( next < numberOfTrips && fixture.getPreviousTrip( next ) == trip ){
+						departures.add( new double[] { now + fixture.getActivityDuration( next ), next } );
+					}
+				} else {
+					sublink.setLastTimeMoved( cyclist.getTEarliestExit() );
+					atEnd.get( link ).add( trip );
+					offeringLinks.add( link );
+				}
+			}
+			return arrived;
+		}
+
+		private void moveDeparturesAndWaiting( final double now ){
+			while( !departures.isEmpty() && departures.peek()[0] <= now ){
+				final int trip = (int) departures.poll()[1];
+				departureTimes[trip] = now;
+				waiting.get( routes[trip][0] ).add( trip );
+				waitingLinks.add( routes[trip][0] );
+			}
+			final List<Integer> links = new ArrayList<>( waitingLinks );
+			waitingLinks.clear();
+			for(int link : links){
+				final Sublink[] linkSublinks = sublinks[link];
+				while( !waiting.get( link ).isEmpty() && !linkSublinks[0].isLinkFull() ){
+					final int trip = waiting.get( link ).poll();
+					routeIndices[trip] = 0;
+					cyclists[trip].setCurrentLinkIndex( linkSublinks.length - 1 );
+					linkSublinks[linkSublinks.length - 1].setLastTimeMoved( now );
+					cyclists[trip].setTEarliestExit( now );
+					atEnd.get( link ).add( trip );
+					offeringLinks.add( link );
+				}
+				if( !waiting.get( link ).isEmpty() ){
+					waitingLinks.add( link );
+				}
+			}
+		}
+
+		/**
+		 * The FFF equations of a cyclist entering a sublink.
+		 */
+		private void enter( final Cyclist cyclist, final Sublink sublink ){
+			final int pseudoLane = cyclist.selectPseudoLane( sublink );
+			final double speed = Math.min( cyclist.getDesiredSpeed(), cyclist.getVMax( store, pseudoLane ) );
+			cyclist.setSpeed( speed );
+			cyclist.setCurrentPseudoLane( pseudoLane );
+			final double tStart = Math.max( store.getTReady( pseudoLane ), cyclist.getTEarliestExit() );
+			cyclist.setTEarliestExit( tStart + store.getLength( pseudoLane ) / speed );
+			sublink.increaseOccupiedSpace( cyclist, speed );
+			final double tOneBicycleLength = cyclist.getBicycleLength() / speed;
+			final double surplus = store.getLength( pseudoLane ) / speed * (correctionFactor - 1);
+			store.setTReady( pseudoLane, tStart + tOneBicycleLength + surplus );
+			sublink.setTEnd( pseudoLane, cyclist.getTEarliestExit() + tOneBicycleLength + surplus );
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package fastOrForcedToFollow;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.run.FFFConfigGroup.SqrtPrecision;
+
+import java.util.Random;
+
+/**
+ * Tests the lane selection of {@link SqrtLTM} on random pseudolane states: the batched kernel against the scalar one, and the
+ * tabulated and approximate square roots against the exact ones.
+ *
+ * @author mpaulsen
+ */
+public class SqrtLTMTest {
+
+	private static final int NUMBER_OF_STATES = 100000;
+
+	@Test
+	public void testBatchedSelectionEqualsScalarSelection(){
+		for(SqrtPrecision precision : SqrtPrecision.values()){
+			final Random random = new Random( 4711 );
+			for(int state = 0; state < NUMBER_OF_STATES; state++){
+				final SublinkStore store = new SublinkStore();
+				final Sublink sublink = createRandomSublink( store, random );
+				final SqrtLTM ltm = createRandomLTM( random, precision );
+				final double desiredSpeed = 2. + 8. * random.nextDouble();
+				Assert.assertEquals( "Lane choice of state " + state + " with " + precision + " square roots",
+						ltm.selectPseudoLane( sublink, desiredSpeed, 0. ), ltm.selectPseudoLaneBatched( sublink, desiredSpeed, 0. ) );
+			}
+		}
+	}
+
+	@Test
+	public void testExactSpeedsEqualPaper(){
+		final Random random = new Random( 4712 );
+		for(int state = 0; state < NUMBER_OF_STATES; state++){
+			final SublinkStore store = new SublinkStore();
+			final Sublink sublink = createRandomSublink( store, random );
+			final SqrtLTM ltm = createRandomLTM( random, SqrtPrecision.exact );
+			for(int i = 0; i < sublink.getNumberOfPseudoLanes(); i++){
+				final int pseudoLane = sublink.getPseudoLane( i );
+				Assert.assertEquals( "Speed of state " + state, getPaperLaneVMax( ltm, store, pseudoLane, 0. ),
+						ltm.getLaneVMax( store, pseudoLane, 0. ), 0. );
+			}
+		}
+	}
+
+	@Test
+	public void testTabulatedSpeedsAreCloseToExact(){
+		Assert.assertEquals( 0., getMaximumRelativeDeviation( SqrtPrecision.tabulated ), 1e-6 );
+	}
+
+	@Test
+	public void testApproximateSpeedsAreCloseToExact(){
+		Assert.assertEquals( 0., getMaximumRelativeDeviation( SqrtPrecision.approximate ), 0.05 );
+	}
+
+	/**
+	 * @return The largest relative deviation of the lane speeds with <code>precision</code> from the exact ones.
+	 */
+	private static double getMaximumRelativeDeviation( final SqrtPrecision precision ){
+		final Random random = new Random( 4713 );
+		double maxDeviation = 0.;
+		for(int state = 0; state < NUMBER_OF_STATES; state++){
+			final SublinkStore store = new SublinkStore();
+			final Sublink sublink = createRandomSublink( store, random );
+			final double theta_0 = -4. + 4. * random.nextDouble();
+			final double theta_1 = 0.5 + 1.5 * random.nextDouble();
+			final SqrtLTM exact = new SqrtLTM( theta_0, theta_1, 1.73, SqrtPrecision.exact );
+			final SqrtLTM other = new SqrtLTM( theta_0, theta_1, 1.73, precision );
+			for(int i = 0; i < sublink.getNumberOfPseudoLanes(); i++){
+				final double exactSpeed = exact.getLaneVMax( store, sublink.getPseudoLane( i ), 0. );
+				final double otherSpeed = other.getLaneVMax( store, sublink.getPseudoLane( i ), 0. );
+				maxDeviation = Math.max( maxDeviation, Math.abs( otherSpeed / exactSpeed - 1. ) );
+			}
+		}
+		return maxDeviation;
+	}
+
+	/**
+	 * @return A sublink of 1 to 4 pseudolanes, whose pseudolanes have been entered by cyclists at random speeds at random times
+	 * around 0, some of them having left the sublink already.
+	 */
+	private static Sublink createRandomSublink( final SublinkStore store, final Random random ){
+		final double length = 5. + 55. * random.nextDouble();
+		final Sublink sublink = Sublink.createLinkFromNumberOfPseudoLanes( store, 1 + random.nextInt( 4 ), length );
+		for(int i = 0; i < sublink.getNumberOfPseudoLanes(); i++){
+			final int pseudoLane = sublink.getPseudoLane( i );
+			final double tEnd = -10. + 30. * random.nextDouble();
+			store.setTReady( pseudoLane, tEnd - length / (0.5 + 9.5 * random.nextDouble()) );
+			sublink.setTEnd( pseudoLane, tEnd );
+		}
+		return sublink;
+	}
+
+	private static SqrtLTM createRandomLTM( final Random random, final SqrtPrecision precision ){
+		return new SqrtLTM( -4. + 4. * random.nextDouble(), 0.5 + 1.5 * random.nextDouble(), 1.73, precision );
+	}
+
+	/**
+	 * The maximum speed of the pseudolane as given by the four cases of the paper, evaluated as before the square root precision
+	 * became selectable.
+	 */
+	private static double getPaperLaneVMax( final SqrtLTM ltm, final SublinkStore store, final int pseudoLane, final double time ){
+		final double length = store.getLength( pseudoLane );
+		final double constants = ltm.lambda_c + length - ltm.theta_0;
+		if(time >= store.getTEnd( pseudoLane ) - ltm.theta_1*ltm.theta_1/4./constants){
+			return 4*Math.pow((constants/ltm.theta_1),2);
+		}
+		final double speed = length / (store.getTEnd( pseudoLane ) - store.getTReady( pseudoLane ));
+		if( time <= store.getTReady( pseudoLane ) + (ltm.theta_0 + ltm.theta_1 * Math.sqrt( speed ) - ltm.lambda_c) / speed ){
+			return speed;
+		}
+		final double timeDif = store.getTEnd( pseudoLane ) - time;
+		if(timeDif == 0){
+			return Math.pow(constants/ltm.theta_1, 2);
+		}
+		return (ltm.theta_1 * ltm.theta_1  + 2 * timeDif * constants -
+				ltm.theta_1 * Math.sqrt( ltm.theta_1 * ltm.theta_1  + 4 * timeDif * constants))     /
+				(2 * timeDif * timeDif);
+	}
+}
@@ -0,0 +1,131 @@
+package org.matsim.core.mobsim.fff;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.run.BicycleGridFixture;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.FFFConfigGroup.BicycleMobsim;
+import org.matsim.run.RunMatsim;
+import org.matsim.testcases.MatsimTestUtils;
+
+/**
+ * Runs the scenarios of the {@link BicycleGridFixture} through the QSim and through the {@link EventDrivenFFFMobsim}, both with
+ * deterministic tie-breaking, and compares the travel times of the legs.
+ *
+ * @author mpaulsen
+ */
+public class EventDrivenFFFMobsimTest {
+
+	/**
+	 * The smallest share of the legs of the grid whose travel times must be identical in both mobsims.
+	 */
+	private static final double MIN_IDENTICAL_SHARE = 0.9;
+
+	/**
+	 * The largest mean absolute difference [s] of the travel times of the legs of the grid, one time step.
+	 */
+	private static final double MAX_MEAN_DIFFERENCE = BicycleGridFixture.TIME_STEP_SIZE;
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	/**
+	 * Every node of the corridor is passed from a single in-link, so the order in which the nodes process their in-links
+	 * does not matter, and both mobsims give the same travel times.
+	 */
+	@Test public void testEventDrivenEqualsQSimOnCorridor(){
+		final BicycleGridFixture fixture = BicycleGridFixture.createCorridor( new FFFConfigGroup(), 200, 20., 1 );
+		final Map<Id<Person>, List<Double>> qsim = runLegs( fixture, "qsim", BicycleMobsim.qsim );
+		Assert.assertEquals( fixture.getNumberOfTrips(), qsim.size() );
+		Assert.assertEquals( qsim, runLegs( fixture, "eventDriven", BicycleMobsim.eventDriven ) );
+	}
+
+	/**
+	 * On the grid, cyclists from several in-links compete for the same out-link, which the QSim nodes resolve in a random
+	 * order of their in-links, and the engine in the order in which the cyclists have reached the ends of their links, see
+	 * {@link fastOrForcedToFollow.EventDrivenEngine}. This only delays the cyclists involved by a few time steps, so all
+	 * legs are made in both mobsims, at least {@link #MIN_IDENTICAL_SHARE} of them with identical travel times, and the travel
+	 * times differ by at most {@link #MAX_MEAN_DIFFERENCE} on average.
+	 */
+	@Test public void testEventDrivenCloseToQSimOnGrid(){
+		final BicycleGridFixture fixture = new BicycleGridFixture( new FFFConfigGroup(), 400, 1 );
+		final Map<Id<Person>, List<Double>> qsim = runLegs( fixture, "qsim", BicycleMobsim.qsim );
+		final Map<Id<Person>, List<Double>> eventDriven = runLegs( fixture, "eventDriven", BicycleMobsim.eventDriven );
+		Assert.assertEquals( 400, qsim.size() );
+		Assert.assertEquals( qsim.keySet(), eventDriven.keySet() );
+
+		int legs = 0;
+		int identical = 0;
+		double sumOfDifferences = 0.;
+		for( Map.Entry<Id<Person>, List<Double>> entry : qsim.entrySet() ){
+			final List<Double> qsimLegs = entry.getValue();
+			final List<Double> eventDrivenLegs = eventDriven.get( entry.getKey() );
+			Assert.assertEquals( "Legs of person " + entry.getKey(), qsimLegs.size(), eventDrivenLegs.size() );
+			for( int leg = 0; leg < qsimLegs.size(); leg++ ){
+				final double difference = Math.abs( qsimLegs.get( leg ) - eventDrivenLegs.get( leg ) );
+				legs++;
+				if( difference == 0. ){
+					identical++;
+				}
+				sumOfDifferences += difference;
+			}
+		}
+		Assert.assertEquals( fixture.getNumberOfTrips(), legs );
+		Assert.assertTrue( "Only " + identical + " of " + legs + " legs have identical travel times",
+				identical >= MIN_IDENTICAL_SHARE * legs );
+		Assert.assertTrue( "Mean difference of the travel times " + sumOfDifferences / legs + " s",
+				sumOfDifferences / legs <= MAX_MEAN_DIFFERENCE );
+	}
+
+	/**
+	 * Runs the scenario of <code>fixture</code> once, with <code>bicycleMobsim</code>.
+	 *
+	 * @return The travel times of the legs of each person, in the order of the legs.
+	 */
+	private Map<Id<Person>, List<Double>> runLegs( final BicycleGridFixture fixture, final String name,
+			final BicycleMobsim bicycleMobsim ){
+		final Config config = BicycleGridFixture.createConfig( utils.getOutputDirectory() + name );
+		ConfigUtils.addOrGetModule( config, FFFConfigGroup.class ).setBicycleMobsim( bicycleMobsim );
+		final Controler controler = RunMatsim.createControler( fixture.createScenario( config ) );
+		final LegRecorder legs = new LegRecorder();
+		controler.addOverridingModule( new AbstractModule(){
+			@Override public void install(){
+				this.addEventHandlerBinding().toInstance( legs );
+			}
+		} );
+		controler.run();
+		return legs.travelTimes;
+	}
+
+	private static final class LegRecorder implements PersonDepartureEventHandler, PersonArrivalEventHandler {
+		private final Map<Id<Person>, List<Double>> travelTimes = new HashMap<>();
+
+		@Override public void handleEvent( final PersonDepartureEvent event ){
+			travelTimes.computeIfAbsent( event.getPersonId(), personId -> new ArrayList<>() ).add( -event.getTime() );
+		}
+
+		@Override public void handleEvent( final PersonArrivalEvent event ){
+			final List<Double> legs = travelTimes.get( event.getPersonId() );
+			legs.set( legs.size() - 1, legs.get( legs.size() - 1 ) + event.getTime() );
+		}
+
+		@Override public void reset( final int iteration ){
+			travelTimes.clear();
+		}
+	}
+}
@@ -0,0 +1,311 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import fastOrForcedToFollow.Sublink;
+import fastOrForcedToFollow.SublinkStore;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.config.Config;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.mobsim.qsim.interfaces.MobsimVehicle;
+import org.matsim.core.mobsim.qsim.qnetsimengine.MadsQNetworkFactory.BicycleLaneDecorator;
+import org.matsim.lanes.Lane;
+import org.matsim.run.BicycleGridFixture;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.RunMatsim;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleImpl;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleTypeImpl;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Tests that the data structures on the hot path of the bicycle lanes allocate nothing once they have grown to the number of
+ * cyclists on the lane: the {@link CycleHeap}, the {@link PseudoLaneFifoQueue}, the leaving vehicles of a {@link Sublink},
+ * the {@link QCycleList} and the {@link CycleTimingWheel}. Also tests that the sim steps of congested
+ * {@link QCycleLaneWithSublinks}, run by the QSim, allocate nothing. The allocated bytes are measured by the
+ * {@link ThreadMXBean} of the current thread.
+ *
+ * @author mpaulsen
+ */
+public class CycleLaneAllocationTest {
+
+	private static final int NUMBER_OF_CYCLISTS = 300;
+	private static final int NUMBER_OF_PSEUDO_LANES = 3;
+	private static final int STEPS_PER_ROUND = 20000;
+	private static final int WARM_UP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 3;
+
+	/**
+	 * The number of lane steps run before the lane steps are measured, in which classes may still be initialised.
+	 */
+	private static final int WARM_UP_LANE_STEPS = 10000;
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	private final QCycle[] qCycs = new QCycle[NUMBER_OF_CYCLISTS];
+	private final CycleHeap heap = new CycleHeap();
+	private final PseudoLaneFifoQueue fifo = new PseudoLaneFifoQueue( 0, NUMBER_OF_PSEUDO_LANES );
+	private final Sublink sublink = Sublink.createLinkFromNumberOfPseudoLanes( new SublinkStore(), NUMBER_OF_PSEUDO_LANES, 10. );
+	private final QCycleList list = new QCycleList();
+	private final CycleTimingWheel wheel = new CycleTimingWheel();
+	private final Random random = new Random( 4711 );
+
+	private double now = 0.;
+
+	/**
+	 * Counts the exits handed back by the timing wheel.
+	 */
+	private final DueCounter lane = new DueCounter();
+
+	@Test
+	public void testHotPathDoesNotAllocate(){
+		final ThreadMXBean bean = getAllocationBean();
+		final long threadId = Thread.currentThread().getId();
+
+		final VehicleType type = new VehicleTypeImpl( Id.create( TransportMode.bike, VehicleType.class ) );
+		for(int i = 0; i < NUMBER_OF_CYCLISTS; i++){
+			qCycs[i] = new QCycle( new VehicleImpl( Id.create( i, Vehicle.class ), type ), null );
+			list.addLast( qCycs[i] );
+		}
+		wheel.reset( 1., 4 );
+		wheel.advanceTo( 0 );
+
+		for(int round = 0; round < WARM_UP_ROUNDS; round++){
+			runRound();
+		}
+		for(int round = 0; round < MEASURED_ROUNDS; round++){
+			// the allocations of the measurement itself, if any, are measured by an empty round:
+			final long beforeEmpty = bean.getThreadAllocatedBytes( threadId );
+			final long afterEmpty = bean.getThreadAllocatedBytes( threadId );
+			final long before = bean.getThreadAllocatedBytes( threadId );
+			runRound();
+			final long after = bean.getThreadAllocatedBytes( threadId );
+			Assert.assertEquals( "Bytes allocated in round " + round, afterEmpty - beforeEmpty, after - before );
+		}
+		Assert.assertTrue( "The timing wheel has handed back too few exits: " + lane.count, lane.count > STEPS_PER_ROUND );
+	}
+
+	/**
+	 * Runs the congested trips of the fixture through the QSim, measuring the bytes allocated by each sim step of the bicycle
+	 * lanes having at least two cyclists on their sublinks. The steps in which a cyclist leaves the last sublink are not
+	 * measured, as the QSim then allocates for the arrival of the agent or the activation of the node.
+	 */
+	@Test
+	public void testCongestedLaneStepDoesNotAllocate(){
+		final ThreadMXBean bean = getAllocationBean();
+		final BicycleGridFixture fixture = new BicycleGridFixture( new FFFConfigGroup(), 800, 4711 );
+		final Config config = BicycleGridFixture.createConfig( utils.getOutputDirectory() );
+		config.qsim().setNumberOfThreads( 1 );
+		final Controler controler = RunMatsim.createControler( fixture.createScenario( config ) );
+		final StepMeasurement measurement = new StepMeasurement( bean );
+		controler.addOverridingModule( new AbstractModule(){
+			@Override public void install(){
+				this.bind( BicycleLaneDecorator.class ).toInstance( bicycleLane -> new MeasuredLane( bicycleLane, measurement ) );
+			}
+		} );
+		controler.run();
+		Assert.assertTrue( "Too few congested lane steps have been measured: " + measurement.measuredSteps,
+				measurement.measuredSteps > WARM_UP_LANE_STEPS );
+		Assert.assertEquals( "Congested lane steps allocating, e.g. at " + measurement.firstAllocatingLane, 0,
+				measurement.allocatingSteps );
+	}
+
+	private static ThreadMXBean getAllocationBean(){
+		Assume.assumeTrue( "Allocated bytes are not measured by this JVM", ManagementFactory.getThreadMXBean() instanceof ThreadMXBean );
+		final ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue( "Allocated bytes are not measured by this JVM", bean.isThreadAllocatedMemorySupported() );
+		bean.setThreadAllocatedMemoryEnabled( true );
+		return bean;
+	}
+
+	/**
+	 * Runs one second steps in which a few cyclists pass through each of the structures.
+	 */
+	private void runRound(){
+		for(int step = 0; step < STEPS_PER_ROUND; step++){
+			now += 1.;
+			for(int i = 0; i < 4; i++){
+				final QCycle qCyc = qCycs[random.nextInt( NUMBER_OF_CYCLISTS )];
+
+				// a pass through the lane list, as when the cyclist leaves and enters a lane:
+				list.unlink( qCyc );
+				list.addLast( qCyc );
+
+				// a pass through the leaving vehicles of the last sublink:
+				sublink.addVehicleToLeavingVehicles( qCyc );
+				sublink.pollFirstLeavingVehicle();
+
+				// a pass through the queues, with an exit not before the ones queued:
+				qCyc.setCurrentPseudoLane( random.nextInt( NUMBER_OF_PSEUDO_LANES ) );
+				qCyc.setTEarliestExit( now + random.nextInt( 30 ) );
+				heap.add( qCyc );
+				heap.poll();
+				fifo.add( qCyc );
+				fifo.poll();
+
+				// a pass through the timing wheel, scheduled within the fine and coarse wheels and beyond:
+				wheel.schedule( lane, qCyc, now + random.nextInt( i == 0 ? 5000 : 300 ) );
+			}
+			wheel.advanceTo( (long) (4 * now) );
+		}
+	}
+
+	private static final class DueCounter implements CycleLane {
+		private int count = 0;
+
+		@Override public void addDueCyclist( final QCycle qCyc ){
+			count++;
+		}
+
+		@Override public void wakeUp( final double time ){
+		}
+	}
+
+	private static final class StepMeasurement {
+		private final ThreadMXBean bean;
+		private int measuredSteps = 0;
+		private int allocatingSteps = 0;
+		private Id<Lane> firstAllocatingLane = null;
+
+		StepMeasurement( final ThreadMXBean bean ){
+			this.bean = bean;
+		}
+	}
+
+	/**
+	 * Measures the sim steps of a bicycle lane, delegating everything to it.
+	 */
+	private static final class MeasuredLane implements QLaneI {
+		private final QCycleLaneWithSublinks lane;
+		private final StepMeasurement measurement;
+
+		MeasuredLane( final QCycleLaneWithSublinks lane, final StepMeasurement measurement ){
+			this.lane = lane;
+			this.measurement = measurement;
+		}
+
+		@Override public boolean doSimStep(){
+			final CycleLaneVehicles vehicles = (CycleLaneVehicles) lane.getAllVehicles();
+			final int numberOfVehicles = vehicles.size();
+			final int numberOfLeaving = vehicles.getLeavingVehicles().size();
+			final long threadId = Thread.currentThread().getId();
+			// the allocations of the measurement itself, if any, are measured by an empty step:
+			final long beforeEmpty = measurement.bean.getThreadAllocatedBytes( threadId );
+			final long afterEmpty = measurement.bean.getThreadAllocatedBytes( threadId );
+			final long before = measurement.bean.getThreadAllocatedBytes( threadId );
+			final boolean result = lane.doSimStep();
+			final long after = measurement.bean.getThreadAllocatedBytes( threadId );
+			if( numberOfVehicles - numberOfLeaving >= 2 && vehicles.size() == numberOfVehicles
+					&& vehicles.getLeavingVehicles().size() == numberOfLeaving ){
+				measurement.measuredSteps++;
+				if( measurement.measuredSteps > WARM_UP_LANE_STEPS && after - before > afterEmpty - beforeEmpty ){
+					measurement.allocatingSteps++;
+					if( measurement.firstAllocatingLane == null ){
+						measurement.firstAllocatingLane = lane.getId();
+					}
+				}
+			}
+			return result;
+		}
+
+		@Override public Id<Lane> getId(){
+			return lane.getId();
+		}
+
+		@Override public boolean isAcceptingFromUpstream(){
+			return lane.isAcceptingFromUpstream();
+		}
+
+		@Override public void addFromUpstream( final QVehicle veh ){
+			lane.addFromUpstream( veh );
+		}
+
+		@Override public boolean isNotOfferingVehicle(){
+			return lane.isNotOfferingVehicle();
+		}
+
+		@Override public QVehicle popFirstVehicle(){
+			return lane.popFirstVehicle();
+		}
+
+		@Override public QVehicle getFirstVehicle(){
+			return lane.getFirstVehicle();
+		}
+
+		@Override public boolean isAcceptingFromWait( final QVehicle veh ){
+			return lane.isAcceptingFromWait( veh );
+		}
+
+		@Override public void addFromWait( final QVehicle veh ){
+			lane.addFromWait( veh );
+		}
+
+		@Override public boolean isActive(){
+			return lane.isActive();
+		}
+
+		@Override public double getSimulatedFlowCapacityPerTimeStep(){
+			return lane.getSimulatedFlowCapacityPerTimeStep();
+		}
+
+		@Override public void recalcTimeVariantAttributes(){
+			lane.recalcTimeVariantAttributes();
+		}
+
+		@Override public QVehicle getVehicle( final Id<Vehicle> vehicleId ){
+			return lane.getVehicle( vehicleId );
+		}
+
+		@Override public double getStorageCapacity(){
+			return lane.getStorageCapacity();
+		}
+
+		@Override public VisData getVisData(){
+			return lane.getVisData();
+		}
+
+		@Override public void addTransitSlightlyUpstreamOfStop( final QVehicle veh ){
+			lane.addTransitSlightlyUpstreamOfStop( veh );
+		}
+
+		@Override public void changeUnscaledFlowCapacityPerSecond( final double val ){
+			lane.changeUnscaledFlowCapacityPerSecond( val );
+		}
+
+		@Override public void changeEffectiveNumberOfLanes( final double val ){
+			lane.changeEffectiveNumberOfLanes( val );
+		}
+
+		@Override public void clearVehicles(){
+			lane.clearVehicles();
+		}
+
+		@Override public Collection<MobsimVehicle> getAllVehicles(){
+			return lane.getAllVehicles();
+		}
+
+		@Override public double getLastMovementTimeOfFirstVehicle(){
+			return lane.getLastMovementTimeOfFirstVehicle();
+		}
+
+		@Override public double getLoadIndicator(){
+			return lane.getLoadIndicator();
+		}
+
+		@Override public void initBeforeSimStep(){
+			lane.initBeforeSimStep();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleImpl;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleTypeImpl;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Tests the {@link CycleQueue}s of the bicycle lanes against {@link PriorityQueue}, on a congested lane where cyclists mostly
+ * leave their pseudolane in the order in which they have entered it, with many equal exits.
+ *
+ * @author mpaulsen
+ */
+public class CycleQueueTest {
+
+	private static final int FIRST_PSEUDO_LANE = 7;
+	private static final int NUMBER_OF_PSEUDO_LANES = 3;
+	private static final int NUMBER_OF_CYCLISTS = 300;
+	private static final int NUMBER_OF_STEPS = 100000;
+
+	private static final Comparator<QCycle> BY_EXIT = Comparator.comparingDouble( QCycle::getEarliestLinkExitTime );
+	private static final Comparator<QCycle> BY_EXIT_AND_ID = BY_EXIT.thenComparing( CycleHeap::compareTies );
+
+	@Test
+	public void testHeapPollsAsPriorityQueue(){
+		assertSamePolls( new CycleHeap(), BY_EXIT );
+	}
+
+	@Test
+	public void testDeterministicHeapPollsByExitAndId(){
+		assertSamePolls( new CycleHeap( true ), BY_EXIT_AND_ID );
+	}
+
+	@Test
+	public void testDeterministicPseudoLaneFifoQueuePollsByExitAndId(){
+		assertSamePolls( new PseudoLaneFifoQueue( FIRST_PSEUDO_LANE, NUMBER_OF_PSEUDO_LANES, true ), BY_EXIT_AND_ID );
+	}
+
+	@Test
+	public void testPseudoLaneFifoQueuePollsByExit(){
+		final CycleQueue queue = new PseudoLaneFifoQueue( FIRST_PSEUDO_LANE, NUMBER_OF_PSEUDO_LANES );
+		final PriorityQueue<QCycle> reference = new PriorityQueue<>( BY_EXIT );
+		// equal exits may be polled in another order than by the priority queue, so only the exits are compared:
+		runLane( queue, reference, ( polled, expected ) -> Assert.assertEquals( expected.getEarliestLinkExitTime(),
+				polled.getEarliestLinkExitTime(), 0. ) );
+	}
+
+	private static void assertSamePolls( final CycleQueue queue, final Comparator<QCycle> order ){
+		runLane( queue, new PriorityQueue<>( order ), ( polled, expected ) -> Assert.assertSame( expected, polled ) );
+	}
+
+	private interface PollCheck {
+		void check( QCycle polled, QCycle expected );
+	}
+
+	/**
+	 * Lets the cyclists ride the lane for {@link #NUMBER_OF_STEPS} one second steps, adding every cyclist to both queues and
+	 * polling the cyclists that have reached their exit from both of them. Exits are whole seconds; on every pseudolane, a
+	 * cyclist exits at the earliest one second after the one that has entered it before, except that 2% overtake.
+	 */
+	private static void runLane( final CycleQueue queue, final PriorityQueue<QCycle> reference, final PollCheck check ){
+		final Random random = new Random( 4711 );
+		final VehicleType type = new VehicleTypeImpl( Id.create( TransportMode.bike, VehicleType.class ) );
+		final ArrayDeque<QCycle> waiting = new ArrayDeque<>();
+		for(int i = 0; i < NUMBER_OF_CYCLISTS; i++){
+			waiting.add( new QCycle( new VehicleImpl( Id.create( random.nextInt( 1000000 ), Vehicle.class ), type ), null ) );
+		}
+		final double[] tails = new double[NUMBER_OF_PSEUDO_LANES];
+		long polls = 0;
+		for(int now = 0; now < NUMBER_OF_STEPS; now++){
+			for(int entering = random.nextInt( 4 ); entering > 0 && !waiting.isEmpty(); entering--){
+				final QCycle qCyc = waiting.poll();
+				final int lane = random.nextInt( NUMBER_OF_PSEUDO_LANES );
+				double exit = Math.max( now + 5 + random.nextInt( 20 ), tails[lane] + 1 );
+				if( random.nextDouble() < 0.02 ){
+					exit = Math.max( now + 1, tails[lane] - 1 - random.nextInt( 10 ) );
+				} else {
+					tails[lane] = exit;
+				}
+				qCyc.getCyclist().setCurrentPseudoLane( FIRST_PSEUDO_LANE + lane );
+				qCyc.getCyclist().setTEarliestExit( exit );
+				queue.add( qCyc );
+				reference.add( qCyc );
+			}
+			while( !reference.isEmpty() && reference.peek().getEarliestLinkExitTime() <= now ){
+				final QCycle expected = reference.peek();
+				final QCycle polled = queue.poll();
+				check.check( polled, expected );
+				Assert.assertTrue( reference.remove( polled ) );
+				waiting.add( polled );
+				polls++;
+			}
+			Assert.assertEquals( reference.size(), queue.size() );
+		}
+		Assert.assertTrue( "Too few cyclists have been polled: " + polls, polls > NUMBER_OF_STEPS );
+	}
+}
@@ -0,0 +1,98 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.run.BicycleGridFixture;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.RunMatsim;
+import org.matsim.testcases.MatsimTestUtils;
+
+/**
+ * Runs the corridor of the {@link BicycleGridFixture} on links shared by cars and bicycles through the QSim, see
+ * {@link MultimodalLane}.
+ *
+ * @author mpaulsen
+ */
+public class MultimodalLaneTest {
+
+	private static final int NUMBER_OF_CARS = 300;
+
+	/**
+	 * The capacity [veh/h] of the bottleneck of the cars, through which the last car passes after some 9000 s.
+	 */
+	private static final double BOTTLENECK_CAPACITY = 120.;
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	/**
+	 * The cars queue back from their bottleneck over all nodes of the corridor, so the first car of a link often has to wait
+	 * for its next link while cyclists behind it could leave. The cyclists keep passing the nodes, and arrive at the same times
+	 * as without any cars.
+	 */
+	@Test public void testQueueingCarsDoNotHoldBackCyclists(){
+		final BicycleGridFixture fixture = BicycleGridFixture.createCorridor( new FFFConfigGroup(), 200, 20., 1 );
+		final ArrivalRecorder withoutCars = runArrivals( fixture, "withoutCars", 0 );
+		Assert.assertEquals( fixture.getNumberOfTrips(), withoutCars.bicycleArrivals.size() );
+		Assert.assertEquals( 0, withoutCars.carArrivals );
+
+		final ArrivalRecorder withCars = runArrivals( fixture, "withCars", NUMBER_OF_CARS );
+		Assert.assertEquals( NUMBER_OF_CARS, withCars.carArrivals );
+		Assert.assertTrue( "The cars have not queued, the last one arriving at " + withCars.latestCarArrival,
+				withCars.latestCarArrival > 3600. );
+		Assert.assertEquals( withoutCars.bicycleArrivals, withCars.bicycleArrivals );
+	}
+
+	/**
+	 * Runs the corridor once on links shared by <code>numberOfCars</code> cars.
+	 */
+	private ArrivalRecorder runArrivals( final BicycleGridFixture fixture, final String name, final int numberOfCars ){
+		final Config config = BicycleGridFixture.createConfig( utils.getOutputDirectory() + name );
+		ConfigUtils.addOrGetModule( config, FFFConfigGroup.class ).setMultimodalLinks( true );
+		final Controler controler = RunMatsim.createControler(
+				fixture.createScenarioWithCars( config, numberOfCars, BOTTLENECK_CAPACITY ) );
+		final ArrivalRecorder arrivals = new ArrivalRecorder();
+		controler.addOverridingModule( new AbstractModule(){
+			@Override public void install(){
+				this.addEventHandlerBinding().toInstance( arrivals );
+			}
+		} );
+		controler.run();
+		return arrivals;
+	}
+
+	private static final class ArrivalRecorder implements PersonArrivalEventHandler {
+		private final Map<Id<Person>, List<Double>> bicycleArrivals = new HashMap<>();
+		private int carArrivals = 0;
+		private double latestCarArrival = Double.NEGATIVE_INFINITY;
+
+		@Override public void handleEvent( final PersonArrivalEvent event ){
+			if( event.getLegMode().equals( TransportMode.bike ) ){
+				bicycleArrivals.computeIfAbsent( event.getPersonId(), personId -> new ArrayList<>() ).add( event.getTime() );
+			} else {
+				carArrivals++;
+				latestCarArrival = Math.max( latestCarArrival, event.getTime() );
+			}
+		}
+
+		@Override public void reset( final int iteration ){
+			bicycleArrivals.clear();
+			carArrivals = 0;
+			latestCarArrival = Double.NEGATIVE_INFINITY;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package org.matsim.core.mobsim.qsim.qnetsimengine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.run.BicycleGridFixture;
+import org.matsim.run.FFFConfigGroup;
+import org.matsim.run.RunMatsim;
+import org.matsim.testcases.MatsimTestUtils;
+
+/**
+ * Runs the scenarios of the {@link BicycleGridFixture} through the QSim with the bicycle lanes simulated in different ways,
+ * which must give the same arrival times as the full model.
+ *
+ * @author mpaulsen
+ */
+public class QCycleLaneWithSublinksTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	/**
+	 * Adaptive sublinks split the lanes while cyclists are riding on them. As the cyclists of the corridor never interact, the
+	 * coarse and the fine sublinks give the same times, also when the fine sublinks are set up ahead of the cyclists.
+	 */
+	@Test public void testAdaptiveSublinksEqualFineSublinks(){
+		final BicycleGridFixture fixture = BicycleGridFixture.createCorridor( new FFFConfigGroup(), 200, 20., 1 );
+		final Map<Id<Person>, List<Double>> fine = runArrivals( fixture, "fine", fffConfig -> {} );
+		Assert.assertEquals( fixture.getNumberOfTrips(), fine.size() );
+		for( double occupancy : new double[] { 0.001, 0.02 } ){
+			final Map<Id<Person>, List<Double>> adaptive = runArrivals( fixture, "adaptive" + occupancy, fffConfig -> {
+				fffConfig.setAdaptiveSublinks( true );
+				fffConfig.setAdaptiveSublinkOccupancy( occupancy );
+			} );
+			Assert.assertEquals( "occupancy " + occupancy, fine, adaptive );
+		}
+	}
+
+	/**
+	 * Fast-forwarding makes the reservations of the sublinks in the same order as queueing the cyclists for each sublink, so
+	 * with deterministic tie-breaking, the cyclists interacting on the random trips arrive at the same times.
+	 */
+	@Test public void testFastForwardingEqualsStepByStep(){
+		final BicycleGridFixture fixture = new BicycleGridFixture( new FFFConfigGroup(), 400, 1 );
+		final Map<Id<Person>, List<Double>> stepByStep = runArrivals( fixture, "stepByStep", fffConfig -> {} );
+		Assert.assertEquals( 400, stepByStep.size() );
+		final Map<Id<Person>, List<Double>> fastForwarded = runArrivals( fixture, "fastForwarded",
+				fffConfig -> fffConfig.setFastForwardSublinks( true ) );
+		Assert.assertEquals( stepByStep, fastForwarded );
+	}
+
+	/**
+	 * A hybrid lane moves a lone cyclist in free-flow mode, and puts it where the full model would have it once a second cyclist
+	 * enters, so the cyclists arrive at the same times as with the full model throughout.
+	 */
+	@Test public void testHybridLanesEqualFullModel(){
+		final BicycleGridFixture fixture = new BicycleGridFixture( new FFFConfigGroup(), 400, 1 );
+		final Map<Id<Person>, List<Double>> full = runArrivals( fixture, "full", fffConfig -> {} );
+		Assert.assertEquals( 400, full.size() );
+		final Map<Id<Person>, List<Double>> hybrid = runArrivals( fixture, "hybrid", fffConfig -> fffConfig.setHybridLanes( true ) );
+		Assert.assertEquals( full, hybrid );
+	}
+
+	/**
+	 * With deterministic tie-breaking, the bicycle lanes do not depend on the order in which the threads of the QSim queue the
+	 * cyclists, so each person makes the same events with one and with four threads. Only the interleaving of the events of
+	 * different persons within a time step may differ, see {@link FFFConfigGroup#getDeterministicTieBreaking()}.
+	 */
+	@Test public void testDeterministicTieBreakingIsIndependentOfThreads(){
+		final BicycleGridFixture fixture = new BicycleGridFixture( new FFFConfigGroup(), 400, 1 );
+		final Map<String, List<String>> oneThread = runPersonEvents( fixture, "oneThread", 1 );
+		for( int person = 0; person < 400; person++ ){
+			Assert.assertTrue( "No events of person " + person, oneThread.containsKey( String.valueOf( person ) ) );
+		}
+		Assert.assertEquals( oneThread, runPersonEvents( fixture, "fourThreads", 4 ) );
+	}
+
+	/**
+	 * Runs the scenario of <code>fixture</code> once, with the options set by <code>options</code>.
+	 *
+	 * @return The arrival times of each person.
+	 */
+	private Map<Id<Person>, List<Double>> runArrivals( final BicycleGridFixture fixture, final String name,
+			final Consumer<FFFConfigGroup> options ){
+		final Config config = BicycleGridFixture.createConfig( utils.getOutputDirectory() + name );
+		options.accept( ConfigUtils.addOrGetModule( config, FFFConfigGroup.class ) );
+		final Controler controler = RunMatsim.createControler( fixture.createScenario( config ) );
+		final ArrivalRecorder arrivals = new ArrivalRecorder();
+		controler.addOverridingModule( new AbstractModule(){
+			@Override public void install(){
+				this.addEventHandlerBinding().toInstance( arrivals );
+			}
+		} );
+		controler.run();
+		return arrivals.times;
+	}
+
+	/**
+	 * Runs the scenario of <code>fixture</code> once, with <code>numberOfThreads</code> threads of the QSim.
+	 *
+	 * @return The events of each person, and those of each vehicle not naming a person, by the id of the person or the vehicle,
+	 * in the order thrown.
+	 */
+	private Map<String, List<String>> runPersonEvents( final BicycleGridFixture fixture, final String name,
+			final int numberOfThreads ){
+		final Config config = BicycleGridFixture.createConfig( utils.getOutputDirectory() + name );
+		config.qsim().setNumberOfThreads( numberOfThreads );
+		final Controler controler = RunMatsim.createControler( fixture.createScenario( config ) );
+		final PersonEventRecorder events = new PersonEventRecorder();
+		controler.addOverridingModule( new AbstractModule(){
+			@Override public void install(){
+				this.addEventHandlerBinding().toInstance( events );
+			}
+		} );
+		controler.run();
+		return events.events;
+	}
+
+	private static final class PersonEventRecorder implements BasicEventHandler {
+		private final Map<String, List<String>> events = new HashMap<>();
+
+		@Override public synchronized void handleEvent( final Event event ){
+			final Map<String, String> attributes = event.getAttributes();
+			String id = attributes.get( PersonDepartureEvent.ATTRIBUTE_PERSON );
+			if( id == null ){
+				id = attributes.get( LinkEnterEvent.ATTRIBUTE_VEHICLE );
+			}
+			if( id != null ){
+				events.computeIfAbsent( id, personId -> new ArrayList<>() ).add( attributes.toString() );
+			}
+		}
+
+		@Override public void reset( final int iteration ){
+			events.clear();
+		}
+	}
+
+	private static final class ArrivalRecorder implements PersonArrivalEventHandler {
+		private final Map<Id<Person>, List<Double>> times = new HashMap<>();
+
+		@Override public void handleEvent( final PersonArrivalEvent event ){
+			times.computeIfAbsent( event.getPersonId(), personId -> new ArrayList<>() ).add( event.getTime() );
+		}
+
+		@Override public void reset( final int iteration ){
+			times.clear();
+		}
+	}
+}
@@ -0,0 +1,447 @@
+package org.matsim.run;
+
+import fastOrForcedToFollow.Cyclist;
+import fastOrForcedToFollow.CyclistArchetypes;
+import fastOrForcedToFollow.EventDrivenEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ActivityParams;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ModeParams;
+import org.matsim.core.config.groups.QSimConfigGroup;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.mobsim.fff.CyclistRegistry;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleTypeImpl;
+
+/**
+ * A small synthetic bicycle network and population shared by the tests: a grid of {@link #WIDTH} x {@link #WIDTH} nodes,
+ * neighbouring nodes being connected by a link in each direction, with random lengths and numbers of pseudolanes. Every
+ * person makes a chain of up to three trips on random routes, the first one departing within the first half hour, and has
+ * cyclist parameters drawn as by {@link RunMatsim#addCyclistAttributes}. The fixture is random, but fixed by its seed.
+ *
+ * The fixture can be run by the engines directly, see {@link #createEngine()}, and by the QSim, see {@link #createConfig(String)}
+ * and {@link #createScenario(Config)}.
+ *
+ * @author mpaulsen
+ */
+public final class BicycleGridFixture {
+
+	public static final int WIDTH = 5;
+
+	/**
+	 * The time step size [s] and stuck time [s] of the mobsims of the fixture.
+	 */
+	public static final double TIME_STEP_SIZE = 1.;
+	public static final double STUCK_TIME = 10.;
+
+	/**
+	 * The freespeed [m/s] and capacity [veh/h] of the links shared by cars, see
+	 * {@link #createScenarioWithCars(Config, int, double)}.
+	 */
+	private static final double CAR_FREESPEED = 50. / 3.6;
+	private static final double CAR_CAPACITY = 1800.;
+
+	/**
+	 * The distance [m] between neighbouring nodes, which is not related to the lengths of the links.
+	 */
+	private static final double NODE_SPACING = 200.;
+
+	/**
+	 * The desired speed [m/s] of the cyclists of a {@link #createCorridor(FFFConfigGroup, int, double) corridor}, irrational
+	 * such that their link exits never fall on a time step.
+	 */
+	private static final double CORRIDOR_SPEED = Math.sqrt( 20. );
+
+	private static final String FIRST_ACTIVITY = "home";
+	private static final String OTHER_ACTIVITY = "work";
+
+	private static final int[][] DIRECTIONS = { {1,0}, {-1,0}, {0,1}, {0,-1} };
+
+	private final FFFConfigGroup fffConfig;
+
+	/**
+	 * The archetypes of the cyclists of the engines, made with the settings of the configuration at the creation of the fixture,
+	 * as the {@link CyclistRegistry} of the mobsims does.
+	 */
+	private final CyclistArchetypes archetypes;
+
+	// Links:
+	private final List<Integer> fromNodes = new ArrayList<>();
+	private final List<Integer> toNodes = new ArrayList<>();
+	private final double[] lengths;
+	private final int[] numbersOfPseudoLanes;
+
+	// Trips, each person making the trips from its first trip up to the first trip of the next person:
+	private final List<Integer> firstTrips = new ArrayList<>();
+	private final List<int[]> routes = new ArrayList<>();
+	private final List<Double> plannedDepartureTimes = new ArrayList<>();
+	private final List<Double> activityDurations = new ArrayList<>();
+	private final List<Integer> previousTrips = new ArrayList<>();
+
+	// Persons:
+	private final List<double[]> parameters = new ArrayList<>();
+
+	/**
+	 * @param fffConfig The configuration from which the cyclist parameters are drawn, which is also used by the mobsims.
+	 */
+	public BicycleGridFixture( final FFFConfigGroup fffConfig, final int numberOfPersons, final long seed ){
+		this( fffConfig, numberOfPersons, new Random( seed ) );
+	}
+
+	private BicycleGridFixture( final FFFConfigGroup fffConfig, final int numberOfPersons, final Random random ){
+		this( fffConfig, random );
+		for(int person = 0; person < numberOfPersons; person++){
+			final double v_0 = Math.max( RunMatsim.uniformToJohnson( random.nextDouble(), fffConfig ),
+					fffConfig.getMinimumAllowedDesiredSpeed() );
+			addPerson( v_0, random.nextDouble() );
+			int link = random.nextInt( lengths.length );
+			final int numberOfTrips = 1 + random.nextInt( 3 );
+			for(int trip = 0; trip < numberOfTrips; trip++){
+				final int[] route = createRandomRoute( link, random );
+				if( trip == 0 ){
+					addTrip( route, random.nextInt( 1800 ), -1, 0. );
+				} else {
+					addTrip( route, Double.NaN, routes.size() - 1, 60. * random.nextInt( 10 ) );
+				}
+				link = route[route.length - 1];
+			}
+		}
+	}
+
+	/**
+	 * Creates the network of the fixture, without any trips.
+	 */
+	private BicycleGridFixture( final FFFConfigGroup fffConfig, final Random random ){
+		this.fffConfig = fffConfig;
+		this.archetypes = new CyclistArchetypes( fffConfig );
+		for(int node = 0; node < WIDTH * WIDTH; node++){
+			for(int[] direction : DIRECTIONS){
+				final int x = node % WIDTH + direction[0];
+				final int y = node / WIDTH + direction[1];
+				if( x >= 0 && y >= 0 && x < WIDTH && y < WIDTH ){
+					fromNodes.add( node );
+					toNodes.add( y * WIDTH + x );
+				}
+			}
+		}
+		this.lengths = new double[fromNodes.size()];
+		this.numbersOfPseudoLanes = new int[fromNodes.size()];
+		for(int link = 0; link < lengths.length; link++){
+			lengths[link] = 50. + random.nextInt( 300 );
+			numbersOfPseudoLanes[link] = 1 + random.nextInt( 2 );
+		}
+	}
+
+	/**
+	 * @return A fixture on the network of the given seed, in which <code>numberOfPersons</code> identical cyclists make a single
+	 * trip each along the bottom row and up the right column of the grid, departing <code>headway</code> seconds apart. With a
+	 * headway far above the safety time of the cyclists, they never interact, but are still on the same links at the same time.
+	 */
+	public static BicycleGridFixture createCorridor( final FFFConfigGroup fffConfig, final int numberOfPersons,
+			final double headway, final long seed ){
+		final BicycleGridFixture fixture = new BicycleGridFixture( fffConfig, new Random( seed ) );
+		final int[] route = new int[2 * (WIDTH-1)];
+		for(int i = 0; i < WIDTH-1; i++){
+			route[i] = fixture.getLink( i, i + 1 );
+			route[WIDTH-1 + i] = fixture.getLink( (i+1) * WIDTH - 1, (i+2) * WIDTH - 1 );
+		}
+		for(int person = 0; person < numberOfPersons; person++){
+			fixture.addPerson( CORRIDOR_SPEED, 0.5 );
+			fixture.addTrip( route.clone(), 60. + person * headway, -1, 0. );
+		}
+		return fixture;
+	}
+
+	private int getLink( final int fromNode, final int toNode ){
+		for(int link = 0; link < lengths.length; link++){
+			if( fromNodes.get( link ) == fromNode && toNodes.get( link ) == toNode ){
+				return link;
+			}
+		}
+		throw new RuntimeException( "No link from node " + fromNode + " to node " + toNode + "." );
+	}
+
+	private void addPerson( final double v_0, final double z_c ){
+		parameters.add( new double[] { v_0, fffConfig.getTheta_0() + z_c * fffConfig.getZeta_0(),
+				fffConfig.getTheta_1() + z_c * fffConfig.getZeta_1(), fffConfig.getLambda_c() } );
+		firstTrips.add( routes.size() );
+	}
+
+	/**
+	 * @return A route of 2 to 12 links starting with <code>firstLink</code>, never turning back on the link it came from.
+	 */
+	private int[] createRandomRoute( final int firstLink, final Random random ){
+		final int[] route = new int[2 + random.nextInt( 11 )];
+		route[0] = firstLink;
+		for(int i = 1; i < route.length; i++){
+			final int node = toNodes.get( route[i-1] );
+			int next;
+			do {
+				next = random.nextInt( lengths.length );
+			} while( fromNodes.get( next ) != node || toNodes.get( next ).equals( fromNodes.get( route[i-1] ) ) );
+			route[i] = next;
+		}
+		return route;
+	}
+
+	private void addTrip( final int[] route, final double plannedDepartureTime, final int previousTrip, final double activityDuration ){
+		routes.add( route );
+		plannedDepartureTimes.add( plannedDepartureTime );
+		previousTrips.add( previousTrip );
+		activityDurations.add( activityDuration );
+	}
+
+	public FFFConfigGroup getFFFConfig(){
+		return fffConfig;
+	}
+
+	public int getNumberOfLinks(){
+		return lengths.length;
+	}
+
+	public double[] getLengths(){
+		return lengths.clone();
+	}
+
+	public int[] getNumbersOfPseudoLanes(){
+		return numbersOfPseudoLanes.clone();
+	}
+
+	public int getNumberOfTrips(){
+		return routes.size();
+	}
+
+	public int[] getRoute( final int trip ){
+		return routes.get( trip ).clone();
+	}
+
+	/**
+	 * @return The departure time [s] of the trip, or {@link Double#NaN} if it departs after the previous trip of its person.
+	 */
+	public double getPlannedDepartureTime( final int trip ){
+		return plannedDepartureTimes.get( trip );
+	}
+
+	/**
+	 * @return The previous trip of the person making the trip, or -1 if it is the first one.
+	 */
+	public int getPreviousTrip( final int trip ){
+		return previousTrips.get( trip );
+	}
+
+	/**
+	 * @return The duration [s] of the activity before the trip, if it is not the first one of its person.
+	 */
+	public double getActivityDuration( final int trip ){
+		return activityDurations.get( trip );
+	}
+
+	/**
+	 * @return The desired speed, theta_0, theta_1 and lambda_c of the cyclist making the trip.
+	 */
+	public double[] getCyclistParameters( final int trip ){
+		int person = firstTrips.size() - 1;
+		while( firstTrips.get( person ) > trip ){
+			person--;
+		}
+		return parameters.get( person ).clone();
+	}
+
+	public Cyclist createCyclist( final int trip ){
+		final double[] p = getCyclistParameters( trip );
+		return archetypes.createCyclist( p[0], p[1], p[2], p[3] );
+	}
+
+	/**
+	 * @return An engine holding the network and the trips of the fixture, not yet run.
+	 */
+	public EventDrivenEngine createEngine(){
+		final EventDrivenEngine engine = new EventDrivenEngine( lengths, numbersOfPseudoLanes, fffConfig, TIME_STEP_SIZE, STUCK_TIME );
+		for(int trip = 0; trip < getNumberOfTrips(); trip++){
+			engine.addTrip( createCyclist( trip ), getRoute( trip ), getPlannedDepartureTime( trip ), getPreviousTrip( trip ),
+					getActivityDuration( trip ) );
+		}
+		return engine;
+	}
+
+	/**
+	 * @return A config for running the scenario of a fixture once, with the time step size and stuck time of the fixture, and an
+	 * {@link FFFConfigGroup} with the sublinks of the Copenhagen runs and deterministic tie-breaking, such that runs differing in
+	 * other options can be compared person by person.
+	 */
+	public static Config createConfig( final String outputDirectory ){
+		final Config config = ConfigUtils.createConfig();
+		config.controler().setOutputDirectory( outputDirectory );
+		config.controler().setOverwriteFileSetting( OverwriteFileSetting.deleteDirectoryIfExists );
+		config.controler().setLastIteration( 0 );
+		config.controler().setCreateGraphs( false );
+		config.controler().setDumpDataAtEnd( false );
+
+		config.qsim().setTimeStepSize( TIME_STEP_SIZE );
+		config.qsim().setStuckTime( STUCK_TIME );
+		config.qsim().setEndTime( 24. * 3600. );
+		final List<String> networkModes = Arrays.asList( TransportMode.car, TransportMode.bike );
+		config.qsim().setMainModes( networkModes );
+		config.qsim().setVehiclesSource( QSimConfigGroup.VehiclesSource.modeVehicleTypesFromVehiclesData );
+		config.plansCalcRoute().removeModeRoutingParams( TransportMode.bike );
+		config.plansCalcRoute().setNetworkModes( networkModes );
+		config.travelTimeCalculator().setAnalyzedModes( TransportMode.car + "," + TransportMode.bike );
+
+		config.planCalcScore().addModeParams( new ModeParams( TransportMode.bike ) );
+		for( String activityType : Arrays.asList( FIRST_ACTIVITY, OTHER_ACTIVITY ) ){
+			final ActivityParams params = new ActivityParams( activityType );
+			params.setTypicalDuration( 3600. );
+			config.planCalcScore().addActivityParams( params );
+		}
+
+		final FFFConfigGroup fffConfig = ConfigUtils.addOrGetModule( config, FFFConfigGroup.class );
+		fffConfig.setLMax( 60. );
+		fffConfig.setDeterministicTieBreaking( true );
+		return config;
+	}
+
+	/**
+	 * @return A scenario of the network and the trips of the fixture, each link being a bicycle link with the nodes at its ends,
+	 * and each person having a plan of its trips as legs between activities at the ends of their routes. The cyclist
+	 * parameters are the ones of the fixture, not drawn again by the {@link FFFConfigGroup} of <code>config</code>.
+	 */
+	public Scenario createScenario( final Config config ){
+		final Scenario scenario = ScenarioUtils.createScenario( config );
+		final Network network = scenario.getNetwork();
+		final NetworkFactory nf = network.getFactory();
+		for(int node = 0; node < WIDTH * WIDTH; node++){
+			network.addNode( nf.createNode( Id.createNodeId( node ),
+					new Coord( NODE_SPACING * (node % WIDTH), NODE_SPACING * (node / WIDTH) ) ) );
+		}
+		for(int link = 0; link < lengths.length; link++){
+			final Link bikeLink = nf.createLink( Id.createLinkId( link ), network.getNodes().get( Id.createNodeId( fromNodes.get( link ) ) ),
+					network.getNodes().get( Id.createNodeId( toNodes.get( link ) ) ) );
+			bikeLink.setLength( lengths[link] );
+			bikeLink.setFreespeed( Double.MAX_VALUE );
+			bikeLink.setCapacity( Double.MAX_VALUE );
+			bikeLink.setNumberOfLanes( numbersOfPseudoLanes[link] );
+			bikeLink.setAllowedModes( Collections.singleton( TransportMode.bike ) );
+			network.addLink( bikeLink );
+		}
+
+		final PopulationFactory pf = scenario.getPopulation().getFactory();
+		for(int person = 0; person < firstTrips.size(); person++){
+			final Person p = pf.createPerson( Id.createPersonId( person ) );
+			final double[] cyclistParameters = parameters.get( person );
+			p.getAttributes().putAttribute( RunMatsim.DESIRED_SPEED, cyclistParameters[0] );
+			p.getAttributes().putAttribute( RunMatsim.HEADWAY_DISTANCE_INTERCEPT, cyclistParameters[1] );
+			p.getAttributes().putAttribute( RunMatsim.HEADWAY_DISTANCE_SLOPE, cyclistParameters[2] );
+			p.getAttributes().putAttribute( RunMatsim.BICYCLE_LENGTH, cyclistParameters[3] );
+
+			final Plan plan = pf.createPlan();
+			final int lastTrip = person + 1 < firstTrips.size() ? firstTrips.get( person + 1 ) : routes.size();
+			final int firstTrip = firstTrips.get( person );
+			Activity activity = createActivity( pf, FIRST_ACTIVITY, routes.get( firstTrip )[0], network );
+			for(int trip = firstTrip; trip < lastTrip; trip++){
+				if( trip == firstTrip ){
+					activity.setEndTime( plannedDepartureTimes.get( trip ) );
+				} else {
+					activity.setMaximumDuration( activityDurations.get( trip ) );
+				}
+				plan.addActivity( activity );
+				final int[] route = routes.get( trip );
+				final List<Id<Link>> linkIds = new ArrayList<>();
+				for(int routeIndex = 1; routeIndex < route.length - 1; routeIndex++){
+					linkIds.add( Id.createLinkId( route[routeIndex] ) );
+				}
+				final Leg leg = pf.createLeg( TransportMode.bike );
+				leg.setRoute( RouteUtils.createLinkNetworkRouteImpl( Id.createLinkId( route[0] ), linkIds,
+						Id.createLinkId( route[route.length - 1] ) ) );
+				plan.addLeg( leg );
+				activity = createActivity( pf, OTHER_ACTIVITY, route[route.length - 1], network );
+			}
+			plan.addActivity( activity );
+			p.addPlan( plan );
+			p.setSelectedPlan( plan );
+			scenario.getPopulation().addPerson( p );
+		}
+
+		scenario.getVehicles().addVehicleType( new VehicleTypeImpl( Id.create( TransportMode.car, VehicleType.class ) ) );
+		scenario.getVehicles().addVehicleType( new VehicleTypeImpl( Id.create( TransportMode.bike, VehicleType.class ) ) );
+		CyclistRegistry.addToScenario( scenario );
+		return scenario;
+	}
+
+	/**
+	 * @return The scenario of {@link #createScenario(Config)}, but with every link shared by cars (see
+	 * {@link FFFConfigGroup#getMultimodalLinks()}), and <code>numberOfCars</code> more persons driving a car, one per second
+	 * from time 0, onto the route of the first trip and along it. They enter the route from another link, so that they do not
+	 * depart from the waiting list of the link the cyclists depart from. The second to last link of the route is a bottleneck
+	 * of <code>bottleneckCapacity</code> [veh/h] for the cars, such that they queue back over the nodes of the route.
+	 */
+	public Scenario createScenarioWithCars( final Config config, final int numberOfCars, final double bottleneckCapacity ){
+		final Scenario scenario = createScenario( config );
+		final Network network = scenario.getNetwork();
+		for(int link = 0; link < lengths.length; link++){
+			final Link sharedLink = network.getLinks().get( Id.createLinkId( link ) );
+			sharedLink.setFreespeed( CAR_FREESPEED );
+			sharedLink.setCapacity( CAR_CAPACITY );
+			sharedLink.setNumberOfLanes( 1. );
+			sharedLink.getAttributes().putAttribute( RunMatsim.NUMBER_OF_BICYCLE_LANES, numbersOfPseudoLanes[link] );
+			sharedLink.setAllowedModes( new HashSet<>( Arrays.asList( TransportMode.car, TransportMode.bike ) ) );
+		}
+		final int[] route = routes.get( 0 );
+		network.getLinks().get( Id.createLinkId( route[route.length - 2] ) ).setCapacity( bottleneckCapacity );
+		final int entryNode = fromNodes.get( route[0] );
+		int entryLink = 0;
+		while( toNodes.get( entryLink ) != entryNode || fromNodes.get( entryLink ).equals( toNodes.get( route[0] ) ) ){
+			entryLink++;
+		}
+
+		final PopulationFactory pf = scenario.getPopulation().getFactory();
+		for(int car = 0; car < numberOfCars; car++){
+			final Person p = pf.createPerson( Id.createPersonId( TransportMode.car + car ) );
+			final Plan plan = pf.createPlan();
+			final Activity activity = createActivity( pf, FIRST_ACTIVITY, entryLink, network );
+			activity.setEndTime( car );
+			plan.addActivity( activity );
+			final List<Id<Link>> linkIds = new ArrayList<>();
+			for(int routeIndex = 0; routeIndex < route.length - 1; routeIndex++){
+				linkIds.add( Id.createLinkId( route[routeIndex] ) );
+			}
+			final Leg leg = pf.createLeg( TransportMode.car );
+			leg.setRoute( RouteUtils.createLinkNetworkRouteImpl( Id.createLinkId( entryLink ), linkIds,
+					Id.createLinkId( route[route.length - 1] ) ) );
+			plan.addLeg( leg );
+			plan.addActivity( createActivity( pf, OTHER_ACTIVITY, route[route.length - 1], network ) );
+			p.addPlan( plan );
+			p.setSelectedPlan( plan );
+			scenario.getPopulation().addPerson( p );
+		}
+		return scenario;
+	}
+
+	private static Activity createActivity( final PopulationFactory pf, final String type, final int link, final Network network ){
+		final Id<Link> linkId = Id.createLinkId( link );
+		final Activity activity = pf.createActivityFromLinkId( type, linkId );
+		activity.setCoord( network.getLinks().get( linkId ).getToNode().getCoord() );
+		return activity;
+	}
+}